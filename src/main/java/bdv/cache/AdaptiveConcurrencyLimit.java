@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+/**
+ * Adaptive limit on the number of concurrent loads of one client of a
+ * {@link SharedQueue} (additive increase, multiplicative decrease).
+ * <p>
+ * Load latencies are aggregated over intervals of at least
+ * {@link #INTERVAL_NANOS}. At the end of each interval, the limit is
+ * <ul>
+ * <li>decreased by factor {@link #BACKOFF}, if the mean latency exceeded
+ * {@link #TOLERANCE} times the lowest observed mean latency (that is, the
+ * backend is overloaded and requests are queueing there), or otherwise</li>
+ * <li>increased by 1, if the limit was reached while requests were pending
+ * (that is, more concurrency might increase throughput).</li>
+ * </ul>
+ * By Little's law, the concurrency needed to sustain throughput {@code X} at
+ * latency {@code R} is {@code X * R}. Latency-bound backends (e.g., network
+ * storage) therefore settle at high limits, while CPU-bound backends (e.g.,
+ * local storage with expensive decompression) settle at limits where
+ * additional concurrent loads would only add latency.
+ */
+class AdaptiveConcurrencyLimit
+{
+	static final long INTERVAL_NANOS = 200_000_000L;
+
+	static final int MIN_SAMPLES = 4;
+
+	static final double TOLERANCE = 2.0;
+
+	static final double BACKOFF = 0.75;
+
+	/**
+	 * The lowest observed latency is allowed to drift upwards by this factor
+	 * per interval, so that the limit recovers if the backend becomes slower
+	 * permanently.
+	 */
+	static final double MIN_LATENCY_DRIFT = 1.02;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private double limit;
+
+	private double minLatency = Double.POSITIVE_INFINITY;
+
+	private long intervalStart;
+
+	private int samples;
+
+	private long latencySum;
+
+	private boolean saturated;
+
+	private double throughput;
+
+	private double latency;
+
+	AdaptiveConcurrencyLimit( final int initialLimit, final int minLimit, final int maxLimit, final long now )
+	{
+		this.minLimit = Math.max( 1, minLimit );
+		this.maxLimit = Math.max( this.minLimit, maxLimit );
+		this.limit = Math.min( this.maxLimit, Math.max( this.minLimit, initialLimit ) );
+		this.intervalStart = now;
+	}
+
+	int getLimit()
+	{
+		return ( int ) limit;
+	}
+
+	/**
+	 * Loads completed per second, in the last interval.
+	 */
+	double getThroughput()
+	{
+		return throughput;
+	}
+
+	/**
+	 * Mean load latency in nanoseconds, in the last interval.
+	 */
+	double getLatency()
+	{
+		return latency;
+	}
+
+	/**
+	 * Record a completed load.
+	 *
+	 * @param latencyNanos
+	 *            how long the load took
+	 * @param saturated
+	 *            whether the limit was reached while requests were pending
+	 * @param now
+	 *            current {@code System.nanoTime()}
+	 *
+	 * @return whether the limit changed.
+	 */
+	boolean completed( final long latencyNanos, final boolean saturated, final long now )
+	{
+		++samples;
+		latencySum += latencyNanos;
+		this.saturated |= saturated;
+		final long elapsed = now - intervalStart;
+		if ( elapsed < INTERVAL_NANOS || samples < MIN_SAMPLES )
+			return false;
+
+		latency = ( double ) latencySum / samples;
+		throughput = samples * 1e9 / elapsed;
+		final int oldLimit = getLimit();
+		if ( latency > TOLERANCE * minLatency )
+			limit = Math.max( minLimit, limit * BACKOFF );
+		else if ( this.saturated )
+			limit = Math.min( maxLimit, limit + 1 );
+		minLatency = Math.min( latency, minLatency * MIN_LATENCY_DRIFT );
+
+		intervalStart = now;
+		samples = 0;
+		latencySum = 0;
+		this.saturated = false;
+		return getLimit() != oldLimit;
+	}
+}
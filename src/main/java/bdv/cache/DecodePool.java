@@ -0,0 +1,353 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+/**
+ * A pool of threads for the CPU-bound part of loading cells (decompressing
+ * and converting blocks).
+ * <p>
+ * Fetcher threads do the IO-bound part (reading the stored bytes) and hand
+ * the rest over to the {@code DecodePool} with {@link #decode(Callable)}. The
+ * number of fetcher threads can then be sized for the storage latency (many
+ * threads for network storage), independently of the number of threads
+ * competing for the CPU, which is sized for the number of cores.
+ * <p>
+ * At most {@code numThreads + queueCapacity} tasks are accepted at any time.
+ * If the queue is full, {@link #decode(Callable)} blocks until a task
+ * completes. This throttles fetcher threads that read faster than blocks can
+ * be decoded.
+ */
+public class DecodePool
+{
+	private final int numThreads;
+
+	private final int queueCapacity;
+
+	private final ExecutorService executor;
+
+	private final Semaphore permits;
+
+	private final LongAdder tasksCompleted = new LongAdder();
+
+	private final LongAdder tasksFailed = new LongAdder();
+
+	private final LongAdder busyNanos = new LongAdder();
+
+	private final LongAdder blockedNanos = new LongAdder();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final long startNanos = System.nanoTime();
+
+	private volatile boolean shutdown;
+
+	private ObjectName mbeanName;
+
+	/**
+	 * Create a pool with {@code numThreads} threads, and a queue capacity of
+	 * {@code 2 * numThreads}.
+	 */
+	public DecodePool( final int numThreads )
+	{
+		this( numThreads, 2 * numThreads );
+	}
+
+	public DecodePool( final int numThreads, final int queueCapacity )
+	{
+		if ( numThreads < 1 )
+			throw new IllegalArgumentException( "numThreads must be at least 1" );
+		this.numThreads = numThreads;
+		this.queueCapacity = Math.max( 0, queueCapacity );
+		executor = Executors.newFixedThreadPool( numThreads, defaultThreadFactory() );
+		permits = new Semaphore( numThreads + this.queueCapacity );
+	}
+
+	/**
+	 * Create a pool with one thread per available processor.
+	 */
+	public static DecodePool forAvailableProcessors()
+	{
+		return new DecodePool( Math.max( 1, Runtime.getRuntime().availableProcessors() ) );
+	}
+
+	private static ThreadFactory defaultThreadFactory()
+	{
+		final AtomicInteger index = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread( r, "Decoder-" + index.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
+		};
+	}
+
+	/**
+	 * Run {@code task} in the pool and wait for its result. Blocks while the
+	 * pool is saturated.
+	 * <p>
+	 * If the calling thread is interrupted, the task is cancelled and an
+	 * {@code InterruptedIOException} is thrown (with the interrupted flag
+	 * set).
+	 *
+	 * @throws IOException
+	 *             if {@code task} throws an {@code IOException} (or any other
+	 *             checked exception, which is wrapped), or if the pool is (or
+	 *             is being) {@link #shutdown() shut down} before {@code task}
+	 *             completes.
+	 */
+	public < T > T decode( final Callable< T > task ) throws IOException
+	{
+		checkNotShutdown();
+		final long t0 = System.nanoTime();
+		try
+		{
+			permits.acquire();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		blockedNanos.add( System.nanoTime() - t0 );
+		if ( shutdown )
+		{
+			permits.release();
+			checkNotShutdown();
+		}
+
+		// the permit is released when the task completes or is cancelled
+		final FutureTask< T > future = new FutureTask< T >( () -> run( task ) )
+		{
+			@Override
+			protected void done()
+			{
+				permits.release();
+			}
+		};
+		try
+		{
+			executor.execute( future );
+		}
+		catch ( final RejectedExecutionException e )
+		{
+			permits.release();
+			throw new IOException( "DecodePool is shut down", e );
+		}
+		catch ( final RuntimeException e )
+		{
+			permits.release();
+			throw e;
+		}
+
+		try
+		{
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			future.cancel( true );
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		catch ( final CancellationException e )
+		{
+			// only shutdown() cancels tasks that the caller is waiting for
+			throw new IOException( "DecodePool is shut down", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			if ( cause instanceof RuntimeException )
+				throw ( RuntimeException ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw new IOException( cause );
+		}
+	}
+
+	private void checkNotShutdown() throws IOException
+	{
+		if ( shutdown )
+			throw new IOException( "DecodePool is shut down" );
+	}
+
+	private < T > T run( final Callable< T > task ) throws Exception
+	{
+		active.incrementAndGet();
+		final long t0 = System.nanoTime();
+		try
+		{
+			final T result = task.call();
+			tasksCompleted.increment();
+			return result;
+		}
+		catch ( final Exception | Error e )
+		{
+			tasksFailed.increment();
+			throw e;
+		}
+		finally
+		{
+			busyNanos.add( System.nanoTime() - t0 );
+			active.decrementAndGet();
+		}
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	/**
+	 * Get a snapshot of the state and cumulative counters of this pool.
+	 */
+	public DecodePoolStats getStats()
+	{
+		final int accepted = numThreads + queueCapacity - permits.availablePermits();
+		final int activeNow = active.get();
+		return new DecodePoolStats(
+				numThreads,
+				queueCapacity,
+				Math.max( 0, accepted - activeNow ),
+				activeNow,
+				tasksCompleted.sum(),
+				tasksFailed.sum(),
+				busyNanos.sum(),
+				blockedNanos.sum(),
+				System.nanoTime() - startNanos );
+	}
+
+	/**
+	 * Stop the pool threads. Tasks that are still queued are not run, but
+	 * cancelled, such that the fetchers waiting for them fail with an
+	 * {@code IOException}. Subsequent {@link #decode(Callable)} calls fail
+	 * immediately.
+	 */
+	public void shutdown()
+	{
+		shutdown = true;
+		for ( final Runnable r : executor.shutdownNow() )
+			( ( Future< ? > ) r ).cancel( false );
+		unregisterMBean();
+	}
+
+	/**
+	 * Publish the statistics of this pool as an MBean named
+	 * {@code bdv.cache:type=DecodePool,name=<name>}. The MBean is
+	 * unregistered on {@link #shutdown()}.
+	 *
+	 * @return the name under which the MBean was registered.
+	 */
+	public synchronized ObjectName registerMBean( final String name )
+	{
+		unregisterMBean();
+		mbeanName = MBeans.register( new MXBean(), "DecodePool", name );
+		return mbeanName;
+	}
+
+	public synchronized void unregisterMBean()
+	{
+		MBeans.unregister( mbeanName );
+		mbeanName = null;
+	}
+
+	private class MXBean implements DecodePoolMXBean
+	{
+		@Override
+		public int getNumThreads()
+		{
+			return numThreads;
+		}
+
+		@Override
+		public int getQueueCapacity()
+		{
+			return queueCapacity;
+		}
+
+		@Override
+		public int getQueueDepth()
+		{
+			return getStats().getQueueDepth();
+		}
+
+		@Override
+		public int getActiveTasks()
+		{
+			return getStats().getActiveTasks();
+		}
+
+		@Override
+		public long getTasksCompleted()
+		{
+			return getStats().getTasksCompleted();
+		}
+
+		@Override
+		public long getTasksFailed()
+		{
+			return getStats().getTasksFailed();
+		}
+
+		@Override
+		public double getUtilization()
+		{
+			return getStats().getUtilization();
+		}
+
+		@Override
+		public long getBlockedNanos()
+		{
+			return getStats().getBlockedNanos();
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+/**
+ * Snapshot of the state and cumulative counters of a {@link DecodePool}.
+ *
+ * @see DecodePool#getStats()
+ */
+public class DecodePoolStats
+{
+	private final int numThreads;
+
+	private final int queueCapacity;
+
+	private final int queueDepth;
+
+	private final int activeTasks;
+
+	private final long tasksCompleted;
+
+	private final long tasksFailed;
+
+	private final long busyNanos;
+
+	private final long blockedNanos;
+
+	private final long elapsedNanos;
+
+	public DecodePoolStats(
+			final int numThreads,
+			final int queueCapacity,
+			final int queueDepth,
+			final int activeTasks,
+			final long tasksCompleted,
+			final long tasksFailed,
+			final long busyNanos,
+			final long blockedNanos,
+			final long elapsedNanos )
+	{
+		this.numThreads = numThreads;
+		this.queueCapacity = queueCapacity;
+		this.queueDepth = queueDepth;
+		this.activeTasks = activeTasks;
+		this.tasksCompleted = tasksCompleted;
+		this.tasksFailed = tasksFailed;
+		this.busyNanos = busyNanos;
+		this.blockedNanos = blockedNanos;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	public int getQueueCapacity()
+	{
+		return queueCapacity;
+	}
+
+	/**
+	 * Number of tasks waiting for a pool thread.
+	 */
+	public int getQueueDepth()
+	{
+		return queueDepth;
+	}
+
+	/**
+	 * Number of tasks that are currently executing.
+	 */
+	public int getActiveTasks()
+	{
+		return activeTasks;
+	}
+
+	public long getTasksCompleted()
+	{
+		return tasksCompleted;
+	}
+
+	public long getTasksFailed()
+	{
+		return tasksFailed;
+	}
+
+	/**
+	 * Total time (summed over all pool threads) spent executing tasks, in
+	 * nanoseconds.
+	 */
+	public long getBusyNanos()
+	{
+		return busyNanos;
+	}
+
+	/**
+	 * Total time (summed over all submitting threads) spent waiting for the
+	 * pool to accept a task because it was saturated, in nanoseconds.
+	 */
+	public long getBlockedNanos()
+	{
+		return blockedNanos;
+	}
+
+	/**
+	 * Time since the pool was created, in nanoseconds.
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	/**
+	 * Fraction of available pool thread time that was spent executing tasks
+	 * since the pool was created.
+	 */
+	public double getUtilization()
+	{
+		final double available = ( double ) numThreads * elapsedNanos;
+		return available > 0 ? busyNanos / available : 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DecodePoolStats{" +
+				"numThreads=" + numThreads +
+				", queueCapacity=" + queueCapacity +
+				", queueDepth=" + queueDepth +
+				", activeTasks=" + activeTasks +
+				", tasksCompleted=" + tasksCompleted +
+				", tasksFailed=" + tasksFailed +
+				", blockedNanos=" + blockedNanos +
+				", utilization=" + getUtilization() +
+				'}';
+	}
+}
@@ -0,0 +1,264 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.util.Arrays;
+
+/**
+ * Snapshot of the state and cumulative counters of a {@link SharedQueue}.
+ *
+ * @see SharedQueue#getStats()
+ */
+public class FetchQueueStats
+{
+	private final int[] queueDepths;
+
+	private final int prefetchDepth;
+
+	private final long[] enqueued;
+
+	private final long[] dequeued;
+
+	private final long prefetchDequeued;
+
+	private final long prefetchDropped;
+
+	private final long staleDropped;
+
+	private final long repeatedRequests;
+
+	private final int numFetcherThreads;
+
+	private final int activeFetchers;
+
+	private final long tasksCompleted;
+
+	private final long tasksFailed;
+
+	private final long tasksCancelled;
+
+	private final long busyNanos;
+
+	private final long elapsedNanos;
+
+	public FetchQueueStats(
+			final int[] queueDepths,
+			final int prefetchDepth,
+			final long[] enqueued,
+			final long[] dequeued,
+			final long prefetchDequeued,
+			final long prefetchDropped,
+			final long staleDropped,
+			final long repeatedRequests,
+			final int numFetcherThreads,
+			final int activeFetchers,
+			final long tasksCompleted,
+			final long tasksFailed,
+			final long tasksCancelled,
+			final long busyNanos,
+			final long elapsedNanos )
+	{
+		this.queueDepths = queueDepths;
+		this.prefetchDepth = prefetchDepth;
+		this.enqueued = enqueued;
+		this.dequeued = dequeued;
+		this.prefetchDequeued = prefetchDequeued;
+		this.prefetchDropped = prefetchDropped;
+		this.staleDropped = staleDropped;
+		this.repeatedRequests = repeatedRequests;
+		this.numFetcherThreads = numFetcherThreads;
+		this.activeFetchers = activeFetchers;
+		this.tasksCompleted = tasksCompleted;
+		this.tasksFailed = tasksFailed;
+		this.tasksCancelled = tasksCancelled;
+		this.busyNanos = busyNanos;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Number of pending requests, for each priority level.
+	 */
+	public int[] getQueueDepths()
+	{
+		return queueDepths.clone();
+	}
+
+	/**
+	 * Number of pending requests in the prefetch queue (requests from previous
+	 * frames).
+	 */
+	public int getPrefetchDepth()
+	{
+		return prefetchDepth;
+	}
+
+	/**
+	 * Total number of requests enqueued, for each priority level.
+	 */
+	public long[] getEnqueued()
+	{
+		return enqueued.clone();
+	}
+
+	/**
+	 * Total number of requests taken by fetcher threads directly from each
+	 * priority level.
+	 */
+	public long[] getDequeued()
+	{
+		return dequeued.clone();
+	}
+
+	/**
+	 * Total number of requests taken by fetcher threads from the prefetch
+	 * queue.
+	 */
+	public long getPrefetchDequeued()
+	{
+		return prefetchDequeued;
+	}
+
+	/**
+	 * Total number of requests that were dropped by
+	 * {@link SharedQueue#clearToPrefetch()} because the prefetch queue was
+	 * full.
+	 */
+	public long getPrefetchDropped()
+	{
+		return prefetchDropped;
+	}
+
+	/**
+	 * Total number of requests that were dropped by
+	 * {@link SharedQueue#clearToPrefetch()} because they were not repeated
+	 * for {@link SharedQueue#getStaleFrames()} frames.
+	 */
+	public long getStaleDropped()
+	{
+		return staleDropped;
+	}
+
+	/**
+	 * Total number of requests for cells that were already queued or being
+	 * loaded.
+	 */
+	public long getRepeatedRequests()
+	{
+		return repeatedRequests;
+	}
+
+	public int getNumFetcherThreads()
+	{
+		return numFetcherThreads;
+	}
+
+	/**
+	 * Number of fetcher threads that are currently executing a request.
+	 */
+	public int getActiveFetchers()
+	{
+		return activeFetchers;
+	}
+
+	public long getTasksCompleted()
+	{
+		return tasksCompleted;
+	}
+
+	public long getTasksFailed()
+	{
+		return tasksFailed;
+	}
+
+	/**
+	 * Number of stale loads that were aborted after being cancelled.
+	 */
+	public long getTasksCancelled()
+	{
+		return tasksCancelled;
+	}
+
+	/**
+	 * Total time (summed over all fetcher threads) spent executing requests,
+	 * in nanoseconds.
+	 */
+	public long getBusyNanos()
+	{
+		return busyNanos;
+	}
+
+	/**
+	 * Time since the queue was created, in nanoseconds.
+	 */
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	/**
+	 * Fraction of available fetcher thread time that was spent executing
+	 * requests since the queue was created.
+	 */
+	public double getFetcherUtilization()
+	{
+		final double available = ( double ) numFetcherThreads * elapsedNanos;
+		return available > 0 ? busyNanos / available : 0;
+	}
+
+	/**
+	 * Fraction of available fetcher thread time that was spent executing
+	 * requests between {@code earlier} and this snapshot.
+	 */
+	public double getFetcherUtilizationSince( final FetchQueueStats earlier )
+	{
+		final double available = ( double ) numFetcherThreads * ( elapsedNanos - earlier.elapsedNanos );
+		return available > 0 ? ( busyNanos - earlier.busyNanos ) / available : 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FetchQueueStats{" +
+				"queueDepths=" + Arrays.toString( queueDepths ) +
+				", prefetchDepth=" + prefetchDepth +
+				", enqueued=" + Arrays.toString( enqueued ) +
+				", dequeued=" + Arrays.toString( dequeued ) +
+				", prefetchDequeued=" + prefetchDequeued +
+				", prefetchDropped=" + prefetchDropped +
+				", staleDropped=" + staleDropped +
+				", repeatedRequests=" + repeatedRequests +
+				", numFetcherThreads=" + numFetcherThreads +
+				", activeFetchers=" + activeFetchers +
+				", tasksCompleted=" + tasksCompleted +
+				", tasksFailed=" + tasksFailed +
+				", tasksCancelled=" + tasksCancelled +
+				", utilization=" + getFetcherUtilization() +
+				'}';
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.cache.queue.BlockingFetchQueues;
+
+/**
+ * Fetcher threads that take {@code Callable}s from a queue and run them. In
+ * contrast to {@link net.imglib2.cache.queue.FetcherThreads}, the number of
+ * threads can be changed while running.
+ */
+class FetcherPool
+{
+	private final BlockingFetchQueues< Callable< ? > > queue;
+
+	private final ThreadFactory threadFactory;
+
+	/**
+	 * Running fetcher threads. Guarded by {@code this}.
+	 */
+	private final List< Thread > threads = new ArrayList<>();
+
+	/**
+	 * Fetcher threads that are waiting for a task. Guarded by {@code this}.
+	 */
+	private final Set< Thread > idle = new HashSet<>();
+
+	private int targetSize;
+
+	private boolean shutdown;
+
+	FetcherPool( final BlockingFetchQueues< Callable< ? > > queue, final int size, final ThreadFactory threadFactory )
+	{
+		this.queue = queue;
+		this.threadFactory = threadFactory;
+		setTargetSize( size );
+	}
+
+	/**
+	 * Create a factory for daemon threads named {@code "Fetcher-<i>"}.
+	 */
+	static ThreadFactory defaultThreadFactory()
+	{
+		final AtomicInteger index = new AtomicInteger();
+		return r -> {
+			final Thread thread = new Thread( r, "Fetcher-" + index.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
+		};
+	}
+
+	synchronized int size()
+	{
+		return threads.size();
+	}
+
+	/**
+	 * Set the number of fetcher threads. If the pool grows, new threads are
+	 * started immediately. If the pool shrinks, surplus idle threads are woken
+	 * up and exit immediately, busy threads exit when they have finished their
+	 * current task.
+	 */
+	synchronized void setTargetSize( final int size )
+	{
+		if ( shutdown )
+			return;
+		targetSize = size;
+		while ( threads.size() < targetSize )
+		{
+			final Thread thread = threadFactory.newThread( this::run );
+			threads.add( thread );
+			thread.start();
+		}
+		int excess = threads.size() - targetSize;
+		for ( final Thread thread : idle )
+		{
+			if ( excess-- <= 0 )
+				break;
+			thread.interrupt();
+		}
+	}
+
+	synchronized void shutdown()
+	{
+		shutdown = true;
+		threads.forEach( Thread::interrupt );
+	}
+
+	/**
+	 * Remove {@code thread} from the pool if there are too many threads.
+	 *
+	 * @return whether the thread should exit.
+	 */
+	private synchronized boolean retire( final Thread thread )
+	{
+		if ( shutdown || threads.size() > targetSize )
+		{
+			threads.remove( thread );
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Mark {@code thread} as waiting for a task (or not). Idle threads may be
+	 * interrupted by {@link #setTargetSize} to make them retire. When a thread
+	 * stops being idle, such a pending interrupt is cleared, so that it
+	 * doesn't affect the task that the thread took.
+	 */
+	private synchronized void setIdle( final Thread thread, final boolean isIdle )
+	{
+		if ( isIdle )
+			idle.add( thread );
+		else
+		{
+			idle.remove( thread );
+			Thread.interrupted();
+		}
+	}
+
+	private void run()
+	{
+		final Thread self = Thread.currentThread();
+		while ( !retire( self ) )
+		{
+			final Callable< ? > task;
+			setIdle( self, true );
+			try
+			{
+				task = queue.take();
+			}
+			catch ( final InterruptedException e )
+			{
+				// shutdown, or the pool shrank. check in retire().
+				continue;
+			}
+			finally
+			{
+				setIdle( self, false );
+			}
+
+			try
+			{
+				task.call();
+			}
+			catch ( final InterruptedException e )
+			{
+				// shutdown, or a task that was interrupted. check in retire().
+			}
+			catch ( final Exception e )
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of durations with logarithmic (power-of-two) bucket
+ * widths.
+ * <p>
+ * Bucket {@code i > 0} counts durations in the range <em>[2<sup>i-1</sup>,
+ * 2<sup>i</sup>)</em> microseconds, bucket {@code 0} counts durations below
+ * one microsecond. Durations that are too long for the last bucket are
+ * counted in the last bucket.
+ */
+public class LatencyHistogram
+{
+	public static final int NUM_BUCKETS = 32;
+
+	private final AtomicLongArray counts = new AtomicLongArray( NUM_BUCKETS );
+
+	/**
+	 * Record a duration.
+	 *
+	 * @param nanos
+	 *            duration in nanoseconds
+	 */
+	public void record( final long nanos )
+	{
+		counts.incrementAndGet( bucket( nanos ) );
+	}
+
+	/**
+	 * Get a copy of the current bucket counts.
+	 */
+	public long[] getCounts()
+	{
+		final long[] c = new long[ NUM_BUCKETS ];
+		for ( int i = 0; i < NUM_BUCKETS; ++i )
+			c[ i ] = counts.get( i );
+		return c;
+	}
+
+	/**
+	 * Get the index of the bucket that the given duration falls into.
+	 *
+	 * @param nanos
+	 *            duration in nanoseconds
+	 */
+	public static int bucket( final long nanos )
+	{
+		final long micros = Math.max( 0, nanos / 1000 );
+		return Math.min( NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros( micros ) );
+	}
+
+	/**
+	 * Get the (exclusive) upper bound of bucket {@code i}, in microseconds.
+	 */
+	public static long upperBoundMicros( final int i )
+	{
+		return 1L << i;
+	}
+
+	/**
+	 * Estimate the {@code p}-th quantile of durations from bucket
+	 * {@code counts}. Returns the upper bound (in microseconds) of the bucket
+	 * containing the quantile, or {@code 0} if no durations were recorded.
+	 *
+	 * @param counts
+	 *            bucket counts, as returned by {@link #getCounts()}
+	 * @param p
+	 *            quantile in {@code [0, 1]}
+	 */
+	public static long quantileMicros( final long[] counts, final double p )
+	{
+		long total = 0;
+		for ( final long c : counts )
+			total += c;
+		if ( total == 0 )
+			return 0;
+		final long rank = Math.max( 1, ( long ) Math.ceil( p * total ) );
+		long sum = 0;
+		for ( int i = 0; i < counts.length; ++i )
+		{
+			sum += counts[ i ];
+			if ( sum >= rank )
+				return upperBoundMicros( i );
+		}
+		return upperBoundMicros( counts.length - 1 );
+	}
+
+	/**
+	 * Add bucket counts {@code b} to {@code a} (in place).
+	 *
+	 * @return {@code a}
+	 */
+	public static long[] add( final long[] a, final long[] b )
+	{
+		for ( int i = 0; i < a.length; ++i )
+			a[ i ] += b[ i ];
+		return a;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Helpers for publishing cache metrics to the platform {@code MBeanServer}.
+ */
+public final class MBeans
+{
+	public static final String DOMAIN = "bdv.cache";
+
+	private MBeans()
+	{}
+
+	/**
+	 * Register {@code mbean} with the platform {@code MBeanServer} under the
+	 * name {@code bdv.cache:type=<type>,name=<name>}. If an MBean with that
+	 * name is already registered, it is replaced.
+	 *
+	 * @return the {@code ObjectName} under which {@code mbean} was registered.
+	 */
+	public static ObjectName register( final Object mbean, final String type, final String name )
+	{
+		try
+		{
+			final ObjectName objectName = new ObjectName( DOMAIN + ":type=" + type + ",name=" + ObjectName.quote( name ) );
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( objectName ) )
+				server.unregisterMBean( objectName );
+			server.registerMBean( mbean, objectName );
+			return objectName;
+		}
+		catch ( final JMException e )
+		{
+			throw new IllegalArgumentException( e );
+		}
+	}
+
+	/**
+	 * Unregister the MBean with the given {@code objectName} from the platform
+	 * {@code MBeanServer}, if it is registered. {@code objectName} may be
+	 * {@code null}, in which case nothing happens.
+	 */
+	public static void unregister( final ObjectName objectName )
+	{
+		if ( objectName == null )
+			return;
+		try
+		{
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if ( server.isRegistered( objectName ) )
+				server.unregisterMBean( objectName );
+		}
+		catch ( final JMException e )
+		{
+			// already gone, nothing to do
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.util.function.LongFunction;
+
+/**
+ * Thread-local description of the cell request that is currently being made
+ * on this thread. This is used to pass information from the requesting side
+ * (images backed by a cache, the renderer) to the {@link SharedQueue}, where
+ * a request is {@link SharedQueue#put(java.util.concurrent.Callable, int, boolean)
+ * enqueued} when the requested cell is not yet loaded.
+ * <p>
+ * The information comprises
+ * <ul>
+ * <li>the <em>client</em> (typically the cache) that makes the request, and a
+ * key identifying the requested cell within that client. This is used to
+ * recognize repeated requests for the same cell.</li>
+ * <li>the normalized distance of the requested cell to the screen center,
+ * which is used to prioritize cells in the center of the screen.</li>
+ * </ul>
+ */
+public final class RequestContext
+{
+	private static final ThreadLocal< RequestContext > CURRENT = ThreadLocal.withInitial( RequestContext::new );
+
+	private Object client;
+
+	private LongFunction< ? > keys;
+
+	private long index;
+
+	private float screenDistance = Float.NaN;
+
+	private RequestContext()
+	{}
+
+	/**
+	 * Get the {@code RequestContext} of the current thread.
+	 */
+	public static RequestContext current()
+	{
+		return CURRENT.get();
+	}
+
+	/**
+	 * Begin a request for cell {@code index} of {@code client}. The cell key
+	 * is only created (via {@code keys}) if the request actually has to be
+	 * enqueued.
+	 *
+	 * @param client
+	 *            the client (typically the cache) making the request.
+	 * @param keys
+	 *            maps cell index to a key that identifies the cell within
+	 *            {@code client} (and implements {@code equals()} and
+	 *            {@code hashCode()}).
+	 * @param index
+	 *            the cell index
+	 */
+	public void beginRequest( final Object client, final LongFunction< ? > keys, final long index )
+	{
+		this.client = client;
+		this.keys = keys;
+		this.index = index;
+	}
+
+	/**
+	 * End the request started with {@link #beginRequest}.
+	 */
+	public void endRequest()
+	{
+		client = null;
+		keys = null;
+	}
+
+	/**
+	 * Set the distance of the cells that will be requested next to the screen
+	 * center, normalized such that {@code 0} is the screen center and
+	 * {@code 1} is a screen corner.
+	 */
+	public void setScreenDistance( final float screenDistance )
+	{
+		this.screenDistance = screenDistance;
+	}
+
+	/**
+	 * Clear the screen distance set by {@link #setScreenDistance(float)}.
+	 */
+	public void clearScreenDistance()
+	{
+		screenDistance = Float.NaN;
+	}
+
+	/**
+	 * Get the client making the current request, or {@code null} if unknown.
+	 */
+	public Object client()
+	{
+		return client;
+	}
+
+	/**
+	 * Create the key of the cell requested in the current request, or
+	 * {@code null} if unknown.
+	 */
+	public Object key()
+	{
+		return keys == null ? null : keys.apply( index );
+	}
+
+	/**
+	 * Get the normalized screen distance of the requested cell, or
+	 * {@code NaN} if unknown.
+	 */
+	public float screenDistance()
+	{
+		return screenDistance;
+	}
+}
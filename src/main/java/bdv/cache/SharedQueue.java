@@ -28,23 +28,227 @@
  */
 package bdv.cache;
 
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.WeakHashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.management.ObjectName;
+
 import net.imglib2.cache.queue.BlockingFetchQueues;
-import net.imglib2.cache.queue.FetcherThreads;
 
 /**
  * Queue and threads for asynchronously loading data into a cache
+ * <p>
+ * Every request is tagged with the <em>generation</em> (frame) in which it was
+ * last requested. The generation is incremented in {@link #prepareNextFrame()}.
+ * Requests that have not been repeated for {@link #setStaleFrames(int)
+ * staleFrames} generations are considered stale: they are dropped from the
+ * prefetch queue and, if they are already being loaded, cancelled (see
+ * {@link #isLoadCancelled()} and {@link #setInterruptStaleLoads(boolean)}).
+ * Repeated requests are recognized via the {@link RequestContext} of the
+ * requesting thread. Within a priority level, requests are ordered by
+ * distance to the screen center, if that is provided by the
+ * {@link RequestContext}.
+ * <p>
+ * Several clients (typically the caches of several image loaders) may share
+ * one queue. Each client has its own sub-queues. Requests of higher priority
+ * are always handled first. Among clients with requests of the same priority,
+ * fetcher threads are shared in proportion to the client weights. The number
+ * of concurrent loads per client is limited, so that a slow client (e.g.,
+ * loading from a remote server) cannot block all fetcher threads. See
+ * {@link #setClientShare(Object, double, int)}.
+ * <p>
+ * Optionally, the number of fetcher threads and the per-client concurrency
+ * limits adapt to the observed load latency and throughput, see
+ * {@link #setMaxFetcherThreads(int)}.
+ * <p>
+ * The queue keeps track of its state and usage, see {@link #getStats()}. The
+ * statistics can be published via JMX, see {@link #registerMBean(String)}.
+ * <p>
+ * Note that the queue contents are managed here, not in the
+ * {@link BlockingFetchQueues} super class. The super class is only used to
+ * keep track of the current frame (which is incremented in
+ * {@link #clearToPrefetch()}).
  *
  * @author Tobias Pietzsch
  */
 public class SharedQueue extends BlockingFetchQueues< Callable< ? > > implements CacheControl
 {
-	private final FetcherThreads fetcherThreads;
+	/**
+	 * Default maximum number of requests kept in the prefetch queue.
+	 */
+	public static final int DEFAULT_PREFETCH_CAPACITY = 16384;
 
-	public SharedQueue( final int numFetcherThreads, final int numPriorities )
+	/**
+	 * Default number of generations after which a request that has not been
+	 * repeated is considered stale.
+	 */
+	public static final int DEFAULT_STALE_FRAMES = 2;
+
+	/**
+	 * Number of distinct screen distances that requests are sorted into.
+	 * Requests without screen distance get rank 0, the others get ranks
+	 * {@code 1 ... NUM_DISTANCE_RANKS - 1}. Quantizing the distance keeps
+	 * neighboring cells in the order in which they were requested.
+	 */
+	private static final int NUM_DISTANCE_RANKS = 16;
+
+	private static final ThreadLocal< InFlight > CURRENT_LOAD = new ThreadLocal<>();
+
+	private final FetcherPool fetcherThreads;
+
+	private final int numFetcherThreads;
+
+	/**
+	 * If larger than {@link #numFetcherThreads}, the number of fetcher threads
+	 * and per-client concurrency limits adapt to the observed latency and
+	 * throughput. Guarded by lock.
+	 */
+	private int maxFetcherThreads;
+
+	private final int prefetchCapacity;
+
+	private volatile int staleFrames = DEFAULT_STALE_FRAMES;
+
+	private volatile boolean interruptStaleLoads = false;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * Sub-queues of clients identified by {@link RequestContext#client()}.
+	 */
+	private final Map< Object, Client > clients = new WeakHashMap<>();
+
+	/**
+	 * Sub-queues for requests without {@link RequestContext#client()}.
+	 */
+	private final Client defaultClient;
+
+	/**
+	 * Queued entries that have a key, for recognizing repeated requests.
+	 * Entries that are replaced by a repeated request are marked
+	 * {@link Entry#discarded discarded} and skipped when dequeued.
+	 */
+	private final Map< RequestKey, Entry > pending = new HashMap<>();
+
+	/**
+	 * Entries that have a key and are currently being loaded.
+	 */
+	private final Map< RequestKey, InFlight > inFlight = new HashMap<>();
+
+	private int numPriorities;
+
+	/**
+	 * Number of non-discarded entries in each priority level (summed over all
+	 * clients).
+	 */
+	private int[] depths;
+
+	/**
+	 * Number of non-discarded prefetch entries (summed over all clients).
+	 */
+	private int prefetchDepth;
+
+	/**
+	 * Number of non-discarded entries (summed over all clients).
+	 */
+	private int count;
+
+	private long generation;
+
+	private long frontSeq;
+
+	private long backSeq;
+
+	/**
+	 * The {@link Client#pass} of the most recently dispatched client.
+	 */
+	private double virtualTime;
+
+	// statistics, guarded by lock
+
+	private long[] enqueued;
+
+	private long[] dequeued;
+
+	private long prefetchDequeued;
+
+	private long prefetchDropped;
+
+	private long staleDropped;
+
+	private long repeatedRequests;
+
+	// fetcher statistics
+
+	private final long startNanos = System.nanoTime();
+
+	private final AtomicInteger activeFetchers = new AtomicInteger();
+
+	private final LongAdder tasksCompleted = new LongAdder();
+
+	private final LongAdder tasksFailed = new LongAdder();
+
+	private final LongAdder tasksCancelled = new LongAdder();
+
+	private final LongAdder busyNanos = new LongAdder();
+
+	private ObjectName mbeanName;
+
+	/**
+	 * Create a queue served by fetcher threads created with the specified
+	 * factory. For example, for IO-bound loaders, fetchers can run in virtual
+	 * threads (Java 21+), which allows for many concurrent blocking reads:
+	 *
+	 * <pre>
+	 * new SharedQueue( 256, numPriorities, DEFAULT_PREFETCH_CAPACITY, VirtualThreads.threadFactory( "Fetcher-" ) );
+	 * </pre>
+	 *
+	 * The number of concurrent loads per client can then be bounded with
+	 * {@link #setClientShare(Object, double, int)}.
+	 *
+	 * @param threadFactory
+	 *            creates fetcher threads. If {@code null}, platform daemon
+	 *            threads are used (for example, if
+	 *            {@link VirtualThreads#threadFactory(String)} is not supported
+	 *            by the JVM).
+	 */
+	public SharedQueue( final int numFetcherThreads, final int numPriorities, final int prefetchCapacity, final ThreadFactory threadFactory )
 	{
 		super( numPriorities, numFetcherThreads );
-		fetcherThreads = new FetcherThreads( this, numFetcherThreads );
+		this.numFetcherThreads = numFetcherThreads;
+		this.prefetchCapacity = prefetchCapacity;
+		this.numPriorities = numPriorities;
+		depths = new int[ numPriorities ];
+		enqueued = new long[ numPriorities ];
+		dequeued = new long[ numPriorities ];
+		maxFetcherThreads = numFetcherThreads;
+		defaultClient = new Client( numPriorities );
+		fetcherThreads = new FetcherPool( this, numFetcherThreads, threadFactory != null ? threadFactory : FetcherPool.defaultThreadFactory() );
+	}
+
+	public SharedQueue( final int numFetcherThreads, final int numPriorities, final int prefetchCapacity )
+	{
+		this( numFetcherThreads, numPriorities, prefetchCapacity, null );
+	}
+
+	public SharedQueue( final int numFetcherThreads, final int numPriorities )
+	{
+		this( numFetcherThreads, numPriorities, DEFAULT_PREFETCH_CAPACITY );
 	}
 
 	public SharedQueue( final int numFetcherThreads )
@@ -56,6 +260,7 @@ public class SharedQueue extends BlockingFetchQueues< Callable< ? > > implements
 	{
 		fetcherThreads.shutdown();
 		clear();
+		unregisterMBean();
 	}
 
 	@Override
@@ -63,4 +268,1054 @@ public class SharedQueue extends BlockingFetchQueues< Callable< ? > > implements
 	{
 		clearToPrefetch();
 	}
+
+	/**
+	 * Set the number of generations after which a request that has not been
+	 * repeated is considered stale. Values {@code <= 0} disable dropping and
+	 * cancelling stale requests.
+	 */
+	public void setStaleFrames( final int staleFrames )
+	{
+		this.staleFrames = staleFrames;
+	}
+
+	public int getStaleFrames()
+	{
+		return staleFrames;
+	}
+
+	/**
+	 * Whether to interrupt fetcher threads that are loading stale requests.
+	 * By default, stale loads are only flagged as cancelled (see
+	 * {@link #isLoadCancelled()}), and it is up to the loader to check the
+	 * flag. (The N5, HDF5, remote, and CATMAID loaders check it before
+	 * reading and before decoding a cell.) Interrupting is only safe for loaders that can recover from
+	 * interrupted IO (for example, interrupting a thread blocked on a
+	 * {@code FileChannel} closes the channel).
+	 */
+	public void setInterruptStaleLoads( final boolean interruptStaleLoads )
+	{
+		this.interruptStaleLoads = interruptStaleLoads;
+	}
+
+	public boolean getInterruptStaleLoads()
+	{
+		return interruptStaleLoads;
+	}
+
+	/**
+	 * Set how fetcher threads are shared with the specified client.
+	 * <p>
+	 * Among clients with pending requests of the same priority, requests are
+	 * dispatched in proportion to the client {@code weight}. At most
+	 * {@code maxConcurrentLoads} requests of the client are loaded
+	 * concurrently.
+	 * <p>
+	 * Clients without explicit share have weight {@code 1}. When several
+	 * clients are busy, each of them may occupy all but one fetcher thread,
+	 * so that one slow client cannot block the others completely.
+	 *
+	 * @param client
+	 *            the client, as set in {@link RequestContext}. Typically, the
+	 *            cache of an image loader.
+	 * @param weight
+	 *            relative share of fetcher threads ({@code > 0})
+	 * @param maxConcurrentLoads
+	 *            maximum number of concurrent loads, or {@code <= 0} for the
+	 *            default
+	 */
+	public void setClientShare( final Object client, final double weight, final int maxConcurrentLoads )
+	{
+		if ( !( weight > 0 ) )
+			throw new IllegalArgumentException( "weight must be positive" );
+		lock.lock();
+		try
+		{
+			final Client c = client( client );
+			c.weight = weight;
+			c.maxConcurrentLoads = maxConcurrentLoads;
+			c.adaptiveLimit = null;
+			notEmpty.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Let the number of fetcher threads adapt to the observed load latency
+	 * and throughput, between the number of threads given at construction and
+	 * {@code maxFetcherThreads}. The concurrency limit of each client is
+	 * adjusted independently (see {@link AdaptiveConcurrencyLimit}), bounded
+	 * by the {@link #setClientShare(Object, double, int) explicit limit}, if
+	 * any. The number of fetcher threads follows the sum of the limits of busy
+	 * clients.
+	 * <p>
+	 * This is useful for latency-bound backends (e.g., network storage) that
+	 * need many more concurrent loads than CPU-bound backends.
+	 *
+	 * @param maxFetcherThreads
+	 *            maximum number of fetcher threads. Values smaller than or
+	 *            equal to the number of threads given at construction disable
+	 *            adaptation.
+	 */
+	public void setMaxFetcherThreads( final int maxFetcherThreads )
+	{
+		lock.lock();
+		try
+		{
+			this.maxFetcherThreads = Math.max( numFetcherThreads, maxFetcherThreads );
+			forEachClient( client -> client.adaptiveLimit = null );
+			updateNumFetcherThreads();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public int getMaxFetcherThreads()
+	{
+		lock.lock();
+		try
+		{
+			return maxFetcherThreads;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get the current number of fetcher threads.
+	 */
+	public int getNumFetcherThreads()
+	{
+		return fetcherThreads.size();
+	}
+
+	/**
+	 * Whether the request that is currently being loaded on this (fetcher)
+	 * thread was cancelled because it became stale. Loaders may check this
+	 * between expensive steps and abort (by throwing an exception, which is
+	 * then ignored) if the result is no longer needed.
+	 */
+	public static boolean isLoadCancelled()
+	{
+		final InFlight load = CURRENT_LOAD.get();
+		return load != null && load.cancelled;
+	}
+
+	/**
+	 * Abort the load on this (fetcher) thread if it was cancelled, see
+	 * {@link #isLoadCancelled()}.
+	 *
+	 * @throws InterruptedIOException
+	 *             if the load was cancelled.
+	 */
+	public static void checkLoadCancelled() throws InterruptedIOException
+	{
+		if ( isLoadCancelled() )
+			throw new InterruptedIOException( "load cancelled" );
+	}
+
+	/**
+	 * Add element to the queue of the specified priority. The element can be
+	 * added to the front or back of the queue.
+	 * <p>
+	 * If the {@link RequestContext} of the calling thread identifies the
+	 * requested cell, and the same cell is already queued, the old request is
+	 * replaced. If the same cell is currently being loaded, the load is
+	 * marked as still needed, and the element is not enqueued.
+	 *
+	 * @param element
+	 *            the element to enqueue
+	 * @param priority
+	 *            lower values mean higher priority
+	 * @param enqueuToFront
+	 *            if true, enqueue element at the front (LIFO). if false,
+	 *            enqueue element at the back (FIFO)
+	 */
+	@Override
+	public void put( final Callable< ? > element, final int priority, final boolean enqueuToFront )
+	{
+		final RequestContext context = RequestContext.current();
+		final RequestKey key = RequestKey.of( context );
+		final int rank = distanceRank( context.screenDistance() );
+
+		lock.lock();
+		try
+		{
+			if ( priority >= numPriorities )
+				growQueues( priority + 1 );
+			if ( key != null )
+			{
+				final InFlight load = inFlight.get( key );
+				if ( load != null )
+				{
+					load.generation = generation;
+					++repeatedRequests;
+					return;
+				}
+				final Entry previous = pending.get( key );
+				if ( previous != null )
+				{
+					discard( previous );
+					++repeatedRequests;
+				}
+			}
+			final Client client = client( context.client() );
+			final long seq = enqueuToFront ? --frontSeq : backSeq++;
+			final Entry entry = new Entry( element, key, client, priority, generation, rank, seq );
+			if ( key != null )
+				pending.put( key, entry );
+			final boolean wasIdle = !client.isBusy();
+			if ( wasIdle )
+				// do not let a client that was idle catch up on its share
+				client.pass = Math.max( client.pass, virtualTime );
+			client.add( entry );
+			if ( wasIdle && isAdaptive() )
+				updateNumFetcherThreads();
+			++depths[ priority ];
+			++enqueued[ priority ];
+			++count;
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Remove and return an element from the highest priority non-empty queue.
+	 * If all queues are empty, return an element from the prefetch queue. If
+	 * that is empty too, block until an element becomes available. Clients
+	 * that have reached their maximum number of concurrent loads are skipped.
+	 * <p>
+	 * The returned {@code Callable} is instrumented to record fetcher thread
+	 * utilization (see {@link #getStats()}), and to handle cancellation of
+	 * stale loads.
+	 */
+	@Override
+	public Callable< ? > take() throws InterruptedException
+	{
+		final Entry entry;
+		final InFlight load;
+		lock.lockInterruptibly();
+		try
+		{
+			Client client;
+			while ( ( client = nextClient() ) == null )
+				notEmpty.await();
+			entry = dequeue( client );
+			load = new InFlight( entry.key, client, entry.generation, Thread.currentThread() );
+			if ( entry.key != null )
+			{
+				pending.remove( entry.key );
+				inFlight.put( entry.key, load );
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return instrument( entry.task, load );
+	}
+
+	/**
+	 * Atomically move all elements of the priority queues to the prefetch
+	 * queue, and start a new generation. Higher priority elements go to the
+	 * front of the prefetch queue. Elements that became stale are dropped, and
+	 * stale loads are cancelled. Elements that exceed the prefetch capacity are
+	 * dropped from the back of the (largest) prefetch queue.
+	 */
+	@Override
+	public void clearToPrefetch()
+	{
+		lock.lock();
+		try
+		{
+			// the super class only keeps track of the current frame
+			super.clearToPrefetch();
+
+			++generation;
+			final int staleFrames = this.staleFrames;
+			final long staleBefore = staleFrames > 0 ? generation - staleFrames : Long.MIN_VALUE;
+
+			prefetchDepth = 0;
+			forEachClient( client -> {
+				final ArrayDeque< Entry > newPrefetch = new ArrayDeque<>();
+				for ( final PriorityQueue< Entry > queue : client.queues )
+				{
+					Entry entry;
+					while ( ( entry = queue.poll() ) != null )
+						retain( entry, staleBefore, newPrefetch );
+				}
+				for ( final Entry entry : client.prefetch )
+					retain( entry, staleBefore, newPrefetch );
+				client.prefetch = newPrefetch;
+				client.prefetchDepth = newPrefetch.size();
+				client.count = client.prefetchDepth;
+				Arrays.fill( client.depths, 0 );
+				prefetchDepth += client.prefetchDepth;
+			} );
+			Arrays.fill( depths, 0 );
+
+			while ( prefetchDepth > prefetchCapacity )
+			{
+				final Client largest = largestPrefetch();
+				final Entry entry = largest.prefetch.removeLast();
+				if ( entry.key != null )
+					pending.remove( entry.key );
+				--largest.prefetchDepth;
+				--largest.count;
+				--prefetchDepth;
+				++prefetchDropped;
+			}
+			count = prefetchDepth;
+
+			final boolean interrupt = interruptStaleLoads;
+			for ( final InFlight load : inFlight.values() )
+				if ( load.generation < staleBefore )
+					load.cancel( interrupt );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Atomically remove all elements from the queue.
+	 */
+	@Override
+	public void clear()
+	{
+		lock.lock();
+		try
+		{
+			super.clear();
+			forEachClient( Client::clear );
+			pending.clear();
+			Arrays.fill( depths, 0 );
+			prefetchDepth = 0;
+			count = 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void ensureNumPriorities( final int newNumPriorities )
+	{
+		lock.lock();
+		try
+		{
+			super.ensureNumPriorities( newNumPriorities );
+			if ( newNumPriorities > numPriorities )
+				growQueues( newNumPriorities );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Get a snapshot of the state and cumulative counters of this queue.
+	 */
+	public FetchQueueStats getStats()
+	{
+		final int[] queueDepths;
+		final int prefetchDepth;
+		final long[] enq;
+		final long[] deq;
+		final long prefetchDeq;
+		final long dropped;
+		final long stale;
+		final long repeated;
+		lock.lock();
+		try
+		{
+			queueDepths = depths.clone();
+			prefetchDepth = this.prefetchDepth;
+			enq = enqueued.clone();
+			deq = dequeued.clone();
+			prefetchDeq = prefetchDequeued;
+			dropped = prefetchDropped;
+			stale = staleDropped;
+			repeated = repeatedRequests;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return new FetchQueueStats(
+				queueDepths, prefetchDepth, enq, deq, prefetchDeq, dropped, stale, repeated,
+				fetcherThreads.size(),
+				activeFetchers.get(),
+				tasksCompleted.sum(),
+				tasksFailed.sum(),
+				tasksCancelled.sum(),
+				busyNanos.sum(),
+				System.nanoTime() - startNanos );
+	}
+
+	/**
+	 * Publish the statistics of this queue as an MBean named
+	 * {@code bdv.cache:type=SharedQueue,name=<name>}. The MBean is
+	 * unregistered on {@link #shutdown()}.
+	 *
+	 * @return the name under which the MBean was registered.
+	 */
+	public synchronized ObjectName registerMBean( final String name )
+	{
+		unregisterMBean();
+		mbeanName = MBeans.register( new MXBean(), "SharedQueue", name );
+		return mbeanName;
+	}
+
+	public synchronized void unregisterMBean()
+	{
+		MBeans.unregister( mbeanName );
+		mbeanName = null;
+	}
+
+	/**
+	 * Get the sub-queues of {@code client}, creating them if necessary.
+	 * Assumes that the lock is held.
+	 */
+	private Client client( final Object client )
+	{
+		if ( client == null )
+			return defaultClient;
+		return clients.computeIfAbsent( client, k -> new Client( numPriorities ) );
+	}
+
+	private void forEachClient( final Consumer< Client > action )
+	{
+		action.accept( defaultClient );
+		clients.values().forEach( action );
+	}
+
+	/**
+	 * Find the client to dispatch the next request from, or {@code null} if
+	 * no client has pending requests and is below its concurrency limit.
+	 * Assumes that the lock is held.
+	 */
+	private Client nextClient()
+	{
+		if ( count == 0 )
+			return null;
+
+		int numBusy = defaultClient.isBusy() ? 1 : 0;
+		for ( final Client client : clients.values() )
+			if ( client.isBusy() )
+				++numBusy;
+		final int defaultLimit;
+		if ( isAdaptive() )
+			defaultLimit = Integer.MAX_VALUE; // limited by adaptive limits
+		else if ( numFetcherThreads <= 0 )
+			defaultLimit = Integer.MAX_VALUE; // queue is served by external threads
+		else
+			defaultLimit = Math.max( 1, numBusy > 1 ? numFetcherThreads - 1 : numFetcherThreads );
+
+		Client best = null;
+		int bestLevel = Integer.MAX_VALUE;
+		for ( final Client client : clients.values() )
+		{
+			if ( client.count == 0 || client.active >= limit( client, defaultLimit ) )
+				continue;
+			final int level = client.firstLevel();
+			if ( level < bestLevel || ( level == bestLevel && client.pass < best.pass ) )
+			{
+				best = client;
+				bestLevel = level;
+			}
+		}
+		final Client client = defaultClient;
+		if ( client.count != 0 && client.active < limit( client, defaultLimit ) )
+		{
+			final int level = client.firstLevel();
+			if ( level < bestLevel || ( level == bestLevel && client.pass < best.pass ) )
+				best = client;
+		}
+		return best;
+	}
+
+	private boolean isAdaptive()
+	{
+		return maxFetcherThreads > numFetcherThreads;
+	}
+
+	/**
+	 * Get the concurrency limit of {@code client}. Assumes that the lock is
+	 * held.
+	 */
+	private int limit( final Client client, final int defaultLimit )
+	{
+		final int limit = client.maxConcurrentLoads > 0 ? client.maxConcurrentLoads : defaultLimit;
+		return isAdaptive()
+				? Math.min( limit, adaptiveLimit( client ).getLimit() )
+				: limit;
+	}
+
+	private AdaptiveConcurrencyLimit adaptiveLimit( final Client client )
+	{
+		if ( client.adaptiveLimit == null )
+		{
+			final int max = client.maxConcurrentLoads > 0
+					? Math.min( client.maxConcurrentLoads, maxFetcherThreads )
+					: maxFetcherThreads;
+			client.adaptiveLimit = new AdaptiveConcurrencyLimit( Math.max( 1, numFetcherThreads ), 1, max, System.nanoTime() );
+		}
+		return client.adaptiveLimit;
+	}
+
+	/**
+	 * Set the number of fetcher threads to the sum of adaptive limits of busy
+	 * clients (if adaptive). Assumes that the lock is held.
+	 */
+	private void updateNumFetcherThreads()
+	{
+		int size = numFetcherThreads;
+		if ( isAdaptive() )
+		{
+			final int[] sum = { 0 };
+			forEachClient( client -> {
+				if ( client.isBusy() )
+					sum[ 0 ] += limit( client, Integer.MAX_VALUE );
+			} );
+			size = Math.max( numFetcherThreads, Math.min( maxFetcherThreads, sum[ 0 ] ) );
+		}
+		fetcherThreads.setTargetSize( size );
+	}
+
+	/**
+	 * Add {@code entry} to the back of {@code newPrefetch}, unless it is
+	 * discarded or stale. Assumes that the lock is held.
+	 */
+	private void retain( final Entry entry, final long staleBefore, final ArrayDeque< Entry > newPrefetch )
+	{
+		if ( entry.discarded )
+			return;
+		if ( entry.generation < staleBefore )
+		{
+			if ( entry.key != null )
+				pending.remove( entry.key );
+			++staleDropped;
+			return;
+		}
+		entry.inPrefetch = true;
+		newPrefetch.add( entry );
+	}
+
+	/**
+	 * Mark a queued entry as discarded. Assumes that the lock is held.
+	 */
+	private void discard( final Entry entry )
+	{
+		entry.discarded = true;
+		final Client client = entry.client;
+		if ( entry.inPrefetch )
+		{
+			--client.prefetchDepth;
+			--prefetchDepth;
+		}
+		else
+		{
+			--client.depths[ entry.priority ];
+			--depths[ entry.priority ];
+		}
+		--client.count;
+		--count;
+	}
+
+	private Client largestPrefetch()
+	{
+		Client largest = defaultClient;
+		for ( final Client client : clients.values() )
+			if ( client.prefetchDepth > largest.prefetchDepth )
+				largest = client;
+		return largest;
+	}
+
+	/**
+	 * Remove an element of {@code client}, assuming that
+	 * {@code client.count > 0} and the lock is held.
+	 */
+	private Entry dequeue( final Client client )
+	{
+		final Entry entry = client.poll();
+		if ( entry.inPrefetch )
+		{
+			--prefetchDepth;
+			++prefetchDequeued;
+		}
+		else
+		{
+			--depths[ entry.priority ];
+			++dequeued[ entry.priority ];
+		}
+		--count;
+		++client.active;
+		client.pass += 1 / client.weight;
+		virtualTime = client.pass;
+		return entry;
+	}
+
+	private void finished( final InFlight load, final long latencyNanos )
+	{
+		lock.lock();
+		try
+		{
+			if ( load.key != null )
+				inFlight.remove( load.key, load );
+			final Client client = load.client;
+			if ( isAdaptive() )
+			{
+				final AdaptiveConcurrencyLimit adaptive = adaptiveLimit( client );
+				final boolean saturated = client.count > 0 && client.active >= adaptive.getLimit();
+				if ( adaptive.completed( latencyNanos, saturated, System.nanoTime() ) )
+					updateNumFetcherThreads();
+			}
+			--client.active;
+			if ( isAdaptive() && !client.isBusy() )
+				updateNumFetcherThreads();
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private Callable< ? > instrument( final Callable< ? > element, final InFlight load )
+	{
+		return () -> {
+			CURRENT_LOAD.set( load );
+			activeFetchers.incrementAndGet();
+			final long t0 = System.nanoTime();
+			try
+			{
+				return element.call();
+			}
+			catch ( final Exception e )
+			{
+				if ( load.cancelled )
+				{
+					// the load was aborted because it was no longer needed.
+					tasksCancelled.increment();
+					return null;
+				}
+				tasksFailed.increment();
+				throw e;
+			}
+			finally
+			{
+				final long t = System.nanoTime() - t0;
+				busyNanos.add( t );
+				tasksCompleted.increment();
+				activeFetchers.decrementAndGet();
+				if ( load.finish() )
+					// clear the interrupt flag set by InFlight.cancel()
+					Thread.interrupted();
+				CURRENT_LOAD.remove();
+				finished( load, t );
+			}
+		};
+	}
+
+	private static int distanceRank( final float screenDistance )
+	{
+		if ( Float.isNaN( screenDistance ) )
+			return 0;
+		final int rank = 1 + ( int ) ( Math.max( 0, screenDistance ) * ( NUM_DISTANCE_RANKS - 1 ) );
+		return Math.min( rank, NUM_DISTANCE_RANKS - 1 );
+	}
+
+	private void growQueues( final int numPriorities )
+	{
+		this.numPriorities = numPriorities;
+		forEachClient( client -> client.growQueues( numPriorities ) );
+		depths = Arrays.copyOf( depths, numPriorities );
+		enqueued = Arrays.copyOf( enqueued, numPriorities );
+		dequeued = Arrays.copyOf( dequeued, numPriorities );
+	}
+
+	/**
+	 * The sub-queues of one client. Guarded by the {@code SharedQueue} lock.
+	 */
+	private static final class Client
+	{
+		PriorityQueue< Entry >[] queues;
+
+		ArrayDeque< Entry > prefetch = new ArrayDeque<>();
+
+		/**
+		 * Number of non-discarded entries in each of the {@link #queues}.
+		 */
+		int[] depths;
+
+		/**
+		 * Number of non-discarded entries in {@link #prefetch}.
+		 */
+		int prefetchDepth;
+
+		/**
+		 * Number of non-discarded entries in {@link #queues} and
+		 * {@link #prefetch}.
+		 */
+		int count;
+
+		/**
+		 * Number of requests currently being loaded.
+		 */
+		int active;
+
+		double weight = 1;
+
+		int maxConcurrentLoads = 0;
+
+		/**
+		 * Created lazily if the queue is adaptive.
+		 */
+		AdaptiveConcurrencyLimit adaptiveLimit;
+
+		/**
+		 * Stride scheduling: increases by {@code 1 / weight} with every
+		 * dispatched request. The client with the smallest pass goes next.
+		 */
+		double pass;
+
+		Client( final int numPriorities )
+		{
+			queues = newQueues( numPriorities );
+			depths = new int[ numPriorities ];
+		}
+
+		boolean isBusy()
+		{
+			return count > 0 || active > 0;
+		}
+
+		/**
+		 * Index of the highest non-empty priority level, or
+		 * {@code queues.length} for the prefetch queue.
+		 */
+		int firstLevel()
+		{
+			for ( int p = 0; p < depths.length; ++p )
+				if ( depths[ p ] > 0 )
+					return p;
+			return depths.length;
+		}
+
+		void add( final Entry entry )
+		{
+			queues[ entry.priority ].add( entry );
+			++depths[ entry.priority ];
+			++count;
+		}
+
+		/**
+		 * Remove the next non-discarded entry, assuming that
+		 * {@code count > 0}.
+		 */
+		Entry poll()
+		{
+			--count;
+			for ( int p = 0; p < depths.length; ++p )
+			{
+				if ( depths[ p ] > 0 )
+				{
+					Entry entry;
+					while ( ( entry = queues[ p ].poll() ).discarded )
+						;
+					--depths[ p ];
+					return entry;
+				}
+			}
+			Entry entry;
+			while ( ( entry = prefetch.poll() ).discarded )
+				;
+			--prefetchDepth;
+			return entry;
+		}
+
+		void clear()
+		{
+			for ( final PriorityQueue< Entry > queue : queues )
+				queue.clear();
+			prefetch.clear();
+			Arrays.fill( depths, 0 );
+			prefetchDepth = 0;
+			count = 0;
+		}
+
+		void growQueues( final int numPriorities )
+		{
+			final PriorityQueue< Entry >[] newQueues = newQueues( numPriorities );
+			System.arraycopy( queues, 0, newQueues, 0, queues.length );
+			queues = newQueues;
+			depths = Arrays.copyOf( depths, numPriorities );
+		}
+
+		@SuppressWarnings( "unchecked" )
+		private static PriorityQueue< Entry >[] newQueues( final int numPriorities )
+		{
+			final PriorityQueue< Entry >[] queues = new PriorityQueue[ numPriorities ];
+			for ( int p = 0; p < numPriorities; ++p )
+				queues[ p ] = new PriorityQueue<>();
+			return queues;
+		}
+	}
+
+	/**
+	 * A queued request.
+	 */
+	private static final class Entry implements Comparable< Entry >
+	{
+		final Callable< ? > task;
+
+		final RequestKey key;
+
+		final Client client;
+
+		final int priority;
+
+		final long generation;
+
+		/**
+		 * Quantized distance to the screen center, see
+		 * {@link SharedQueue#distanceRank(float)}.
+		 */
+		final int rank;
+
+		/**
+		 * Order of insertion. Negative for elements enqueued to the front.
+		 */
+		final long seq;
+
+		boolean inPrefetch;
+
+		boolean discarded;
+
+		Entry( final Callable< ? > task, final RequestKey key, final Client client, final int priority, final long generation, final int rank, final long seq )
+		{
+			this.task = task;
+			this.key = key;
+			this.client = client;
+			this.priority = priority;
+			this.generation = generation;
+			this.rank = rank;
+			this.seq = seq;
+		}
+
+		@Override
+		public int compareTo( final Entry o )
+		{
+			final int c = Integer.compare( rank, o.rank );
+			return c != 0 ? c : Long.compare( seq, o.seq );
+		}
+	}
+
+	/**
+	 * A request that is being loaded.
+	 */
+	private static final class InFlight
+	{
+		final RequestKey key;
+
+		final Client client;
+
+		final Thread thread;
+
+		/**
+		 * Generation in which the request was last made. Guarded by the
+		 * {@code SharedQueue} lock.
+		 */
+		long generation;
+
+		volatile boolean cancelled;
+
+		private boolean done;
+
+		private boolean interrupted;
+
+		InFlight( final RequestKey key, final Client client, final long generation, final Thread thread )
+		{
+			this.key = key;
+			this.client = client;
+			this.generation = generation;
+			this.thread = thread;
+		}
+
+		synchronized void cancel( final boolean interrupt )
+		{
+			if ( done || cancelled )
+				return;
+			cancelled = true;
+			if ( interrupt )
+			{
+				interrupted = true;
+				thread.interrupt();
+			}
+		}
+
+		/**
+		 * Mark the load as finished. No interrupts will be sent after this.
+		 *
+		 * @return whether the loading thread was interrupted by
+		 *         {@link #cancel(boolean)}.
+		 */
+		synchronized boolean finish()
+		{
+			done = true;
+			return interrupted;
+		}
+	}
+
+	/**
+	 * Identifies a requested cell across clients sharing this queue.
+	 */
+	private static final class RequestKey
+	{
+		private final Object client;
+
+		private final Object key;
+
+		private final int hashcode;
+
+		private RequestKey( final Object client, final Object key )
+		{
+			this.client = client;
+			this.key = key;
+			this.hashcode = 31 * System.identityHashCode( client ) + key.hashCode();
+		}
+
+		static RequestKey of( final RequestContext context )
+		{
+			final Object client = context.client();
+			if ( client == null )
+				return null;
+			final Object key = context.key();
+			return key == null ? null : new RequestKey( client, key );
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( !( obj instanceof RequestKey ) )
+				return false;
+			final RequestKey other = ( RequestKey ) obj;
+			return client == other.client && Objects.equals( key, other.key );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hashcode;
+		}
+	}
+
+	private class MXBean implements SharedQueueMXBean
+	{
+		@Override
+		public int[] getQueueDepths()
+		{
+			return getStats().getQueueDepths();
+		}
+
+		@Override
+		public int getPrefetchDepth()
+		{
+			return getStats().getPrefetchDepth();
+		}
+
+		@Override
+		public long[] getEnqueued()
+		{
+			return getStats().getEnqueued();
+		}
+
+		@Override
+		public long[] getDequeued()
+		{
+			return getStats().getDequeued();
+		}
+
+		@Override
+		public long getPrefetchDequeued()
+		{
+			return getStats().getPrefetchDequeued();
+		}
+
+		@Override
+		public long getPrefetchDropped()
+		{
+			return getStats().getPrefetchDropped();
+		}
+
+		@Override
+		public long getStaleDropped()
+		{
+			return getStats().getStaleDropped();
+		}
+
+		@Override
+		public long getRepeatedRequests()
+		{
+			return getStats().getRepeatedRequests();
+		}
+
+		@Override
+		public long getTasksCancelled()
+		{
+			return tasksCancelled.sum();
+		}
+
+		@Override
+		public int getNumFetcherThreads()
+		{
+			return fetcherThreads.size();
+		}
+
+		@Override
+		public int getMaxFetcherThreads()
+		{
+			return SharedQueue.this.getMaxFetcherThreads();
+		}
+
+		@Override
+		public int getActiveFetchers()
+		{
+			return activeFetchers.get();
+		}
+
+		@Override
+		public long getTasksCompleted()
+		{
+			return tasksCompleted.sum();
+		}
+
+		@Override
+		public long getTasksFailed()
+		{
+			return tasksFailed.sum();
+		}
+
+		@Override
+		public double getFetcherUtilization()
+		{
+			return getStats().getFetcherUtilization();
+		}
+	}
 }
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Access to virtual threads (Java 21+) via reflection, so that this code
+ * still runs on older JVMs.
+ */
+public final class VirtualThreads
+{
+	private static final Method OF_VIRTUAL;
+
+	private static final Method NAME;
+
+	private static final Method FACTORY;
+
+	static
+	{
+		Method ofVirtual = null;
+		Method name = null;
+		Method factory = null;
+		try
+		{
+			final Class< ? > builder = Class.forName( "java.lang.Thread$Builder" );
+			ofVirtual = Thread.class.getMethod( "ofVirtual" );
+			name = builder.getMethod( "name", String.class, long.class );
+			factory = builder.getMethod( "factory" );
+			// throws on Java 19 and 20 unless preview features are enabled
+			ofVirtual.invoke( null );
+		}
+		catch ( final ReflectiveOperationException | RuntimeException e )
+		{
+			// virtual threads are not available
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+	}
+
+	private VirtualThreads()
+	{}
+
+	/**
+	 * Whether virtual threads are supported by the running JVM.
+	 */
+	public static boolean isSupported()
+	{
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * Create a factory for virtual threads named {@code <prefix><i>}.
+	 *
+	 * @return a virtual thread factory, or {@code null} if virtual threads are
+	 *         not supported by the running JVM.
+	 */
+	public static ThreadFactory threadFactory( final String prefix )
+	{
+		if ( !isSupported() )
+			return null;
+		try
+		{
+			final Object builder = NAME.invoke( OF_VIRTUAL.invoke( null ), prefix, 0L );
+			return ( ThreadFactory ) FACTORY.invoke( builder );
+		}
+		catch ( final ReflectiveOperationException e )
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,518 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+
+/**
+ * A log of the completed parts of an export. It is used to resume an
+ * interrupted export, and to re-export only the views whose source data
+ * changed (for example, timepoints appended to an ongoing acquisition).
+ * <p>
+ * For each view, the log records a {@link ViewFingerprint fingerprint} of the
+ * source data, the blocks (or shards) of each resolution level that were
+ * written, and whether the view is complete. Entries are appended to a text
+ * file after the corresponding data was written, so after a crash the log
+ * contains (most of) the work that was completed. Block entries are buffered,
+ * and written at least every {@link #FLUSH_INTERVAL_MILLIS} milliseconds, and
+ * when the export {@link #flush() flushes}. If an export is re-run with the
+ * same log, complete views with unchanged fingerprint are skipped, and blocks
+ * that were already written are not computed again.
+ * <p>
+ * If the export parameters (resolutions, block sizes, compression, etc.)
+ * differ from those recorded in the log, the log is discarded and everything
+ * is exported again.
+ */
+public class ExportCheckpoint implements Closeable
+{
+	/**
+	 * Identifies the source data of a view. A view is exported again if its
+	 * fingerprint changed.
+	 */
+	public interface ViewFingerprint
+	{
+		String get( AbstractSequenceDescription< ?, ?, ? > seq, ViewId view );
+	}
+
+	/**
+	 * Fingerprint comprising dimensions and pixel type of a view. This
+	 * detects views that were added, or that changed shape, but not changes
+	 * of the pixel values. (For example, use modification times of the
+	 * source files to detect those.)
+	 */
+	public static final ViewFingerprint DEFAULT_FINGERPRINT = ( seq, view ) -> {
+		final BasicSetupImgLoader< ? > setupImgLoader = seq.getImgLoader().getSetupImgLoader( view.getViewSetupId() );
+		return Arrays.toString( setupImgLoader.getImage( view.getTimePointId() ).dimensionsAsLongArray() )
+				+ " " + setupImgLoader.getImageType().getClass().getName();
+	};
+
+	private static final String PARAMETERS = "parameters";
+
+	private static final String BEGIN = "begin";
+
+	private static final String LEVEL = "level";
+
+	private static final String BLOCK = "block";
+
+	private static final String SHARD = "shard";
+
+	private static final String DONE = "done";
+
+	/**
+	 * Maximum time that block entries are buffered before they are written to
+	 * the log file.
+	 */
+	public static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+	private static class Level
+	{
+		/**
+		 * Grid dimensions, or {@code null} if blocks are not recorded (only
+		 * shards).
+		 */
+		final long[] gridDimensions;
+
+		/**
+		 * Recorded blocks, by flattened grid index.
+		 */
+		final BitSet blocks = new BitSet();
+
+		final Set< String > shards = new HashSet<>();
+
+		long numBlocks;
+
+		long numEmptyBlocks;
+
+		Level( final long[] gridDimensions )
+		{
+			this.gridDimensions = gridDimensions;
+		}
+
+		/**
+		 * Mark block {@code index} as recorded.
+		 *
+		 * @return {@code false} if {@code index} is invalid, or the block was
+		 *         already recorded.
+		 */
+		boolean add( final int index, final boolean empty )
+		{
+			if ( index < 0 || blocks.get( index ) )
+				return false;
+			blocks.set( index );
+			++numBlocks;
+			if ( empty )
+				++numEmptyBlocks;
+			return true;
+		}
+
+		/**
+		 * Flattened index of the block at {@code gridPosition}, or {@code -1}
+		 * if it is outside the grid.
+		 */
+		int index( final long[] gridPosition )
+		{
+			if ( gridDimensions == null || gridPosition.length != gridDimensions.length )
+				return -1;
+			long index = 0;
+			for ( int d = gridDimensions.length - 1; d >= 0; --d )
+			{
+				if ( gridPosition[ d ] < 0 || gridPosition[ d ] >= gridDimensions[ d ] )
+					return -1;
+				index = index * gridDimensions[ d ] + gridPosition[ d ];
+			}
+			return ( int ) index;
+		}
+	}
+
+	private static class View
+	{
+		final String fingerprint;
+
+		boolean done;
+
+		final Map< Integer, Level > levels = new HashMap<>();
+
+		View( final String fingerprint )
+		{
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	private final File file;
+
+	private final ViewFingerprint fingerprint;
+
+	private String parameters;
+
+	private final Map< ViewId, View > views = new HashMap<>();
+
+	private Writer writer;
+
+	private long lastFlushNanos = System.nanoTime();
+
+	private ExportCheckpoint( final File file, final ViewFingerprint fingerprint )
+	{
+		this.file = file;
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Open the checkpoint log {@code file}, using the
+	 * {@link #DEFAULT_FINGERPRINT}. If the file exists, entries of a previous
+	 * export are read from it. Otherwise, it is created.
+	 */
+	public static ExportCheckpoint open( final File file ) throws IOException
+	{
+		return open( file, DEFAULT_FINGERPRINT );
+	}
+
+	/**
+	 * Open the checkpoint log {@code file}. If the file exists, entries of a
+	 * previous export are read from it. Otherwise, it is created.
+	 *
+	 * @param fingerprint
+	 *            identifies the source data of each view.
+	 */
+	public static ExportCheckpoint open( final File file, final ViewFingerprint fingerprint ) throws IOException
+	{
+		final ExportCheckpoint checkpoint = new ExportCheckpoint( file, fingerprint );
+		if ( file.exists() )
+		{
+			// only complete lines are entries. (If the export crashed, the
+			// last line may be incomplete.)
+			final String[] lines = new String( Files.readAllBytes( file.toPath() ), StandardCharsets.UTF_8 ).split( "\n", -1 );
+			for ( final String line : Arrays.asList( lines ).subList( 0, lines.length - 1 ) )
+			{
+				try
+				{
+					checkpoint.apply( line );
+				}
+				catch ( final RuntimeException e )
+				{
+					// ignore malformed line
+				}
+			}
+			truncateIncompleteLine( file );
+		}
+		checkpoint.writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+		return checkpoint;
+	}
+
+	/**
+	 * Remove an incomplete last line from {@code file}, so that new entries
+	 * do not get appended to it.
+	 */
+	private static void truncateIncompleteLine( final File file ) throws IOException
+	{
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			long length = raf.length();
+			while ( length > 0 )
+			{
+				raf.seek( length - 1 );
+				if ( raf.read() == '\n' )
+					break;
+				--length;
+			}
+			raf.setLength( length );
+		}
+	}
+
+	/**
+	 * Compute the fingerprint of the source data of {@code view}.
+	 */
+	public String fingerprint( final AbstractSequenceDescription< ?, ?, ? > seq, final ViewId view )
+	{
+		// entries are line based
+		return fingerprint.get( seq, view ).replaceAll( "[\r\n]", " " );
+	}
+
+	/**
+	 * Set the export parameters. If they differ from the parameters recorded
+	 * in the log, all entries are discarded.
+	 */
+	public synchronized void setParameters( final String parameters ) throws IOException
+	{
+		final String p = parameters.replaceAll( "[\r\n]", " " );
+		if ( p.equals( this.parameters ) )
+			return;
+		if ( this.parameters != null || !views.isEmpty() )
+		{
+			writer.close();
+			writer = Files.newBufferedWriter( file.toPath(), StandardCharsets.UTF_8 );
+			views.clear();
+		}
+		record( PARAMETERS + " " + p );
+	}
+
+	/**
+	 * Whether {@code view} was completely exported from source data with the
+	 * given {@code fingerprint}.
+	 */
+	public synchronized boolean isViewDone( final ViewId view, final String fingerprint )
+	{
+		final View v = views.get( view );
+		return v != null && v.done && v.fingerprint.equals( fingerprint );
+	}
+
+	/**
+	 * Start (or resume) exporting {@code view}. If the view was previously
+	 * started from source data with the same {@code fingerprint} and not
+	 * completed, the blocks that were written then are kept. Otherwise, all
+	 * entries for the view are discarded.
+	 */
+	public synchronized void beginView( final ViewId view, final String fingerprint ) throws IOException
+	{
+		final View v = views.get( view );
+		if ( v == null || v.done || !v.fingerprint.equals( fingerprint ) )
+			record( String.format( "%s %d %d %s", BEGIN, view.getTimePointId(), view.getViewSetupId(), fingerprint ) );
+	}
+
+	/**
+	 * Record that {@code view} was completely exported from source data with
+	 * the given {@code fingerprint}.
+	 */
+	public synchronized void viewDone( final ViewId view, final String fingerprint ) throws IOException
+	{
+		record( String.format( "%s %d %d %s", DONE, view.getTimePointId(), view.getViewSetupId(), fingerprint ) );
+	}
+
+	/**
+	 * Whether resolution {@code level} of {@code view} was
+	 * {@link #beginLevel begun} (or shards of it were recorded) since the view
+	 * was {@link #beginView begun}.
+	 */
+	public synchronized boolean hasLevel( final ViewId view, final int level )
+	{
+		return getLevel( view, level ) != null;
+	}
+
+	/**
+	 * Start writing resolution {@code level} of {@code view} from scratch.
+	 * Entries for the level are discarded, and blocks are recorded for a grid
+	 * of the given dimensions.
+	 */
+	public synchronized void beginLevel( final ViewId view, final int level, final long[] gridDimensions ) throws IOException
+	{
+		record( String.format( "%s %d %d %d %s", LEVEL, view.getTimePointId(), view.getViewSetupId(), level, toString( gridDimensions ) ) );
+	}
+
+	/**
+	 * Record that the block at {@code gridPosition} in resolution
+	 * {@code level} of {@code view} was written, or that it was {@code empty}
+	 * and therefore not written. The level must have been
+	 * {@link #beginLevel begun}, otherwise the entry is ignored.
+	 * <p>
+	 * The entry is buffered, see {@link #flush()}.
+	 */
+	public synchronized void blockDone( final ViewId view, final int level, final long[] gridPosition, final boolean empty ) throws IOException
+	{
+		final Level l = getLevel( view, level );
+		if ( l == null || !l.add( l.index( gridPosition ), empty ) )
+			return;
+		final StringBuilder sb = new StringBuilder( 64 )
+				.append( BLOCK ).append( ' ' )
+				.append( view.getTimePointId() ).append( ' ' )
+				.append( view.getViewSetupId() ).append( ' ' )
+				.append( level ).append( ' ' );
+		for ( int d = 0; d < gridPosition.length; ++d )
+			( d == 0 ? sb : sb.append( ',' ) ).append( gridPosition[ d ] );
+		sb.append( ' ' ).append( empty ? 1 : 0 ).append( '\n' );
+		writer.append( sb );
+		if ( System.nanoTime() - lastFlushNanos > FLUSH_INTERVAL_MILLIS * 1_000_000L )
+			flush();
+	}
+
+	/**
+	 * Record that the shard at {@code shardPosition} in resolution
+	 * {@code level} of {@code view} was written. The shard comprises
+	 * {@code numBlocks} blocks, of which {@code numEmptyBlocks} were empty.
+	 */
+	public synchronized void shardDone( final ViewId view, final int level, final long[] shardPosition, final int numBlocks, final int numEmptyBlocks ) throws IOException
+	{
+		record( String.format( "%s %d %d %d %s %d %d", SHARD, view.getTimePointId(), view.getViewSetupId(), level, toString( shardPosition ), numBlocks, numEmptyBlocks ) );
+	}
+
+	public synchronized boolean isBlockDone( final ViewId view, final int level, final long[] gridPosition )
+	{
+		final Level l = getLevel( view, level );
+		if ( l == null )
+			return false;
+		final int i = l.index( gridPosition );
+		return i >= 0 && l.blocks.get( i );
+	}
+
+	public synchronized boolean isShardDone( final ViewId view, final int level, final long[] shardPosition )
+	{
+		final Level l = getLevel( view, level );
+		return l != null && l.shards.contains( toString( shardPosition ) );
+	}
+
+	/**
+	 * Number of blocks of resolution {@code level} of {@code view} that were
+	 * recorded (including empty blocks).
+	 */
+	public synchronized long getNumBlocks( final ViewId view, final int level )
+	{
+		final Level l = getLevel( view, level );
+		return l == null ? 0 : l.numBlocks;
+	}
+
+	/**
+	 * Number of empty blocks of resolution {@code level} of {@code view} that
+	 * were recorded.
+	 */
+	public synchronized long getNumEmptyBlocks( final ViewId view, final int level )
+	{
+		final Level l = getLevel( view, level );
+		return l == null ? 0 : l.numEmptyBlocks;
+	}
+
+	/**
+	 * Write buffered entries to the log file. (Entries other than
+	 * {@link #blockDone blocks} are written immediately.)
+	 */
+	public synchronized void flush() throws IOException
+	{
+		writer.flush();
+		lastFlushNanos = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		writer.close();
+	}
+
+	private Level getLevel( final ViewId view, final int level )
+	{
+		final View v = views.get( view );
+		return v == null ? null : v.levels.get( level );
+	}
+
+	/**
+	 * Apply the entry {@code line} and append it to the log.
+	 */
+	private void record( final String line ) throws IOException
+	{
+		apply( line );
+		writer.write( line );
+		writer.write( '\n' );
+		flush();
+	}
+
+	/**
+	 * Update the state according to the entry {@code line}.
+	 */
+	private void apply( final String line )
+	{
+		final String[] tokens = line.split( " ", 2 );
+		final String[] args = tokens.length > 1 ? tokens[ 1 ].split( " " ) : new String[ 0 ];
+		switch ( tokens[ 0 ] )
+		{
+		case PARAMETERS:
+			parameters = tokens.length > 1 ? tokens[ 1 ] : "";
+			views.clear();
+			break;
+		case BEGIN:
+		case DONE:
+		{
+			final String[] a = tokens[ 1 ].split( " ", 3 );
+			final ViewId view = new ViewId( Integer.parseInt( a[ 0 ] ), Integer.parseInt( a[ 1 ] ) );
+			final View v = new View( a.length > 2 ? a[ 2 ] : "" );
+			v.done = tokens[ 0 ].equals( DONE );
+			views.put( view, v );
+			break;
+		}
+		case LEVEL:
+		{
+			final View v = views.get( new ViewId( Integer.parseInt( args[ 0 ] ), Integer.parseInt( args[ 1 ] ) ) );
+			if ( v != null )
+			{
+				final long[] gridDimensions = Arrays.stream( args[ 3 ].split( "," ) ).mapToLong( Long::parseLong ).toArray();
+				// blocks of (unrealistically) large grids are not recorded
+				final boolean fits = Arrays.stream( gridDimensions ).asDoubleStream().reduce( 1, ( a, b ) -> a * b ) <= Integer.MAX_VALUE;
+				v.levels.put( Integer.parseInt( args[ 2 ] ), new Level( fits ? gridDimensions : null ) );
+			}
+			break;
+		}
+		case BLOCK:
+		{
+			final View v = views.get( new ViewId( Integer.parseInt( args[ 0 ] ), Integer.parseInt( args[ 1 ] ) ) );
+			if ( v == null || v.done )
+				break;
+			final Level l = v.levels.get( Integer.parseInt( args[ 2 ] ) );
+			if ( l != null )
+			{
+				final long[] gridPosition = Arrays.stream( args[ 3 ].split( "," ) ).mapToLong( Long::parseLong ).toArray();
+				l.add( l.index( gridPosition ), Integer.parseInt( args[ 4 ] ) != 0 );
+			}
+			break;
+		}
+		case SHARD:
+		{
+			final View v = views.get( new ViewId( Integer.parseInt( args[ 0 ] ), Integer.parseInt( args[ 1 ] ) ) );
+			if ( v == null || v.done )
+				break;
+			final Level l = v.levels.computeIfAbsent( Integer.parseInt( args[ 2 ] ), k -> new Level( null ) );
+			if ( l.shards.add( args[ 3 ] ) )
+			{
+				l.numBlocks += Integer.parseInt( args[ 4 ] );
+				l.numEmptyBlocks += Integer.parseInt( args[ 5 ] );
+			}
+			break;
+		}
+		default:
+			throw new IllegalArgumentException( "unknown checkpoint entry: " + line );
+		}
+	}
+
+	private static String toString( final long[] position )
+	{
+		return Arrays.stream( position ).mapToObj( Long::toString ).collect( Collectors.joining( "," ) );
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.IOException;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * An additional output of an export. It receives the same blocks as the
+ * primary output, such that the scale pyramid of each view is computed only
+ * once for all outputs. (For example, see
+ * {@link WriteSequenceToHdf5#writeHdf5PartitionFile(AbstractSequenceDescription, java.util.Map, boolean, bdv.img.hdf5.Partition, ExportScalePyramid.LoopbackHeuristic, ExportScalePyramid.AfterEachPlane, int, ExportCheckpoint, java.util.List, ProgressWriter)}.)
+ */
+public interface ExportOutput
+{
+	/**
+	 * Create the {@code DatasetIO} for writing the scale pyramid of
+	 * {@code view}.
+	 *
+	 * @param seq
+	 *            the sequence that is exported.
+	 * @param view
+	 *            the view that will be written (with timepoint and setup id
+	 *            of {@code seq}).
+	 * @param mipmapInfo
+	 *            resolutions and block sizes of the scale pyramid.
+	 * @param type
+	 *            pixel type of the view.
+	 */
+	< T extends RealType< T > & NativeType< T > > DatasetIO< ?, T > createDatasetIO(
+			AbstractSequenceDescription< ?, ?, ? > seq,
+			ViewId view,
+			ExportMipmapInfo mipmapInfo,
+			T type ) throws IOException;
+
+	/**
+	 * Called after the scale pyramid of {@code view} was completely written
+	 * (and flushed) through the {@code DatasetIO} created for it.
+	 */
+	void viewDone(
+			AbstractSequenceDescription< ?, ?, ? > seq,
+			ViewId view,
+			ExportMipmapInfo mipmapInfo ) throws IOException;
+}
@@ -30,12 +30,13 @@ package bdv.export;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
@@ -95,6 +96,25 @@ public class ExportScalePyramid
 		}
 	}
 
+	/**
+	 * Compute all resolution levels in a single pass over the original image:
+	 * Each block of the original image is read once, and downsampled into all
+	 * coarser resolution levels in memory, without reading back previously
+	 * written levels.
+	 * <p>
+	 * This requires that the downsampling factors of each level are integer
+	 * multiples of those of the previous level. If that is not the case, this
+	 * heuristic decides to read back the previous level wherever possible.
+	 */
+	public static class SinglePassHeuristic implements LoopbackHeuristic
+	{
+		@Override
+		public boolean decide( final RandomAccessibleInterval< ? > originalImg, final int[] factorsToOriginalImg, final int previousLevel, final int[] factorsToPreviousLevel, final int[] chunkSize )
+		{
+			return previousLevel >= 0;
+		}
+	}
+
 	/**
 	 * Callback that is called after each "plane of blocks" is written, giving
 	 * the opportunity to clear caches, etc.
@@ -139,11 +159,130 @@ public class ExportScalePyramid
 				final D dataset,
 				final DataBlock< ? > dataBlock ) throws IOException;
 
+		/**
+		 * Create the dataset for the image of the given resolution
+		 * {@code level} as a copy of an existing stored dataset with the same
+		 * dimensions, block size, and encoding, if there is one. The blocks of
+		 * such a dataset are {@link #copyBlock copied} without decoding them,
+		 * instead of being computed. (This is not done if all levels are
+		 * computed in a single pass, see {@link SinglePassHeuristic}.) The
+		 * default implementation returns {@code null}.
+		 *
+		 * @return a handle to the dataset, or {@code null} if there is no
+		 *         dataset to copy from.
+		 */
+		default D createCopiedDataset(
+				final int level,
+				final long[] dimensions,
+				final int[] blockSize ) throws IOException
+		{
+			return null;
+		}
+
+		/**
+		 * Copy the stored block at {@code gridPosition} into a
+		 * {@code dataset} that was created by {@link #createCopiedDataset}.
+		 * Implementations that override {@link #createCopiedDataset} must
+		 * override this, too. The default implementation returns
+		 * {@code false}.
+		 *
+		 * @return {@code true} if the block was copied, {@code false} if it
+		 *         is not stored (i.e., empty).
+		 */
+		default boolean copyBlock(
+				final D dataset,
+				final long[] gridPosition ) throws IOException
+		{
+			return false;
+		}
+
+		/**
+		 * Open the dataset for the image of the given resolution
+		 * {@code level}, that was partially written by a previous export that
+		 * was interrupted, in order to resume writing it. Blocks for which
+		 * {@link #isBlockDone} returns {@code true} are not written again.
+		 * (This is not done if all levels are computed in a single pass, see
+		 * {@link SinglePassHeuristic}.) The default implementation returns
+		 * {@code null}.
+		 *
+		 * @return a handle to the dataset, or {@code null} if there is no
+		 *         dataset to resume.
+		 */
+		default D resumeDataset(
+				final int level,
+				final long[] dimensions,
+				final int[] blockSize ) throws IOException
+		{
+			return null;
+		}
+
+		/**
+		 * Whether the block at {@code gridPosition} of a {@code dataset} that
+		 * was created by {@link #resumeDataset} was already written (or
+		 * skipped, because it was empty).
+		 */
+		default boolean isBlockDone(
+				final D dataset,
+				final long[] gridPosition ) throws IOException
+		{
+			return false;
+		}
+
+		/**
+		 * Whether empty (all zero) blocks may be omitted from datasets, that
+		 * is, blocks that are not stored read as zeros. If so,
+		 * {@link ExportScalePyramid#writeScalePyramid writeScalePyramid} does
+		 * not write empty blocks, but calls {@link #skipBlock} and
+		 * {@link #setOccupancy} instead. The default implementation returns
+		 * {@code false}, so every block is written.
+		 */
+		default boolean supportsSkippedBlocks()
+		{
+			return false;
+		}
+
+		/**
+		 * Called instead of {@link #writeBlock} for the empty (all zero)
+		 * block at {@code gridPosition}, which is not written (if
+		 * {@link #supportsSkippedBlocks()}). The default implementation does
+		 * nothing.
+		 */
+		default void skipBlock(
+				final D dataset,
+				final long[] gridPosition ) throws IOException
+		{}
+
+		/**
+		 * The number of blocks (in each dimension) that are stored together in
+		 * one shard of {@code dataset}, or {@code null} if blocks are stored
+		 * individually. The blocks of a sharded dataset are generated shard by
+		 * shard, so that only a few shards are incomplete at any time. The
+		 * default implementation returns {@code null}.
+		 */
+		default int[] getBlocksPerShard( final D dataset )
+		{
+			return null;
+		}
+
 		/**
 		 * Blocks until all pending data was written to {@code dataset}.
 		 */
 		void flush() throws IOException;
 
+		/**
+		 * Record that {@code numEmptyBlocks} of the {@code numBlocks} blocks
+		 * of {@code dataset} were empty (all zero) and therefore not written.
+		 * This is called after all blocks of the dataset were
+		 * {@link #flush() flushed}. For a {@link #resumeDataset resumed}
+		 * dataset, blocks that were {@link #isBlockDone already done} are not
+		 * included in the counts. The default implementation does nothing.
+		 */
+		default void setOccupancy(
+				final D dataset,
+				final long numBlocks,
+				final long numEmptyBlocks ) throws IOException
+		{}
+
 		/**
 		 * Opens a dataset that was already written as a
 		 * {@code RaπdomAccessibleInterval}.
@@ -155,7 +294,11 @@ public class ExportScalePyramid
 	}
 
 	/**
-	 * Write an image to a chunked mipmap representation.
+	 * Write an image to a chunked mipmap representation. If
+	 * {@link DatasetIO#supportsSkippedBlocks() supported} by {@code io}, empty
+	 * blocks (all zero) are not written, and the number of empty blocks per
+	 * level is reported to {@link DatasetIO#setOccupancy}. Otherwise, every
+	 * block is written.
 	 *
 	 * @param img
 	 *            the image to be written.
@@ -175,7 +318,9 @@ public class ExportScalePyramid
 	 *            heuristic to decide whether to create each resolution level by
 	 *            reading pixels from the original image or by reading back a
 	 *            finer resolution level already written to the hdf5. may be
-	 *            null (in this case always use the original image).
+	 *            null (in this case always use the original image). If this is
+	 *            a {@link SinglePassHeuristic}, all levels are computed in a
+	 *            single pass over the original image (if possible).
 	 * @param afterEachPlane
 	 *            this is called after each "plane of blocks" is written, giving
 	 *            the opportunity to clear caches, etc. may be null.
@@ -191,6 +336,82 @@ public class ExportScalePyramid
 	 * @throws IOException
 	 */
 	public static < T extends RealType< T > & NativeType< T >, D > void writeScalePyramid(
+			final RandomAccessibleInterval< T > img,
+			final T type,
+			final ExportMipmapInfo mipmapInfo,
+			final DatasetIO< D, T > io,
+			final ExecutorService executorService,
+			final int numThreads,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		if ( io.supportsSkippedBlocks() )
+			// empty blocks are not written, they read as zeros anyway
+			write( img, type, mipmapInfo, new SparseDatasetIO<>( io ), executorService, numThreads, loopbackHeuristic, afterEachPlane, progressWriter );
+		else
+			write( img, type, mipmapInfo, io, executorService, numThreads, loopbackHeuristic, afterEachPlane, progressWriter );
+	}
+
+	/**
+	 * Write an image to a chunked mipmap representation in several outputs.
+	 * Each block is computed once, and handed to all {@code ios}. For
+	 * example, this writes HDF5 and N5 at the cost of reading and
+	 * downsampling the image only once. Empty blocks (all zero) are not
+	 * written, if all {@code ios} {@link DatasetIO#supportsSkippedBlocks()
+	 * support} that.
+	 * <p>
+	 * Previously written resolution levels (see {@code loopbackHeuristic})
+	 * are read back from the first output that provides them. Stored blocks
+	 * are not copied, and interrupted datasets are not resumed (see
+	 * {@link DatasetIO#createCopiedDataset}, {@link DatasetIO#resumeDataset}).
+	 *
+	 * @param img
+	 *            the image to be written.
+	 * @param type
+	 *            instance of the pixel type of the image.
+	 * @param mipmapInfo
+	 *            contains for each mipmap level of the setup, the subsampling
+	 *            factors and block sizes.
+	 * @param ios
+	 *            writers for image blocks, one for each output.
+	 * @param executorService
+	 *            ExecutorService where block-creator tasks are submitted.
+	 * @param numThreads
+	 *            How many block-creator tasks to run in parallel.
+	 * @param loopbackHeuristic
+	 *            heuristic to decide whether to create each resolution level by
+	 *            reading pixels from the original image or by reading back a
+	 *            finer resolution level already written. may be null (in this
+	 *            case always use the original image).
+	 * @param afterEachPlane
+	 *            this is called after each "plane of blocks" is written, giving
+	 *            the opportunity to clear caches, etc. may be null.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here. may
+	 *            be null.
+	 *
+	 * @param <T>
+	 *            Pixel type
+	 *
+	 * @throws IOException
+	 */
+	public static < T extends RealType< T > & NativeType< T > > void writeScalePyramid(
+			final RandomAccessibleInterval< T > img,
+			final T type,
+			final ExportMipmapInfo mipmapInfo,
+			final List< ? extends DatasetIO< ?, T > > ios,
+			final ExecutorService executorService,
+			final int numThreads,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		final DatasetIO< ?, T > io = ios.size() == 1 ? ios.get( 0 ) : new MultiDatasetIO<>( ios );
+		writeScalePyramid( img, type, mipmapInfo, io, executorService, numThreads, loopbackHeuristic, afterEachPlane, progressWriter );
+	}
+
+	private static < T extends RealType< T > & NativeType< T >, D > void write(
 			final RandomAccessibleInterval< T > img,
 			final T type,
 			final ExportMipmapInfo mipmapInfo,
@@ -218,6 +439,29 @@ public class ExportScalePyramid
 		final int[][] subdivisions = mipmapInfo.getSubdivisions();
 		final int numLevels = mipmapInfo.getNumLevels();
 
+		if ( loopbackHeuristic instanceof SinglePassHeuristic )
+		{
+			final int[][] factors = StreamingScalePyramid.getRelativeFactors( resolutions );
+			if ( factors != null )
+			{
+				progressWriter.out().println( "writing all levels" );
+				final long[][] dimensions = new long[ numLevels ][];
+				dimensions[ 0 ] = Downsample.getDownsampledDimensions( img.dimensionsAsLongArray(), factors[ 0 ] );
+				for ( int level = 1; level < numLevels; ++level )
+					dimensions[ level ] = Downsample.getDownsampledDimensions( dimensions[ level - 1 ], factors[ level ] );
+
+				final boolean fullResolution = ( Intervals.numElements( factors[ 0 ] ) == 1 );
+				final BlockSupplier< T > imgBlocks = BlockSupplier.of( img.view().extend( Extension.border() ) );
+				final BlockSupplier< T > blocks = ( fullResolution ? imgBlocks : imgBlocks.andThen( Downsample.downsample( factors[ 0 ] ) ) ).threadSafe();
+
+				new StreamingScalePyramid<>( dataType, dimensions, subdivisions, factors, io ).write(
+						( min, size, dest ) -> blocks.copy( BlockInterval.wrap( min, size ), dest ),
+						executorService, numThreads, afterEachPlane, progressWriter );
+				progressWriter.setProgress( 1.0 );
+				return;
+			}
+		}
+
 		for ( int level = 0; level < numLevels; ++level )
 		{
 			progressWriter.out().println( "writing level " + level );
@@ -286,7 +530,15 @@ public class ExportScalePyramid
 			final boolean fullResolution = (Intervals.numElements( factor ) == 1);
 
 			final int[] cellDimensions = subdivisions[ level ];
-			final D dataset = io.createDataset( level, dimensions, cellDimensions );
+			final D copiedDataset = io.createCopiedDataset( level, dimensions, cellDimensions );
+			final boolean copy = copiedDataset != null;
+			final D resumedDataset = copy ? null : io.resumeDataset( level, dimensions, cellDimensions );
+			final boolean resume = resumedDataset != null;
+			final D dataset = copy ? copiedDataset : resume ? resumedDataset : io.createDataset( level, dimensions, cellDimensions );
+			if ( copy )
+				progressWriter.out().println( "copying stored blocks of level " + level );
+			else if ( resume )
+				progressWriter.out().println( "resuming level " + level );
 
 			final BlockSupplier< T > imgBlocks = BlockSupplier.of( sourceImg.view().extend( Extension.border() ) );
 			final BlockSupplier< T > blocks = ( fullResolution ? imgBlocks : imgBlocks.andThen( Downsample.downsample( factor ) ) ).threadSafe();
@@ -296,25 +548,31 @@ public class ExportScalePyramid
 					( double ) ( numCompletedTasks + 1 ) / numTasks );
 			// generate one "plane" of cells after the other to avoid cache thrashing when exporting from virtual stacks
 			final CellGrid grid = new CellGrid( dimensions, cellDimensions );
-			final long[] numCells = grid.getGridDimensions();
-			final long numBlocksPerPlane = numElements( numCells, 0, 2 );
-			final long numPlanes = numElements( numCells, 2, n );
+			final BlockOrder order = new BlockOrder( grid.getGridDimensions(), io.getBlocksPerShard( dataset ) );
+			final long numPlanes = order.numPlanes();
 			for ( int plane = 0; plane < numPlanes; ++plane )
 			{
-				final long planeBaseIndex = numBlocksPerPlane * plane;
-				final AtomicInteger nextCellInPlane = new AtomicInteger();
+				final BlockOrder.Plane blocksInPlane = order.plane( plane );
+				final AtomicLong nextCellInPlane = new AtomicLong();
 				final List< Callable< Void > > tasks = new ArrayList<>();
 				for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
 				{
 					tasks.add( () -> {
 						final long[] currentCellMin = new long[ n ];
-						for ( int i = nextCellInPlane.getAndIncrement(); i < numBlocksPerPlane; i = nextCellInPlane.getAndIncrement() )
+						final int[] blockSize = new int[ n ];
+						for ( long i = nextCellInPlane.getAndIncrement(); i < blocksInPlane.numBlocks(); i = nextCellInPlane.getAndIncrement() )
 						{
-							final long index = planeBaseIndex + i;
-							final int[] blockSize = grid.getCellDimensions( index, currentCellMin ).dimensions();
 							final long[] gridPosition = new long[ n ];
-							grid.getCellGridPositionFlat( index, gridPosition );
-							final DataBlock< ? > block = dataType.createDataBlock( blockSize, gridPosition );
+							blocksInPlane.getGridPosition( i, gridPosition );
+							if ( resume && io.isBlockDone( dataset, gridPosition ) )
+								continue;
+							if ( copy )
+							{
+								io.copyBlock( dataset, gridPosition );
+								continue;
+							}
+							grid.getCellDimensions( gridPosition, currentCellMin, blockSize );
+							final DataBlock< ? > block = dataType.createDataBlock( blockSize.clone(), gridPosition );
 							blocks.copy( BlockInterval.wrap( currentCellMin, blockSize), block.getData() );
 							io.writeBlock( dataset, block );
 						}
@@ -343,11 +601,101 @@ public class ExportScalePyramid
 		}
 	}
 
-	private static long numElements( final long[] size, final int mind, final int maxd )
+	/**
+	 * The order in which the blocks of a level are generated. Blocks are
+	 * generated in "planes", one after the other. Without shards, a plane is
+	 * one z-slice of blocks, in flat order. With shards, a plane is one
+	 * z-slice of shards, and its blocks are ordered shard by shard. Because
+	 * the block-creator threads take blocks in this order, only about one
+	 * shard per thread is incomplete at any time.
+	 */
+	static class BlockOrder
 	{
-		long numElements = 1;
-		for ( int d = mind; d < maxd; ++d )
-			numElements *= size[ d ];
-		return numElements;
+		private final long[] numCells;
+
+		private final int[] blocksPerShard;
+
+		/**
+		 * @param numCells
+		 *            grid dimensions of the level (3D).
+		 * @param blocksPerShard
+		 *            number of blocks per shard in each dimension, or
+		 *            {@code null} if the level is not sharded.
+		 */
+		BlockOrder( final long[] numCells, final int[] blocksPerShard )
+		{
+			this.numCells = numCells;
+			this.blocksPerShard = blocksPerShard != null
+					? blocksPerShard
+					: new int[] { ( int ) numCells[ 0 ], ( int ) numCells[ 1 ], 1 };
+		}
+
+		long numPlanes()
+		{
+			return ( numCells[ 2 ] + blocksPerShard[ 2 ] - 1 ) / blocksPerShard[ 2 ];
+		}
+
+		Plane plane( final long plane )
+		{
+			return new Plane( plane );
+		}
+
+		class Plane
+		{
+			private final long minZ;
+
+			private final int depth;
+
+			private final long numShardsX;
+
+			/**
+			 * Index of the first block of each shard of the plane (and the
+			 * number of blocks in the plane as the last element).
+			 */
+			private final long[] shardStart;
+
+			private Plane( final long plane )
+			{
+				minZ = plane * blocksPerShard[ 2 ];
+				depth = ( int ) Math.min( blocksPerShard[ 2 ], numCells[ 2 ] - minZ );
+				numShardsX = ( numCells[ 0 ] + blocksPerShard[ 0 ] - 1 ) / blocksPerShard[ 0 ];
+				final long numShardsY = ( numCells[ 1 ] + blocksPerShard[ 1 ] - 1 ) / blocksPerShard[ 1 ];
+				shardStart = new long[ ( int ) ( numShardsX * numShardsY ) + 1 ];
+				for ( int s = 0; s < shardStart.length - 1; ++s )
+					shardStart[ s + 1 ] = shardStart[ s ] + ( long ) width( 0, s % numShardsX ) * width( 1, s / numShardsX ) * depth;
+			}
+
+			/**
+			 * Number of blocks of the shard at {@code shardPosition} along
+			 * dimension {@code d}.
+			 */
+			private int width( final int d, final long shardPosition )
+			{
+				return ( int ) Math.min( blocksPerShard[ d ], numCells[ d ] - shardPosition * blocksPerShard[ d ] );
+			}
+
+			long numBlocks()
+			{
+				return shardStart[ shardStart.length - 1 ];
+			}
+
+			/**
+			 * Get the grid position of the {@code i}-th block of the plane.
+			 */
+			void getGridPosition( final long i, final long[] gridPosition )
+			{
+				final int found = Arrays.binarySearch( shardStart, i );
+				final int s = found >= 0 ? found : -found - 2;
+				final long shardX = s % numShardsX;
+				final long shardY = s / numShardsX;
+				final int widthX = width( 0, shardX );
+				final int widthY = width( 1, shardY );
+				long index = i - shardStart[ s ];
+				gridPosition[ 0 ] = shardX * blocksPerShard[ 0 ] + index % widthX;
+				index /= widthX;
+				gridPosition[ 1 ] = shardY * blocksPerShard[ 1 ] + index % widthY;
+				gridPosition[ 2 ] = minZ + index / widthY;
+			}
+		}
 	}
 }
@@ -38,6 +38,9 @@ import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5LibraryException;
 import hdf.hdf5lib.structs.H5O_info_t;
 import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -67,6 +70,35 @@ import static hdf.hdf5lib.HDF5Constants.H5S_SELECT_SET;
 
 class HDF5Access
 {
+	/**
+	 * {@code H5Dwrite_chunk} (HDF5 1.10.2+) is looked up by reflection because
+	 * not all versions of the Java bindings provide it.
+	 */
+	private static final Method writeChunk;
+
+	static
+	{
+		Method method;
+		try
+		{
+			method = H5.class.getMethod( "H5Dwrite_chunk", long.class, long.class, int.class, long[].class, byte[].class );
+		}
+		catch ( final NoSuchMethodException | SecurityException e )
+		{
+			method = null;
+		}
+		writeChunk = method;
+	}
+
+	/**
+	 * Whether chunks can be written directly (pre-compressed), see
+	 * {@link #createChunkEncoder(String)}.
+	 */
+	static boolean isDirectChunkWriteSupported()
+	{
+		return writeChunk != null;
+	}
+
 	private final IHDF5Writer hdf5Writer;
 
 	private final long fileId;
@@ -270,6 +302,96 @@ class HDF5Access
 		}
 	}
 
+	/**
+	 * Create a {@link Hdf5ChunkEncoder} for the (existing) dataset
+	 * {@code pathName}, that applies the dataset's filter pipeline.
+	 *
+	 * @return the encoder, or {@code null} if direct chunk writes are not
+	 *         supported, or the dataset does not exist or is not chunked,
+	 *         or its filter pipeline is not
+	 *         {@link Hdf5ChunkEncoder#isSupported(int[]) supported}.
+	 */
+	public Hdf5ChunkEncoder createChunkEncoder( final String pathName )
+	{
+		if ( writeChunk == null )
+			return null;
+
+		try ( OpenDataSet dataset = openDataSetCache.getDataSet( pathName ) )
+		{
+			if ( dataset == null )
+				return null;
+
+			final int elementSize;
+			final ByteOrder byteOrder;
+			final long typeId = H5.H5Dget_type( dataset.dataSetId );
+			try
+			{
+				elementSize = ( int ) H5.H5Tget_size( typeId );
+				byteOrder = H5.H5Tget_order( typeId ) == HDF5Constants.H5T_ORDER_BE
+						? ByteOrder.BIG_ENDIAN
+						: ByteOrder.LITTLE_ENDIAN;
+			}
+			finally
+			{
+				H5.H5Tclose( typeId );
+			}
+
+			final long plistId = H5.H5Dget_create_plist( dataset.dataSetId );
+			try
+			{
+				if ( H5.H5Pget_layout( plistId ) != HDF5Constants.H5D_CHUNKED )
+					return null;
+				final long fileSpaceId = H5Dget_space( dataset.dataSetId );
+				final int n = H5.H5Sget_simple_extent_ndims( fileSpaceId );
+				H5Sclose( fileSpaceId );
+				final long[] longChunkSize = new long[ n ];
+				H5.H5Pget_chunk( plistId, n, longChunkSize );
+				final int[] chunkSize = new int[ n ];
+				Arrays.setAll( chunkSize, d -> ( int ) longChunkSize[ d ] );
+
+				final int numFilters = H5.H5Pget_nfilters( plistId );
+				final int[] filters = new int[ numFilters ];
+				final int[][] cdValues = new int[ numFilters ][];
+				for ( int i = 0; i < numFilters; ++i )
+				{
+					final long[] cdNelmts = { 20 };
+					final int[] values = new int[ 20 ];
+					filters[ i ] = H5.H5Pget_filter( plistId, i, new int[ 1 ], cdNelmts, values, 120, new String[ 1 ], new int[ 1 ] );
+					cdValues[ i ] = Arrays.copyOf( values, ( int ) Math.min( cdNelmts[ 0 ], values.length ) );
+				}
+				// e.g., integer datasets with scale-offset are written with H5Dwrite
+				if ( !Hdf5ChunkEncoder.isSupported( filters ) )
+					return null;
+				return new Hdf5ChunkEncoder( chunkSize, elementSize, byteOrder, filters, cdValues );
+			}
+			finally
+			{
+				H5.H5Pclose( plistId );
+			}
+		}
+	}
+
+	/**
+	 * Write a chunk that was encoded by a {@link Hdf5ChunkEncoder} obtained
+	 * from {@link #createChunkEncoder(String)}.
+	 */
+	public void writeChunk( final String pathName, final Hdf5ChunkEncoder.Chunk chunk )
+	{
+		try ( OpenDataSet dataset = openDataSetCache.getDataSet( pathName ) )
+		{
+			writeChunk.invoke( null, dataset.dataSetId, H5P_DEFAULT, 0, chunk.offset, chunk.data );
+		}
+		catch ( final InvocationTargetException e )
+		{
+			final Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? ( RuntimeException ) cause : new RuntimeException( cause );
+		}
+		catch ( final IllegalAccessException e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
 	private static long[] reorderMultiply( final long[] in1, final int[] in2, final long[] out )
 	{
 		assert in1.length == in2.length && in2.length == out.length;
@@ -32,6 +32,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
 import ch.systemsx.cisd.hdf5.HDF5Factory;
@@ -50,6 +52,8 @@ class Hdf5BlockWriterThread extends Thread
 
 	private volatile boolean shutdown;
 
+	private volatile boolean directChunkWrites = true;
+
 	// TODO: remove, seems unused
 	@Deprecated
 	public Hdf5BlockWriterThread( final HDF5Access hdf5Access, final int queueLength )
@@ -131,6 +135,42 @@ class Hdf5BlockWriterThread extends Thread
 		return hdf5Access.getIHDF5Writer();
 	}
 
+	/**
+	 * Set whether compressed blocks should be encoded in the calling threads
+	 * and written with HDF5 direct chunk writes (if supported). This is
+	 * enabled by default.
+	 */
+	public void setDirectChunkWrites( final boolean directChunkWrites )
+	{
+		this.directChunkWrites = directChunkWrites;
+	}
+
+	/**
+	 * Get a {@link Hdf5ChunkEncoder} for the dataset {@code path}, which
+	 * encodes blocks for {@link #writeChunk}. This waits until the dataset has
+	 * been created by the writer thread.
+	 *
+	 * @return the encoder, or {@code null} if direct chunk writes are disabled
+	 *         or not supported.
+	 */
+	public Hdf5ChunkEncoder createChunkEncoder( final String path )
+	{
+		if ( !directChunkWrites || !HDF5Access.isDirectChunkWriteSupported() )
+			return null;
+
+		final FutureTask< Hdf5ChunkEncoder > task = new FutureTask<>( () -> hdf5Access.createChunkEncoder( path ) );
+		if ( !put( task ) )
+			return null;
+		try
+		{
+			return task.get();
+		}
+		catch ( final InterruptedException | ExecutionException e )
+		{
+			return null;
+		}
+	}
+
 	public void writeMipmapDescription( final int setupIdPartition, final ExportMipmapInfo mipmapInfo )
 	{
 		put( () -> hdf5Access.writeMipmapDescription( setupIdPartition, mipmapInfo ) );
@@ -154,6 +194,15 @@ class Hdf5BlockWriterThread extends Thread
 		put( () -> hdf5Access.writeBlock( pathName, datasetAttributes, dataBlock ) );
 	}
 
+	/**
+	 * Write a chunk that was encoded (in the calling thread) by a
+	 * {@link Hdf5ChunkEncoder} obtained from {@link #createChunkEncoder}.
+	 */
+	public void writeChunk( final String pathName, final Hdf5ChunkEncoder.Chunk chunk )
+	{
+		put( () -> hdf5Access.writeChunk( pathName, chunk ) );
+	}
+
 	public void flush()
 	{
 		waitUntilEmpty();
@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import org.janelia.saalfeldlab.n5.DataBlock;
+
+/**
+ * Encodes {@link DataBlock}s into chunks that can be written to an HDF5
+ * dataset with direct chunk writes, that is, applies the dataset's filter
+ * pipeline in Java. This allows to compress chunks in parallel in the threads
+ * that create the blocks, instead of in the (single) HDF5 writer thread.
+ * <p>
+ * Only shuffle and deflate are implemented. Datasets with other filters in
+ * their pipeline (for example the scale-offset filter that JHDF5 adds for
+ * integer types) are not {@link #isSupported(int[]) supported}, and must be
+ * written with {@code H5Dwrite}, so that the chunks are compressed as
+ * configured.
+ */
+class Hdf5ChunkEncoder
+{
+	static final int DEFLATE = 1;
+
+	static final int SHUFFLE = 2;
+
+	/**
+	 * An encoded chunk, ready to be written with {@code H5Dwrite_chunk}. All
+	 * filters of the pipeline are applied, so the filter mask is 0.
+	 */
+	static class Chunk
+	{
+		/**
+		 * Offset of the chunk in the dataset, in pixels and HDF5 (zyx) order.
+		 */
+		final long[] offset;
+
+		final byte[] data;
+
+		Chunk( final long[] offset, final byte[] data )
+		{
+			this.offset = offset;
+			this.data = data;
+		}
+	}
+
+	private final int[] chunkSize;
+
+	private final int elementSize;
+
+	private final ByteOrder byteOrder;
+
+	private final int[] filters;
+
+	private final int[] deflateLevels;
+
+	/**
+	 * @param chunkSize
+	 *            chunk size of the dataset, in HDF5 (zyx) order.
+	 * @param elementSize
+	 *            size of a data element in bytes.
+	 * @param byteOrder
+	 *            byte order of the dataset's datatype.
+	 * @param filters
+	 *            filter ids of the dataset's pipeline, in order.
+	 * @param cdValues
+	 *            filter parameters of the dataset's pipeline.
+	 * @throws IllegalArgumentException
+	 *             if the pipeline is not {@link #isSupported(int[])
+	 *             supported}.
+	 */
+	Hdf5ChunkEncoder( final int[] chunkSize, final int elementSize, final ByteOrder byteOrder, final int[] filters, final int[][] cdValues )
+	{
+		if ( !isSupported( filters ) )
+			throw new IllegalArgumentException( "unsupported filter pipeline " + Arrays.toString( filters ) );
+		this.chunkSize = chunkSize;
+		this.elementSize = elementSize;
+		this.byteOrder = byteOrder;
+		this.filters = filters;
+		deflateLevels = new int[ filters.length ];
+		for ( int i = 0; i < filters.length; ++i )
+			deflateLevels[ i ] = cdValues[ i ].length > 0 ? cdValues[ i ][ 0 ] : Deflater.DEFAULT_COMPRESSION;
+	}
+
+	/**
+	 * Whether every filter in the pipeline {@code filters} is implemented by
+	 * this encoder.
+	 */
+	static boolean isSupported( final int[] filters )
+	{
+		for ( final int filter : filters )
+			if ( filter != SHUFFLE && filter != DEFLATE )
+				return false;
+		return true;
+	}
+
+	/**
+	 * Encode a block. Blocks at the border of the dataset, which are smaller
+	 * than a chunk, are padded with zeros.
+	 */
+	Chunk encode( final DataBlock< ? > dataBlock )
+	{
+		final int n = chunkSize.length;
+		final int[] blockSize = new int[ n ];
+		final long[] offset = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			blockSize[ d ] = dataBlock.getSize()[ n - 1 - d ];
+			offset[ d ] = dataBlock.getGridPosition()[ n - 1 - d ] * chunkSize[ d ];
+		}
+
+		byte[] data = pad( toBytes( dataBlock.getData() ), blockSize, chunkSize, elementSize );
+		for ( int i = 0; i < filters.length; ++i )
+			data = filters[ i ] == SHUFFLE
+					? shuffle( data, elementSize )
+					: deflate( data, deflateLevels[ i ] );
+		return new Chunk( offset, data );
+	}
+
+	private byte[] toBytes( final Object data )
+	{
+		final ByteBuffer buffer;
+		if ( data instanceof byte[] )
+			return ( byte[] ) data;
+		else if ( data instanceof short[] )
+		{
+			final short[] a = ( short[] ) data;
+			buffer = ByteBuffer.allocate( a.length * 2 ).order( byteOrder );
+			buffer.asShortBuffer().put( a );
+		}
+		else if ( data instanceof int[] )
+		{
+			final int[] a = ( int[] ) data;
+			buffer = ByteBuffer.allocate( a.length * 4 ).order( byteOrder );
+			buffer.asIntBuffer().put( a );
+		}
+		else if ( data instanceof long[] )
+		{
+			final long[] a = ( long[] ) data;
+			buffer = ByteBuffer.allocate( a.length * 8 ).order( byteOrder );
+			buffer.asLongBuffer().put( a );
+		}
+		else if ( data instanceof float[] )
+		{
+			final float[] a = ( float[] ) data;
+			buffer = ByteBuffer.allocate( a.length * 4 ).order( byteOrder );
+			buffer.asFloatBuffer().put( a );
+		}
+		else if ( data instanceof double[] )
+		{
+			final double[] a = ( double[] ) data;
+			buffer = ByteBuffer.allocate( a.length * 8 ).order( byteOrder );
+			buffer.asDoubleBuffer().put( a );
+		}
+		else
+			throw new IllegalArgumentException( "unsupported data " + data.getClass() );
+		return buffer.array();
+	}
+
+	/**
+	 * Copy a block of size {@code blockSize} into the corner of a zero-filled
+	 * chunk of size {@code chunkSize}. Sizes are in HDF5 (zyx) order, that is,
+	 * the last dimension is the fastest-varying.
+	 */
+	static byte[] pad( final byte[] block, final int[] blockSize, final int[] chunkSize, final int elementSize )
+	{
+		final int n = chunkSize.length;
+		int chunkLength = elementSize;
+		for ( int d = 0; d < n; ++d )
+			chunkLength *= chunkSize[ d ];
+		if ( block.length == chunkLength )
+			return block;
+
+		int numRows = 1;
+		for ( int d = 0; d < n - 1; ++d )
+			numRows *= blockSize[ d ];
+		final int rowLength = blockSize[ n - 1 ] * elementSize;
+		final byte[] chunk = new byte[ chunkLength ];
+		final int[] pos = new int[ n - 1 ];
+		for ( int row = 0; row < numRows; ++row )
+		{
+			int dst = 0;
+			for ( int d = 0; d < n - 1; ++d )
+				dst = dst * chunkSize[ d ] + pos[ d ];
+			System.arraycopy( block, row * rowLength, chunk, dst * chunkSize[ n - 1 ] * elementSize, rowLength );
+			for ( int d = n - 2; d >= 0; --d )
+			{
+				if ( ++pos[ d ] < blockSize[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Apply the HDF5 shuffle filter: the first bytes of all elements, followed
+	 * by the second bytes of all elements, and so on.
+	 */
+	static byte[] shuffle( final byte[] data, final int elementSize )
+	{
+		if ( elementSize <= 1 )
+			return data;
+		final int n = data.length / elementSize;
+		final byte[] out = new byte[ data.length ];
+		for ( int b = 0; b < elementSize; ++b )
+		{
+			final int offset = b * n;
+			for ( int i = 0; i < n; ++i )
+				out[ offset + i ] = data[ i * elementSize + b ];
+		}
+		final int tail = n * elementSize;
+		System.arraycopy( data, tail, out, tail, data.length - tail );
+		return out;
+	}
+
+	static byte[] deflate( final byte[] data, final int level )
+	{
+		final Deflater deflater = new Deflater( level );
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream( data.length / 2 + 64 );
+		try ( DeflaterOutputStream out = new DeflaterOutputStream( bytes, deflater ) )
+		{
+			out.write( data );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		finally
+		{
+			deflater.end();
+		}
+		return bytes.toByteArray();
+	}
+}
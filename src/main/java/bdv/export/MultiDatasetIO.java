@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+/**
+ * A {@link DatasetIO} that hands each block to several {@code DatasetIO}s, so
+ * that one computed scale pyramid can be written to several outputs (for
+ * example HDF5 and N5, each with its own compression and writer thread).
+ * <p>
+ * Blocks are passed to the outputs in order. They must not modify the
+ * blocks. Previously written levels are read back from the first output
+ * that provides them (see {@link #getImage}). Copying and resuming datasets
+ * is not supported.
+ *
+ * @param <T>
+ *            Pixel type
+ */
+class MultiDatasetIO< T extends NativeType< T > > implements DatasetIO< Object[], T >
+{
+	private final List< DatasetIO< Object, T > > ios;
+
+	@SuppressWarnings( "unchecked" )
+	MultiDatasetIO( final List< ? extends DatasetIO< ?, T > > ios )
+	{
+		this.ios = new ArrayList<>();
+		for ( final DatasetIO< ?, T > io : ios )
+			this.ios.add( ( DatasetIO< Object, T > ) io );
+	}
+
+	@Override
+	public Object[] createDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+	{
+		final Object[] datasets = new Object[ ios.size() ];
+		for ( int i = 0; i < datasets.length; ++i )
+			datasets[ i ] = ios.get( i ).createDataset( level, dimensions, blockSize );
+		return datasets;
+	}
+
+	@Override
+	public void writeBlock( final Object[] datasets, final DataBlock< ? > dataBlock ) throws IOException
+	{
+		for ( int i = 0; i < datasets.length; ++i )
+			ios.get( i ).writeBlock( datasets[ i ], dataBlock );
+	}
+
+	/**
+	 * Empty blocks may be omitted only if all outputs support that.
+	 */
+	@Override
+	public boolean supportsSkippedBlocks()
+	{
+		return ios.stream().allMatch( DatasetIO::supportsSkippedBlocks );
+	}
+
+	@Override
+	public void skipBlock( final Object[] datasets, final long[] gridPosition ) throws IOException
+	{
+		for ( int i = 0; i < datasets.length; ++i )
+			ios.get( i ).skipBlock( datasets[ i ], gridPosition );
+	}
+
+	/**
+	 * Blocks are generated in the shard order of the first sharded output.
+	 */
+	@Override
+	public int[] getBlocksPerShard( final Object[] datasets )
+	{
+		for ( int i = 0; i < datasets.length; ++i )
+		{
+			final int[] blocksPerShard = ios.get( i ).getBlocksPerShard( datasets[ i ] );
+			if ( blocksPerShard != null )
+				return blocksPerShard;
+		}
+		return null;
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		for ( final DatasetIO< Object, T > io : ios )
+			io.flush();
+	}
+
+	@Override
+	public void setOccupancy( final Object[] datasets, final long numBlocks, final long numEmptyBlocks ) throws IOException
+	{
+		for ( int i = 0; i < datasets.length; ++i )
+			ios.get( i ).setOccupancy( datasets[ i ], numBlocks, numEmptyBlocks );
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getImage( final int level ) throws IOException
+	{
+		for ( final DatasetIO< Object, T > io : ios )
+		{
+			final RandomAccessibleInterval< T > img = io.getImage( level );
+			if ( img != null )
+				return img;
+		}
+		return null;
+	}
+}
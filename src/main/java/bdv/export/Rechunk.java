@@ -0,0 +1,563 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import net.imglib2.type.NativeType;
+
+/**
+ * Re-writes a dataset with a different block size.
+ * <p>
+ * Source blocks are read in flattened grid order (x fastest), and each
+ * source block is read and decoded exactly once. Its data is copied into all
+ * target blocks it overlaps. Target blocks are written as soon as all
+ * overlapping source blocks have been copied, so only the target blocks
+ * overlapping the current "slab" of source blocks are partially filled at
+ * any time.
+ * <p>
+ * If the partially filled target blocks exceed {@code maxBytesInMemory}, the
+ * least recently used ones are spilled to a temporary directory, and read
+ * back when the next overlapping source block arrives.
+ */
+public class Rechunk
+{
+	/**
+	 * Reads (and decodes) blocks of the source dataset. For an N5 dataset,
+	 * this is simply {@code p -> n5.readBlock( pathName, attributes, p )}.
+	 */
+	public interface BlockReader
+	{
+		/**
+		 * Read the block at {@code gridPosition}.
+		 *
+		 * @return the block, or {@code null} if it is not stored (i.e., all
+		 *         zero).
+		 */
+		DataBlock< ? > readBlock( long[] gridPosition ) throws IOException;
+	}
+
+	private final DataType dataType;
+
+	private final int n;
+
+	private final long[] dimensions;
+
+	private final int[] sourceBlockSize;
+
+	private final int[] targetBlockSize;
+
+	private final long[] sourceGrid;
+
+	private final long[] targetGrid;
+
+	/**
+	 * @param dataType
+	 *            data type of source and target
+	 * @param dimensions
+	 *            dimensions of source and target
+	 * @param sourceBlockSize
+	 *            block size of the source dataset
+	 * @param targetBlockSize
+	 *            block size of the target dataset
+	 */
+	public Rechunk(
+			final DataType dataType,
+			final long[] dimensions,
+			final int[] sourceBlockSize,
+			final int[] targetBlockSize )
+	{
+		this.dataType = dataType;
+		this.n = dimensions.length;
+		this.dimensions = dimensions;
+		this.sourceBlockSize = sourceBlockSize;
+		this.targetBlockSize = targetBlockSize;
+		sourceGrid = new long[ n ];
+		targetGrid = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			sourceGrid[ d ] = ( dimensions[ d ] + sourceBlockSize[ d ] - 1 ) / sourceBlockSize[ d ];
+			targetGrid[ d ] = ( dimensions[ d ] + targetBlockSize[ d ] - 1 ) / targetBlockSize[ d ];
+		}
+	}
+
+	/**
+	 * Read all blocks from {@code source} and write them with the target
+	 * block size to dataset {@code level} of {@code target}. Empty (all zero)
+	 * target blocks are not written.
+	 *
+	 * @param source
+	 *            reads source blocks
+	 * @param target
+	 *            writer for target blocks
+	 * @param level
+	 *            resolution level of the target dataset
+	 * @param executorService
+	 *            ExecutorService where source blocks are read and copied.
+	 * @param numThreads
+	 *            How many tasks to run in parallel.
+	 * @param maxBytesInMemory
+	 *            memory budget for partially filled target blocks.
+	 * @param progressWriter
+	 *            completion ratio will be directed here. may be null.
+	 */
+	public < D, T extends NativeType< T > > void write(
+			final BlockReader source,
+			final DatasetIO< D, T > target,
+			final int level,
+			final ExecutorService executorService,
+			final int numThreads,
+			final long maxBytesInMemory,
+			ProgressWriter progressWriter ) throws IOException
+	{
+		if ( progressWriter == null )
+			progressWriter = new ProgressWriterNull();
+		progressWriter.setProgress( 0 );
+
+		final SparseDatasetIO< D, T > io = new SparseDatasetIO<>( target );
+		final SparseDatasetIO.Dataset< D > dataset = io.createDataset( level, dimensions, targetBlockSize );
+		final PartialBlocks< D > partials = new PartialBlocks<>( io, dataset, maxBytesInMemory );
+
+		final long numSourceBlocks = numElements( sourceGrid );
+		final AtomicLong next = new AtomicLong();
+		final AtomicLong done = new AtomicLong();
+		final ProgressWriter progress = progressWriter;
+		final List< Callable< Void > > tasks = new ArrayList<>();
+		for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
+		{
+			tasks.add( () -> {
+				for ( long i = next.getAndIncrement(); i < numSourceBlocks; i = next.getAndIncrement() )
+				{
+					final long[] gridPosition = new long[ n ];
+					positionFromIndex( i, sourceGrid, gridPosition );
+					final DataBlock< ? > block = source.readBlock( gridPosition );
+					scatter( gridPosition, block, partials );
+					final long numDone = done.incrementAndGet();
+					if ( numDone % 64 == 0 )
+						progress.setProgress( ( double ) numDone / numSourceBlocks );
+				}
+				return null;
+			} );
+		}
+		try
+		{
+			for ( final Future< Void > future : executorService.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			throw new InterruptedIOException();
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			throw new IOException( cause );
+		}
+		finally
+		{
+			partials.close();
+		}
+
+		if ( !partials.isEmpty() )
+			throw new IOException( "incomplete target blocks" );
+		io.flush();
+		progressWriter.setProgress( 1.0 );
+	}
+
+	/**
+	 * Copy the source block at {@code gridPosition} into all target blocks it
+	 * overlaps, and write the target blocks that are completed by this.
+	 *
+	 * @param block
+	 *            the source block, or {@code null} if it is all zero.
+	 */
+	private void scatter( final long[] gridPosition, final DataBlock< ? > block, final PartialBlocks< ? > partials ) throws IOException
+	{
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		final int[] size = new int[ n ];
+		final long[] targetMin = new long[ n ];
+		final long[] targetMax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = gridPosition[ d ] * sourceBlockSize[ d ];
+			max[ d ] = Math.min( min[ d ] + sourceBlockSize[ d ], dimensions[ d ] ) - 1;
+			size[ d ] = ( int ) ( max[ d ] - min[ d ] + 1 );
+			targetMin[ d ] = min[ d ] / targetBlockSize[ d ];
+			targetMax[ d ] = max[ d ] / targetBlockSize[ d ];
+		}
+
+		final long[] target = targetMin.clone();
+		final int[] srcPos = new int[ n ];
+		final int[] destPos = new int[ n ];
+		final int[] regionSize = new int[ n ];
+		while ( true )
+		{
+			final Partial partial = partials.acquire( target );
+			try
+			{
+				if ( block != null )
+				{
+					for ( int d = 0; d < n; ++d )
+					{
+						final long tmin = target[ d ] * targetBlockSize[ d ];
+						final long rmin = Math.max( tmin, min[ d ] );
+						final long rmax = Math.min( tmin + partial.size[ d ] - 1, max[ d ] );
+						srcPos[ d ] = ( int ) ( rmin - min[ d ] );
+						destPos[ d ] = ( int ) ( rmin - tmin );
+						regionSize[ d ] = ( int ) ( rmax - rmin + 1 );
+					}
+					copy( block.getData(), block.getSize(), srcPos, partial.block.getData(), partial.size, destPos, regionSize );
+				}
+			}
+			finally
+			{
+				partials.release( partial );
+			}
+
+			// next target block
+			int d = 0;
+			for ( ; d < n; ++d )
+			{
+				if ( ++target[ d ] <= targetMax[ d ] )
+					break;
+				target[ d ] = targetMin[ d ];
+			}
+			if ( d == n )
+				break;
+		}
+	}
+
+	/**
+	 * A partially filled target block.
+	 */
+	private static class Partial
+	{
+		final long index;
+
+		final int[] size;
+
+		DataBlock< ? > block;
+
+		/**
+		 * Number of source blocks that were not copied yet.
+		 */
+		int remaining;
+
+		/**
+		 * Number of threads that are currently copying into this block.
+		 */
+		int users;
+
+		/**
+		 * Whether the data of this block is in the spill directory.
+		 */
+		boolean spilled;
+
+		Partial( final long index, final int[] size, final int remaining )
+		{
+			this.index = index;
+			this.size = size;
+			this.remaining = remaining;
+		}
+	}
+
+	/**
+	 * The partially filled target blocks, in least recently used order.
+	 */
+	private class PartialBlocks< D >
+	{
+		private final SparseDatasetIO< D, ? > io;
+
+		private final SparseDatasetIO.Dataset< D > dataset;
+
+		private final long maxBytes;
+
+		private final Map< Long, Partial > partials = new LinkedHashMap<>( 16, 0.75f, true );
+
+		private long bytesInMemory;
+
+		private Path spillDirectory;
+
+		PartialBlocks( final SparseDatasetIO< D, ? > io, final SparseDatasetIO.Dataset< D > dataset, final long maxBytes )
+		{
+			this.io = io;
+			this.dataset = dataset;
+			this.maxBytes = maxBytes;
+		}
+
+		/**
+		 * Get the target block at {@code gridPosition} for copying into it.
+		 * The block is created, or read back if it was spilled.
+		 */
+		synchronized Partial acquire( final long[] gridPosition ) throws IOException
+		{
+			final long index = indexFromPosition( gridPosition, targetGrid );
+			Partial partial = partials.get( index );
+			if ( partial == null )
+			{
+				final int[] size = new int[ n ];
+				int remaining = 1;
+				for ( int d = 0; d < n; ++d )
+				{
+					final long min = gridPosition[ d ] * targetBlockSize[ d ];
+					final long max = Math.min( min + targetBlockSize[ d ], dimensions[ d ] ) - 1;
+					size[ d ] = ( int ) ( max - min + 1 );
+					remaining *= ( int ) ( max / sourceBlockSize[ d ] - min / sourceBlockSize[ d ] + 1 );
+				}
+				partial = new Partial( index, size, remaining );
+				partials.put( index, partial );
+			}
+			if ( partial.block == null )
+			{
+				partial.block = dataType.createDataBlock( partial.size, gridPosition.clone() );
+				if ( partial.spilled )
+					unspill( partial );
+				bytesInMemory += sizeInBytes( partial.block );
+			}
+			++partial.users;
+			return partial;
+		}
+
+		/**
+		 * Finish copying into {@code partial}. Write it if it is complete,
+		 * and spill other blocks if the memory budget is exceeded.
+		 */
+		void release( final Partial partial ) throws IOException
+		{
+			final DataBlock< ? > complete;
+			synchronized ( this )
+			{
+				--partial.users;
+				if ( --partial.remaining == 0 )
+				{
+					partials.remove( partial.index );
+					bytesInMemory -= sizeInBytes( partial.block );
+					complete = partial.block;
+				}
+				else
+					complete = null;
+
+				if ( bytesInMemory > maxBytes )
+					spill();
+			}
+			if ( complete != null )
+				io.writeBlock( dataset, complete );
+		}
+
+		synchronized boolean isEmpty()
+		{
+			return partials.isEmpty();
+		}
+
+		/**
+		 * Spill least recently used blocks that are not in use until the
+		 * memory budget is met.
+		 */
+		private void spill() throws IOException
+		{
+			final Iterator< Partial > it = partials.values().iterator();
+			while ( bytesInMemory > maxBytes && it.hasNext() )
+			{
+				final Partial partial = it.next();
+				if ( partial.block == null || partial.users > 0 )
+					continue;
+				if ( spillDirectory == null )
+					spillDirectory = Files.createTempDirectory( "bdv-rechunk" );
+				Files.write( spillFile( partial.index ), toBytes( partial.block.getData() ) );
+				bytesInMemory -= sizeInBytes( partial.block );
+				partial.block = null;
+				partial.spilled = true;
+			}
+		}
+
+		private void unspill( final Partial partial ) throws IOException
+		{
+			final Path file = spillFile( partial.index );
+			fromBytes( Files.readAllBytes( file ), partial.block.getData() );
+			Files.delete( file );
+			partial.spilled = false;
+		}
+
+		private Path spillFile( final long index )
+		{
+			return spillDirectory.resolve( Long.toString( index ) );
+		}
+
+		/**
+		 * Delete the spill directory.
+		 */
+		synchronized void close() throws IOException
+		{
+			if ( spillDirectory == null )
+				return;
+			try ( Stream< Path > files = Files.list( spillDirectory ) )
+			{
+				final Iterator< Path > it = files.iterator();
+				while ( it.hasNext() )
+					Files.delete( it.next() );
+			}
+			Files.delete( spillDirectory );
+			spillDirectory = null;
+		}
+	}
+
+	/**
+	 * Copy a {@code size} region from position {@code srcPos} in the
+	 * flattened array {@code src} of dimensions {@code srcSize} to position
+	 * {@code destPos} in the flattened array {@code dest} of dimensions
+	 * {@code destSize}.
+	 */
+	static void copy( final Object src, final int[] srcSize, final int[] srcPos, final Object dest, final int[] destSize, final int[] destPos, final int[] size )
+	{
+		final int n = size.length;
+		final int[] row = new int[ n ];
+		while ( true )
+		{
+			int srcIndex = 0;
+			int destIndex = 0;
+			for ( int d = n - 1; d >= 0; --d )
+			{
+				srcIndex = srcIndex * srcSize[ d ] + srcPos[ d ] + row[ d ];
+				destIndex = destIndex * destSize[ d ] + destPos[ d ] + row[ d ];
+			}
+			System.arraycopy( src, srcIndex, dest, destIndex, size[ 0 ] );
+
+			// next row
+			int d = 1;
+			for ( ; d < n; ++d )
+			{
+				if ( ++row[ d ] < size[ d ] )
+					break;
+				row[ d ] = 0;
+			}
+			if ( d >= n )
+				break;
+		}
+	}
+
+	private static long sizeInBytes( final DataBlock< ? > block )
+	{
+		return ( long ) block.getNumElements() * bytesPerElement( block.getData() );
+	}
+
+	private static int bytesPerElement( final Object data )
+	{
+		if ( data instanceof byte[] )
+			return 1;
+		else if ( data instanceof short[] )
+			return 2;
+		else if ( data instanceof int[] || data instanceof float[] )
+			return 4;
+		else
+			return 8;
+	}
+
+	private static byte[] toBytes( final Object data )
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( Array.getLength( data ) * bytesPerElement( data ) );
+		if ( data instanceof byte[] )
+			buffer.put( ( byte[] ) data );
+		else if ( data instanceof short[] )
+			buffer.asShortBuffer().put( ( short[] ) data );
+		else if ( data instanceof int[] )
+			buffer.asIntBuffer().put( ( int[] ) data );
+		else if ( data instanceof long[] )
+			buffer.asLongBuffer().put( ( long[] ) data );
+		else if ( data instanceof float[] )
+			buffer.asFloatBuffer().put( ( float[] ) data );
+		else if ( data instanceof double[] )
+			buffer.asDoubleBuffer().put( ( double[] ) data );
+		return buffer.array();
+	}
+
+	private static void fromBytes( final byte[] bytes, final Object data )
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes );
+		if ( data instanceof byte[] )
+			buffer.get( ( byte[] ) data );
+		else if ( data instanceof short[] )
+			buffer.asShortBuffer().get( ( short[] ) data );
+		else if ( data instanceof int[] )
+			buffer.asIntBuffer().get( ( int[] ) data );
+		else if ( data instanceof long[] )
+			buffer.asLongBuffer().get( ( long[] ) data );
+		else if ( data instanceof float[] )
+			buffer.asFloatBuffer().get( ( float[] ) data );
+		else if ( data instanceof double[] )
+			buffer.asDoubleBuffer().get( ( double[] ) data );
+	}
+
+	private static long numElements( final long[] size )
+	{
+		long numElements = 1;
+		for ( final long s : size )
+			numElements *= s;
+		return numElements;
+	}
+
+	private static void positionFromIndex( long index, final long[] grid, final long[] position )
+	{
+		for ( int d = 0; d < grid.length; ++d )
+		{
+			position[ d ] = index % grid[ d ];
+			index /= grid[ d ];
+		}
+	}
+
+	private static long indexFromPosition( final long[] position, final long[] grid )
+	{
+		long index = 0;
+		for ( int d = grid.length - 1; d >= 0; --d )
+			index = index * grid[ d ] + position[ d ];
+		return index;
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+/**
+ * A {@link DatasetIO} that does not write empty blocks, i.e., blocks where
+ * all elements are zero. In N5 and HDF5, blocks that are not stored are read
+ * as zeros, so omitting them is lossless.
+ * <p>
+ * After each {@link #flush()}, the number of written and skipped blocks of
+ * each dataset created since the previous flush is passed to
+ * {@link DatasetIO#setOccupancy} of the wrapped {@code DatasetIO}.
+ *
+ * @param <D>
+ *            Dataset handle of the wrapped {@code DatasetIO}
+ * @param <T>
+ *            Pixel type
+ */
+class SparseDatasetIO< D, T extends NativeType< T > > implements DatasetIO< SparseDatasetIO.Dataset< D >, T >
+{
+	static class Dataset< D >
+	{
+		final D dataset;
+
+		final LongAdder numBlocks = new LongAdder();
+
+		final LongAdder numEmptyBlocks = new LongAdder();
+
+		Dataset( final D dataset )
+		{
+			this.dataset = dataset;
+		}
+	}
+
+	private final DatasetIO< D, T > io;
+
+	/**
+	 * Datasets created since the last {@link #flush()}.
+	 */
+	private final List< Dataset< D > > datasets = new ArrayList<>();
+
+	SparseDatasetIO( final DatasetIO< D, T > io )
+	{
+		this.io = io;
+	}
+
+	@Override
+	public Dataset< D > createDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+	{
+		return add( io.createDataset( level, dimensions, blockSize ) );
+	}
+
+	@Override
+	public Dataset< D > createCopiedDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+	{
+		final D copied = io.createCopiedDataset( level, dimensions, blockSize );
+		return copied == null ? null : add( copied );
+	}
+
+	@Override
+	public Dataset< D > resumeDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+	{
+		final D resumed = io.resumeDataset( level, dimensions, blockSize );
+		return resumed == null ? null : add( resumed );
+	}
+
+	@Override
+	public boolean isBlockDone( final Dataset< D > dataset, final long[] gridPosition ) throws IOException
+	{
+		return io.isBlockDone( dataset.dataset, gridPosition );
+	}
+
+	@Override
+	public boolean copyBlock( final Dataset< D > dataset, final long[] gridPosition ) throws IOException
+	{
+		dataset.numBlocks.increment();
+		final boolean copied = io.copyBlock( dataset.dataset, gridPosition );
+		if ( !copied )
+			dataset.numEmptyBlocks.increment();
+		return copied;
+	}
+
+	@Override
+	public void writeBlock( final Dataset< D > dataset, final DataBlock< ? > dataBlock ) throws IOException
+	{
+		dataset.numBlocks.increment();
+		if ( isEmpty( dataBlock.getData() ) )
+		{
+			dataset.numEmptyBlocks.increment();
+			io.skipBlock( dataset.dataset, dataBlock.getGridPosition() );
+		}
+		else
+			io.writeBlock( dataset.dataset, dataBlock );
+	}
+
+	private Dataset< D > add( final D handle )
+	{
+		final Dataset< D > dataset = new Dataset<>( handle );
+		synchronized ( datasets )
+		{
+			datasets.add( dataset );
+		}
+		return dataset;
+	}
+
+	@Override
+	public boolean supportsSkippedBlocks()
+	{
+		return io.supportsSkippedBlocks();
+	}
+
+	@Override
+	public int[] getBlocksPerShard( final Dataset< D > dataset )
+	{
+		return io.getBlocksPerShard( dataset.dataset );
+	}
+
+	@Override
+	public void flush() throws IOException
+	{
+		io.flush();
+
+		final List< Dataset< D > > flushed;
+		synchronized ( datasets )
+		{
+			flushed = new ArrayList<>( datasets );
+			datasets.clear();
+		}
+		for ( final Dataset< D > dataset : flushed )
+			io.setOccupancy( dataset.dataset, dataset.numBlocks.sum(), dataset.numEmptyBlocks.sum() );
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getImage( final int level ) throws IOException
+	{
+		return io.getImage( level );
+	}
+
+	/**
+	 * Check whether all elements of the primitive array {@code data} are zero.
+	 * For floating point data, {@code -0.0} is not considered zero.
+	 */
+	static boolean isEmpty( final Object data )
+	{
+		if ( data instanceof byte[] )
+		{
+			for ( final byte v : ( byte[] ) data )
+				if ( v != 0 )
+					return false;
+		}
+		else if ( data instanceof short[] )
+		{
+			for ( final short v : ( short[] ) data )
+				if ( v != 0 )
+					return false;
+		}
+		else if ( data instanceof int[] )
+		{
+			for ( final int v : ( int[] ) data )
+				if ( v != 0 )
+					return false;
+		}
+		else if ( data instanceof long[] )
+		{
+			for ( final long v : ( long[] ) data )
+				if ( v != 0 )
+					return false;
+		}
+		else if ( data instanceof float[] )
+		{
+			for ( final float v : ( float[] ) data )
+				if ( Float.floatToRawIntBits( v ) != 0 )
+					return false;
+		}
+		else if ( data instanceof double[] )
+		{
+			for ( final double v : ( double[] ) data )
+				if ( Double.doubleToRawLongBits( v ) != 0 )
+					return false;
+		}
+		else
+			return false;
+		return true;
+	}
+}
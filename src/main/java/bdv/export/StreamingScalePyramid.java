@@ -0,0 +1,695 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+
+import bdv.export.ExportScalePyramid.AfterEachPlane;
+import bdv.export.ExportScalePyramid.DatasetIO;
+
+/**
+ * Computes all levels of a scale pyramid in a single pass over the full
+ * resolution level.
+ * <p>
+ * Each block of the full resolution level is computed (read from the source)
+ * exactly once. Blocks are written, and then added to accumulators for the
+ * blocks of the next coarser level that they overlap. When all contributions
+ * to a coarser block have been added, it is written, and added to the next
+ * coarser level, and so on. Downsampling averages boxes of {@code factor}
+ * pixels of the previous level, where the previous level is extended by
+ * repeating border pixels. This gives the same result as reading back the
+ * previous level (see {@link ExportScalePyramid.LoopbackHeuristic}), without
+ * reading anything back.
+ * <p>
+ * Blocks of the full resolution level are processed one "plane" of blocks
+ * of the coarsest level after the other, and within that plane in the order
+ * of the coarser blocks they contribute to. So only the accumulators
+ * overlapping the current plane are held in memory.
+ *
+ * @param <D>
+ *            Dataset handle
+ *
+ * @author Tobias Pietzsch
+ */
+class StreamingScalePyramid< D >
+{
+	/**
+	 * Provides the data of blocks of the full resolution level.
+	 */
+	interface BlockSource
+	{
+		/**
+		 * Copy the block with the given {@code min} and {@code size} into the
+		 * primitive array {@code dest}.
+		 */
+		void copy( long[] min, int[] size, Object dest );
+	}
+
+	private static final int n = 3;
+
+	private final DataType dataType;
+
+	private final int numLevels;
+
+	private final long[][] dimensions;
+
+	private final int[][] cellDimensions;
+
+	private final long[][] numCells;
+
+	/**
+	 * Downsampling factors of each level with respect to the previous level.
+	 */
+	private final int[][] factors;
+
+	private final DatasetIO< D, ? > io;
+
+	private final List< D > datasets = new ArrayList<>();
+
+	/**
+	 * For each level, accumulators of blocks that have received some but not
+	 * all contributions, by flattened grid index.
+	 */
+	private final List< Map< Long, Accumulator > > accumulators = new ArrayList<>();
+
+	private final AtomicLong numBlocksWritten = new AtomicLong();
+
+	private final long numBlocks;
+
+	/**
+	 * @param dataType
+	 *            data type of all levels
+	 * @param dimensions
+	 *            dimensions of each level
+	 * @param cellDimensions
+	 *            block size of each level
+	 * @param factors
+	 *            downsampling factors of each level with respect to the
+	 *            previous level (see {@link #getRelativeFactors(int[][])}).
+	 * @param io
+	 *            writer for image blocks
+	 */
+	StreamingScalePyramid(
+			final DataType dataType,
+			final long[][] dimensions,
+			final int[][] cellDimensions,
+			final int[][] factors,
+			final DatasetIO< D, ? > io )
+	{
+		this.dataType = dataType;
+		this.numLevels = dimensions.length;
+		this.dimensions = dimensions;
+		this.cellDimensions = cellDimensions;
+		this.factors = factors;
+		this.io = io;
+
+		numCells = new long[ numLevels ][ n ];
+		long total = 0;
+		for ( int level = 0; level < numLevels; ++level )
+		{
+			long count = 1;
+			for ( int d = 0; d < n; ++d )
+			{
+				numCells[ level ][ d ] = ceilDiv( dimensions[ level ][ d ], cellDimensions[ level ][ d ] );
+				count *= numCells[ level ][ d ];
+			}
+			total += count;
+			accumulators.add( new ConcurrentHashMap<>() );
+		}
+		numBlocks = total;
+	}
+
+	/**
+	 * Get the downsampling factors of each level with respect to the previous
+	 * level.
+	 *
+	 * @param resolutions
+	 *            downsampling factors of each level with respect to the
+	 *            original image.
+	 * @return relative downsampling factors, or {@code null} if the
+	 *         downsampling factors of some level are not integer multiples of
+	 *         those of the previous level. (The factors of level 0 are
+	 *         {@code resolutions[0]}.)
+	 */
+	static int[][] getRelativeFactors( final int[][] resolutions )
+	{
+		final int[][] factors = new int[ resolutions.length ][];
+		for ( int level = 0; level < resolutions.length; ++level )
+		{
+			factors[ level ] = resolutions[ level ].clone();
+			if ( level > 0 )
+			{
+				for ( int d = 0; d < factors[ level ].length; ++d )
+				{
+					final int previous = resolutions[ level - 1 ][ d ];
+					if ( resolutions[ level ][ d ] % previous != 0 )
+						return null;
+					factors[ level ][ d ] = resolutions[ level ][ d ] / previous;
+				}
+			}
+		}
+		return factors;
+	}
+
+	/**
+	 * Create the datasets of all levels, and write all blocks.
+	 *
+	 * @param source
+	 *            provides blocks of the full resolution level. Must be thread
+	 *            safe.
+	 * @param executorService
+	 *            ExecutorService where block-creator tasks are submitted.
+	 * @param numThreads
+	 *            How many block-creator tasks to run in parallel.
+	 * @param afterEachPlane
+	 *            this is called after each "plane" of coarsest level blocks
+	 *            is written. may be null.
+	 * @param progressWriter
+	 *            completion ratio will be directed here.
+	 */
+	void write(
+			final BlockSource source,
+			final ExecutorService executorService,
+			final int numThreads,
+			final AfterEachPlane afterEachPlane,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		for ( int level = 0; level < numLevels; ++level )
+			datasets.add( io.createDataset( level, dimensions[ level ], cellDimensions[ level ] ) );
+
+		final int top = numLevels - 1;
+		final long numPlanes = numCells[ top ][ 2 ];
+		for ( long plane = 0; plane < numPlanes; ++plane )
+		{
+			// collect the full resolution blocks contributing to this plane
+			// of coarsest blocks, in the order of the coarser blocks they
+			// contribute to
+			final BlockList order = new BlockList();
+			final long[] gridPosition = new long[] { 0, 0, plane };
+			for ( gridPosition[ 1 ] = 0; gridPosition[ 1 ] < numCells[ top ][ 1 ]; ++gridPosition[ 1 ] )
+				for ( gridPosition[ 0 ] = 0; gridPosition[ 0 ] < numCells[ top ][ 0 ]; ++gridPosition[ 0 ] )
+					collect( top, gridPosition, order );
+
+			final AtomicInteger next = new AtomicInteger();
+			final List< Callable< Void > > tasks = new ArrayList<>();
+			for ( int threadNum = 0; threadNum < numThreads; ++threadNum )
+			{
+				tasks.add( () -> {
+					final long[] min = new long[ n ];
+					final int[] size = new int[ n ];
+					for ( int i = next.getAndIncrement(); i < order.size; i = next.getAndIncrement() )
+					{
+						final long[] position = gridPosition( 0, order.indices[ i ] );
+						cellInterval( 0, position, min, size );
+						final DataBlock< ? > block = dataType.createDataBlock( size.clone(), position );
+						source.copy( min, size, block.getData() );
+						write( 0, block );
+					}
+					return null;
+				} );
+			}
+			try
+			{
+				final List< Future< Void > > futures = executorService.invokeAll( tasks );
+				for ( final Future< Void > future : futures )
+					future.get();
+			}
+			catch ( final InterruptedException | ExecutionException e )
+			{
+				throw new IOException( e );
+			}
+			if ( afterEachPlane != null )
+				afterEachPlane.afterEachPlane( false );
+
+			progressWriter.setProgress( ( double ) numBlocksWritten.get() / numBlocks );
+		}
+
+		for ( int level = 0; level < numLevels; ++level )
+			if ( !accumulators.get( level ).isEmpty() )
+				throw new IOException( "incomplete blocks at level " + level );
+		io.flush();
+	}
+
+	/**
+	 * Write {@code block} of the given {@code level}, and add it to the
+	 * accumulators of the next coarser level. Write blocks of coarser levels
+	 * that are completed by this.
+	 */
+	private void write( final int level, final DataBlock< ? > block ) throws IOException
+	{
+		io.writeBlock( datasets.get( level ), block );
+		numBlocksWritten.incrementAndGet();
+
+		final int coarseLevel = level + 1;
+		if ( coarseLevel >= numLevels )
+			return;
+
+		final int[] size = block.getSize();
+		final long[] min = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			min[ d ] = block.getGridPosition()[ d ] * cellDimensions[ level ][ d ];
+
+		// For each pixel (along each axis) of the block, the coarse pixel it
+		// contributes to (or -1), and its weight. The last pixel of the level
+		// gets additional weight for the border extension.
+		final long[][] coarse = new long[ n ][];
+		final int[][] weights = new int[ n ][];
+		final long[] coarseMin = new long[ n ];
+		final long[] coarseMax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			final int f = factors[ coarseLevel ][ d ];
+			final long dim = dimensions[ level ][ d ];
+			final long coarseDim = dimensions[ coarseLevel ][ d ];
+			coarse[ d ] = new long[ size[ d ] ];
+			weights[ d ] = new int[ size[ d ] ];
+			coarseMin[ d ] = Long.MAX_VALUE;
+			coarseMax[ d ] = -1;
+			for ( int i = 0; i < size[ d ]; ++i )
+			{
+				final long x = min[ d ] + i;
+				final long c = x / f;
+				if ( c >= coarseDim )
+				{
+					coarse[ d ][ i ] = -1;
+					continue;
+				}
+				coarse[ d ][ i ] = c;
+				weights[ d ][ i ] = x == dim - 1
+						? 1 + ( int ) Math.max( 0, ( c + 1 ) * f - dim )
+						: 1;
+				coarseMin[ d ] = Math.min( coarseMin[ d ], c );
+				coarseMax[ d ] = Math.max( coarseMax[ d ], c );
+			}
+			if ( coarseMax[ d ] < 0 )
+				return;
+		}
+
+		final double[] values = new double[ size[ 0 ] * size[ 1 ] * size[ 2 ] ];
+		toDouble( dataType, block.getData(), values );
+
+		final int[] coarseCellDimensions = cellDimensions[ coarseLevel ];
+		final long[] gridMin = new long[ n ];
+		final long[] gridMax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			gridMin[ d ] = coarseMin[ d ] / coarseCellDimensions[ d ];
+			gridMax[ d ] = coarseMax[ d ] / coarseCellDimensions[ d ];
+		}
+		final Map< Long, Accumulator > levelAccumulators = accumulators.get( coarseLevel );
+		final long[] gridPosition = new long[ n ];
+		for ( gridPosition[ 2 ] = gridMin[ 2 ]; gridPosition[ 2 ] <= gridMax[ 2 ]; ++gridPosition[ 2 ] )
+		{
+			for ( gridPosition[ 1 ] = gridMin[ 1 ]; gridPosition[ 1 ] <= gridMax[ 1 ]; ++gridPosition[ 1 ] )
+			{
+				for ( gridPosition[ 0 ] = gridMin[ 0 ]; gridPosition[ 0 ] <= gridMax[ 0 ]; ++gridPosition[ 0 ] )
+				{
+					final long index = index( coarseLevel, gridPosition );
+					final Accumulator accumulator = levelAccumulators.computeIfAbsent( index, k -> new Accumulator( coarseLevel, gridPosition.clone() ) );
+					final boolean complete;
+					synchronized ( accumulator )
+					{
+						accumulator.add( values, size, coarse, weights );
+						complete = ++accumulator.numContributions == accumulator.numExpectedContributions;
+					}
+					if ( complete )
+					{
+						levelAccumulators.remove( index );
+						write( coarseLevel, accumulator.toDataBlock() );
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sums of the contributions to a block of a coarser level.
+	 */
+	private class Accumulator
+	{
+		final long[] gridPosition;
+
+		final long[] min = new long[ n ];
+
+		final int[] size = new int[ n ];
+
+		final double[] sums;
+
+		final double scale;
+
+		final int numExpectedContributions;
+
+		int numContributions;
+
+		Accumulator( final int level, final long[] gridPosition )
+		{
+			this.gridPosition = gridPosition;
+			cellInterval( level, gridPosition, min, size );
+			sums = new double[ size[ 0 ] * size[ 1 ] * size[ 2 ] ];
+
+			// number of blocks of the previous level overlapping this block
+			int expected = 1;
+			int boxSize = 1;
+			for ( int d = 0; d < n; ++d )
+			{
+				final int f = factors[ level ][ d ];
+				final int c = cellDimensions[ level - 1 ][ d ];
+				final long from = min[ d ] * f;
+				final long to = Math.min( ( min[ d ] + size[ d ] ) * f, dimensions[ level - 1 ][ d ] );
+				expected *= ( int ) ( ceilDiv( to, c ) - from / c );
+				boxSize *= f;
+			}
+			numExpectedContributions = expected;
+			scale = 1.0 / boxSize;
+		}
+
+		/**
+		 * Add the {@code values} of a block of size {@code blockSize} of the
+		 * previous level.
+		 */
+		void add( final double[] values, final int[] blockSize, final long[][] coarse, final int[][] weights )
+		{
+			for ( int z = 0; z < blockSize[ 2 ]; ++z )
+			{
+				final long cz = coarse[ 2 ][ z ] - min[ 2 ];
+				if ( cz < 0 || cz >= size[ 2 ] )
+					continue;
+				for ( int y = 0; y < blockSize[ 1 ]; ++y )
+				{
+					final long cy = coarse[ 1 ][ y ] - min[ 1 ];
+					if ( cy < 0 || cy >= size[ 1 ] )
+						continue;
+					final int wzy = weights[ 2 ][ z ] * weights[ 1 ][ y ];
+					final int offset = ( int ) ( ( cz * size[ 1 ] + cy ) * size[ 0 ] );
+					final int row = ( z * blockSize[ 1 ] + y ) * blockSize[ 0 ];
+					for ( int x = 0; x < blockSize[ 0 ]; ++x )
+					{
+						final long cx = coarse[ 0 ][ x ] - min[ 0 ];
+						if ( cx < 0 || cx >= size[ 0 ] )
+							continue;
+						sums[ offset + ( int ) cx ] += values[ row + x ] * ( wzy * weights[ 0 ][ x ] );
+					}
+				}
+			}
+		}
+
+		DataBlock< ? > toDataBlock()
+		{
+			final DataBlock< ? > block = dataType.createDataBlock( size, gridPosition );
+			fromDouble( dataType, sums, scale, block.getData() );
+			return block;
+		}
+	}
+
+	/**
+	 * Collect the blocks of the full resolution level that contribute
+	 * (through the blocks of the intermediate levels) to the block at
+	 * {@code gridPosition} of the given {@code level}. Each block is assigned
+	 * to the coarser block that contains its min corner, so that every block
+	 * is collected exactly once.
+	 */
+	private void collect( final int level, final long[] gridPosition, final BlockList blocks )
+	{
+		if ( level == 0 )
+		{
+			blocks.add( index( 0, gridPosition ) );
+			return;
+		}
+
+		final int fineLevel = level - 1;
+		final long[] from = new long[ n ];
+		final long[] to = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			final long span = ( long ) cellDimensions[ level ][ d ] * factors[ level ][ d ];
+			final int c = cellDimensions[ fineLevel ][ d ];
+			from[ d ] = ceilDiv( gridPosition[ d ] * span, c );
+			to[ d ] = gridPosition[ d ] == numCells[ level ][ d ] - 1
+					? numCells[ fineLevel ][ d ]
+					: Math.min( ceilDiv( ( gridPosition[ d ] + 1 ) * span, c ), numCells[ fineLevel ][ d ] );
+		}
+		final long[] finePosition = new long[ n ];
+		for ( finePosition[ 2 ] = from[ 2 ]; finePosition[ 2 ] < to[ 2 ]; ++finePosition[ 2 ] )
+			for ( finePosition[ 1 ] = from[ 1 ]; finePosition[ 1 ] < to[ 1 ]; ++finePosition[ 1 ] )
+				for ( finePosition[ 0 ] = from[ 0 ]; finePosition[ 0 ] < to[ 0 ]; ++finePosition[ 0 ] )
+					collect( fineLevel, finePosition, blocks );
+	}
+
+	private long index( final int level, final long[] gridPosition )
+	{
+		final long[] dims = numCells[ level ];
+		return ( gridPosition[ 2 ] * dims[ 1 ] + gridPosition[ 1 ] ) * dims[ 0 ] + gridPosition[ 0 ];
+	}
+
+	private long[] gridPosition( final int level, final long index )
+	{
+		final long[] dims = numCells[ level ];
+		return new long[] {
+				index % dims[ 0 ],
+				( index / dims[ 0 ] ) % dims[ 1 ],
+				index / dims[ 0 ] / dims[ 1 ] };
+	}
+
+	private void cellInterval( final int level, final long[] gridPosition, final long[] min, final int[] size )
+	{
+		for ( int d = 0; d < n; ++d )
+		{
+			final int c = cellDimensions[ level ][ d ];
+			min[ d ] = gridPosition[ d ] * c;
+			size[ d ] = ( int ) Math.min( c, dimensions[ level ][ d ] - min[ d ] );
+		}
+	}
+
+	private static long ceilDiv( final long a, final long b )
+	{
+		return ( a + b - 1 ) / b;
+	}
+
+	/**
+	 * Growable list of flattened block indices.
+	 */
+	private static class BlockList
+	{
+		long[] indices = new long[ 64 ];
+
+		int size = 0;
+
+		void add( final long index )
+		{
+			if ( size == indices.length )
+				indices = Arrays.copyOf( indices, 2 * size );
+			indices[ size++ ] = index;
+		}
+	}
+
+	/**
+	 * Convert the primitive array {@code data} of the given {@code dataType}
+	 * to {@code double}.
+	 */
+	static void toDouble( final DataType dataType, final Object data, final double[] values )
+	{
+		switch ( dataType )
+		{
+		case UINT8:
+		{
+			final byte[] a = ( byte[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ] & 0xff;
+			break;
+		}
+		case INT8:
+		{
+			final byte[] a = ( byte[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ];
+			break;
+		}
+		case UINT16:
+		{
+			final short[] a = ( short[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ] & 0xffff;
+			break;
+		}
+		case INT16:
+		{
+			final short[] a = ( short[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ];
+			break;
+		}
+		case UINT32:
+		{
+			final int[] a = ( int[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ] & 0xffffffffL;
+			break;
+		}
+		case INT32:
+		{
+			final int[] a = ( int[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ];
+			break;
+		}
+		case UINT64:
+		{
+			final long[] a = ( long[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ] >= 0 ? a[ i ] : a[ i ] + 0x1p64;
+			break;
+		}
+		case INT64:
+		{
+			final long[] a = ( long[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ];
+			break;
+		}
+		case FLOAT32:
+		{
+			final float[] a = ( float[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				values[ i ] = a[ i ];
+			break;
+		}
+		case FLOAT64:
+			System.arraycopy( data, 0, values, 0, values.length );
+			break;
+		default:
+			throw new IllegalArgumentException( "unsupported data type " + dataType );
+		}
+	}
+
+	/**
+	 * Store {@code scale * values} into the primitive array {@code data} of
+	 * the given {@code dataType}. Integer values are rounded and clamped to
+	 * the range of the type.
+	 */
+	static void fromDouble( final DataType dataType, final double[] values, final double scale, final Object data )
+	{
+		switch ( dataType )
+		{
+		case UINT8:
+		{
+			final byte[] a = ( byte[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( byte ) clamp( Math.round( scale * values[ i ] ), 0, 0xff );
+			break;
+		}
+		case INT8:
+		{
+			final byte[] a = ( byte[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( byte ) clamp( Math.round( scale * values[ i ] ), Byte.MIN_VALUE, Byte.MAX_VALUE );
+			break;
+		}
+		case UINT16:
+		{
+			final short[] a = ( short[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( short ) clamp( Math.round( scale * values[ i ] ), 0, 0xffff );
+			break;
+		}
+		case INT16:
+		{
+			final short[] a = ( short[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( short ) clamp( Math.round( scale * values[ i ] ), Short.MIN_VALUE, Short.MAX_VALUE );
+			break;
+		}
+		case UINT32:
+		{
+			final int[] a = ( int[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( int ) clamp( Math.round( scale * values[ i ] ), 0, 0xffffffffL );
+			break;
+		}
+		case INT32:
+		{
+			final int[] a = ( int[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( int ) clamp( Math.round( scale * values[ i ] ), Integer.MIN_VALUE, Integer.MAX_VALUE );
+			break;
+		}
+		case UINT64:
+		{
+			final long[] a = ( long[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+			{
+				final double v = scale * values[ i ];
+				a[ i ] = v < 0x1p63 ? Math.max( 0, Math.round( v ) ) : Math.round( v - 0x1p63 ) + Long.MIN_VALUE;
+			}
+			break;
+		}
+		case INT64:
+		{
+			final long[] a = ( long[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = Math.round( scale * values[ i ] );
+			break;
+		}
+		case FLOAT32:
+		{
+			final float[] a = ( float[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = ( float ) ( scale * values[ i ] );
+			break;
+		}
+		case FLOAT64:
+		{
+			final double[] a = ( double[] ) data;
+			for ( int i = 0; i < values.length; ++i )
+				a[ i ] = scale * values[ i ];
+			break;
+		}
+		default:
+			throw new IllegalArgumentException( "unsupported data type " + dataType );
+		}
+	}
+
+	private static long clamp( final long value, final long min, final long max )
+	{
+		return Math.min( Math.max( value, min ), max );
+	}
+}
@@ -0,0 +1,535 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.Lz4Compression;
+import org.janelia.saalfeldlab.n5.RawCompression;
+
+import bdv.img.n5.DataTypeProperties;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.blocks.BlockSupplier;
+import net.imglib2.blocks.BlockInterval;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Cast;
+import net.imglib2.view.fluent.RandomAccessibleIntervalView.Extension;
+
+/**
+ * Propose mipmap settings and compression based on measurements on the actual
+ * data.
+ * <p>
+ * In contrast to {@link ProposeMipmaps}, which chooses chunk sizes from the
+ * voxel size alone, this samples a few blocks of the full resolution image of
+ * each setup, and measures compressed size and encode/decode time for
+ * candidate chunk sizes and compressions on this machine. The candidate that
+ * minimizes the expected latency of browsing (see {@link LatencyModel}) is
+ * proposed.
+ * <p>
+ * Candidate chunk sizes are proposed by
+ * {@link ProposeMipmaps#proposeMipmaps(BasicViewSetup, int)} for a range of
+ * maximum chunk element counts, so chunks are still power-of-two and roughly
+ * square in world space. Only the full resolution level is measured, lower
+ * resolution levels use the chunk sizes proposed along with it.
+ */
+public class TuneMipmaps
+{
+	/**
+	 * Maximum chunk element counts of the default candidate chunk sizes.
+	 */
+	public static final List< Integer > DEFAULT_MAX_NUM_ELEMENTS = Arrays.asList( 1 << 12, 1 << 15, 1 << 18 );
+
+	/**
+	 * Default number of sampled blocks per candidate chunk size.
+	 */
+	public static final int DEFAULT_NUM_SAMPLES = 8;
+
+	/**
+	 * Default candidate compressions.
+	 * <p>
+	 * Note that HDF5 export only supports uncompressed and gzip (deflate)
+	 * chunks.
+	 */
+	public static List< Compression > defaultCompressions()
+	{
+		return Arrays.asList(
+				new RawCompression(),
+				new GzipCompression( 1 ),
+				new GzipCompression(),
+				new Lz4Compression() );
+	}
+
+	/**
+	 * Model of the cost of browsing an exported dataset.
+	 * <p>
+	 * Browsing is modelled as scrolling through consecutive axis-aligned
+	 * planes of the full resolution level, with equal probability for each of
+	 * the three orientations. For each plane, all blocks intersecting the
+	 * visible part of the plane ({@code screenSize} voxels in each in-plane
+	 * dimension) must be loaded. Loading a block costs a fixed
+	 * {@code requestSeconds} plus transferring its compressed size with
+	 * {@code bytesPerSecond} plus the measured decode time. If all blocks of
+	 * one plane fit into {@code cacheBytes}, they are re-used for the next
+	 * planes, until the plane leaves the blocks.
+	 */
+	public static class LatencyModel
+	{
+		private final double requestSeconds;
+
+		private final double bytesPerSecond;
+
+		private final long cacheBytes;
+
+		private final int screenSize;
+
+		/**
+		 * Model for local files, with a visible plane of 1024x1024 voxels.
+		 *
+		 * @param cacheBytes
+		 *            size of the cache for decoded blocks (in bytes).
+		 */
+		public LatencyModel( final long cacheBytes )
+		{
+			this( 1e-4, 500e6, cacheBytes, 1024 );
+		}
+
+		/**
+		 * @param requestSeconds
+		 *            fixed cost of loading one block (in seconds).
+		 * @param bytesPerSecond
+		 *            bandwidth of loading compressed blocks.
+		 * @param cacheBytes
+		 *            size of the cache for decoded blocks (in bytes).
+		 * @param screenSize
+		 *            width and height of the visible part of a plane (in
+		 *            voxels).
+		 */
+		public LatencyModel( final double requestSeconds, final double bytesPerSecond, final long cacheBytes, final int screenSize )
+		{
+			this.requestSeconds = requestSeconds;
+			this.bytesPerSecond = bytesPerSecond;
+			this.cacheBytes = cacheBytes;
+			this.screenSize = screenSize;
+		}
+
+		/**
+		 * Expected time (in seconds) to show one plane while browsing an
+		 * image of the given {@code dimensions}.
+		 *
+		 * @param dimensions
+		 *            image dimensions.
+		 * @param blockSize
+		 *            chunk size.
+		 * @param m
+		 *            measurements for {@code blockSize}.
+		 */
+		public double planeSeconds( final long[] dimensions, final int[] blockSize, final Measurement m )
+		{
+			final double blockSeconds = requestSeconds + ( 1 - m.getEmptyFraction() ) * ( m.getCompressedBytes() / bytesPerSecond + m.getDecodeSeconds() );
+			double sum = 0;
+			for ( int normal = 0; normal < 3; ++normal )
+			{
+				long numBlocks = 1;
+				for ( int d = 0; d < 3; ++d )
+				{
+					if ( d != normal )
+					{
+						final long numBlocksInImage = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+						final long numBlocksOnScreen = ( screenSize + blockSize[ d ] - 1 ) / blockSize[ d ] + 1;
+						numBlocks *= Math.min( numBlocksInImage, numBlocksOnScreen );
+					}
+				}
+				final boolean reused = numBlocks * m.getDecodedBytes() <= cacheBytes;
+				final int planesPerBlock = reused ? ( int ) Math.min( blockSize[ normal ], dimensions[ normal ] ) : 1;
+				sum += numBlocks * blockSeconds / planesPerBlock;
+			}
+			return sum / 3;
+		}
+	}
+
+	/**
+	 * Averages measured for one chunk size and compression.
+	 */
+	public static class Measurement
+	{
+		private final double emptyFraction;
+
+		private final double compressedBytes;
+
+		private final long decodedBytes;
+
+		private final double encodeSeconds;
+
+		private final double decodeSeconds;
+
+		/**
+		 * @param emptyFraction
+		 *            fraction of sampled blocks that are empty (all zero).
+		 *            Empty blocks are not stored.
+		 * @param compressedBytes
+		 *            average size of a non-empty block, compressed.
+		 * @param decodedBytes
+		 *            size of a block, uncompressed.
+		 * @param encodeSeconds
+		 *            average time to compress a non-empty block.
+		 * @param decodeSeconds
+		 *            average time to decompress a non-empty block.
+		 */
+		public Measurement( final double emptyFraction, final double compressedBytes, final long decodedBytes, final double encodeSeconds, final double decodeSeconds )
+		{
+			this.emptyFraction = emptyFraction;
+			this.compressedBytes = compressedBytes;
+			this.decodedBytes = decodedBytes;
+			this.encodeSeconds = encodeSeconds;
+			this.decodeSeconds = decodeSeconds;
+		}
+
+		public double getEmptyFraction()
+		{
+			return emptyFraction;
+		}
+
+		public double getCompressedBytes()
+		{
+			return compressedBytes;
+		}
+
+		public long getDecodedBytes()
+		{
+			return decodedBytes;
+		}
+
+		public double getEncodeSeconds()
+		{
+			return encodeSeconds;
+		}
+
+		public double getDecodeSeconds()
+		{
+			return decodeSeconds;
+		}
+
+		public double getCompressionRatio()
+		{
+			return compressedBytes > 0 ? decodedBytes / compressedBytes : 1;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "empty %.2f, ratio %.2f, encode %s, decode %s",
+					emptyFraction, getCompressionRatio(),
+					throughput( encodeSeconds ), throughput( decodeSeconds ) );
+		}
+
+		/**
+		 * Format the throughput of coding a block in {@code seconds}, or "-"
+		 * if nothing was measured (all sampled blocks were empty).
+		 */
+		private String throughput( final double seconds )
+		{
+			return seconds > 0 ? String.format( "%.1f MB/s", decodedBytes / seconds / 1e6 ) : "-";
+		}
+	}
+
+	/**
+	 * Proposed mipmap settings and compression for one setup.
+	 */
+	public static class Proposal
+	{
+		private final ExportMipmapInfo mipmapInfo;
+
+		private final Compression compression;
+
+		private final Measurement measurement;
+
+		private final double planeSeconds;
+
+		Proposal( final ExportMipmapInfo mipmapInfo, final Compression compression, final Measurement measurement, final double planeSeconds )
+		{
+			this.mipmapInfo = mipmapInfo;
+			this.compression = compression;
+			this.measurement = measurement;
+			this.planeSeconds = planeSeconds;
+		}
+
+		public ExportMipmapInfo getMipmapInfo()
+		{
+			return mipmapInfo;
+		}
+
+		public Compression getCompression()
+		{
+			return compression;
+		}
+
+		/**
+		 * Measurements for the full resolution chunk size and compression.
+		 */
+		public Measurement getMeasurement()
+		{
+			return measurement;
+		}
+
+		/**
+		 * Expected time (in seconds) to show one plane, according to the
+		 * {@link LatencyModel}.
+		 */
+		public double getPlaneSeconds()
+		{
+			return planeSeconds;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "chunks %s, %s: %.2f ms per plane (%s)",
+					ProposeMipmaps.getArrayString( mipmapInfo.getSubdivisions() ),
+					compression.getType(), planeSeconds * 1000, measurement );
+		}
+	}
+
+	/**
+	 * Propose mipmap settings and compression for each setup of the given
+	 * sequence, using the default candidates.
+	 *
+	 * @param seq
+	 * @param model
+	 * @return map from setup id to proposal
+	 */
+	public static Map< Integer, Proposal > tuneMipmaps( final AbstractSequenceDescription< ?, ?, ? > seq, final LatencyModel model ) throws IOException
+	{
+		final HashMap< Integer, Proposal > perSetupProposal = new HashMap<>();
+		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
+			perSetupProposal.put( setup.getId(), tuneMipmaps( seq, setup.getId(), model, DEFAULT_MAX_NUM_ELEMENTS, defaultCompressions(), DEFAULT_NUM_SAMPLES ) );
+		return perSetupProposal;
+	}
+
+	/**
+	 * Propose mipmap settings and compression for the given setup.
+	 *
+	 * @param seq
+	 * @param setupId
+	 * @param model
+	 *            the latency model to minimize.
+	 * @param maxNumElements
+	 *            candidate maximum chunk element counts (see
+	 *            {@link ProposeMipmaps#proposeMipmaps(BasicViewSetup, int)}).
+	 * @param compressions
+	 *            candidate compressions.
+	 * @param numSamples
+	 *            number of sampled blocks per candidate chunk size.
+	 * @return proposal with the smallest expected latency.
+	 */
+	public static Proposal tuneMipmaps(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final int setupId,
+			final LatencyModel model,
+			final List< Integer > maxNumElements,
+			final List< Compression > compressions,
+			final int numSamples ) throws IOException
+	{
+		return tune( seq, setupId, model, maxNumElements, compressions, numSamples );
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > Proposal tune(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final int setupId,
+			final LatencyModel model,
+			final List< Integer > maxNumElements,
+			final List< Compression > compressions,
+			final int numSamples ) throws IOException
+	{
+		final BasicViewSetup setup = seq.getViewSetups().get( setupId );
+		final BasicSetupImgLoader< T > setupImgLoader = Cast.unchecked( seq.getImgLoader().getSetupImgLoader( setupId ) );
+		final T type = setupImgLoader.getImageType();
+		final DataType dataType = DataTypeProperties.n5DataType( type );
+		if ( dataType == null )
+			throw new IllegalArgumentException( "Unsupported pixel type: " + type.getClass().getSimpleName() );
+
+		final RandomAccessibleInterval< T > img = setupImgLoader.getImage( firstPresentTimepoint( seq, setupId ) );
+		final long[] dimensions = img.dimensionsAsLongArray();
+		final BlockSupplier< T > blocks = BlockSupplier.of( img.view().extend( Extension.border() ) );
+
+		Proposal best = null;
+		final List< int[] > measuredBlockSizes = new ArrayList<>();
+		for ( final int n : maxNumElements )
+		{
+			final ExportMipmapInfo mipmapInfo = ProposeMipmaps.proposeMipmaps( setup, n );
+			final int[] blockSize = mipmapInfo.getSubdivisions()[ 0 ];
+			if ( measuredBlockSizes.stream().anyMatch( b -> Arrays.equals( b, blockSize ) ) )
+				continue;
+			measuredBlockSizes.add( blockSize );
+
+			final List< DataBlock< ? > > samples = new ArrayList<>();
+			final Random random = new Random( 1L );
+			int numEmpty = 0;
+			for ( int i = 0; i < numSamples; ++i )
+			{
+				final long[] gridPosition = new long[ 3 ];
+				final long[] min = new long[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					final long numBlocks = ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ];
+					gridPosition[ d ] = ( long ) ( random.nextDouble() * numBlocks );
+					min[ d ] = gridPosition[ d ] * blockSize[ d ];
+				}
+				final DataBlock< ? > block = dataType.createDataBlock( blockSize, gridPosition );
+				blocks.copy( BlockInterval.wrap( min, blockSize ), block.getData() );
+				if ( SparseDatasetIO.isEmpty( block.getData() ) )
+					++numEmpty;
+				else
+					samples.add( block );
+			}
+			final double emptyFraction = ( double ) numEmpty / numSamples;
+			final long decodedBytes = ( long ) blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ] * type.getBitsPerPixel() / 8;
+
+			for ( final Compression compression : compressions )
+			{
+				final DatasetAttributes attributes = new DatasetAttributes( dimensions, blockSize, dataType, compression );
+				final Measurement m = measure( samples, attributes, emptyFraction, decodedBytes );
+				final double planeSeconds = model.planeSeconds( dimensions, blockSize, m );
+				if ( best == null || planeSeconds < best.getPlaneSeconds() )
+					best = new Proposal( mipmapInfo, compression, m, planeSeconds );
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Minimum duration of each timing loop in {@link #measure}.
+	 */
+	private static final long MIN_MEASURE_NANOS = 20_000_000;
+
+	/**
+	 * Measure compressed size and encode/decode time of the non-empty
+	 * {@code samples} with the compression of {@code attributes}.
+	 */
+	private static Measurement measure(
+			final List< DataBlock< ? > > samples,
+			final DatasetAttributes attributes,
+			final double emptyFraction,
+			final long decodedBytes ) throws IOException
+	{
+		if ( samples.isEmpty() )
+			return new Measurement( emptyFraction, 0, decodedBytes, 0, 0 );
+
+		// encode once for warm-up and compressed size
+		final List< byte[] > encoded = new ArrayList<>();
+		long compressedBytes = 0;
+		for ( final DataBlock< ? > block : samples )
+		{
+			final byte[] bytes = encode( block, attributes );
+			encoded.add( bytes );
+			compressedBytes += bytes.length;
+		}
+
+		long numEncoded = 0;
+		final long encodeStart = System.nanoTime();
+		long encodeNanos;
+		do
+		{
+			for ( final DataBlock< ? > block : samples )
+				encode( block, attributes );
+			numEncoded += samples.size();
+			encodeNanos = System.nanoTime() - encodeStart;
+		}
+		while ( encodeNanos < MIN_MEASURE_NANOS );
+
+		for ( int i = 0; i < samples.size(); ++i )
+			decode( encoded.get( i ), attributes, samples.get( i ) );
+		long numDecoded = 0;
+		final long decodeStart = System.nanoTime();
+		long decodeNanos;
+		do
+		{
+			for ( int i = 0; i < samples.size(); ++i )
+				decode( encoded.get( i ), attributes, samples.get( i ) );
+			numDecoded += samples.size();
+			decodeNanos = System.nanoTime() - decodeStart;
+		}
+		while ( decodeNanos < MIN_MEASURE_NANOS );
+
+		return new Measurement(
+				emptyFraction,
+				( double ) compressedBytes / samples.size(),
+				decodedBytes,
+				encodeNanos * 1e-9 / numEncoded,
+				decodeNanos * 1e-9 / numDecoded );
+	}
+
+	private static byte[] encode( final DataBlock< ? > block, final DatasetAttributes attributes ) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DefaultBlockWriter.writeBlock( bytes, attributes, block );
+		return bytes.toByteArray();
+	}
+
+	private static DataBlock< ? > decode( final byte[] bytes, final DatasetAttributes attributes, final DataBlock< ? > block ) throws IOException
+	{
+		return DefaultBlockReader.readBlock( new ByteArrayInputStream( bytes ), attributes, block.getGridPosition() );
+	}
+
+	/**
+	 * Id of the first timepoint for which the view of the given setup is
+	 * present.
+	 */
+	private static int firstPresentTimepoint( final AbstractSequenceDescription< ?, ?, ? > seq, final int setupId )
+	{
+		for ( final TimePoint timepoint : seq.getTimePoints().getTimePointsOrdered() )
+		{
+			final BasicViewDescription< ? > view = seq.getViewDescriptions().get( new ViewId( timepoint.getId(), setupId ) );
+			if ( view != null && view.isPresent() )
+				return timepoint.getId();
+		}
+		throw new IllegalArgumentException( "No view of setup " + setupId + " is present" );
+	}
+}
@@ -31,8 +31,10 @@ package bdv.export;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
@@ -146,6 +148,69 @@ public class WriteSequenceToHdf5
 			final AfterEachPlane afterEachPlane,
 			final int numCellCreatorThreads,
 			final ProgressWriter progressWriter )
+	{
+		try
+		{
+			writeHdf5File( seq, perSetupMipmapInfo, deflate, hdf5File, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, null, progressWriter );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Create a hdf5 file containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation. This is the same as
+	 * {@link WriteSequenceToHdf5#writeHdf5File(AbstractSequenceDescription, Map, boolean, File, LoopbackHeuristic, AfterEachPlane, int, ProgressWriter)}
+	 * except that completed views are recorded in a {@code checkpoint} log.
+	 * If all views were completely exported by a previous run, and their
+	 * source data did not change, the file is not written again. See
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ExportCheckpoint, ProgressWriter)}.
+	 *
+	 * @param checkpoint
+	 *            log of completed views. may be null.
+	 */
+	public static void writeHdf5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final File hdf5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final ExportCheckpoint checkpoint,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		writeHdf5File( seq, perSetupMipmapInfo, deflate, hdf5File, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, checkpoint, Collections.emptyList(), progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 file containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation, and write the same
+	 * image data to additional {@code outputs}. This is the same as
+	 * {@link WriteSequenceToHdf5#writeHdf5File(AbstractSequenceDescription, Map, boolean, File, LoopbackHeuristic, AfterEachPlane, int, ExportCheckpoint, ProgressWriter)}
+	 * except that each computed block is also handed to the {@code outputs}.
+	 * See
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ExportCheckpoint, List, ProgressWriter)}.
+	 *
+	 * @param checkpoint
+	 *            log of completed views. may be null.
+	 * @param outputs
+	 *            additional outputs (for example, a
+	 *            {@link bdv.export.n5.N5ExportOutput}).
+	 */
+	public static void writeHdf5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final File hdf5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final ExportCheckpoint checkpoint,
+			final List< ExportOutput > outputs,
+			final ProgressWriter progressWriter ) throws IOException
 	{
 		final HashMap< Integer, Integer > timepointIdSequenceToPartition = new HashMap<>();
 		for ( final TimePoint timepoint : seq.getTimePoints().getTimePointsOrdered() )
@@ -156,7 +221,7 @@ public class WriteSequenceToHdf5
 			setupIdSequenceToPartition.put( setup.getId(), setup.getId() );
 
 		final Partition partition = new Partition( hdf5File.getPath(), timepointIdSequenceToPartition, setupIdSequenceToPartition );
-		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, progressWriter );
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, checkpoint, outputs, progressWriter );
 	}
 
 	/**
@@ -368,7 +433,81 @@ public class WriteSequenceToHdf5
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
 			final int numCellCreatorThreads,
-			ProgressWriter progressWriter )
+			final ProgressWriter progressWriter )
+	{
+		try
+		{
+			writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, null, progressWriter );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Create a hdf5 partition file containing image data from all views and
+	 * all timepoints of the given {@code partition}. This is the same as
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ProgressWriter)}
+	 * except that completed views are recorded in a {@code checkpoint} log.
+	 * <p>
+	 * An HDF5 file that was not closed properly cannot be trusted, therefore
+	 * the partition file is the unit of resuming: Its views are recorded as
+	 * complete after the file was closed. If all views of the partition were
+	 * completely exported by a previous run with the same parameters and log,
+	 * and their source data did not change (according to
+	 * {@link ExportCheckpoint#fingerprint}), the partition file is not
+	 * written again. Otherwise, it is written from scratch. When exporting
+	 * one partition file per timepoint, this resumes an interrupted export at
+	 * the last incomplete timepoint, and exports only added timepoints of an
+	 * ongoing acquisition.
+	 *
+	 * @param checkpoint
+	 *            log of completed views. may be null.
+	 */
+	public static void writeHdf5PartitionFile(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final ExportCheckpoint checkpoint,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		writeHdf5PartitionFile( seq, perSetupMipmapInfo, deflate, partition, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, checkpoint, Collections.emptyList(), progressWriter );
+	}
+
+	/**
+	 * Create a hdf5 partition file containing image data from all views and
+	 * all timepoints of the given {@code partition}, and write the same
+	 * image data to additional {@code outputs}. This is the same as
+	 * {@link #writeHdf5PartitionFile(AbstractSequenceDescription, Map, boolean, Partition, LoopbackHeuristic, AfterEachPlane, int, ExportCheckpoint, ProgressWriter)}
+	 * except that each computed block is also handed to the {@code outputs},
+	 * such that the image data is read and downsampled only once for all
+	 * outputs. Each output uses its own compression and writer threads.
+	 * <p>
+	 * If the partition is skipped because it was already exported (according
+	 * to the {@code checkpoint}), the outputs are skipped as well.
+	 *
+	 * @param checkpoint
+	 *            log of completed views. may be null.
+	 * @param outputs
+	 *            additional outputs (for example, a
+	 *            {@link bdv.export.n5.N5ExportOutput}).
+	 */
+	public static void writeHdf5PartitionFile(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate,
+			final Partition partition,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final ExportCheckpoint checkpoint,
+			final List< ExportOutput > outputs,
+			ProgressWriter progressWriter ) throws IOException
 	{
 		final int blockWriterQueueLength = 100;
 
@@ -386,8 +525,31 @@ public class WriteSequenceToHdf5
 		// get the BasicImgLoader that supplies the images
 		final BasicImgLoader imgLoader = seq.getImgLoader();
 
-		// open HDF5 partition output file
+		// skip the partition if all its views were exported already
 		final File hdf5File = new File( partition.getPath() );
+		final Map< ViewId, String > fingerprints = new HashMap<>();
+		if ( checkpoint != null )
+		{
+			checkpoint.setParameters( checkpointParameters( seq, perSetupMipmapInfo, deflate ) );
+			for ( final int timepointIdSequence : timepointIdsSequence )
+			{
+				for ( final int setupIdSequence : setupIdsSequence )
+				{
+					final ViewId viewId = new ViewId( timepointIdSequence, setupIdSequence );
+					if ( seq.getViewDescriptions().get( viewId ).isPresent() )
+						fingerprints.put( viewId, checkpoint.fingerprint( seq, viewId ) );
+				}
+			}
+			if ( hdf5File.exists() && fingerprints.entrySet().stream().allMatch( e -> checkpoint.isViewDone( e.getKey(), e.getValue() ) ) )
+			{
+				progressWriter.out().println( "skipping " + hdf5File + ": already exported" );
+				progressWriter.setProgress( 1.0 );
+				return;
+			}
+		}
+		boolean complete = true;
+
+		// open HDF5 partition output file
 		if ( hdf5File.exists() )
 			hdf5File.delete();
 		final Hdf5BlockWriterThread writerQueue = new Hdf5BlockWriterThread( hdf5File, blockWriterQueueLength );
@@ -437,11 +599,21 @@ public class WriteSequenceToHdf5
 						final double endCompletionRatio = ( double ) numCompletedTasks / numTasks;
 						final ProgressWriter subProgressWriter = new SubTaskProgressWriter( progressWriter, startCompletionRatio, endCompletionRatio );
 						final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupIdSequence );
-						writeViewToHdf5PartitionFile( writerQueue, imgLoader,
-								timepointIdPartition, setupIdPartition,
-								mipmapInfo, true, deflate,
-								executorService, numCellCreatorThreads,
-								loopbackHeuristic, afterEachPlane, subProgressWriter );
+						try
+						{
+							writeViewToHdf5PartitionFile( writerQueue, imgLoader,
+									timepointIdPartition, setupIdPartition,
+									mipmapInfo, true, deflate,
+									executorService, numCellCreatorThreads,
+									loopbackHeuristic, afterEachPlane,
+									seq, new ViewId( timepointIdSequence, setupIdSequence ), outputs,
+									subProgressWriter );
+						}
+						catch ( final IOException e )
+						{
+							e.printStackTrace();
+							complete = false;
+						}
 					}
 				}
 			}
@@ -453,14 +625,43 @@ public class WriteSequenceToHdf5
 		finally {
 			writerQueue.close();
 		}
+
+		// the partition file is closed, record its views as complete
+		if ( checkpoint != null && complete )
+			for ( final Entry< ViewId, String > entry : fingerprints.entrySet() )
+				checkpoint.viewDone( entry.getKey(), entry.getValue() );
+
 		progressWriter.setProgress( 1.0 );
 	}
 
+	/**
+	 * Summarize the export parameters that must not change when resuming an
+	 * export with a {@link ExportCheckpoint}.
+	 */
+	private static String checkpointParameters(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final boolean deflate )
+	{
+		final StringBuilder sb = new StringBuilder( "hdf5 deflate=" ).append( deflate );
+		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
+		{
+			final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setup.getId() );
+			sb.append( " setup" ).append( setup.getId() )
+					.append( "=" ).append( Arrays.deepToString( mipmapInfo.getExportResolutions() ) )
+					.append( Arrays.deepToString( mipmapInfo.getSubdivisions() ) );
+		}
+		return sb.toString();
+	}
+
 	static class LoopBackImageLoader extends Hdf5ImageLoader
 	{
 		private LoopBackImageLoader( final IHDF5Reader existingHdf5Reader, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
 		{
 			super( null, existingHdf5Reader, null, sequenceDescription, false );
+			// The file is still being written, chunks may not have reached the
+			// disk yet. Read through the HDF5 library, which sees its own caches.
+			setUseDirectChunkReads( false );
 		}
 
 		static LoopBackImageLoader create( final IHDF5Reader existingHdf5Reader, final int timepointIdPartition, final int setupIdPartition, final Dimensions imageDimensions )
@@ -479,10 +680,23 @@ public class WriteSequenceToHdf5
 		final String pathName;
 		final DatasetAttributes attributes;
 
+		/**
+		 * If non-null, blocks are compressed in the cell creator threads by
+		 * this encoder, and the writer thread only appends the compressed
+		 * chunks.
+		 */
+		final Hdf5ChunkEncoder encoder;
+
 		public H5Dataset( final String pathName, final DatasetAttributes attributes )
+		{
+			this( pathName, attributes, null );
+		}
+
+		public H5Dataset( final String pathName, final DatasetAttributes attributes, final Hdf5ChunkEncoder encoder )
 		{
 			this.pathName = pathName;
 			this.attributes = attributes;
+			this.encoder = encoder;
 		}
 	}
 
@@ -516,13 +730,26 @@ public class WriteSequenceToHdf5
 		{
 			final String path = Util.getCellsPath( timepointIdPartition, setupIdPartition, level );
 			writerQueue.createDataset( path, dimensions, blockSize, dataType, compression );
-			return new H5Dataset( path, new DatasetAttributes(dimensions, blockSize, dataType, compression) );
+			final Hdf5ChunkEncoder encoder = compression instanceof RawCompression
+					? null
+					: writerQueue.createChunkEncoder( path );
+			return new H5Dataset( path, new DatasetAttributes(dimensions, blockSize, dataType, compression), encoder );
+		}
+
+		@Override
+		public boolean supportsSkippedBlocks()
+		{
+			// chunks that are not stored read as the fill value (zero)
+			return true;
 		}
 
 		@Override
 		public void writeBlock( final H5Dataset dataset, final DataBlock< ? > dataBlock )
 		{
-			writerQueue.writeBlock( dataset.pathName, dataset.attributes, dataBlock );
+			if ( dataset.encoder != null )
+				writerQueue.writeChunk( dataset.pathName, dataset.encoder.encode( dataBlock ) );
+			else
+				writerQueue.writeBlock( dataset.pathName, dataset.attributes, dataBlock );
 		}
 
 		@Override
@@ -550,13 +777,21 @@ public class WriteSequenceToHdf5
 			final int numThreads,
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
-			ProgressWriter progressWriter )
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final ViewId viewIdSequence,
+			final List< ExportOutput > outputs,
+			ProgressWriter progressWriter ) throws IOException
 	{
 		final BasicSetupImgLoader< T > setupImgLoader = Cast.unchecked( imgLoader.getSetupImgLoader( setupId ) );
 		final RandomAccessibleInterval< T > img = setupImgLoader.getImage( timepointId );
 		final T type = setupImgLoader.getImageType();
-		writeViewToHdf5PartitionFile( img, type, timepointId, setupId, mipmapInfo, writeMipmapInfo, deflate, writerQueue,
+		final List< DatasetIO< ?, T > > additionalIOs = new ArrayList<>();
+		for ( final ExportOutput output : outputs )
+			additionalIOs.add( output.createDatasetIO( seq, viewIdSequence, mipmapInfo, type ) );
+		writeView( img, type, timepointId, setupId, mipmapInfo, writeMipmapInfo, deflate, writerQueue, additionalIOs,
 				executorService, numThreads, loopbackHeuristic, afterEachPlane, progressWriter);
+		for ( final ExportOutput output : outputs )
+			output.viewDone( seq, viewIdSequence, mipmapInfo );
 	}
 
 	/**
@@ -616,6 +851,33 @@ public class WriteSequenceToHdf5
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
 			ProgressWriter progressWriter )
+	{
+		try
+		{
+			writeView( img, type, timepointIdPartition, setupIdPartition, mipmapInfo, writeMipmapInfo, deflate, writerQueue, Collections.emptyList(),
+					executorService, numThreads, loopbackHeuristic, afterEachPlane, progressWriter );
+		}
+		catch ( final IOException e )
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private static < T extends RealType< T > & NativeType< T > > void writeView(
+			final RandomAccessibleInterval< T > img,
+			final T type,
+			final int timepointIdPartition,
+			final int setupIdPartition,
+			final ExportMipmapInfo mipmapInfo,
+			final boolean writeMipmapInfo,
+			final boolean deflate,
+			final Hdf5BlockWriterThread writerQueue,
+			final List< DatasetIO< ?, T > > additionalIOs,
+			final ExecutorService executorService,
+			final int numThreads,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			ProgressWriter progressWriter ) throws IOException
 	{
 		// write Mipmap descriptions and DataType for setup
 		if ( writeMipmapInfo )
@@ -642,26 +904,28 @@ public class WriteSequenceToHdf5
 				type,
 				loopback );
 
+		final List< DatasetIO< ?, T > > ios = new ArrayList<>();
+		ios.add( io );
+		ios.addAll( additionalIOs );
+
 		try
 		{
 			ExportScalePyramid.writeScalePyramid(
 					img,
 					type,
 					mipmapInfo,
-					io,
+					ios,
 					executorService,
 					numThreads,
 					loopbackHeuristic,
 					afterEachPlane,
 					progressWriter );
 		}
-		catch ( IOException e )
+		finally
 		{
-			e.printStackTrace();
+			if ( loopback != null )
+				loopback.close();
 		}
-
-		if ( loopback != null )
-			loopback.close();
 	}
 
 	@Deprecated
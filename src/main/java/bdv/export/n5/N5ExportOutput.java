@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import static bdv.img.n5.DataTypeProperties.n5DataType;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ExportOutput;
+import bdv.export.ExportScalePyramid.DatasetIO;
+import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Writes an N5 container (in the same layout as {@link WriteSequenceToN5}) as
+ * an additional {@link ExportOutput} of another export, for example
+ * {@link bdv.export.WriteSequenceToHdf5}. Blocks are compressed and written
+ * by the writer threads of this output.
+ * <p>
+ * The output must be {@link #close() closed} after the export.
+ */
+public class N5ExportOutput implements ExportOutput, Closeable
+{
+	private final N5Writer n5;
+
+	private final Compression compression;
+
+	private final int[] blocksPerShard;
+
+	private final WriteBehindQueue writeBehind;
+
+	private final Set< Integer > writtenSetups = new HashSet<>();
+
+	/**
+	 * @param n5File
+	 *            n5 root.
+	 * @param compression
+	 *            n5 compression scheme.
+	 */
+	public N5ExportOutput( final File n5File, final Compression compression )
+	{
+		this( n5File, compression, null, 1, Runtime.getRuntime().maxMemory() / 8 );
+	}
+
+	/**
+	 * @param n5File
+	 *            n5 root.
+	 * @param compression
+	 *            n5 compression scheme.
+	 * @param blocksPerShard
+	 *            number of blocks per shard in each dimension, or
+	 *            {@code null} to store each block in its own file.
+	 * @param numWriterThreads
+	 *            The number of threads that compress and write blocks. Must
+	 *            be at least 1.
+	 * @param maxBytesQueued
+	 *            memory budget for blocks that are waiting to be written.
+	 */
+	public N5ExportOutput( final File n5File, final Compression compression, final int[] blocksPerShard, final int numWriterThreads, final long maxBytesQueued )
+	{
+		this.n5 = new N5FSWriter( n5File.getAbsolutePath() );
+		this.compression = compression;
+		this.blocksPerShard = blocksPerShard;
+		this.writeBehind = new WriteBehindQueue( numWriterThreads, maxBytesQueued );
+	}
+
+	@Override
+	public < T extends RealType< T > & NativeType< T > > DatasetIO< ?, T > createDatasetIO(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final ViewId view,
+			final ExportMipmapInfo mipmapInfo,
+			final T type )
+	{
+		final int setupId = view.getViewSetupId();
+		final DataType dataType = n5DataType( type );
+		if ( dataType == null )
+			throw new IllegalArgumentException( "Unsupported pixel type: " + type.getClass().getSimpleName() );
+		synchronized ( writtenSetups )
+		{
+			if ( writtenSetups.add( setupId ) )
+				WriteSequenceToN5.writeSetupAttributes( n5, setupId, mipmapInfo, dataType );
+		}
+		return new WriteSequenceToN5.N5DatasetIO<>( n5, compression, blocksPerShard, writeBehind.newWrites(), setupId, view.getTimePointId(), type );
+	}
+
+	@Override
+	public void viewDone( final AbstractSequenceDescription< ?, ?, ? > seq, final ViewId view, final ExportMipmapInfo mipmapInfo )
+	{
+		WriteSequenceToN5.writeViewAttributes( n5, seq, view.getViewSetupId(), view.getTimePointId(), mipmapInfo );
+	}
+
+	/**
+	 * Shut down the writer threads. Blocks of views that were completed are
+	 * already written.
+	 */
+	@Override
+	public void close()
+	{
+		writeBehind.shutdown();
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import static bdv.img.n5.BdvN5Format.SHARD_INDEX_ENTRY_SIZE;
+
+import bdv.img.n5.BdvN5Format;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockWriter;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.KeyValueAccess;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+/**
+ * Writes blocks of a dataset into shards (see
+ * {@link BdvN5Format#getShardPath}).
+ * <p>
+ * Blocks are serialized (and compressed) in the calling thread and kept in
+ * memory until all blocks of their shard have been written. Then the shard
+ * file is written in one go. To bound memory use, blocks should be written
+ * shard by shard (see {@link bdv.export.ExportScalePyramid.DatasetIO#getBlocksPerShard}).
+ */
+class N5ShardWriter
+{
+	private final KeyValueAccess kva;
+
+	private final N5Writer n5;
+
+	private final String pathName;
+
+	private final DatasetAttributes attributes;
+
+	private final int[] blocksPerShard;
+
+	private final int numBlocksPerShard;
+
+	private final long[] gridDimensions;
+
+	/**
+	 * Notified when a complete shard was written.
+	 */
+	interface ShardListener
+	{
+		void shardWritten( long[] shardPosition, int numBlocks, int numEmptyBlocks ) throws IOException;
+	}
+
+	private final ShardListener listener;
+
+	/**
+	 * An incomplete shard.
+	 */
+	private static class Shard
+	{
+		final long[] position;
+
+		/**
+		 * Serialized blocks, one (possibly {@code null}) element per block of
+		 * the shard.
+		 */
+		final byte[][] blocks;
+
+		/**
+		 * Number of blocks that are still missing.
+		 */
+		int remaining;
+
+		Shard( final long[] position, final int numBlocksPerShard, final int numBlocksInShard )
+		{
+			this.position = position;
+			this.blocks = new byte[ numBlocksPerShard ][];
+			this.remaining = numBlocksInShard;
+		}
+	}
+
+	/**
+	 * Incomplete shards, by shard path.
+	 */
+	private final Map< String, Shard > shards = new HashMap<>();
+
+	/**
+	 * The maximum number of incomplete shards held in memory so far.
+	 */
+	private int maxNumIncompleteShards;
+
+	/**
+	 * Marks blocks that were {@link #skipBlock skipped}.
+	 */
+	private static final byte[] SKIPPED = new byte[ 0 ];
+
+	/**
+	 * Create a writer for a sharded dataset (see
+	 * {@link BdvN5Format#createShardedDataset}).
+	 */
+	static N5ShardWriter create( final N5Writer n5, final String pathName, final DatasetAttributes attributes, final int[] blocksPerShard ) throws IOException
+	{
+		return create( n5, pathName, attributes, blocksPerShard, null );
+	}
+
+	/**
+	 * Create a writer for a sharded dataset (see
+	 * {@link BdvN5Format#createShardedDataset}).
+	 *
+	 * @param listener
+	 *            if non-null, notified after each complete shard was written.
+	 */
+	static N5ShardWriter create( final N5Writer n5, final String pathName, final DatasetAttributes attributes, final int[] blocksPerShard, final ShardListener listener ) throws IOException
+	{
+		if ( !( n5 instanceof GsonKeyValueN5Reader ) )
+			throw new IOException( "sharded datasets require a key-value N5 writer" );
+		return new N5ShardWriter( n5, pathName, attributes, blocksPerShard, listener );
+	}
+
+	private N5ShardWriter( final N5Writer n5, final String pathName, final DatasetAttributes attributes, final int[] blocksPerShard, final ShardListener listener )
+	{
+		this.n5 = n5;
+		this.kva = ( ( GsonKeyValueN5Reader ) n5 ).getKeyValueAccess();
+		this.pathName = pathName;
+		this.attributes = attributes;
+		this.blocksPerShard = blocksPerShard;
+		this.listener = listener;
+		numBlocksPerShard = Arrays.stream( blocksPerShard ).reduce( 1, ( a, b ) -> a * b );
+		final long[] dimensions = attributes.getDimensions();
+		final int[] blockSize = attributes.getBlockSize();
+		gridDimensions = new long[ dimensions.length ];
+		Arrays.setAll( gridDimensions, d -> ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ] );
+	}
+
+	public void writeBlock( final DataBlock< ? > dataBlock ) throws IOException
+	{
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DefaultBlockWriter.writeBlock( bytes, attributes, dataBlock );
+		putBlock( dataBlock.getGridPosition(), bytes.toByteArray() );
+	}
+
+	/**
+	 * Write a block that is already serialized (for example, copied from
+	 * another dataset with the same attributes).
+	 */
+	public void writeBlockBytes( final long[] gridPosition, final byte[] bytes ) throws IOException
+	{
+		putBlock( gridPosition, bytes );
+	}
+
+	/**
+	 * Mark the block at {@code gridPosition} as not stored, such that its
+	 * shard can be written once all other blocks are there.
+	 */
+	public void skipBlock( final long[] gridPosition ) throws IOException
+	{
+		putBlock( gridPosition, null );
+	}
+
+	/**
+	 * Put the serialized block at {@code gridPosition} into its shard, and
+	 * write the shard if it is complete. {@code bytes == null} marks a block
+	 * that is not stored.
+	 */
+	private void putBlock( final long[] gridPosition, final byte[] bytes ) throws IOException
+	{
+		final int n = gridPosition.length;
+		final long[] shardPosition = new long[ n ];
+		int blockInShard = 0;
+		for ( int d = n - 1; d >= 0; --d )
+		{
+			shardPosition[ d ] = gridPosition[ d ] / blocksPerShard[ d ];
+			blockInShard = blockInShard * blocksPerShard[ d ] + ( int ) ( gridPosition[ d ] % blocksPerShard[ d ] );
+		}
+
+		final String shardPath = BdvN5Format.getShardPath( pathName, shardPosition );
+		final Shard complete;
+		synchronized ( this )
+		{
+			final Shard shard = shards.computeIfAbsent( shardPath, k -> new Shard( shardPosition, numBlocksPerShard, numBlocksInShard( shardPosition ) ) );
+			maxNumIncompleteShards = Math.max( maxNumIncompleteShards, shards.size() );
+			if ( shard.blocks[ blockInShard ] == null )
+				--shard.remaining;
+			shard.blocks[ blockInShard ] = bytes == null ? SKIPPED : bytes;
+			complete = shard.remaining == 0 ? shards.remove( shardPath ) : null;
+		}
+		if ( complete != null )
+		{
+			final int numEmptyBlocks = writeShard( shardPath, complete.blocks );
+			if ( listener != null )
+				listener.shardWritten( complete.position, numBlocksInShard( complete.position ), numEmptyBlocks );
+		}
+	}
+
+	/**
+	 * Get the maximum number of incomplete shards that were held in memory at
+	 * the same time.
+	 */
+	synchronized int getMaxNumIncompleteShards()
+	{
+		return maxNumIncompleteShards;
+	}
+
+	/**
+	 * Write all incomplete shards. (The listener is not notified for these,
+	 * because they lack blocks.)
+	 */
+	public void flush() throws IOException
+	{
+		final List< Map.Entry< String, Shard > > incomplete;
+		synchronized ( this )
+		{
+			incomplete = new ArrayList<>( shards.entrySet() );
+			shards.clear();
+		}
+		for ( final Map.Entry< String, Shard > shard : incomplete )
+			writeShard( shard.getKey(), shard.getValue().blocks );
+	}
+
+	/**
+	 * Number of blocks in the shard at {@code shardPosition}, which is smaller
+	 * than {@code numBlocksPerShard} at the border of the dataset.
+	 */
+	private int numBlocksInShard( final long[] shardPosition )
+	{
+		int num = 1;
+		for ( int d = 0; d < shardPosition.length; ++d )
+			num *= ( int ) Math.min( blocksPerShard[ d ], gridDimensions[ d ] - shardPosition[ d ] * blocksPerShard[ d ] );
+		return num;
+	}
+
+	/**
+	 * Write the shard.
+	 *
+	 * @return the number of skipped blocks in the shard.
+	 */
+	private int writeShard( final String shardPath, final byte[][] blocks ) throws IOException
+	{
+		// replace skipped blocks, and don't write shards without any blocks
+		int numSkipped = 0;
+		boolean empty = true;
+		for ( int i = 0; i < blocks.length; ++i )
+		{
+			if ( blocks[ i ] == SKIPPED )
+			{
+				blocks[ i ] = null;
+				++numSkipped;
+			}
+			empty &= blocks[ i ] == null;
+		}
+		if ( empty )
+			return numSkipped;
+
+		final ByteBuffer index = ByteBuffer.allocate( numBlocksPerShard * SHARD_INDEX_ENTRY_SIZE );
+		long offset = index.capacity();
+		for ( final byte[] block : blocks )
+		{
+			if ( block == null )
+			{
+				index.putLong( -1 );
+				index.putLong( -1 );
+			}
+			else
+			{
+				index.putLong( offset );
+				index.putLong( block.length );
+				offset += block.length;
+			}
+		}
+
+		try ( LockedChannel channel = kva.lockForWriting( kva.compose( n5.getURI(), shardPath ) );
+				OutputStream out = channel.newOutputStream() )
+		{
+			out.write( index.array() );
+			for ( final byte[] block : blocks )
+				if ( block != null )
+					out.write( block );
+		}
+		catch ( final N5Exception e )
+		{
+			throw new IOException( e );
+		}
+		return numSkipped;
+	}
+}
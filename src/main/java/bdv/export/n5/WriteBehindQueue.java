@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+
+/**
+ * Bounded write-behind stage for exported blocks.
+ * <p>
+ * Block-creator threads hand off blocks with {@link Writes#submit}, and
+ * continue computing the next block while the block is compressed and
+ * written by one of the writer threads. The total size of blocks that are
+ * queued or being written is bounded by {@code maxBytes}: if the budget is
+ * exhausted, {@link Writes#submit} blocks until enough pending blocks have
+ * been written.
+ * <p>
+ * The writer threads and the budget are shared. Writes are grouped into
+ * {@link Writes}, for example one per dataset writer, which can be
+ * {@link Writes#flush() flushed} independently.
+ */
+class WriteBehindQueue
+{
+	/**
+	 * A write operation.
+	 */
+	interface Write
+	{
+		void run() throws IOException;
+	}
+
+	private final ExecutorService executor;
+
+	private final long maxBytes;
+
+	private long bytesInFlight;
+
+	/**
+	 * @param numWriterThreads
+	 *            number of threads that compress and write blocks.
+	 * @param maxBytes
+	 *            maximum total size of blocks that are queued or being
+	 *            written. (A single larger block is admitted if nothing else
+	 *            is in flight.)
+	 */
+	WriteBehindQueue( final int numWriterThreads, final long maxBytes )
+	{
+		this.executor = Executors.newFixedThreadPool( numWriterThreads );
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Create a new group of writes, that can be flushed independently.
+	 */
+	Writes newWrites()
+	{
+		return new Writes();
+	}
+
+	/**
+	 * Shut down the writer threads. Writes that were already submitted are
+	 * completed.
+	 */
+	void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	private synchronized void acquire( final long bytes ) throws InterruptedIOException
+	{
+		try
+		{
+			while ( bytesInFlight > 0 && bytesInFlight + bytes > maxBytes )
+				wait();
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		bytesInFlight += bytes;
+	}
+
+	private synchronized void release( final long bytes )
+	{
+		bytesInFlight -= bytes;
+		notifyAll();
+	}
+
+	/**
+	 * A group of writes.
+	 */
+	class Writes
+	{
+		private int numPending;
+
+		private IOException failure;
+
+		/**
+		 * Enqueue {@code write}, which writes a block of the given size (in
+		 * bytes). Blocks until there is room in the budget.
+		 *
+		 * @throws IOException
+		 *             if a previous write of this group failed.
+		 */
+		void submit( final long bytes, final Write write ) throws IOException
+		{
+			checkFailure();
+			acquire( bytes );
+			synchronized ( this )
+			{
+				++numPending;
+			}
+			try
+			{
+				executor.execute( () -> {
+					try
+					{
+						write.run();
+					}
+					catch ( final IOException | RuntimeException e )
+					{
+						fail( e );
+					}
+					finally
+					{
+						release( bytes );
+						done();
+					}
+				} );
+			}
+			catch ( final RuntimeException e )
+			{
+				release( bytes );
+				done();
+				throw e;
+			}
+		}
+
+		/**
+		 * Blocks until all writes of this group are completed.
+		 *
+		 * @throws IOException
+		 *             if a write of this group failed.
+		 */
+		void flush() throws IOException
+		{
+			synchronized ( this )
+			{
+				try
+				{
+					while ( numPending > 0 )
+						wait();
+				}
+				catch ( final InterruptedException e )
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			checkFailure();
+		}
+
+		private synchronized void done()
+		{
+			--numPending;
+			notifyAll();
+		}
+
+		private synchronized void fail( final Exception e )
+		{
+			if ( failure == null )
+				failure = e instanceof IOException ? ( IOException ) e : new IOException( e );
+		}
+
+		private synchronized void checkFailure() throws IOException
+		{
+			if ( failure != null )
+				throw failure;
+		}
+	}
+
+	/**
+	 * Size of the data of {@code dataBlock} in bytes.
+	 */
+	static long sizeInBytes( final DataBlock< ? > dataBlock )
+	{
+		final Object data = dataBlock.getData();
+		final long numElements = dataBlock.getNumElements();
+		if ( data instanceof byte[] )
+			return numElements;
+		else if ( data instanceof short[] )
+			return 2 * numElements;
+		else if ( data instanceof long[] || data instanceof double[] )
+			return 8 * numElements;
+		else
+			return 4 * numElements;
+	}
+}
@@ -30,36 +30,53 @@ package bdv.export.n5;
 
 import static bdv.img.n5.BdvN5Format.DATA_TYPE_KEY;
 import static bdv.img.n5.BdvN5Format.DOWNSAMPLING_FACTORS_KEY;
+import static bdv.img.n5.BdvN5Format.NUM_BLOCKS_KEY;
+import static bdv.img.n5.BdvN5Format.NUM_EMPTY_BLOCKS_KEY;
 import static bdv.img.n5.BdvN5Format.getPathName;
 import static bdv.img.n5.DataTypeProperties.n5DataType;
 import static net.imglib2.cache.img.ReadOnlyCachedCellImgOptions.options;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 import org.janelia.saalfeldlab.n5.Compression;
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.LockedChannel;
 import org.janelia.saalfeldlab.n5.N5Exception;
 import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.N5URI;
 import org.janelia.saalfeldlab.n5.N5Writer;
 
+import com.google.gson.Gson;
+
+import bdv.export.ExportCheckpoint;
 import bdv.export.ExportMipmapInfo;
 import bdv.export.ExportScalePyramid;
 import bdv.export.ExportScalePyramid.AfterEachPlane;
 import bdv.export.ExportScalePyramid.LoopbackHeuristic;
 import bdv.export.ProgressWriter;
 import bdv.export.ProgressWriterNull;
-import bdv.export.SubTaskProgressWriter;
 import bdv.img.cache.SimpleCacheArrayLoader;
+import bdv.img.n5.BdvN5Format;
 import bdv.img.n5.N5ImageLoader;
+import bdv.img.n5.N5RawBlockReader;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
 import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
@@ -127,6 +144,179 @@ public class WriteSequenceToN5
 			final LoopbackHeuristic loopbackHeuristic,
 			final AfterEachPlane afterEachPlane,
 			final int numCellCreatorThreads,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		writeN5File( seq, perSetupMipmapInfo, compression, null, n5File, loopbackHeuristic, afterEachPlane, numCellCreatorThreads, progressWriter );
+	}
+
+	/**
+	 * Create a n5 group containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation. Optionally, blocks
+	 * are grouped into shards (see {@link BdvN5Format#getShardPath}), which
+	 * reduces the number of files by a factor of the number of blocks per
+	 * shard.
+	 * <p>
+	 * Views are written one after another. (See
+	 * {@link #writeN5File(AbstractSequenceDescription, Map, Compression, int[], File, LoopbackHeuristic, AfterEachPlane, int, long, int, long, ProgressWriter)}
+	 * for writing several views concurrently.)
+	 *
+	 * @param seq
+	 *            description of the sequence to be stored as n5.
+	 * @param perSetupMipmapInfo
+	 *            this maps from setup {@link BasicViewSetup#getId() id} to
+	 *            {@link ExportMipmapInfo} for that setup.
+	 * @param compression
+	 *            n5 compression scheme.
+	 * @param blocksPerShard
+	 *            number of blocks per shard in each dimension, or
+	 *            {@code null} to store each block in its own file.
+	 * @param n5File
+	 *            n5 root.
+	 * @param loopbackHeuristic
+	 *            heuristic to decide whether to create each resolution level by
+	 *            reading pixels from the original image or by reading back a
+	 *            finer resolution level already written. may be null.
+	 * @param afterEachPlane
+	 *            this is called after each "plane of chunks" is written, giving
+	 *            the opportunity to clear caches, etc.
+	 * @param numCellCreatorThreads
+	 *            The number of threads that will be instantiated to generate
+	 *            cell data. Must be at least 1.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here.
+	 */
+	public static void writeN5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final Compression compression,
+			final int[] blocksPerShard,
+			final File n5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		writeN5File( seq, perSetupMipmapInfo, compression, blocksPerShard, n5File, loopbackHeuristic, afterEachPlane,
+				numCellCreatorThreads, 0, 0, 0, progressWriter );
+	}
+
+	/**
+	 * Create a n5 group containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation.
+	 * <p>
+	 * If {@code maxBytesInFlight > 0}, several views are written
+	 * concurrently. All views share one work-stealing pool of
+	 * {@code numCellCreatorThreads} threads that computes the blocks of all
+	 * views, so that the cores are kept busy while
+	 * individual views wait for a plane of blocks (or a resolution level) to
+	 * complete. Each view in flight is charged the size of one plane of its
+	 * full resolution blocks against {@code maxBytesInFlight}. A view is only
+	 * started when that fits into the budget (a view that is larger than the
+	 * budget is written alone). Otherwise, views are written one after
+	 * another.
+	 * <p>
+	 * Block-creator threads hand off computed blocks to
+	 * {@code numWriterThreads} writer threads, which compress and write them,
+	 * such that computation and IO overlap. The total size of blocks that are
+	 * waiting to be written is bounded by {@code maxBytesQueued}: If that is
+	 * exhausted, block-creator threads wait until blocks have been written.
+	 * <p>
+	 * If the sequence is loaded by a {@link N5ImageLoader}, resolution levels
+	 * that have the same downsampling factors, dimensions, block size, data
+	 * type, and compression in the source are copied block by block, without
+	 * decoding and re-encoding the blocks. Levels that differ are computed as
+	 * usual. (Copying is not done for levels computed in a single pass, see
+	 * {@link ExportScalePyramid.SinglePassHeuristic}.)
+	 *
+	 * @param seq
+	 *            description of the sequence to be stored as n5.
+	 * @param perSetupMipmapInfo
+	 *            this maps from setup {@link BasicViewSetup#getId() id} to
+	 *            {@link ExportMipmapInfo} for that setup.
+	 * @param compression
+	 *            n5 compression scheme.
+	 * @param blocksPerShard
+	 *            number of blocks per shard in each dimension, or
+	 *            {@code null} to store each block in its own file.
+	 * @param n5File
+	 *            n5 root.
+	 * @param loopbackHeuristic
+	 *            heuristic to decide whether to create each resolution level by
+	 *            reading pixels from the original image or by reading back a
+	 *            finer resolution level already written. may be null.
+	 * @param afterEachPlane
+	 *            this is called after each "plane of chunks" is written, giving
+	 *            the opportunity to clear caches, etc. Note that this may be
+	 *            called concurrently for different views, if
+	 *            {@code maxBytesInFlight > 0}.
+	 * @param numCellCreatorThreads
+	 *            The number of threads that will be instantiated to generate
+	 *            cell data. Must be at least 1.
+	 * @param maxBytesInFlight
+	 *            memory budget that limits the number of views that are
+	 *            written concurrently. If {@code 0}, views are written one
+	 *            after another.
+	 * @param numWriterThreads
+	 *            The number of threads that compress and write blocks. If
+	 *            {@code 0}, blocks are written by the block-creator threads.
+	 * @param maxBytesQueued
+	 *            memory budget for blocks that are waiting to be written.
+	 * @param progressWriter
+	 *            completion ratio and status output will be directed here.
+	 */
+	public static void writeN5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final Compression compression,
+			final int[] blocksPerShard,
+			final File n5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final long maxBytesInFlight,
+			final int numWriterThreads,
+			final long maxBytesQueued,
+			final ProgressWriter progressWriter ) throws IOException
+	{
+		writeN5File( seq, perSetupMipmapInfo, compression, blocksPerShard, n5File, loopbackHeuristic, afterEachPlane,
+				numCellCreatorThreads, maxBytesInFlight,
+				numWriterThreads, maxBytesQueued,
+				null, progressWriter );
+	}
+
+	/**
+	 * Create a n5 group containing image data from all views and all
+	 * timepoints in a chunked, mipmaped representation. This is the same as
+	 * {@link #writeN5File(AbstractSequenceDescription, Map, Compression, int[], File, LoopbackHeuristic, AfterEachPlane, int, long, int, long, ProgressWriter)},
+	 * except that progress is recorded in a {@code checkpoint} log.
+	 * <p>
+	 * Written blocks (or shards) are recorded in the log, so that an
+	 * interrupted export can be resumed by running it again with the same
+	 * parameters and log. Views that were completely exported, and whose
+	 * source data did not change (according to
+	 * {@link ExportCheckpoint#fingerprint}), are skipped. This can also be
+	 * used to incrementally export views that were added to the sequence, for
+	 * example timepoints of an ongoing acquisition. (Resuming at the block
+	 * level is not done for levels computed in a single pass, see
+	 * {@link ExportScalePyramid.SinglePassHeuristic}. These are written again
+	 * from scratch.)
+	 *
+	 * @param checkpoint
+	 *            log of completed views and blocks. may be null.
+	 */
+	public static void writeN5File(
+			final AbstractSequenceDescription< ?, ?, ? > seq,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final Compression compression,
+			final int[] blocksPerShard,
+			final File n5File,
+			final LoopbackHeuristic loopbackHeuristic,
+			final AfterEachPlane afterEachPlane,
+			final int numCellCreatorThreads,
+			final long maxBytesInFlight,
+			final int numWriterThreads,
+			final long maxBytesQueued,
+			final ExportCheckpoint checkpoint,
 			ProgressWriter progressWriter ) throws IOException
 	{
 		if ( progressWriter == null )
@@ -134,6 +324,8 @@ public class WriteSequenceToN5
 		progressWriter.setProgress( 0 );
 
 		final BasicImgLoader imgLoader = seq.getImgLoader();
+		if ( imgLoader instanceof N5ImageLoader && isSameFile( ( N5ImageLoader ) imgLoader, n5File ) )
+			throw new IllegalArgumentException( "Cannot resave N5 into itself: " + n5File );
 
 		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
 		{
@@ -155,85 +347,201 @@ public class WriteSequenceToN5
 
 		// write Mipmap descriptions
 		for ( final int setupId : setupIds )
-		{
-			final String pathName = getPathName( setupId );
-			final int[][] downsamplingFactors = perSetupMipmapInfo.get( setupId ).getExportResolutions();
-			final DataType dataType = n5DataType( Cast.unchecked( imgLoader.getSetupImgLoader( setupId ).getImageType() ) );
-			n5.createGroup( pathName );
-			n5.setAttribute( pathName, DOWNSAMPLING_FACTORS_KEY, downsamplingFactors );
-			n5.setAttribute( pathName, DATA_TYPE_KEY, dataType );
-		}
+			writeSetupAttributes( n5, setupId, perSetupMipmapInfo.get( setupId ), n5DataType( Cast.unchecked( imgLoader.getSetupImgLoader( setupId ).getImageType() ) ) );
 
+		if ( checkpoint != null )
+			checkpoint.setParameters( checkpointParameters( n5, setupIds, perSetupMipmapInfo, compression, blocksPerShard ) );
 
-		// calculate number of tasks for progressWriter
-		int numTasks = 0; // first task is for writing mipmap descriptions etc...
-		for ( final int timepointIdSequence : timepointIds )
-			for ( final int setupIdSequence : setupIds )
-				if ( seq.getViewDescriptions().get( new ViewId( timepointIdSequence, setupIdSequence ) ).isPresent() )
-					numTasks++;
-		int numCompletedTasks = 0;
+		// assemble the views that are present
+		final List< ViewId > viewIds = new ArrayList<>();
+		for ( final int timepointId : timepointIds )
+			for ( final int setupId : setupIds )
+				if ( seq.getViewDescriptions().get( new ViewId( timepointId, setupId ) ).isPresent() )
+					viewIds.add( new ViewId( timepointId, setupId ) );
+		final int numTasks = viewIds.size();
+		final ViewProgress viewProgress = new ViewProgress( progressWriter, numTasks );
 
-		final ExecutorService executorService = Executors.newFixedThreadPool( numCellCreatorThreads );
+		// budget in KiB
+		final int budget = ( int ) Math.max( 1, Math.min( Integer.MAX_VALUE, maxBytesInFlight >> 10 ) );
+		final Semaphore bytesInFlight = new Semaphore( budget, true );
+
+		final WriteBehindQueue writeBehind = numWriterThreads > 0
+				? new WriteBehindQueue( numWriterThreads, maxBytesQueued )
+				: null;
+		final ExecutorService executorService = Executors.newWorkStealingPool( numCellCreatorThreads );
+		final ExecutorService viewExecutorService = Executors.newFixedThreadPool( maxBytesInFlight > 0 ? numCellCreatorThreads : 1 );
+		final List< Future< Void > > futures = new ArrayList<>();
 		try
 		{
 			// write image data for all views
-			final int numTimepoints = timepointIds.size();
-			int timepointIndex = 0;
-			for ( final int timepointId : timepointIds )
+			for ( int i = 0; i < numTasks; ++i )
 			{
-				progressWriter.out().printf( "proccessing timepoint %d / %d\n", ++timepointIndex, numTimepoints );
+				final int taskIndex = i;
+				final ViewId viewId = viewIds.get( i );
+				final int timepointId = viewId.getTimePointId();
+				final int setupId = viewId.getViewSetupId();
+				futures.add( viewExecutorService.submit( () -> {
+					final String fingerprint = checkpoint == null ? null : checkpoint.fingerprint( seq, viewId );
+					if ( checkpoint != null )
+					{
+						if ( checkpoint.isViewDone( viewId, fingerprint ) )
+						{
+							viewProgress.out().printf( "skipping view %d / %d (timepoint %d, setup %d): already exported\n", taskIndex + 1, numTasks, timepointId, setupId );
+							viewProgress.forView( taskIndex ).setProgress( 1.0 );
+							return null;
+						}
+						checkpoint.beginView( viewId, fingerprint );
+					}
 
-				// assemble the viewsetups that are present in this timepoint
-				final ArrayList< Integer > setupsTimePoint = new ArrayList<>();
-				for ( final int setupId : setupIds )
-					if ( seq.getViewDescriptions().get( new ViewId( timepointId, setupId ) ).isPresent() )
-						setupsTimePoint.add( setupId );
+					final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupId );
+					final BasicSetupImgLoader< ? > setupImgLoader = imgLoader.getSetupImgLoader( setupId );
+					final long[] dimensions = setupImgLoader.getImage( timepointId ).dimensionsAsLongArray();
+					final int bitsPerPixel = ( ( RealType< ? > ) setupImgLoader.getImageType() ).getBitsPerPixel();
+					final long planeBytes = dimensions[ 0 ] * dimensions[ 1 ] * mipmapInfo.getSubdivisions()[ 0 ][ 2 ] * bitsPerPixel / 8;
+					final int permits = ( int ) Math.max( 1, Math.min( budget, planeBytes >> 10 ) );
 
-				final int numSetups = setupsTimePoint.size();
-				int setupIndex = 0;
-				for ( final int setupId : setupsTimePoint )
-				{
-					progressWriter.out().printf( "proccessing setup %d / %d\n", ++setupIndex, numSetups );
+					bytesInFlight.acquire( permits );
+					try
+					{
+						viewProgress.out().printf( "proccessing view %d / %d (timepoint %d, setup %d)\n", taskIndex + 1, numTasks, timepointId, setupId );
+						writeScalePyramid(
+								n5, compression, blocksPerShard, writeBehind, checkpoint,
+								imgLoader, setupId, timepointId, mipmapInfo,
+								executorService, numCellCreatorThreads,
+								loopbackHeuristic, afterEachPlane, viewProgress.forView( taskIndex ) );
 
-					final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupId );
-					final double startCompletionRatio = ( double ) numCompletedTasks++ / numTasks;
-					final double endCompletionRatio = ( double ) numCompletedTasks / numTasks;
-					final ProgressWriter subProgressWriter = new SubTaskProgressWriter( progressWriter, startCompletionRatio, endCompletionRatio );
-					writeScalePyramid(
-							n5, compression,
-							imgLoader, setupId, timepointId, mipmapInfo,
-							executorService, numCellCreatorThreads,
-							loopbackHeuristic, afterEachPlane, subProgressWriter );
-
-
-					// additional attributes for paintera compatibility
-					final String pathName = getPathName( setupId, timepointId );
-					n5.createGroup( pathName );
-					n5.setAttribute( pathName, MULTI_SCALE_KEY, true );
-					final VoxelDimensions voxelSize = seq.getViewSetups().get( setupId ).getVoxelSize();
-					if ( voxelSize != null )
+						writeViewAttributes( n5, seq, setupId, timepointId, mipmapInfo );
+
+						if ( checkpoint != null )
+							checkpoint.viewDone( viewId, fingerprint );
+					}
+					finally
 					{
-						final double[] resolution = new double[ voxelSize.numDimensions() ];
-						voxelSize.dimensions( resolution );
-						n5.setAttribute( pathName, RESOLUTION_KEY, resolution );
+						bytesInFlight.release( permits );
 					}
-					final int[][] downsamplingFactors = perSetupMipmapInfo.get( setupId ).getExportResolutions();
-					for( int l = 0; l < downsamplingFactors.length; ++l )
-						n5.setAttribute( getPathName( setupId, timepointId, l ), DOWNSAMPLING_FACTORS_KEY, downsamplingFactors[ l ] );
-				}
+					viewProgress.forView( taskIndex ).setProgress( 1.0 );
+					return null;
+				} ) );
 			}
+
+			for ( final Future< Void > future : futures )
+				future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			throw new InterruptedIOException();
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof IOException )
+				throw ( IOException ) cause;
+			throw new IOException( cause );
 		}
 		finally
 		{
+			futures.forEach( future -> future.cancel( true ) );
+			viewExecutorService.shutdownNow();
 			executorService.shutdown();
+			if ( writeBehind != null )
+				writeBehind.shutdown();
 		}
 
 		progressWriter.setProgress( 1.0 );
 	}
 
+	/**
+	 * Write mipmap description and data type of a setup.
+	 */
+	static void writeSetupAttributes( final N5Writer n5, final int setupId, final ExportMipmapInfo mipmapInfo, final DataType dataType )
+	{
+		final String pathName = getPathName( setupId );
+		n5.createGroup( pathName );
+		n5.setAttribute( pathName, DOWNSAMPLING_FACTORS_KEY, mipmapInfo.getExportResolutions() );
+		n5.setAttribute( pathName, DATA_TYPE_KEY, dataType );
+	}
+
+	/**
+	 * Write the attributes of a view, after its image data was written.
+	 */
+	static void writeViewAttributes( final N5Writer n5, final AbstractSequenceDescription< ?, ?, ? > seq, final int setupId, final int timepointId, final ExportMipmapInfo mipmapInfo )
+	{
+		// additional attributes for paintera compatibility
+		final String pathName = getPathName( setupId, timepointId );
+		n5.createGroup( pathName );
+		n5.setAttribute( pathName, MULTI_SCALE_KEY, true );
+		final VoxelDimensions voxelSize = seq.getViewSetups().get( setupId ).getVoxelSize();
+		if ( voxelSize != null )
+		{
+			final double[] resolution = new double[ voxelSize.numDimensions() ];
+			voxelSize.dimensions( resolution );
+			n5.setAttribute( pathName, RESOLUTION_KEY, resolution );
+		}
+		final int[][] downsamplingFactors = mipmapInfo.getExportResolutions();
+		for( int l = 0; l < downsamplingFactors.length; ++l )
+			n5.setAttribute( getPathName( setupId, timepointId, l ), DOWNSAMPLING_FACTORS_KEY, downsamplingFactors[ l ] );
+	}
+
+	/**
+	 * Combines the progress of concurrently written views.
+	 */
+	private static class ViewProgress
+	{
+		private final ProgressWriter progressWriter;
+
+		private final double[] progress;
+
+		private double sum;
+
+		ViewProgress( final ProgressWriter progressWriter, final int numViews )
+		{
+			this.progressWriter = progressWriter;
+			this.progress = new double[ numViews ];
+		}
+
+		PrintStream out()
+		{
+			return progressWriter.out();
+		}
+
+		synchronized void setProgress( final int view, final double completionRatio )
+		{
+			sum += completionRatio - progress[ view ];
+			progress[ view ] = completionRatio;
+			progressWriter.setProgress( sum / progress.length );
+		}
+
+		ProgressWriter forView( final int view )
+		{
+			return new ProgressWriter()
+			{
+				@Override
+				public PrintStream out()
+				{
+					return progressWriter.out();
+				}
+
+				@Override
+				public PrintStream err()
+				{
+					return progressWriter.err();
+				}
+
+				@Override
+				public void setProgress( final double completionRatio )
+				{
+					ViewProgress.this.setProgress( view, completionRatio );
+				}
+			};
+		}
+	}
+
 	static < T extends RealType< T > & NativeType< T > > void writeScalePyramid(
 			final N5Writer n5,
 			final Compression compression,
+			final int[] blocksPerShard,
+			final WriteBehindQueue writeBehind,
+			final ExportCheckpoint checkpoint,
 			final BasicImgLoader imgLoader,
 			final int setupId,
 			final int timepointId,
@@ -247,22 +555,112 @@ public class WriteSequenceToN5
 		final BasicSetupImgLoader< T > setupImgLoader = Cast.unchecked( imgLoader.getSetupImgLoader( setupId ) );
 		final RandomAccessibleInterval< T > img = setupImgLoader.getImage( timepointId );
 		final T type = setupImgLoader.getImageType();
-		final N5DatasetIO< T > io = new N5DatasetIO<>( n5, compression, setupId, timepointId, type );
+		final N5DatasetIO< T > io = new N5DatasetIO<>( n5, compression, blocksPerShard, writeBehind == null ? null : writeBehind.newWrites(), setupId, timepointId, type );
+		io.setCheckpoint( checkpoint );
+		if ( imgLoader instanceof N5ImageLoader )
+		{
+			// levels with the same downsampling factors may be copied
+			final N5ImageLoader source = ( N5ImageLoader ) imgLoader;
+			final double[][] sourceResolutions = source.getSetupImgLoader( setupId ).getMipmapResolutions();
+			final int[][] resolutions = mipmapInfo.getExportResolutions();
+			io.setCopySource( level -> level < sourceResolutions.length && isSameResolution( resolutions[ level ], sourceResolutions[ level ] )
+					? source.createRawBlockReader( setupId, timepointId, level )
+					: null );
+		}
 		ExportScalePyramid.writeScalePyramid(
 				img, type, mipmapInfo, io,
 				executorService, numThreads,
 				loopbackHeuristic, afterEachPlane, progressWriter );
 	}
 
+	/**
+	 * Summarize the export parameters that must not change when resuming an
+	 * export with a {@link ExportCheckpoint}.
+	 */
+	private static String checkpointParameters(
+			final N5Writer n5,
+			final List< Integer > setupIds,
+			final Map< Integer, ExportMipmapInfo > perSetupMipmapInfo,
+			final Compression compression,
+			final int[] blocksPerShard )
+	{
+		final StringBuilder sb = new StringBuilder( "n5" );
+		if ( n5 instanceof GsonKeyValueN5Reader )
+			sb.append( " compression=" ).append( ( ( GsonKeyValueN5Reader ) n5 ).getGson().toJson( compression, Compression.class ) );
+		sb.append( " blocksPerShard=" ).append( Arrays.toString( blocksPerShard ) );
+		for ( final int setupId : setupIds )
+		{
+			final ExportMipmapInfo mipmapInfo = perSetupMipmapInfo.get( setupId );
+			sb.append( " setup" ).append( setupId )
+					.append( "=" ).append( Arrays.deepToString( mipmapInfo.getExportResolutions() ) )
+					.append( Arrays.deepToString( mipmapInfo.getSubdivisions() ) );
+		}
+		return sb.toString();
+	}
+
+	private static boolean isSameResolution( final int[] resolution, final double[] sourceResolution )
+	{
+		if ( resolution.length != sourceResolution.length )
+			return false;
+		for ( int d = 0; d < resolution.length; ++d )
+			if ( resolution[ d ] != sourceResolution[ d ] )
+				return false;
+		return true;
+	}
+
+	private static boolean isSameFile( final N5ImageLoader imgLoader, final File n5File )
+	{
+		try
+		{
+			return imgLoader.getN5File().getCanonicalFile().equals( n5File.getCanonicalFile() );
+		}
+		catch ( final IOException | IllegalArgumentException e )
+		{
+			// not a local file
+			return false;
+		}
+	}
+
 	static class N5Dataset
 	{
 		final String pathName;
+		final int level;
 		final DatasetAttributes attributes;
 
-		public N5Dataset( final String pathName, final DatasetAttributes attributes )
+		/**
+		 * If non-null, blocks are written into shards by this writer.
+		 */
+		final N5ShardWriter shardWriter;
+
+		/**
+		 * If non-null, stored blocks are copied from this reader.
+		 */
+		final N5RawBlockReader source;
+
+		/**
+		 * Number of blocks (and empty blocks) that were written by a
+		 * previous export, if the dataset was resumed.
+		 */
+		long numResumedBlocks;
+		long numResumedEmptyBlocks;
+
+		public N5Dataset( final String pathName, final int level, final DatasetAttributes attributes )
+		{
+			this( pathName, level, attributes, null );
+		}
+
+		public N5Dataset( final String pathName, final int level, final DatasetAttributes attributes, final N5ShardWriter shardWriter )
+		{
+			this( pathName, level, attributes, shardWriter, null );
+		}
+
+		public N5Dataset( final String pathName, final int level, final DatasetAttributes attributes, final N5ShardWriter shardWriter, final N5RawBlockReader source )
 		{
 			this.pathName = pathName;
+			this.level = level;
 			this.attributes = attributes;
+			this.shardWriter = shardWriter;
+			this.source = source;
 		}
 	}
 
@@ -270,17 +668,41 @@ public class WriteSequenceToN5
 	{
 		private final N5Writer n5;
 		private final Compression compression;
+		private final int[] blocksPerShard;
+		private final WriteBehindQueue.Writes writes;
+		private final List< N5ShardWriter > shardWriters = new ArrayList<>();
 		private final int setupId;
 		private final int timepointId;
 		private final DataType dataType;
 		private final T type;
+		private IntFunction< N5RawBlockReader > copySource;
+		private ExportCheckpoint checkpoint;
+		private final ViewId view;
 
 		public N5DatasetIO( final N5Writer n5, final Compression compression, final int setupId, final int timepointId, final T type )
+		{
+			this( n5, compression, null, setupId, timepointId, type );
+		}
+
+		public N5DatasetIO( final N5Writer n5, final Compression compression, final int[] blocksPerShard, final int setupId, final int timepointId, final T type )
+		{
+			this( n5, compression, blocksPerShard, null, setupId, timepointId, type );
+		}
+
+		/**
+		 * @param writes
+		 *            if non-null, blocks are handed off to this write-behind
+		 *            queue, instead of being written in the calling thread.
+		 */
+		public N5DatasetIO( final N5Writer n5, final Compression compression, final int[] blocksPerShard, final WriteBehindQueue.Writes writes, final int setupId, final int timepointId, final T type )
 		{
 			this.n5 = n5;
 			this.compression = compression;
+			this.blocksPerShard = blocksPerShard;
+			this.writes = writes;
 			this.setupId = setupId;
 			this.timepointId = timepointId;
+			this.view = new ViewId( timepointId, setupId );
 			this.dataType = n5DataType( type );
 			this.type = type;
 		}
@@ -291,8 +713,71 @@ public class WriteSequenceToN5
 			final String pathName = getPathName( setupId, timepointId, level );
 			try
 			{
-				final DatasetAttributes attributes = n5.createDataset( pathName, dimensions, blockSize, dataType, compression );
-				return new N5Dataset( pathName, attributes );
+				// empty blocks are not written, so blocks of a previous
+				// export must not remain
+				if ( n5.exists( pathName ) )
+					n5.remove( pathName );
+				if ( checkpoint != null )
+				{
+					final long[] gridDimensions = new long[ dimensions.length ];
+					Arrays.setAll( gridDimensions, d -> ( dimensions[ d ] + blockSize[ d ] - 1 ) / blockSize[ d ] );
+					checkpoint.beginLevel( view, level, gridDimensions );
+				}
+				final DatasetAttributes attributes = blocksPerShard == null
+						? n5.createDataset( pathName, dimensions, blockSize, dataType, compression )
+						: BdvN5Format.createShardedDataset( n5, pathName, dimensions, blockSize, dataType, compression, blocksPerShard );
+				return new N5Dataset( pathName, level, attributes, createShardWriter( pathName, level, attributes ) );
+			}
+			catch ( final N5Exception e )
+			{
+				throw new IOException( e );
+			}
+		}
+
+		private N5ShardWriter createShardWriter( final String pathName, final int level, final DatasetAttributes attributes ) throws IOException
+		{
+			if ( blocksPerShard == null )
+				return null;
+			final N5ShardWriter shardWriter = N5ShardWriter.create( n5, pathName, attributes, blocksPerShard,
+					checkpoint == null
+							? null
+							: ( shardPosition, numBlocks, numEmptyBlocks ) -> checkpoint.shardDone( view, level, shardPosition, numBlocks, numEmptyBlocks ) );
+			synchronized ( shardWriters )
+			{
+				shardWriters.add( shardWriter );
+			}
+			return shardWriter;
+		}
+
+		/**
+		 * @param checkpoint
+		 *            if non-null, written blocks are recorded in this log, and
+		 *            datasets that were partially written by a previous
+		 *            export (according to the log) are resumed.
+		 */
+		public void setCheckpoint( final ExportCheckpoint checkpoint )
+		{
+			this.checkpoint = checkpoint;
+		}
+
+		@Override
+		public N5Dataset resumeDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+		{
+			if ( checkpoint == null || !checkpoint.hasLevel( view, level ) )
+				return null;
+			final String pathName = getPathName( setupId, timepointId, level );
+			try
+			{
+				final DatasetAttributes attributes = n5.exists( pathName ) ? BdvN5Format.getDatasetAttributes( n5, pathName ) : null;
+				if ( attributes == null )
+					return null;
+				if ( !isCompatible( attributes, dimensions, blockSize )
+						|| !Arrays.equals( blocksPerShard, n5.getAttribute( pathName, BdvN5Format.BLOCKS_PER_SHARD_KEY, int[].class ) ) )
+					return null;
+				final N5Dataset dataset = new N5Dataset( pathName, level, attributes, createShardWriter( pathName, level, attributes ) );
+				dataset.numResumedBlocks = checkpoint.getNumBlocks( view, level );
+				dataset.numResumedEmptyBlocks = checkpoint.getNumEmptyBlocks( view, level );
+				return dataset;
 			}
 			catch ( final N5Exception e )
 			{
@@ -300,9 +785,145 @@ public class WriteSequenceToN5
 			}
 		}
 
+		@Override
+		public boolean isBlockDone( final N5Dataset dataset, final long[] gridPosition )
+		{
+			if ( blocksPerShard == null )
+				return checkpoint.isBlockDone( view, dataset.level, gridPosition );
+			final long[] shardPosition = new long[ gridPosition.length ];
+			Arrays.setAll( shardPosition, d -> gridPosition[ d ] / blocksPerShard[ d ] );
+			return checkpoint.isShardDone( view, dataset.level, shardPosition );
+		}
+
+		/**
+		 * Record the block at {@code gridPosition} (of a dataset without
+		 * shards) in the checkpoint log.
+		 */
+		private void blockDone( final N5Dataset dataset, final long[] gridPosition, final boolean empty ) throws IOException
+		{
+			if ( checkpoint != null )
+				checkpoint.blockDone( view, dataset.level, gridPosition, empty );
+		}
+
+		/**
+		 * @param copySource
+		 *            provides, for each resolution level, a reader for the
+		 *            stored blocks of an existing dataset to be copied, or
+		 *            {@code null} if the level should be computed.
+		 */
+		public void setCopySource( final IntFunction< N5RawBlockReader > copySource )
+		{
+			this.copySource = copySource;
+		}
+
+		@Override
+		public N5Dataset createCopiedDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+		{
+			final N5RawBlockReader source = copySource == null ? null : copySource.apply( level );
+			if ( source == null || !isCompatible( source.getAttributes(), dimensions, blockSize ) )
+				return null;
+			final N5Dataset dataset = createDataset( level, dimensions, blockSize );
+			return new N5Dataset( dataset.pathName, level, dataset.attributes, dataset.shardWriter, source );
+		}
+
+		/**
+		 * Check whether blocks of a dataset with the given {@code source}
+		 * attributes are serialized exactly as blocks of a dataset written by
+		 * this {@code N5DatasetIO} with the given {@code dimensions} and
+		 * {@code blockSize}.
+		 */
+		private boolean isCompatible( final DatasetAttributes source, final long[] dimensions, final int[] blockSize )
+		{
+			if ( !Arrays.equals( source.getDimensions(), dimensions )
+					|| !Arrays.equals( source.getBlockSize(), blockSize )
+					|| source.getDataType() != dataType
+					|| !( n5 instanceof GsonKeyValueN5Reader ) )
+				return false;
+			final Gson gson = ( ( GsonKeyValueN5Reader ) n5 ).getGson();
+			return gson.toJsonTree( source.getCompression(), Compression.class ).equals( gson.toJsonTree( compression, Compression.class ) );
+		}
+
+		@Override
+		public boolean copyBlock( final N5Dataset dataset, final long[] gridPosition ) throws IOException
+		{
+			final byte[] bytes = dataset.source.readBlockBytes( gridPosition );
+			if ( bytes == null )
+			{
+				skipBlock( dataset, gridPosition );
+				return false;
+			}
+			if ( writes != null )
+				writes.submit( bytes.length, () -> writeBytes( dataset, gridPosition, bytes ) );
+			else
+				writeBytes( dataset, gridPosition, bytes );
+			return true;
+		}
+
+		private void writeBytes( final N5Dataset dataset, final long[] gridPosition, final byte[] bytes ) throws IOException
+		{
+			if ( dataset.shardWriter != null )
+			{
+				dataset.shardWriter.writeBlockBytes( gridPosition, bytes );
+				return;
+			}
+			final GsonKeyValueN5Reader kvn5 = ( GsonKeyValueN5Reader ) n5;
+			final String path = kvn5.absoluteDataBlockPath( N5URI.normalizeGroupPath( dataset.pathName ), gridPosition );
+			try ( LockedChannel channel = kvn5.getKeyValueAccess().lockForWriting( path );
+					OutputStream out = channel.newOutputStream() )
+			{
+				out.write( bytes );
+			}
+			catch ( final N5Exception e )
+			{
+				throw new IOException( e );
+			}
+			blockDone( dataset, gridPosition, false );
+		}
+
 		@Override
 		public void writeBlock( final N5Dataset dataset, final DataBlock< ? > dataBlock ) throws IOException
 		{
+			if ( writes != null )
+				writes.submit( WriteBehindQueue.sizeInBytes( dataBlock ), () -> write( dataset, dataBlock ) );
+			else
+				write( dataset, dataBlock );
+		}
+
+		@Override
+		public int[] getBlocksPerShard( final N5Dataset dataset )
+		{
+			return dataset.shardWriter == null ? null : blocksPerShard;
+		}
+
+		@Override
+		public boolean supportsSkippedBlocks()
+		{
+			// blocks that are not stored read as zeros
+			return true;
+		}
+
+		@Override
+		public void skipBlock( final N5Dataset dataset, final long[] gridPosition ) throws IOException
+		{
+			// the shard of the block may be complete now
+			if ( dataset.shardWriter == null )
+			{
+				blockDone( dataset, gridPosition, true );
+				return;
+			}
+			if ( writes != null )
+				writes.submit( 0, () -> dataset.shardWriter.skipBlock( gridPosition ) );
+			else
+				dataset.shardWriter.skipBlock( gridPosition );
+		}
+
+		private void write( final N5Dataset dataset, final DataBlock< ? > dataBlock ) throws IOException
+		{
+			if ( dataset.shardWriter != null )
+			{
+				dataset.shardWriter.writeBlock( dataBlock );
+				return;
+			}
 			try
 			{
 				n5.writeBlock( dataset.pathName, dataset.attributes, dataBlock );
@@ -311,11 +932,41 @@ public class WriteSequenceToN5
 			{
 				throw new IOException( e );
 			}
+			blockDone( dataset, dataBlock.getGridPosition(), false );
 		}
 
 		@Override
-		public void flush()
-		{}
+		public void flush() throws IOException
+		{
+			if ( writes != null )
+				writes.flush();
+
+			final List< N5ShardWriter > writers;
+			synchronized ( shardWriters )
+			{
+				writers = new ArrayList<>( shardWriters );
+				shardWriters.clear();
+			}
+			for ( final N5ShardWriter writer : writers )
+				writer.flush();
+
+			if ( checkpoint != null )
+				checkpoint.flush();
+		}
+
+		@Override
+		public void setOccupancy( final N5Dataset dataset, final long numBlocks, final long numEmptyBlocks ) throws IOException
+		{
+			try
+			{
+				n5.setAttribute( dataset.pathName, NUM_BLOCKS_KEY, numBlocks + dataset.numResumedBlocks );
+				n5.setAttribute( dataset.pathName, NUM_EMPTY_BLOCKS_KEY, numEmptyBlocks + dataset.numResumedEmptyBlocks );
+			}
+			catch ( final N5Exception e )
+			{
+				throw new IOException( e );
+			}
+		}
 
 		@Override
 		public RandomAccessibleInterval< T > getImage( final int level ) throws IOException
@@ -324,7 +975,7 @@ public class WriteSequenceToN5
 			final DatasetAttributes attributes;
 			try
 			{
-				attributes = n5.getDatasetAttributes( pathName );
+				attributes = BdvN5Format.getDatasetAttributes( n5, pathName );
 			}
 			catch ( final N5Exception e )
 			{
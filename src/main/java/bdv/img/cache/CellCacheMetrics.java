@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import bdv.cache.LatencyHistogram;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * Collects per setup and level statistics for {@link VolatileGlobalCellCache}.
+ * <p>
+ * Loaded cells are tracked with weak references to count evictions (cells
+ * that have been garbage-collected) and estimate the number of bytes resident
+ * in memory.
+ */
+class CellCacheMetrics
+{
+	static class LevelRecorder
+	{
+		final int setup;
+
+		final int level;
+
+		final LongAdder hits = new LongAdder();
+
+		final LongAdder misses = new LongAdder();
+
+		final LongAdder loads = new LongAdder();
+
+		final LongAdder failedLoads = new LongAdder();
+
+		final LongAdder bytesLoaded = new LongAdder();
+
+		final LongAdder evictions = new LongAdder();
+
+		final LongAdder bytesEvicted = new LongAdder();
+
+		final LatencyHistogram loadLatency = new LatencyHistogram();
+
+		private final CellCacheMetrics metrics;
+
+		LevelRecorder( final CellCacheMetrics metrics, final int setup, final int level )
+		{
+			this.metrics = metrics;
+			this.setup = setup;
+			this.level = level;
+		}
+
+		/**
+		 * Record access to {@code cell} (obtained from the volatile cache).
+		 */
+		void accessed( final Cell< ? > cell )
+		{
+			final Object data = cell.getData();
+			if ( data instanceof VolatileAccess && !( ( VolatileAccess ) data ).isValid() )
+				misses.increment();
+			else
+				hits.increment();
+		}
+
+		/**
+		 * Record that {@code cell} was loaded, taking {@code nanos}
+		 * nanoseconds.
+		 */
+		void loaded( final Cell< ? > cell, final long nanos )
+		{
+			loads.increment();
+			loadLatency.record( nanos );
+			final long bytes = sizeInBytes( cell.getData() );
+			bytesLoaded.add( bytes );
+			metrics.track( cell, this, bytes );
+		}
+
+		/**
+		 * Record that loading a cell failed after {@code nanos} nanoseconds.
+		 */
+		void loadFailed( final long nanos )
+		{
+			failedLoads.increment();
+			loadLatency.record( nanos );
+		}
+
+		CellCacheStats.LevelStats snapshot()
+		{
+			return new CellCacheStats.LevelStats(
+					setup, level,
+					hits.sum(), misses.sum(),
+					loads.sum(), failedLoads.sum(),
+					bytesLoaded.sum(),
+					evictions.sum(), bytesEvicted.sum(),
+					loadLatency.getCounts() );
+		}
+	}
+
+	private static class CellRef extends WeakReference< Cell< ? > >
+	{
+		final LevelRecorder recorder;
+
+		final long bytes;
+
+		CellRef( final Cell< ? > cell, final ReferenceQueue< Cell< ? > > queue, final LevelRecorder recorder, final long bytes )
+		{
+			super( cell, queue );
+			this.recorder = recorder;
+			this.bytes = bytes;
+		}
+	}
+
+	private final ConcurrentHashMap< Long, LevelRecorder > recorders = new ConcurrentHashMap<>();
+
+	private final ReferenceQueue< Cell< ? > > refQueue = new ReferenceQueue<>();
+
+	private final Set< CellRef > liveRefs = ConcurrentHashMap.newKeySet();
+
+	LevelRecorder recorder( final int setup, final int level )
+	{
+		final long key = ( ( long ) setup << 32 ) | ( level & 0xffffffffL );
+		return recorders.computeIfAbsent( key, k -> new LevelRecorder( this, setup, level ) );
+	}
+
+	CellCacheStats snapshot()
+	{
+		drainEvicted();
+		final List< CellCacheStats.LevelStats > levels = new ArrayList<>();
+		recorders.values().forEach( r -> levels.add( r.snapshot() ) );
+		levels.sort( Comparator
+				.comparingInt( CellCacheStats.LevelStats::getSetup )
+				.thenComparingInt( CellCacheStats.LevelStats::getLevel ) );
+		return new CellCacheStats( levels );
+	}
+
+	private void track( final Cell< ? > cell, final LevelRecorder recorder, final long bytes )
+	{
+		liveRefs.add( new CellRef( cell, refQueue, recorder, bytes ) );
+		drainEvicted();
+	}
+
+	private void drainEvicted()
+	{
+		CellRef ref;
+		while ( ( ref = ( CellRef ) refQueue.poll() ) != null )
+		{
+			if ( liveRefs.remove( ref ) )
+			{
+				ref.recorder.evictions.increment();
+				ref.recorder.bytesEvicted.add( ref.bytes );
+			}
+		}
+	}
+
+	/**
+	 * Estimate the size of cell {@code data} in bytes. Returns 0 for accesses
+	 * that are not backed by a primitive array or a {@link BufferDataAccess
+	 * buffer}.
+	 */
+	static long sizeInBytes( final Object data )
+	{
+		if ( data instanceof BufferDataAccess )
+			return sizeInBytes( ( ( BufferDataAccess ) data ).getBuffer() );
+		if ( !( data instanceof ArrayDataAccess ) )
+			return 0;
+		final Object array = ( ( ArrayDataAccess< ? > ) data ).getCurrentStorageArray();
+		if ( array instanceof byte[] )
+			return ( ( byte[] ) array ).length;
+		else if ( array instanceof short[] )
+			return 2L * ( ( short[] ) array ).length;
+		else if ( array instanceof char[] )
+			return 2L * ( ( char[] ) array ).length;
+		else if ( array instanceof int[] )
+			return 4L * ( ( int[] ) array ).length;
+		else if ( array instanceof float[] )
+			return 4L * ( ( float[] ) array ).length;
+		else if ( array instanceof long[] )
+			return 8L * ( ( long[] ) array ).length;
+		else if ( array instanceof double[] )
+			return 8L * ( ( double[] ) array ).length;
+		else if ( array instanceof boolean[] )
+			return ( ( boolean[] ) array ).length;
+		return 0;
+	}
+
+	private static long sizeInBytes( final Buffer buffer )
+	{
+		if ( buffer instanceof ByteBuffer )
+			return buffer.capacity();
+		else if ( buffer instanceof ShortBuffer || buffer instanceof CharBuffer )
+			return 2L * buffer.capacity();
+		else if ( buffer instanceof IntBuffer || buffer instanceof FloatBuffer )
+			return 4L * buffer.capacity();
+		else if ( buffer instanceof LongBuffer || buffer instanceof DoubleBuffer )
+			return 8L * buffer.capacity();
+		return 0;
+	}
+}
@@ -0,0 +1,301 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.cache;
+
+import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.List;
+
+import bdv.cache.LatencyHistogram;
+
+/**
+ * Snapshot of the cumulative counters of a {@link VolatileGlobalCellCache},
+ * per setup and resolution level.
+ * <p>
+ * An <em>access</em> is a request for a cell through an image created by the
+ * cache. It is a <em>hit</em> if the returned cell contains valid data, and a
+ * <em>miss</em> otherwise (that is, the cell is not loaded yet and was
+ * enqueued for loading, depending on the loading strategy). A <em>load</em>
+ * is the actual loading of a cell, either by a fetcher thread or directly by
+ * the requesting thread (for blocking access). Loaded cells are tracked
+ * until they are garbage-collected (<em>evicted</em>) to estimate the number
+ * of bytes resident in memory.
+ *
+ * @see VolatileGlobalCellCache#getStats()
+ */
+public class CellCacheStats
+{
+	/**
+	 * Counters for one setup and resolution level.
+	 */
+	public static class LevelStats
+	{
+		private final int setup;
+
+		private final int level;
+
+		private final long hits;
+
+		private final long misses;
+
+		private final long loads;
+
+		private final long failedLoads;
+
+		private final long bytesLoaded;
+
+		private final long evictions;
+
+		private final long bytesEvicted;
+
+		private final long[] loadLatencyHistogram;
+
+		@ConstructorProperties( { "setup", "level", "hits", "misses", "loads", "failedLoads", "bytesLoaded", "evictions", "bytesEvicted", "loadLatencyHistogram" } )
+		public LevelStats(
+				final int setup,
+				final int level,
+				final long hits,
+				final long misses,
+				final long loads,
+				final long failedLoads,
+				final long bytesLoaded,
+				final long evictions,
+				final long bytesEvicted,
+				final long[] loadLatencyHistogram )
+		{
+			this.setup = setup;
+			this.level = level;
+			this.hits = hits;
+			this.misses = misses;
+			this.loads = loads;
+			this.failedLoads = failedLoads;
+			this.bytesLoaded = bytesLoaded;
+			this.evictions = evictions;
+			this.bytesEvicted = bytesEvicted;
+			this.loadLatencyHistogram = loadLatencyHistogram;
+		}
+
+		public int getSetup()
+		{
+			return setup;
+		}
+
+		public int getLevel()
+		{
+			return level;
+		}
+
+		public long getHits()
+		{
+			return hits;
+		}
+
+		public long getMisses()
+		{
+			return misses;
+		}
+
+		public long getLoads()
+		{
+			return loads;
+		}
+
+		public long getFailedLoads()
+		{
+			return failedLoads;
+		}
+
+		public long getBytesLoaded()
+		{
+			return bytesLoaded;
+		}
+
+		public long getEvictions()
+		{
+			return evictions;
+		}
+
+		public long getBytesEvicted()
+		{
+			return bytesEvicted;
+		}
+
+		public long getBytesResident()
+		{
+			return bytesLoaded - bytesEvicted;
+		}
+
+		/**
+		 * Histogram of load durations, see {@link LatencyHistogram} for the
+		 * bucket boundaries.
+		 */
+		public long[] getLoadLatencyHistogram()
+		{
+			return loadLatencyHistogram.clone();
+		}
+
+		@Override
+		public String toString()
+		{
+			return "LevelStats{" +
+					"setup=" + setup +
+					", level=" + level +
+					", hits=" + hits +
+					", misses=" + misses +
+					", loads=" + loads +
+					", failedLoads=" + failedLoads +
+					", bytesResident=" + getBytesResident() +
+					", evictions=" + evictions +
+					", medianLoadMicros=" + LatencyHistogram.quantileMicros( loadLatencyHistogram, 0.5 ) +
+					'}';
+		}
+	}
+
+	private final List< LevelStats > levels;
+
+	private final long hits;
+
+	private final long misses;
+
+	private final long loads;
+
+	private final long failedLoads;
+
+	private final long bytesLoaded;
+
+	private final long evictions;
+
+	private final long bytesEvicted;
+
+	private final long[] loadLatencyHistogram;
+
+	public CellCacheStats( final List< LevelStats > levels )
+	{
+		this.levels = Collections.unmodifiableList( levels );
+		long hits = 0, misses = 0, loads = 0, failedLoads = 0, bytesLoaded = 0, evictions = 0, bytesEvicted = 0;
+		final long[] histogram = new long[ LatencyHistogram.NUM_BUCKETS ];
+		for ( final LevelStats l : levels )
+		{
+			hits += l.hits;
+			misses += l.misses;
+			loads += l.loads;
+			failedLoads += l.failedLoads;
+			bytesLoaded += l.bytesLoaded;
+			evictions += l.evictions;
+			bytesEvicted += l.bytesEvicted;
+			LatencyHistogram.add( histogram, l.loadLatencyHistogram );
+		}
+		this.hits = hits;
+		this.misses = misses;
+		this.loads = loads;
+		this.failedLoads = failedLoads;
+		this.bytesLoaded = bytesLoaded;
+		this.evictions = evictions;
+		this.bytesEvicted = bytesEvicted;
+		this.loadLatencyHistogram = histogram;
+	}
+
+	/**
+	 * Per setup and level counters, ordered by setup and level.
+	 */
+	public List< LevelStats > getLevels()
+	{
+		return levels;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+
+	public double getHitRatio()
+	{
+		final long accesses = hits + misses;
+		return accesses > 0 ? ( double ) hits / accesses : 0;
+	}
+
+	public long getLoads()
+	{
+		return loads;
+	}
+
+	public long getFailedLoads()
+	{
+		return failedLoads;
+	}
+
+	public long getBytesLoaded()
+	{
+		return bytesLoaded;
+	}
+
+	public long getEvictions()
+	{
+		return evictions;
+	}
+
+	public long getBytesEvicted()
+	{
+		return bytesEvicted;
+	}
+
+	public long getBytesResident()
+	{
+		return bytesLoaded - bytesEvicted;
+	}
+
+	/**
+	 * Histogram of load durations over all setups and levels, see
+	 * {@link LatencyHistogram} for the bucket boundaries.
+	 */
+	public long[] getLoadLatencyHistogram()
+	{
+		return loadLatencyHistogram.clone();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CellCacheStats{" +
+				"hits=" + hits +
+				", misses=" + misses +
+				", loads=" + loads +
+				", failedLoads=" + failedLoads +
+				", bytesResident=" + getBytesResident() +
+				", evictions=" + evictions +
+				", medianLoadMicros=" + LatencyHistogram.quantileMicros( loadLatencyHistogram, 0.5 ) +
+				", p99LoadMicros=" + LatencyHistogram.quantileMicros( loadLatencyHistogram, 0.99 ) +
+				'}';
+	}
+}
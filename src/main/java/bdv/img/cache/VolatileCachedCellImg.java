@@ -75,7 +75,22 @@ public class VolatileCachedCellImg< T extends NativeType< T >, A extends DataAcc
 			final CacheHints cacheHints,
 			final VolatileCache< Long, Cell< A > > cache )
 	{
-		super( grid, new VolatileCachedCells<>( grid.getGridDimensions(), cache.unchecked()::get, cacheHints ), type.getEntitiesPerPixel() );
+		this( grid, type, cacheHints, cache, cache.unchecked()::get );
+	}
+
+	/**
+	 * Create a {@link VolatileCachedCellImg} backed by {@code cache}, where
+	 * cells are obtained through {@code get} (which typically wraps
+	 * {@code cache}, for example, to record statistics).
+	 */
+	VolatileCachedCellImg(
+			final CellGrid grid,
+			final T type,
+			final CacheHints cacheHints,
+			final VolatileCache< Long, Cell< A > > cache,
+			final Get< Cell< A > > get )
+	{
+		super( grid, new VolatileCachedCells<>( grid.getGridDimensions(), get, cacheHints ), type.getEntitiesPerPixel() );
 
 		this.cache = cache;
 
@@ -28,10 +28,18 @@
  */
 package bdv.img.cache;
 
+import bdv.cache.MBeans;
 import bdv.cache.SharedQueue;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.function.LongFunction;
+
+import javax.management.ObjectName;
 
 import bdv.cache.CacheControl;
+import bdv.cache.LatencyHistogram;
+import bdv.cache.RequestContext;
+import bdv.img.cache.VolatileCachedCellImg.Get;
 import net.imglib2.cache.Cache;
 import net.imglib2.cache.CacheLoader;
 import net.imglib2.cache.LoaderCache;
@@ -40,6 +48,7 @@ import net.imglib2.cache.ref.SoftRefLoaderCache;
 import net.imglib2.cache.ref.WeakRefVolatileCache;
 import net.imglib2.cache.util.KeyBimap;
 import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.UncheckedVolatileCache;
 import net.imglib2.cache.volatiles.VolatileCache;
 import net.imglib2.img.basictypeaccess.DataAccess;
 import net.imglib2.img.cell.Cell;
@@ -113,6 +122,10 @@ public class VolatileGlobalCellCache implements CacheControl
 
 	protected final LoaderCache< Key, Cell< ? > > backingCache;
 
+	private final CellCacheMetrics metrics = new CellCacheMetrics();
+
+	private ObjectName mbeanName;
+
 	/**
 	 * Create a new global cache with a new fetch queue served by the specified
 	 * number of fetcher threads.
@@ -165,6 +178,25 @@ public class VolatileGlobalCellCache implements CacheControl
 		queue.ensureNumPriorities( numPriorities );
 	}
 
+	/**
+	 * Set how the fetcher threads of a {@link SharedQueue} are shared between
+	 * this cache and other caches using the same queue. Has no effect if the
+	 * fetch queue is not a {@link SharedQueue}.
+	 *
+	 * @param weight
+	 *            relative share of fetcher threads ({@code > 0})
+	 * @param maxConcurrentLoads
+	 *            maximum number of cells of this cache that are loaded
+	 *            concurrently, or {@code <= 0} for the default
+	 *
+	 * @see SharedQueue#setClientShare(Object, double, int)
+	 */
+	public void setFetcherShare( final double weight, final int maxConcurrentLoads )
+	{
+		if ( queue instanceof SharedQueue )
+			( ( SharedQueue ) queue ).setClientShare( this, weight, maxConcurrentLoads );
+	}
+
 	/**
 	 * Remove all references to loaded data.
 	 * <p>
@@ -176,6 +208,34 @@ public class VolatileGlobalCellCache implements CacheControl
 		backingCache.invalidateAll();
 	}
 
+	/**
+	 * Get a snapshot of the cumulative hit, miss, load, and eviction counters
+	 * of this cache, per setup and resolution level.
+	 */
+	public CellCacheStats getStats()
+	{
+		return metrics.snapshot();
+	}
+
+	/**
+	 * Publish the statistics of this cache as an MBean named
+	 * {@code bdv.cache:type=VolatileGlobalCellCache,name=<name>}.
+	 *
+	 * @return the name under which the MBean was registered.
+	 */
+	public synchronized ObjectName registerMBean( final String name )
+	{
+		unregisterMBean();
+		mbeanName = MBeans.register( new MXBean(), "VolatileGlobalCellCache", name );
+		return mbeanName;
+	}
+
+	public synchronized void unregisterMBean()
+	{
+		MBeans.unregister( mbeanName );
+		mbeanName = null;
+	}
+
 	/**
 	 * Create a {@link VolatileCachedCellImg} backed by this {@link VolatileGlobalCellCache},
 	 * using the provided {@link CacheArrayLoader} to load data.
@@ -261,9 +321,26 @@ public class VolatileGlobalCellCache implements CacheControl
 						? key.index
 						: null );
 
+		final CellCacheMetrics.LevelRecorder recorder = metrics.recorder( setup, level );
+		final CacheLoader< Long, Cell< ? > > recordingLoader = index -> {
+			final long t0 = System.nanoTime();
+			final Cell< ? > cell;
+			try
+			{
+				cell = loader.get( index );
+			}
+			catch ( final Exception e )
+			{
+				recorder.loadFailed( System.nanoTime() - t0 );
+				throw e;
+			}
+			recorder.loaded( cell, System.nanoTime() - t0 );
+			return cell;
+		};
+
 		final Cache< Long, Cell< ? > > cache = backingCache
 				.mapKeys( bimap )
-				.withLoader( loader );
+				.withLoader( recordingLoader );
 
 		final CreateInvalidVolatileCell< ? > createInvalid = ( emptyArrayCreator == null )
 				? CreateInvalidVolatileCell.get( grid, type, false )
@@ -271,9 +348,97 @@ public class VolatileGlobalCellCache implements CacheControl
 
 		final VolatileCache< Long, Cell< ? > > vcache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
 
-		@SuppressWarnings( "unchecked" )
-		final VolatileCachedCellImg< T, A > img = new VolatileCachedCellImg<>( grid, type, cacheHints, ( VolatileCache ) vcache );
+		final UncheckedVolatileCache< Long, Cell< ? > > unchecked = vcache.unchecked();
+		final LongFunction< Key > keys = index -> new Key( timepoint, setup, level, index );
+		final Get< Cell< ? > > get = ( index, hints ) -> {
+			// identify the request, so that the queue can recognize repeated requests
+			final RequestContext context = RequestContext.current();
+			context.beginRequest( this, keys, index );
+			final Cell< ? > cell;
+			try
+			{
+				cell = unchecked.get( index, hints );
+			}
+			finally
+			{
+				context.endRequest();
+			}
+			recorder.accessed( cell );
+			return cell;
+		};
+
+		@SuppressWarnings( { "unchecked", "rawtypes" } )
+		final VolatileCachedCellImg< T, A > img = new VolatileCachedCellImg<>( grid, type, cacheHints, ( VolatileCache ) vcache, ( Get ) get );
 
 		return img;
 	}
+
+	private class MXBean implements CellCacheMXBean
+	{
+		@Override
+		public long getHits()
+		{
+			return getStats().getHits();
+		}
+
+		@Override
+		public long getMisses()
+		{
+			return getStats().getMisses();
+		}
+
+		@Override
+		public double getHitRatio()
+		{
+			return getStats().getHitRatio();
+		}
+
+		@Override
+		public long getLoads()
+		{
+			return getStats().getLoads();
+		}
+
+		@Override
+		public long getFailedLoads()
+		{
+			return getStats().getFailedLoads();
+		}
+
+		@Override
+		public long getBytesResident()
+		{
+			return getStats().getBytesResident();
+		}
+
+		@Override
+		public long getEvictions()
+		{
+			return getStats().getEvictions();
+		}
+
+		@Override
+		public long[] getLoadLatencyHistogram()
+		{
+			return getStats().getLoadLatencyHistogram();
+		}
+
+		@Override
+		public long getMedianLoadMicros()
+		{
+			return LatencyHistogram.quantileMicros( getStats().getLoadLatencyHistogram(), 0.5 );
+		}
+
+		@Override
+		public long getP99LoadMicros()
+		{
+			return LatencyHistogram.quantileMicros( getStats().getLoadLatencyHistogram(), 0.99 );
+		}
+
+		@Override
+		public List< CellCacheStats.LevelStats > getLevels()
+		{
+			return getStats().getLevels();
+		}
+	}
 }
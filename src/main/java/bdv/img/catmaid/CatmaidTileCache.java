@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.catmaid;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Downloads CATMAID tiles concurrently and keeps recently used tiles.
+ * <p>
+ * Neighboring cells that are not aligned with the tile grid, and cells of
+ * levels that average several z planes, use the same tiles. Tiles are cached
+ * as futures, so concurrent requests for a tile that is still being
+ * downloaded wait for the same download.
+ */
+class CatmaidTileCache
+{
+	/**
+	 * Decoded tile pixels (ARGB).
+	 */
+	static final class Tile
+	{
+		final int width;
+
+		final int height;
+
+		final int[] argb;
+
+		Tile( final int width, final int height, final int[] argb )
+		{
+			this.width = width;
+			this.height = height;
+			this.argb = argb;
+		}
+	}
+
+	private static final int NUM_DOWNLOAD_THREADS = 16;
+
+	/**
+	 * Approximate maximum size of cached tiles.
+	 */
+	private static final long MAX_CACHED_BYTES = 64L * 1024 * 1024;
+
+	private static final int MIN_CACHED_TILES = 16;
+
+	private static final CatmaidTileCache instance = new CatmaidTileCache();
+
+	/**
+	 * Get the tile cache shared by all CATMAID loaders.
+	 */
+	static CatmaidTileCache getInstance()
+	{
+		return instance;
+	}
+
+	private final ExecutorService executor;
+
+	private final LinkedHashMap< String, CompletableFuture< Tile > > tiles = new LinkedHashMap< String, CompletableFuture< Tile > >( 64, 0.75f, true )
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, CompletableFuture< Tile > > eldest )
+		{
+			return size() > maxTiles;
+		}
+	};
+
+	/**
+	 * Maximum number of cached tiles, estimated from the size of the first
+	 * downloaded tile.
+	 */
+	private volatile int maxTiles = Integer.MAX_VALUE;
+
+	private CatmaidTileCache()
+	{
+		final AtomicInteger index = new AtomicInteger();
+		executor = Executors.newFixedThreadPool( NUM_DOWNLOAD_THREADS, r -> {
+			final Thread thread = new Thread( r, "CatmaidTileLoader-" + index.getAndIncrement() );
+			thread.setDaemon( true );
+			return thread;
+		} );
+	}
+
+	/**
+	 * Get the tile at {@code url}, starting a download if it is not cached.
+	 * The future completes exceptionally if the tile cannot be loaded. Failed
+	 * tiles are not cached.
+	 */
+	CompletableFuture< Tile > get( final String url )
+	{
+		final CompletableFuture< Tile > future;
+		synchronized ( tiles )
+		{
+			final CompletableFuture< Tile > cached = tiles.get( url );
+			if ( cached != null )
+				return cached;
+			future = new CompletableFuture<>();
+			tiles.put( url, future );
+		}
+		executor.execute( () -> {
+			try
+			{
+				final Tile tile = read( url );
+				if ( maxTiles == Integer.MAX_VALUE )
+					maxTiles = ( int ) Math.max( MIN_CACHED_TILES, MAX_CACHED_BYTES / ( 4L * tile.argb.length ) );
+				future.complete( tile );
+			}
+			catch ( final IOException | RuntimeException e )
+			{
+				synchronized ( tiles )
+				{
+					tiles.remove( url, future );
+				}
+				future.completeExceptionally( e );
+			}
+		} );
+		return future;
+	}
+
+	private static Tile read( final String url ) throws IOException
+	{
+		// read through a memory cache (rather than ImageIO.read(URL), which by default caches in a temporary file)
+		try ( InputStream in = new URL( url ).openStream() )
+		{
+			// ImageIO.read closes iis, unless it returns null
+			final ImageInputStream iis = new MemoryCacheImageInputStream( in );
+			final BufferedImage image = ImageIO.read( iis );
+			if ( image == null )
+			{
+				iis.close();
+				throw new IOException( "cannot decode " + url );
+			}
+			final int w = image.getWidth();
+			final int h = image.getHeight();
+			return new Tile( w, h, image.getRGB( 0, 0, w, h, null, 0, w ) );
+		}
+	}
+}
@@ -28,14 +28,13 @@
  */
 package bdv.img.catmaid;
 
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
-import java.awt.image.PixelGrabber;
-import java.io.IOException;
-import java.net.URL;
-
-import javax.imageio.ImageIO;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+import bdv.cache.SharedQueue;
 import bdv.img.cache.CacheArrayLoader;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 
@@ -49,6 +48,13 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 
 	final private int[] zScales;
 
+	private final CatmaidTileCache tileCache = CatmaidTileCache.getInstance();
+
+	/**
+	 * Value of pixels that are not covered by any (successfully loaded) tile.
+	 */
+	private static final int BLACK = 0xff000000;
+
 	/**
 	 * <p>Create a {@link CacheArrayLoader} for a CATMAID source.  Tiles are
 	 * addressed, in this order, by their</p>
@@ -93,8 +99,55 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 		return 4;
 	}
 
-	final private void loadSliceArray(
-			final int[] slice,
+	/**
+	 * A tile that overlaps a cell.
+	 */
+	private static final class TileRequest
+	{
+		final long r;
+
+		final long c;
+
+		final long x;
+
+		final long y;
+
+		final CompletableFuture< CatmaidTileCache.Tile > tile;
+
+		TileRequest( final long r, final long c, final long x, final long y, final CompletableFuture< CatmaidTileCache.Tile > tile )
+		{
+			this.r = r;
+			this.c = c;
+			this.x = x;
+			this.y = y;
+			this.tile = tile;
+		}
+
+		/**
+		 * @return the tile, or {@code null} if it could not be loaded.
+		 */
+		CatmaidTileCache.Tile get() throws InterruptedException
+		{
+			// abort if the cell request became stale while waiting for
+			// previous tiles
+			if ( SharedQueue.isLoadCancelled() )
+				throw new InterruptedException( "load cancelled" );
+			try
+			{
+				return tile.get();
+			}
+			catch ( final ExecutionException e )
+			{
+				System.out.println( "failed loading r=" + r + " c=" + c );
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Request all tiles of slice {@code z} that overlap the cell.
+	 */
+	final private List< TileRequest > requestSlice(
 			final int level,
 			final double scale,
 			final long c0,
@@ -103,13 +156,9 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 			final long y0,
 			final long z,
 			final long xm,
-			final long ym,
-			final long[] min,
-			final int w,
-			final int h ) throws InterruptedException
+			final long ym )
 	{
-		final BufferedImage image = new BufferedImage( w, h, BufferedImage.TYPE_INT_RGB );
-		final Graphics2D g2d = image.createGraphics();
+		final List< TileRequest > requests = new ArrayList<>();
 		for (
 				long c = c0, x = x0;
 				x < xm;
@@ -120,61 +169,85 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 					y < ym;
 					++r, y += tileHeight )
 			{
-				try
-				{
-					final String urlString = String.format( urlFormat, level, scale, x, y, z, tileWidth, tileHeight, r, c );
-//					System.out.println( urlString );
-					final URL url = new URL( urlString );
-					final BufferedImage tile = ImageIO.read( url );
-					g2d.drawImage( tile, ( int )( x - min[ 0 ] ), ( int )( y - min[ 1 ] ), null );
-				}
-				catch (final IOException e)
-				{
-					System.out.println( "failed loading r=" + r + " c=" + c );
-				}
+				final String urlString = String.format( urlFormat, level, scale, x, y, z, tileWidth, tileHeight, r, c );
+				requests.add( new TileRequest( r, c, x, y, tileCache.get( urlString ) ) );
 			}
 		}
-
-		final PixelGrabber pg = new PixelGrabber( image, 0, 0, w, h, slice, 0, w );
-		pg.grabPixels();
+		return requests;
 	}
 
+	/**
+	 * Copy the requested tiles into {@code slice} (starting at {@code offset})
+	 * of size {@code w x h} at position {@code min}.
+	 */
+	final private static void copySlice(
+			final List< TileRequest > requests,
+			final int[] slice,
+			final int offset,
+			final long[] min,
+			final int w,
+			final int h ) throws InterruptedException
+	{
+		Arrays.fill( slice, offset, offset + w * h, BLACK );
+		for ( final TileRequest request : requests )
+		{
+			final CatmaidTileCache.Tile tile = request.get();
+			if ( tile == null )
+				continue;
+			final int tx0 = ( int ) Math.max( 0, min[ 0 ] - request.x );
+			final int ty0 = ( int ) Math.max( 0, min[ 1 ] - request.y );
+			final int tx1 = ( int ) Math.min( tile.width, min[ 0 ] + w - request.x );
+			final int ty1 = ( int ) Math.min( tile.height, min[ 1 ] + h - request.y );
+			for ( int ty = ty0; ty < ty1; ++ty )
+			{
+				final int src = ty * tile.width;
+				final int dst = offset + ( int ) ( request.y + ty - min[ 1 ] ) * w + ( int ) ( request.x - min[ 0 ] );
+				for ( int tx = tx0; tx < tx1; ++tx )
+					slice[ dst + tx ] = tile.argb[ src + tx ] | BLACK;
+			}
+		}
+	}
 
-	final private void averageSlice(
+	/**
+	 * Average the slices of the requested tiles per color channel into
+	 * {@code slice} (starting at {@code offset}).
+	 */
+	final private static void averageSlices(
+			final List< List< TileRequest > > planes,
 			final int[] slice,
-			final int level,
-			final double scale,
-			final long c0,
-			final long r0,
-			final long x0,
-			final long y0,
-			final long xm,
-			final long ym,
+			final int offset,
 			final long[] min,
 			final int w,
 			final int h ) throws InterruptedException
 	{
-		final long[] rs = new long[ slice.length ], gs = new long[ slice.length ], bs = new long[ slice.length ];
-		for ( int z = ( int ) min[ 2 ] * zScales[ level ], dz = 0; dz < zScales[ level ]; ++dz )
+		final int n = w * h;
+		final long[] rs = new long[ n ], gs = new long[ n ], bs = new long[ n ];
+		final int[] plane = new int[ n ];
+		for ( final List< TileRequest > requests : planes )
 		{
-			loadSliceArray( slice, level, scale, c0, r0, x0, y0, z + dz, xm, ym, min, w, h );
-			for ( int i = 0; i < slice.length; ++i )
+			copySlice( requests, plane, 0, min, w, h );
+			for ( int i = 0; i < n; ++i )
 			{
-				rs[ i ] += ( slice[ i ] >> 16 ) & 0xff;
-				gs[ i ] += ( slice[ i ] >> 8 ) & 0xff;
-				bs[ i ] += slice[ i ] & 0xff;
+				rs[ i ] += ( plane[ i ] >> 16 ) & 0xff;
+				gs[ i ] += ( plane[ i ] >> 8 ) & 0xff;
+				bs[ i ] += plane[ i ] & 0xff;
 			}
 		}
-		for ( int i = 0; i < slice.length; ++i )
+		final int numPlanes = planes.size();
+		for ( int i = 0; i < n; ++i )
 		{
-			final int red = ( int ) ( rs[ i ] / zScales[ level ] );
-			final int green = ( int ) ( gs[ i ] / zScales[ level ] );
-			final int blue = ( int ) ( bs[ i ] / zScales[ level ] );
-			slice[ i ] = ( ( ( ( red << 8 ) | green ) << 8 ) | blue ) | 0xff000000;
+			final int red = ( int ) ( rs[ i ] / numPlanes );
+			final int green = ( int ) ( gs[ i ] / numPlanes );
+			final int blue = ( int ) ( bs[ i ] / numPlanes );
+			slice[ offset + i ] = ( ( ( ( red << 8 ) | green ) << 8 ) | blue ) | BLACK;
 		}
 	}
 
-
+	/**
+	 * Tiles of all slices of the cell are requested at once, so that they
+	 * are downloaded concurrently (see {@link CatmaidTileCache}), then copied
+	 * (or averaged, for levels with {@code zScales > 1}) into the cell.
+	 */
 	@Override
 	public VolatileIntArray loadArray(
 			 final int timepoint,
@@ -185,39 +258,38 @@ public class CatmaidVolatileIntArrayLoader implements CacheArrayLoader< Volatile
 	{
 		final int w = dimensions[ 0 ];
 		final int h = dimensions[ 1 ];
+		final int d = dimensions[ 2 ];
 		final long xm = min[ 0 ] + w;
 		final long ym = min[ 1 ] + h;
 		final double scale = 1.0 / Math.pow(2.0, level);
-		final int[] slice = new int[ w * h ];
+		final int zScale = zScales[ level ];
 
 		final long c0 = min[ 0 ] / tileWidth;
 		final long r0 = min[ 1 ] / tileHeight;
 		final long x0 = c0 * tileWidth;
 		final long y0 = r0 * tileHeight;
 
-		final int[] data;
-		if ( dimensions[ 2 ] > 1 )
+		final List< List< List< TileRequest > > > slices = new ArrayList<>();
+		for ( int z = 0; z < d; ++z )
 		{
-			data = new int[ w * h * dimensions[ 2 ] ];
-			final long[] zMin = min.clone();
-			for ( int z = 0; z < dimensions[ 2 ]; ++z )
+			final List< List< TileRequest > > planes = new ArrayList<>();
+			if ( zScale > 1 )
 			{
-				zMin[ 2 ] = min[ 2 ] + z;
-				if ( zScales[ level ] > 1 )
-					averageSlice( slice, level, scale, c0, r0, x0, y0, xm, ym, zMin, w, h );
-				else
-					loadSliceArray( slice, level, scale, c0, r0, x0, y0, zMin[ 2 ], xm, ym, zMin, w, h );
-
-				System.arraycopy( slice, 0, data, z * slice.length, slice.length );
+				for ( long zs = ( min[ 2 ] + z ) * zScale, dz = 0; dz < zScale; ++dz )
+					planes.add( requestSlice( level, scale, c0, r0, x0, y0, zs + dz, xm, ym ) );
 			}
+			else
+				planes.add( requestSlice( level, scale, c0, r0, x0, y0, min[ 2 ] + z, xm, ym ) );
+			slices.add( planes );
 		}
-		else
+
+		final int[] data = new int[ w * h * d ];
+		for ( int z = 0; z < d; ++z )
 		{
-			data = slice;
-			if ( zScales[ level ] > 1 )
-				averageSlice( slice, level, scale, c0, r0, x0, y0, xm, ym, min, w, h );
+			if ( zScale > 1 )
+				averageSlices( slices.get( z ), data, z * w * h, min, w, h );
 			else
-				loadSliceArray( slice, level, scale, c0, r0, x0, y0, min[ 2 ], xm, ym, min, w, h );
+				copySlice( slices.get( z ).get( 0 ), data, z * w * h, min, w, h );
 		}
 
 		return new VolatileIntArray( data, true );
@@ -28,6 +28,7 @@
  */
 package bdv.img.hdf5;
 
+import bdv.cache.DecodePool;
 import ch.systemsx.cisd.hdf5.IHDF5FileLevelReadOnlyHandler;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import ch.systemsx.cisd.hdf5.hdf5lib.HDFHelper;
@@ -38,6 +39,7 @@ import hdf.hdf5lib.structs.H5O_info_t;
 import java.io.File;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
@@ -70,9 +72,14 @@ import static net.imglib2.util.Util.long2int;
  * The HDF5 fileId is extracted from a jhdf5 HDF5Reader to avoid having to do
  * everything ourselves.
  *
+ * If supported by the HDF5 Java bindings, chunks are read through a
+ * {@link Hdf5DirectChunkReader}, which allows to read (and decompress) chunks
+ * in parallel. Otherwise, or if a dataset cannot be read directly, chunks are
+ * read through {@code H5Dread}.
+ *
  * @author Tobias Pietzsch
  */
-class HDF5Access
+class HDF5Access implements Hdf5DirectChunkReader.DataSetAccess
 {
 	private final IHDF5Reader hdf5Reader;
 
@@ -170,7 +177,26 @@ class HDF5Access
 
 	private final OpenDataSetCache openDataSetCache;
 
+	private final Hdf5DirectChunkReader directChunkReader;
+
+	/**
+	 * Cached {@link DimsAndExistence} of datasets, by path. Contains all
+	 * existing datasets that have been probed so far, and everything from a
+	 * {@link Hdf5MetadataIndex} if one was {@link #setMetadataIndex set}.
+	 */
+	private final Map< String, DimsAndExistence > dimsAndExistence = new ConcurrentHashMap<>();
+
 	public HDF5Access( final IHDF5Reader hdf5Reader )
+	{
+		this( hdf5Reader, true );
+	}
+
+	/**
+	 * @param useDirectChunkReads
+	 *            whether to read chunks directly from the file (bypassing
+	 *            {@code H5Dread}) if possible.
+	 */
+	public HDF5Access( final IHDF5Reader hdf5Reader, final boolean useDirectChunkReads )
 	{
 		this.hdf5Reader = hdf5Reader;
 
@@ -197,9 +223,75 @@ class HDF5Access
 		fileId = H5Fopen(file.getAbsolutePath(), H5F_ACC_RDONLY, fileAccessPropertyListId);
 
 		openDataSetCache = new OpenDataSetCache();
+
+		directChunkReader = useDirectChunkReads && Hdf5DirectChunkReader.isSupported()
+				? new Hdf5DirectChunkReader( this, file )
+				: null;
+	}
+
+	/**
+	 * Set the pool to decode directly read chunks in (see
+	 * {@link Hdf5DirectChunkReader#setDecodePool(DecodePool)}). Has no effect
+	 * if chunks are not read directly.
+	 */
+	public void setDecodePool( final DecodePool decodePool )
+	{
+		if ( directChunkReader != null )
+			directChunkReader.setDecodePool( decodePool );
+	}
+
+	/**
+	 * Whether chunks are read directly from the file, such that
+	 * {@link #readBlock} can be called concurrently without contention.
+	 */
+	public boolean isDirectChunkReading()
+	{
+		return directChunkReader != null;
+	}
+
+	@Override
+	public < R > R withDataSet( final String pathName, final Hdf5DirectChunkReader.DataSetFunction< R > function )
+	{
+		try ( OpenDataSet dataset = openDataSetCache.getDataSet( pathName ) )
+		{
+			if ( dataset == null )
+				return null;
+			return function.apply( dataset.dataSetId );
+		}
+		catch ( final RuntimeException e )
+		{
+			throw e;
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
+	}
+
+	/**
+	 * Add the {@link DimsAndExistence} of datasets, for example from a
+	 * {@link Hdf5MetadataIndex}, such that they don't need to be probed.
+	 */
+	public void setMetadataIndex( final Map< String, DimsAndExistence > index )
+	{
+		dimsAndExistence.putAll( index );
 	}
 
 	public DimsAndExistence getDimsAndExistence( final String pathName )
+	{
+		final DimsAndExistence cached = dimsAndExistence.get( pathName );
+		if ( cached != null )
+			return cached;
+
+		// Only existing datasets are cached, because datasets may be added
+		// while reading (see WriteSequenceToHdf5.LoopBackImageLoader).
+		final DimsAndExistence dims = probeDimsAndExistence( pathName );
+		if ( dims.exists() )
+			dimsAndExistence.put( pathName, dims );
+		return dims;
+	}
+
+	private DimsAndExistence probeDimsAndExistence( final String pathName )
 	{
 		try( OpenDataSet dataset = openDataSetCache.getDataSet( pathName ) )
 		{
@@ -232,6 +324,8 @@ class HDF5Access
 
 	public void closeAllDataSets()
 	{
+		if ( directChunkReader != null )
+			directChunkReader.close();
 		openDataSetCache.clear();
 	}
 
@@ -251,6 +345,23 @@ class HDF5Access
 		hdf5Reader.close();
 	}
 
+	/**
+	 * Check whether the block with the given {@code min} and
+	 * {@code dimensions} (in xyz order) is known to be not stored in dataset
+	 * {@code pathName} (and therefore filled with zeros).
+	 *
+	 * @return {@code true} if the block is not stored, {@code false} if it is
+	 *         stored or if this cannot be determined without reading it.
+	 */
+	public boolean isMissingBlock(
+			final String pathName,
+			final long memTypeId,
+			final int[] dimensions,
+			final long[] min )
+	{
+		return directChunkReader != null && directChunkReader.isMissing( pathName, memTypeId, dimensions, min );
+	}
+
 	public DataBlock< ? > readBlock(
 			final String pathName,
 			final DataType dataType,
@@ -261,6 +372,13 @@ class HDF5Access
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
 
+		if ( directChunkReader != null )
+		{
+			final DataBlock< ? > block = directChunkReader.readBlock( pathName, dataType, memTypeId, dimensions, min );
+			if ( block != null )
+				return block;
+		}
+
 		final long[] reorderedDimensions = Util.reorder( dimensions, new long[ dimensions.length ] );
 		final long[] reorderedMin = Util.reorder( min );
 
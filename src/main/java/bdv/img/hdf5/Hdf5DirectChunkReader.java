@@ -0,0 +1,702 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+
+import bdv.cache.DecodePool;
+import bdv.cache.SharedQueue;
+
+/**
+ * Reads chunks of HDF5 datasets directly from the file, bypassing the HDF5
+ * library for everything but metadata.
+ * <p>
+ * All calls into the HDF5 library are serialized by a global lock, so reading
+ * through {@code H5Dread} does not scale with the number of fetcher threads,
+ * although most of the time is spent in I/O and decompression. Here, the HDF5
+ * library is only asked (once) for the layout and filter pipeline of a
+ * dataset and (once per chunk) for the file address and size of a chunk. The
+ * chunk is then read from a {@link FileChannel} using positional reads, and
+ * decoded by {@link Hdf5Filters}, concurrently in the calling thread (or in a
+ * {@link DecodePool}, see {@link #setDecodePool(DecodePool)}).
+ * <p>
+ * Querying chunk addresses requires {@code H5Dget_chunk_info_by_coord} or
+ * {@code H5Dget_chunk_info} (HDF5 1.10.5+), which are looked up by reflection
+ * because not all versions of the Java bindings provide them. If they are not
+ * available, or if a dataset uses a feature that is not supported here
+ * (unsupported filters, datatype conversion, non-chunked layout, ...),
+ * {@link #readBlock} returns {@code null} and the caller should fall back to
+ * {@code H5Dread}.
+ * <p>
+ * Used by {@link HDF5Access}, and by the Imaris loader
+ * ({@code bdv.img.imaris.HDF5AccessHack}).
+ *
+ * @author Tobias Pietzsch
+ */
+public class Hdf5DirectChunkReader
+{
+	/**
+	 * Provides temporary access to an open dataset.
+	 */
+	public interface DataSetAccess
+	{
+		/**
+		 * Apply {@code function} to the id of the dataset {@code pathName}.
+		 *
+		 * @return the result of {@code function}, or {@code null} if the
+		 *         dataset does not exist.
+		 */
+		< R > R withDataSet( String pathName, DataSetFunction< R > function );
+	}
+
+	public interface DataSetFunction< R >
+	{
+		R apply( long dataSetId ) throws Exception;
+	}
+
+	private static final Method getChunkInfoByCoord;
+
+	private static final Method getNumChunks;
+
+	private static final Method getChunkInfo;
+
+	static
+	{
+		getChunkInfoByCoord = findMethod( "H5Dget_chunk_info_by_coord", long.class, long[].class, int[].class, long[].class, long[].class );
+		getNumChunks = findMethod( "H5Dget_num_chunks", long.class, long.class );
+		getChunkInfo = findMethod( "H5Dget_chunk_info", long.class, long.class, long.class, long[].class, int[].class, long[].class, long[].class );
+	}
+
+	private static Method findMethod( final String name, final Class< ? >... parameterTypes )
+	{
+		try
+		{
+			return H5.class.getMethod( name, parameterTypes );
+		}
+		catch ( final NoSuchMethodException | SecurityException e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Whether the HDF5 Java bindings provide the methods required to locate
+	 * chunks in the file.
+	 */
+	public static boolean isSupported()
+	{
+		return getChunkInfoByCoord != null || ( getNumChunks != null && getChunkInfo != null );
+	}
+
+	/**
+	 * File address and size of a stored chunk.
+	 */
+	private static class ChunkLocation
+	{
+		final long address;
+
+		final long size;
+
+		final int filterMask;
+
+		ChunkLocation( final long address, final long size, final int filterMask )
+		{
+			this.address = address;
+			this.size = size;
+			this.filterMask = filterMask;
+		}
+	}
+
+	/**
+	 * Marks chunks that are not stored in the file (and should be filled with
+	 * zeros).
+	 */
+	private static final ChunkLocation MISSING = new ChunkLocation( -1, 0, 0 );
+
+	/**
+	 * Storage layout of a dataset. All arrays are in HDF5 (zyx) order.
+	 */
+	private static class Layout
+	{
+		final File file;
+
+		final long memTypeId;
+
+		final long[] dimensions;
+
+		final int[] chunkSize;
+
+		final int elementSize;
+
+		final ByteOrder byteOrder;
+
+		final int[] filters;
+
+		final int[][] cdValues;
+
+		final Map< Long, ChunkLocation > chunks = new ConcurrentHashMap<>();
+
+		Layout( final File file, final long memTypeId, final long[] dimensions, final int[] chunkSize, final int elementSize, final ByteOrder byteOrder, final int[] filters, final int[][] cdValues )
+		{
+			this.file = file;
+			this.memTypeId = memTypeId;
+			this.dimensions = dimensions;
+			this.chunkSize = chunkSize;
+			this.elementSize = elementSize;
+			this.byteOrder = byteOrder;
+			this.filters = filters;
+			this.cdValues = cdValues;
+		}
+
+		int numChunkElements()
+		{
+			int n = 1;
+			for ( final int s : chunkSize )
+				n *= s;
+			return n;
+		}
+
+		long chunkIndex( final long[] offset )
+		{
+			long index = 0;
+			for ( int d = 0; d < offset.length; ++d )
+			{
+				final long numChunks = ( dimensions[ d ] + chunkSize[ d ] - 1 ) / chunkSize[ d ];
+				index = index * numChunks + offset[ d ] / chunkSize[ d ];
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Marks datasets that cannot be read directly.
+	 */
+	private static final Layout UNSUPPORTED = new Layout( null, -1, null, null, 0, null, null, null );
+
+	private final DataSetAccess access;
+
+	private final File hdf5File;
+
+	private final Map< String, Layout > layouts = new ConcurrentHashMap<>();
+
+	private final Map< File, FileChannel > channels = new ConcurrentHashMap<>();
+
+	private volatile DecodePool decodePool;
+
+	/**
+	 * @param access
+	 *            provides dataset ids for metadata queries
+	 * @param hdf5File
+	 *            the (master) HDF5 file. Relative paths of linked partition
+	 *            files are resolved against its parent directory.
+	 */
+	public Hdf5DirectChunkReader( final DataSetAccess access, final File hdf5File )
+	{
+		this.access = access;
+		this.hdf5File = hdf5File;
+	}
+
+	/**
+	 * Set the pool to decode chunks in. If {@code decodePool != null},
+	 * {@link #readBlock} reads the stored chunk in the calling thread, and
+	 * decodes it in the pool. If {@code decodePool == null}, chunks are
+	 * decoded in the calling thread.
+	 */
+	public void setDecodePool( final DecodePool decodePool )
+	{
+		this.decodePool = decodePool;
+	}
+
+	/**
+	 * Read the block with the given {@code min} and {@code dimensions} (in xyz
+	 * order) from dataset {@code pathName}. The block must be aligned with
+	 * the chunks of the dataset. The grid position of the returned block is
+	 * the position of the chunk in the chunk grid (in xyz order).
+	 *
+	 * @return the block, or {@code null} if it cannot be read directly.
+	 */
+	public DataBlock< ? > readBlock(
+			final String pathName,
+			final DataType dataType,
+			final long memTypeId,
+			final int[] dimensions,
+			final long[] min ) throws InterruptedException
+	{
+		final Layout layout = getLayout( pathName, memTypeId, dimensions, min );
+		if ( layout == null )
+			return null;
+
+		final int[] blockSize = Util.reorder( dimensions );
+		final long[] offset = Util.reorder( min );
+		final ChunkLocation location = getChunkLocation( pathName, layout, offset );
+		if ( location == null )
+			return null;
+
+		final int n = min.length;
+		final long[] gridPosition = new long[ n ];
+		Arrays.setAll( gridPosition, d -> min[ d ] / layout.chunkSize[ n - 1 - d ] );
+		final DataBlock< ? > block = dataType.createDataBlock( dimensions, gridPosition );
+		if ( location == MISSING )
+			return block;
+
+		try
+		{
+			// abort if the request became stale (before reading, and before
+			// decoding)
+			SharedQueue.checkLoadCancelled();
+			final byte[] stored = read( layout.file, location.address, ( int ) location.size );
+			SharedQueue.checkLoadCancelled();
+			final DecodePool pool = decodePool;
+			if ( pool == null )
+				decode( stored, layout, location, blockSize, block );
+			else
+				pool.decode( () -> {
+					decode( stored, layout, location, blockSize, block );
+					return null;
+				} );
+			return block;
+		}
+		catch ( final InterruptedException e )
+		{
+			throw e;
+		}
+		catch ( final InterruptedIOException e )
+		{
+			throw new InterruptedException();
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			// don't try again for this dataset
+			layouts.put( pathName, UNSUPPORTED );
+			return null;
+		}
+	}
+
+	/**
+	 * Check whether the chunk containing the block with the given {@code min}
+	 * and {@code dimensions} (in xyz order) is known to be not stored in
+	 * dataset {@code pathName}. Such blocks are filled with zeros, so there is
+	 * no need to {@link #readBlock read} them.
+	 *
+	 * @return {@code true} if the chunk is not stored, {@code false} if it is
+	 *         stored or if this cannot be determined directly.
+	 */
+	public boolean isMissing(
+			final String pathName,
+			final long memTypeId,
+			final int[] dimensions,
+			final long[] min )
+	{
+		final Layout layout = getLayout( pathName, memTypeId, dimensions, min );
+		return layout != null && getChunkLocation( pathName, layout, Util.reorder( min ) ) == MISSING;
+	}
+
+	/**
+	 * Get the layout of dataset {@code pathName}, if the block with the given
+	 * {@code min} and {@code dimensions} (in xyz order) can be read directly.
+	 *
+	 * @return the layout, or {@code null} if the block cannot be read
+	 *         directly.
+	 */
+	private Layout getLayout( final String pathName, final long memTypeId, final int[] dimensions, final long[] min )
+	{
+		final Layout layout = layouts.computeIfAbsent( pathName, p -> createLayout( p, memTypeId ) );
+		if ( layout == UNSUPPORTED || layout.memTypeId != memTypeId )
+			return null;
+
+		final int n = dimensions.length;
+		if ( n != layout.chunkSize.length )
+			return null;
+		for ( int d = 0; d < n; ++d )
+		{
+			final int chunkSize = layout.chunkSize[ n - 1 - d ];
+			if ( min[ d ] % chunkSize != 0 || dimensions[ d ] > chunkSize )
+				return null;
+		}
+		return layout;
+	}
+
+	/**
+	 * Decode the {@code stored} chunk, and copy its {@code blockSize} corner
+	 * into {@code block}.
+	 */
+	private static void decode( final byte[] stored, final Layout layout, final ChunkLocation location, final int[] blockSize, final DataBlock< ? > block ) throws IOException
+	{
+		final byte[] chunk = Hdf5Filters.decode( stored, layout.filters, layout.cdValues, location.filterMask, layout.elementSize, layout.numChunkElements() );
+		final byte[] cropped = crop( chunk, layout.chunkSize, blockSize, layout.elementSize );
+		copy( cropped, layout.byteOrder, block.getData() );
+	}
+
+	/**
+	 * Close all open file channels and forget cached layouts. Channels are
+	 * reopened as required by subsequent {@link #readBlock} calls.
+	 */
+	public void close()
+	{
+		for ( final FileChannel channel : channels.values() )
+		{
+			try
+			{
+				channel.close();
+			}
+			catch ( final IOException e )
+			{
+				// ignore
+			}
+		}
+		channels.clear();
+		layouts.clear();
+	}
+
+	private Layout createLayout( final String pathName, final long memTypeId )
+	{
+		try
+		{
+			final Layout layout = access.withDataSet( pathName, dataSetId -> queryLayout( dataSetId, memTypeId ) );
+			return layout == null ? UNSUPPORTED : layout;
+		}
+		catch ( final RuntimeException e )
+		{
+			return UNSUPPORTED;
+		}
+	}
+
+	private Layout queryLayout( final long dataSetId, final long memTypeId ) throws Exception
+	{
+		// datatype: must be readable without conversion
+		final int elementSize;
+		final ByteOrder byteOrder;
+		final long typeId = H5.H5Dget_type( dataSetId );
+		try
+		{
+			final long nativeTypeId = H5.H5Tget_native_type( typeId );
+			try
+			{
+				if ( !H5.H5Tequal( nativeTypeId, memTypeId ) )
+					return UNSUPPORTED;
+			}
+			finally
+			{
+				H5.H5Tclose( nativeTypeId );
+			}
+			elementSize = ( int ) H5.H5Tget_size( typeId );
+			final int order = H5.H5Tget_order( typeId );
+			if ( order == HDF5Constants.H5T_ORDER_LE )
+				byteOrder = ByteOrder.LITTLE_ENDIAN;
+			else if ( order == HDF5Constants.H5T_ORDER_BE )
+				byteOrder = ByteOrder.BIG_ENDIAN;
+			else if ( elementSize == 1 )
+				byteOrder = ByteOrder.nativeOrder();
+			else
+				return UNSUPPORTED;
+		}
+		finally
+		{
+			H5.H5Tclose( typeId );
+		}
+
+		// dimensions
+		final long spaceId = H5.H5Dget_space( dataSetId );
+		final long[] dimensions = new long[ H5.H5Sget_simple_extent_ndims( spaceId ) ];
+		H5.H5Sget_simple_extent_dims( spaceId, dimensions, null );
+		H5.H5Sclose( spaceId );
+
+		// chunking and filters
+		final int n = dimensions.length;
+		final int[] chunkSize;
+		final int[] filters;
+		final int[][] cdValues;
+		final long plistId = H5.H5Dget_create_plist( dataSetId );
+		try
+		{
+			if ( H5.H5Pget_layout( plistId ) != HDF5Constants.H5D_CHUNKED )
+				return UNSUPPORTED;
+			final long[] longChunkSize = new long[ n ];
+			H5.H5Pget_chunk( plistId, n, longChunkSize );
+			chunkSize = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+				chunkSize[ d ] = ( int ) longChunkSize[ d ];
+
+			final int numFilters = H5.H5Pget_nfilters( plistId );
+			filters = new int[ numFilters ];
+			cdValues = new int[ numFilters ][];
+			for ( int i = 0; i < numFilters; ++i )
+			{
+				final int[] flags = new int[ 1 ];
+				final long[] cdNelmts = { 20 };
+				final int[] values = new int[ 20 ];
+				final String[] name = new String[ 1 ];
+				final int[] filterConfig = new int[ 1 ];
+				filters[ i ] = H5.H5Pget_filter( plistId, i, flags, cdNelmts, values, 120, name, filterConfig );
+				cdValues[ i ] = Arrays.copyOf( values, ( int ) Math.min( cdNelmts[ 0 ], values.length ) );
+				if ( !Hdf5Filters.isSupported( filters[ i ], cdValues[ i ] ) )
+					return UNSUPPORTED;
+			}
+		}
+		finally
+		{
+			H5.H5Pclose( plistId );
+		}
+
+		// file containing the dataset (a partition file if the dataset is reached through an external link)
+		final long fileId = H5.H5Iget_file_id( dataSetId );
+		final String fileName;
+		try
+		{
+			fileName = H5.H5Fget_name( fileId );
+		}
+		finally
+		{
+			H5.H5Fclose( fileId );
+		}
+		final File file = resolve( fileName );
+		if ( file == null )
+			return UNSUPPORTED;
+
+		return new Layout( file, memTypeId, dimensions, chunkSize, elementSize, byteOrder, filters, cdValues );
+	}
+
+	private File resolve( final String fileName )
+	{
+		final File file = new File( fileName );
+		if ( file.isFile() )
+			return file.getAbsoluteFile();
+		if ( !file.isAbsolute() && hdf5File != null )
+		{
+			final File sibling = new File( hdf5File.getAbsoluteFile().getParentFile(), fileName );
+			if ( sibling.isFile() )
+				return sibling;
+		}
+		return null;
+	}
+
+	private ChunkLocation getChunkLocation( final String pathName, final Layout layout, final long[] offset )
+	{
+		final Long index = layout.chunkIndex( offset );
+		ChunkLocation location = layout.chunks.get( index );
+		if ( location == null )
+		{
+			try
+			{
+				location = access.withDataSet( pathName, dataSetId -> queryChunkLocation( dataSetId, layout, offset ) );
+			}
+			catch ( final RuntimeException e )
+			{
+				location = null;
+			}
+			if ( location == null )
+				return null;
+			layout.chunks.put( index, location );
+		}
+		return location;
+	}
+
+	private static ChunkLocation queryChunkLocation( final long dataSetId, final Layout layout, final long[] offset ) throws Exception
+	{
+		final int[] filterMask = new int[ 1 ];
+		final long[] address = new long[ 1 ];
+		final long[] size = new long[ 1 ];
+		if ( getChunkInfoByCoord != null )
+		{
+			invoke( getChunkInfoByCoord, dataSetId, offset, filterMask, address, size );
+			return location( address[ 0 ], size[ 0 ], filterMask[ 0 ] );
+		}
+
+		// Fall back to enumerating all stored chunks. This is done (under the
+		// HDF5 lock) only once per dataset, so we cache all chunk locations.
+		final long numChunks = ( Long ) invoke( getNumChunks, dataSetId, ( long ) HDF5Constants.H5S_ALL );
+		final long[] chunkOffset = new long[ offset.length ];
+		for ( long i = 0; i < numChunks; ++i )
+		{
+			invoke( getChunkInfo, dataSetId, ( long ) HDF5Constants.H5S_ALL, i, chunkOffset, filterMask, address, size );
+			final ChunkLocation location = location( address[ 0 ], size[ 0 ], filterMask[ 0 ] );
+			if ( location != null )
+				layout.chunks.putIfAbsent( layout.chunkIndex( chunkOffset ), location );
+		}
+		final ChunkLocation location = layout.chunks.get( layout.chunkIndex( offset ) );
+		return location == null ? MISSING : location;
+	}
+
+	private static ChunkLocation location( final long address, final long size, final int filterMask )
+	{
+		if ( address == HDF5Constants.HADDR_UNDEF || address < 0 )
+			return MISSING;
+		if ( size <= 0 || size > Integer.MAX_VALUE )
+			return null;
+		return new ChunkLocation( address, size, filterMask );
+	}
+
+	private static Object invoke( final Method method, final Object... args ) throws Exception
+	{
+		try
+		{
+			return method.invoke( null, args );
+		}
+		catch ( final InvocationTargetException e )
+		{
+			final Throwable cause = e.getCause();
+			throw cause instanceof Exception ? ( Exception ) cause : e;
+		}
+	}
+
+	/**
+	 * Read {@code size} bytes at {@code position} of {@code file}.
+	 * <p>
+	 * Interrupting a thread that is blocked in a {@link FileChannel} read
+	 * closes the channel. In that case the channel is reopened, and reads
+	 * from other threads that failed because of the closed channel are
+	 * retried.
+	 */
+	private byte[] read( final File file, final long position, final int size ) throws IOException, InterruptedException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate( size );
+		while ( true )
+		{
+			final FileChannel channel = getChannel( file );
+			try
+			{
+				buffer.clear();
+				while ( buffer.hasRemaining() )
+				{
+					if ( channel.read( buffer, position + buffer.position() ) < 0 )
+						throw new IOException( "unexpected end of file " + file );
+				}
+				return buffer.array();
+			}
+			catch ( final ClosedByInterruptException e )
+			{
+				channels.remove( file, channel );
+				Thread.interrupted();
+				throw new InterruptedException();
+			}
+			catch ( final ClosedChannelException e )
+			{
+				channels.remove( file, channel );
+				if ( Thread.interrupted() )
+					throw new InterruptedException();
+			}
+		}
+	}
+
+	private FileChannel getChannel( final File file ) throws IOException
+	{
+		try
+		{
+			return channels.compute( file, ( f, channel ) -> {
+				if ( channel != null && channel.isOpen() )
+					return channel;
+				try
+				{
+					return FileChannel.open( f.toPath(), StandardOpenOption.READ );
+				}
+				catch ( final IOException e )
+				{
+					throw new UncheckedIOException( e );
+				}
+			} );
+		}
+		catch ( final UncheckedIOException e )
+		{
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Copy the {@code blockSize} corner of a chunk of size {@code chunkSize}.
+	 * Sizes are in HDF5 (zyx) order, that is, the last dimension is the
+	 * fastest-varying.
+	 */
+	static byte[] crop( final byte[] chunk, final int[] chunkSize, final int[] blockSize, final int elementSize )
+	{
+		final int n = chunkSize.length;
+		if ( Arrays.equals( chunkSize, blockSize ) )
+			return chunk;
+
+		int numRows = 1;
+		for ( int d = 0; d < n - 1; ++d )
+			numRows *= blockSize[ d ];
+		final int rowLength = blockSize[ n - 1 ] * elementSize;
+		final byte[] block = new byte[ numRows * rowLength ];
+		final int[] pos = new int[ n - 1 ];
+		for ( int row = 0; row < numRows; ++row )
+		{
+			int src = 0;
+			for ( int d = 0; d < n - 1; ++d )
+				src = src * chunkSize[ d ] + pos[ d ];
+			System.arraycopy( chunk, src * chunkSize[ n - 1 ] * elementSize, block, row * rowLength, rowLength );
+			for ( int d = n - 2; d >= 0; --d )
+			{
+				if ( ++pos[ d ] < blockSize[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+		return block;
+	}
+
+	/**
+	 * Copy {@code bytes} into the primitive array {@code data}.
+	 */
+	private static void copy( final byte[] bytes, final ByteOrder order, final Object data )
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap( bytes ).order( order );
+		if ( data instanceof byte[] )
+			buffer.get( ( byte[] ) data );
+		else if ( data instanceof short[] )
+			buffer.asShortBuffer().get( ( short[] ) data );
+		else if ( data instanceof int[] )
+			buffer.asIntBuffer().get( ( int[] ) data );
+		else if ( data instanceof long[] )
+			buffer.asLongBuffer().get( ( long[] ) data );
+		else if ( data instanceof float[] )
+			buffer.asFloatBuffer().get( ( float[] ) data );
+		else if ( data instanceof double[] )
+			buffer.asDoubleBuffer().get( ( double[] ) data );
+		else
+			throw new IllegalArgumentException( "unsupported data " + data.getClass() );
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Java implementations of the decoding side of the HDF5 filters that are used
+ * in BDV HDF5 files. This is used to decode raw chunks read directly from the
+ * file (bypassing the HDF5 library).
+ * <p>
+ * Supported are {@link #DEFLATE}, {@link #SHUFFLE}, {@link #FLETCHER32}, and
+ * integer {@link #SCALEOFFSET} (as used by JHDF5 {@code INT_AUTO_SCALING}).
+ */
+public final class Hdf5Filters
+{
+	public static final int DEFLATE = 1;
+
+	public static final int SHUFFLE = 2;
+
+	public static final int FLETCHER32 = 3;
+
+	public static final int SCALEOFFSET = 6;
+
+	/**
+	 * Scale type of integer scale-offset filter ({@code H5Z_SO_INT}).
+	 */
+	private static final int SO_INT = 2;
+
+	// indices into scale-offset filter parameters (cd_values)
+	private static final int SO_PARM_SCALETYPE = 0;
+
+	private static final int SO_PARM_SIZE = 4;
+
+	private static final int SO_PARM_SIGN = 5;
+
+	private static final int SO_PARM_ORDER = 6;
+
+	private static final int SO_PARM_FILAVAIL = 7;
+
+	private static final int SO_PARM_FILVAL = 8;
+
+	/**
+	 * Size of the header (minbits, minval) of scale-offset compressed data.
+	 */
+	private static final int SO_HEADER_SIZE = 21;
+
+	private Hdf5Filters()
+	{}
+
+	/**
+	 * Whether the filter with the given id and parameters can be decoded.
+	 */
+	static boolean isSupported( final int filter, final int[] cdValues )
+	{
+		switch ( filter )
+		{
+		case DEFLATE:
+		case SHUFFLE:
+		case FLETCHER32:
+			return true;
+		case SCALEOFFSET:
+			return cdValues != null && cdValues.length > SO_PARM_FILVAL && cdValues[ SO_PARM_SCALETYPE ] == SO_INT;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Undo a filter pipeline.
+	 *
+	 * @param data
+	 *            the stored chunk
+	 * @param filters
+	 *            filter ids, in pipeline order
+	 * @param cdValues
+	 *            filter parameters, in pipeline order
+	 * @param filterMask
+	 *            bit {@code i} is set if filter {@code i} was skipped for this
+	 *            chunk
+	 * @param elementSize
+	 *            size of a data element in bytes
+	 * @param numElements
+	 *            number of elements in a (full) chunk
+	 *
+	 * @return the decoded chunk
+	 */
+	public static byte[] decode( byte[] data, final int[] filters, final int[][] cdValues, final int filterMask, final int elementSize, final int numElements ) throws IOException
+	{
+		final int rawSize = elementSize * numElements;
+		for ( int i = filters.length - 1; i >= 0; --i )
+		{
+			if ( ( filterMask & ( 1 << i ) ) != 0 )
+				continue;
+			switch ( filters[ i ] )
+			{
+			case DEFLATE:
+				data = inflate( data, rawSize );
+				break;
+			case SHUFFLE:
+				data = unshuffle( data, elementSize );
+				break;
+			case FLETCHER32:
+				data = Arrays.copyOf( data, data.length - 4 );
+				break;
+			case SCALEOFFSET:
+				data = decodeScaleOffset( data, cdValues[ i ], numElements );
+				break;
+			default:
+				throw new IOException( "unsupported HDF5 filter " + filters[ i ] );
+			}
+		}
+		if ( data.length != rawSize )
+			throw new IOException( "decoded chunk has " + data.length + " bytes, expected " + rawSize );
+		return data;
+	}
+
+	/**
+	 * Inflate zlib compressed data.
+	 *
+	 * @param expectedSize
+	 *            initial size of the output buffer
+	 */
+	static byte[] inflate( final byte[] data, final int expectedSize ) throws IOException
+	{
+		final Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput( data );
+			byte[] out = new byte[ Math.max( expectedSize, 64 ) ];
+			int n = 0;
+			while ( !inflater.finished() )
+			{
+				if ( n == out.length )
+					out = Arrays.copyOf( out, 2 * out.length );
+				final int r = inflater.inflate( out, n, out.length - n );
+				if ( r == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+					throw new IOException( "truncated deflate stream" );
+				n += r;
+			}
+			return n == out.length ? out : Arrays.copyOf( out, n );
+		}
+		catch ( final DataFormatException e )
+		{
+			throw new IOException( e );
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Undo the HDF5 shuffle filter. The shuffled data consists of the first
+	 * bytes of all elements, followed by the second bytes of all elements, and
+	 * so on. Trailing bytes that do not make up a full element are not
+	 * shuffled.
+	 */
+	static byte[] unshuffle( final byte[] data, final int elementSize )
+	{
+		if ( elementSize <= 1 )
+			return data;
+		final int n = data.length / elementSize;
+		final byte[] out = new byte[ data.length ];
+		for ( int b = 0; b < elementSize; ++b )
+		{
+			final int offset = b * n;
+			for ( int i = 0; i < n; ++i )
+				out[ i * elementSize + b ] = data[ offset + i ];
+		}
+		final int tail = n * elementSize;
+		System.arraycopy( data, tail, out, tail, data.length - tail );
+		return out;
+	}
+
+	/**
+	 * Undo the HDF5 scale-offset filter for integer data.
+	 * <p>
+	 * The compressed data starts with a header containing {@code minbits} (4
+	 * bytes, little endian) and {@code minval} (size given in byte 4, then
+	 * little endian value). It is followed by a bit stream of
+	 * {@code minbits}-bit values (most significant bit first), which are
+	 * offsets from {@code minval}. If a fill value is defined, the all-ones
+	 * offset denotes the fill value.
+	 *
+	 * @return decoded elements, in the byte order of the dataset.
+	 */
+	static byte[] decodeScaleOffset( final byte[] data, final int[] cdValues, final int numElements ) throws IOException
+	{
+		final int size = cdValues[ SO_PARM_SIZE ];
+		final boolean signed = cdValues[ SO_PARM_SIGN ] != 0;
+		if ( size < 1 || size > 8 || data.length < SO_HEADER_SIZE )
+			throw new IOException( "invalid scale-offset data" );
+
+		int minbits = 0;
+		for ( int i = 0; i < 4; ++i )
+			minbits |= ( data[ i ] & 0xff ) << ( 8 * i );
+		final int minvalSize = Math.min( 8, data[ 4 ] & 0xff );
+		long minval = 0;
+		for ( int i = 0; i < minvalSize; ++i )
+			minval |= ( long ) ( data[ 5 + i ] & 0xff ) << ( 8 * i );
+
+		final byte[] out = new byte[ numElements * size ];
+		if ( minbits == size * 8 )
+		{
+			// full precision: values are stored as they are
+			System.arraycopy( data, SO_HEADER_SIZE, out, 0, Math.min( out.length, data.length - SO_HEADER_SIZE ) );
+			return toDataSetOrder( out, cdValues, size );
+		}
+		if ( minbits > size * 8 )
+			throw new IOException( "invalid scale-offset minbits " + minbits );
+
+		final boolean fillAvailable = cdValues[ SO_PARM_FILAVAIL ] != 0;
+		final long fillValue = fillValue( cdValues, size );
+		final long allOnes = minbits == 64 ? -1L : ( 1L << minbits ) - 1;
+		final long mask = size == 8 ? -1L : ( 1L << ( 8 * size ) ) - 1;
+		if ( signed && size < 8 )
+			minval = ( minval << ( 64 - 8 * size ) ) >> ( 64 - 8 * size );
+
+		int pos = SO_HEADER_SIZE;
+		int bitsLeft = 8; // unread bits in data[ pos ]
+		for ( int e = 0; e < numElements; ++e )
+		{
+			long v = 0;
+			int need = minbits;
+			while ( need > 0 )
+			{
+				if ( pos >= data.length )
+					throw new IOException( "truncated scale-offset data" );
+				final int take = Math.min( need, bitsLeft );
+				final int shift = bitsLeft - take;
+				v = ( v << take ) | ( ( data[ pos ] >> shift ) & ( ( 1 << take ) - 1 ) );
+				need -= take;
+				bitsLeft -= take;
+				if ( bitsLeft == 0 )
+				{
+					++pos;
+					bitsLeft = 8;
+				}
+			}
+			final long value = ( fillAvailable && v == allOnes ) ? fillValue : ( v + minval );
+			final long stored = value & mask;
+			for ( int b = 0; b < size; ++b )
+				out[ e * size + b ] = ( byte ) ( stored >>> ( 8 * b ) );
+		}
+		return toDataSetOrder( out, cdValues, size );
+	}
+
+	/**
+	 * Swap little endian elements to big endian, if the scale-offset
+	 * parameters specify big endian dataset byte order.
+	 */
+	private static byte[] toDataSetOrder( final byte[] data, final int[] cdValues, final int size )
+	{
+		if ( cdValues[ SO_PARM_ORDER ] == 0 || size == 1 )
+			return data;
+		for ( int o = 0; o + size <= data.length; o += size )
+		{
+			for ( int i = 0, j = size - 1; i < j; ++i, --j )
+			{
+				final byte tmp = data[ o + i ];
+				data[ o + i ] = data[ o + j ];
+				data[ o + j ] = tmp;
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Get the fill value stored (in native byte order, assumed little endian)
+	 * in scale-offset filter parameters.
+	 */
+	private static long fillValue( final int[] cdValues, final int size )
+	{
+		long value = cdValues[ SO_PARM_FILVAL ] & 0xffffffffL;
+		if ( size > 4 && cdValues.length > SO_PARM_FILVAL + 1 )
+			value |= ( long ) cdValues[ SO_PARM_FILVAL + 1 ] << 32;
+		return value;
+	}
+}
@@ -31,6 +31,7 @@ package bdv.img.hdf5;
 import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
 import bdv.cache.CacheControl;
+import bdv.cache.DecodePool;
 import bdv.cache.SharedQueue;
 import bdv.img.MipmapInfo;
 import bdv.img.cache.CacheArrayLoader;
@@ -43,10 +44,11 @@ import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
@@ -54,6 +56,7 @@ import mpicbg.spim.data.sequence.Angle;
 import mpicbg.spim.data.sequence.Channel;
 import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
+import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
@@ -69,6 +72,7 @@ import net.imglib2.img.cell.CellImg;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.util.Cast;
+import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
@@ -104,16 +108,20 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 	/**
 	 * Maps setup id to {@link SetupImgLoader}.
 	 */
-	private final Map< Integer, SetupImgLoader > setupImgLoaders = new HashMap<>();
+	private final Map< Integer, SetupImgLoader< ?, ? > > setupImgLoaders = new ConcurrentHashMap<>();
 
 	private volatile boolean isOpen = false;
 	private SharedQueue createdSharedQueue;
+	private DecodePool decodePool;
 	private VolatileGlobalCellCache cache;
 	private IHDF5Reader hdf5Reader;
 	private HDF5Access hdf5Access;
 
 	private int requestedNumFetcherThreads = -1;
+	private int requestedNumDecodeThreads = 0;
 	private SharedQueue requestedSharedQueue;
+	private boolean useDirectChunkReads = true;
+	private boolean useMetadataIndex = true;
 
 	/**
 	 *
@@ -159,6 +167,56 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		requestedSharedQueue = createdSharedQueue;
 	}
 
+	/**
+	 * Set whether chunks should be read directly from the file, bypassing the
+	 * HDF5 library (which serializes all reads), if possible. This is enabled
+	 * by default. Must be called before the loader is opened.
+	 * <p>
+	 * With direct chunk reads, the default number of fetcher threads is the
+	 * number of available processors, otherwise it is 1.
+	 */
+	public synchronized void setUseDirectChunkReads( final boolean useDirectChunkReads )
+	{
+		this.useDirectChunkReads = useDirectChunkReads;
+	}
+
+	/**
+	 * Set the number of threads that decompress and convert chunks that are
+	 * read directly (see {@link #setUseDirectChunkReads(boolean)}). If
+	 * {@code n > 0}, fetcher threads only read the stored chunks and hand them
+	 * over to a {@link DecodePool} with {@code n} threads for decoding. Then
+	 * the number of fetcher threads (IO) and decoding threads (CPU) can be
+	 * sized independently. If {@code n == 0} (the default), fetcher threads
+	 * decode chunks themselves. Must be called before the loader is opened.
+	 */
+	public synchronized void setNumDecodeThreads( final int n )
+	{
+		requestedNumDecodeThreads = n;
+	}
+
+	/**
+	 * Get the {@link DecodePool} that decodes chunks (for monitoring, see
+	 * {@link DecodePool#getStats()}), or {@code null} if fetcher threads decode
+	 * chunks themselves (see {@link #setNumDecodeThreads(int)}).
+	 */
+	public DecodePool getDecodePool()
+	{
+		open();
+		return decodePool;
+	}
+
+	/**
+	 * Set whether to use a {@link Hdf5MetadataIndex} stored next to the HDF5
+	 * file (if it exists and is up to date). This is enabled by default. Must
+	 * be called before the loader is opened.
+	 *
+	 * @see #writeMetadataIndex()
+	 */
+	public synchronized void setUseMetadataIndex( final boolean useMetadataIndex )
+	{
+		this.useMetadataIndex = useMetadataIndex;
+	}
+
 	private void open()
 	{
 		if ( !isOpen )
@@ -168,34 +226,32 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				if ( isOpen )
 					return;
 
-				try
+				hdf5Reader = ( existingHdf5Reader != null ) ? existingHdf5Reader : HDF5Factory.openForReading( hdf5File );
+				hdf5Access = new HDF5Access( hdf5Reader, useDirectChunkReads );
+				if ( requestedNumDecodeThreads > 0 && hdf5Access.isDirectChunkReading() )
 				{
-					hdf5Reader = ( existingHdf5Reader != null ) ? existingHdf5Reader : HDF5Factory.openForReading( hdf5File );
-					hdf5Access = new HDF5Access( hdf5Reader );
-
-					int maxNumLevels = 0;
-					final List< ? extends BasicViewSetup > setups = seq.getViewSetupsOrdered();
-					for ( final BasicViewSetup setup : setups )
-					{
-						final int setupId = setup.getId();
-						final SetupImgLoader setupImgLoader = createSetupImgLoader( setupId );
-						setupImgLoaders.put( setupId, setupImgLoader );
-						maxNumLevels = Math.max( maxNumLevels, setupImgLoader.numMipmapLevels() );
-					}
-
-					final int numFetcherThreads = requestedNumFetcherThreads >= 0
-							? requestedNumFetcherThreads
-							: 1;
-					final SharedQueue queue = requestedSharedQueue != null
-							? requestedSharedQueue
-							: ( createdSharedQueue = new SharedQueue( numFetcherThreads, maxNumLevels ) );
-					cache = new VolatileGlobalCellCache( queue );
+					decodePool = new DecodePool( requestedNumDecodeThreads );
+					hdf5Access.setDecodePool( decodePool );
 				}
-				catch ( IOException e )
+				if ( useMetadataIndex && hdf5File != null )
 				{
-					throw new RuntimeException( e );
+					final Map< String, DimsAndExistence > index = Hdf5MetadataIndex.read( hdf5File, partitions );
+					if ( index != null )
+						hdf5Access.setMetadataIndex( index );
 				}
 
+				// SetupImgLoaders are created lazily, and increase the number
+				// of priority levels according to their number of mipmap levels.
+				final int numFetcherThreads = requestedNumFetcherThreads >= 0
+						? requestedNumFetcherThreads
+						: hdf5Access.isDirectChunkReading()
+								? Runtime.getRuntime().availableProcessors()
+								: 1;
+				final SharedQueue queue = requestedSharedQueue != null
+						? requestedSharedQueue
+						: ( createdSharedQueue = new SharedQueue( numFetcherThreads, 1 ) );
+				cache = new VolatileGlobalCellCache( queue );
+
 				isOpen = true;
 			}
 		}
@@ -218,6 +274,8 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 
 				if ( createdSharedQueue != null )
 					createdSharedQueue.shutdown();
+				if ( decodePool != null )
+					decodePool.shutdown();
 				cache.clearCache();
 				hdf5Access.closeAllDataSets();
 
@@ -225,7 +283,9 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 				if ( existingHdf5Reader == null )
 					hdf5Access.close();
 
+				setupImgLoaders.clear();
 				createdSharedQueue = null;
+				decodePool = null;
 				isOpen = false;
 			}
 		}
@@ -270,6 +330,33 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		return hdf5Access.getDimsAndExistence( Util.getCellsPath( id ) );
 	}
 
+	/**
+	 * Write a {@link Hdf5MetadataIndex} with the dimensions, chunk sizes, and
+	 * existence of all images (all setups, timepoints, and mipmap levels) next
+	 * to the HDF5 file. It is used to open the dataset faster next time.
+	 */
+	public void writeMetadataIndex() throws IOException
+	{
+		open();
+		if ( hdf5File == null )
+			throw new IOException( "no HDF5 file" );
+		final Map< String, DimsAndExistence > index = new LinkedHashMap<>();
+		for ( final BasicViewSetup setup : seq.getViewSetupsOrdered() )
+		{
+			final int setupId = setup.getId();
+			final int numLevels = getSetupImgLoader( setupId ).numMipmapLevels();
+			for ( final TimePoint timepoint : seq.getTimePoints().getTimePointsOrdered() )
+			{
+				for ( int level = 0; level < numLevels; ++level )
+				{
+					final String path = Util.getCellsPath( timepoint.getId(), setupId, level );
+					index.put( path, hdf5Access.getDimsAndExistence( path ) );
+				}
+			}
+		}
+		Hdf5MetadataIndex.write( hdf5File, partitions, index );
+	}
+
 	public void printMipmapInfo()
 	{
 		open();
@@ -308,10 +395,12 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 	public SetupImgLoader< ?, ? > getSetupImgLoader( final int setupId )
 	{
 		open();
-		return setupImgLoaders.get( setupId );
+		if ( !seq.getViewSetups().containsKey( setupId ) )
+			return null;
+		return setupImgLoaders.computeIfAbsent( setupId, this::createSetupImgLoader );
 	}
 
-	private < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > SetupImgLoader< T, V > createSetupImgLoader( final int setupId ) throws IOException
+	private < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > SetupImgLoader< T, V > createSetupImgLoader( final int setupId )
 	{
 		DataType dataType = tryGetDataType( setupId );
 		final boolean legacyInt16 = ( dataType == null );
@@ -362,6 +451,7 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 			final int[][] subdivisions = hdf5Reader.readIntMatrix( getSubdivisionsPath( setupId ) );
 			this.mipmapInfo = new MipmapInfo( mipmapResolutions, mipmapTransforms, subdivisions );
 			this.legacyInt16 = legacyInt16;
+			cache.ensureNumPriorities( mipmapResolutions.length );
 		}
 
 		@Override
@@ -453,6 +543,7 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 		private final String pathName;
 		private final DataType dataType;
 		private final long memTypeId;
+		private final IntFunction< T > emptyPrimitiveArray;
 		private final Function< T, A > createVolatileArrayAccess;
 
 		Hdf5CacheArrayLoader( final HDF5Access hdf5Access, final String pathName,
@@ -462,12 +553,17 @@ public class Hdf5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoade
 			this.pathName = pathName;
 			this.dataType = typeProps.dataType();
 			this.memTypeId = legacyInt16 ? H5T_NATIVE_INT16 : memTypeId( dataType );
+			this.emptyPrimitiveArray = typeProps.emptyPrimitiveArray();
 			this.createVolatileArrayAccess = typeProps.createVolatileArrayAccess();
 		}
 
 		@Override
 		public A loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 		{
+			// chunks that are not stored share one zero-filled array
+			if ( hdf5Access.isMissingBlock( pathName, memTypeId, dimensions, min ) )
+				return createVolatileArrayAccess.apply( emptyPrimitiveArray.apply( ( int ) Intervals.numElements( dimensions ) ) );
+
 			final DataBlock< T > dataBlock = Cast.unchecked( hdf5Access.readBlock( pathName, dataType, memTypeId, dimensions, min ) );
 			return createVolatileArrayAccess.apply( dataBlock.getData() );
 		}
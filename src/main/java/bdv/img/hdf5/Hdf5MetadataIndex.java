@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An index of the dimensions, chunk sizes, and existence of all image
+ * datasets in a (possibly partitioned) BDV HDF5 file, stored as a JSON file
+ * next to the HDF5 file.
+ * <p>
+ * Probing datasets one by one through the HDF5 library is slow for datasets
+ * with many setups and timepoints. The index is read in one go instead. It
+ * records length and modification time of the HDF5 file and its partition
+ * files, and is ignored if any of them changed after the index was written.
+ *
+ * @see Hdf5ImageLoader#writeMetadataIndex()
+ */
+public class Hdf5MetadataIndex
+{
+	/**
+	 * The index for {@code data.h5} is stored in {@code data.h5.index.json}.
+	 */
+	public static final String INDEX_SUFFIX = ".index.json";
+
+	private static final int VERSION = 1;
+
+	private static class FileStamp
+	{
+		long length;
+
+		long lastModified;
+
+		FileStamp()
+		{}
+
+		FileStamp( final File file )
+		{
+			length = file.isFile() ? file.length() : -1;
+			lastModified = file.isFile() ? file.lastModified() : -1;
+		}
+
+		boolean matches( final File file )
+		{
+			final FileStamp current = new FileStamp( file );
+			return length == current.length && lastModified == current.lastModified;
+		}
+	}
+
+	private static class Entry
+	{
+		long[] dimensions;
+
+		int[] blockSize;
+
+		boolean exists;
+	}
+
+	private static class Json
+	{
+		int version;
+
+		Map< String, FileStamp > files;
+
+		Map< String, Entry > datasets;
+	}
+
+	private Hdf5MetadataIndex()
+	{}
+
+	/**
+	 * Get the index file for {@code hdf5File}.
+	 */
+	public static File indexFile( final File hdf5File )
+	{
+		return new File( hdf5File.getPath() + INDEX_SUFFIX );
+	}
+
+	/**
+	 * Read the index stored next to {@code hdf5File}.
+	 *
+	 * @param hdf5File
+	 *            the (master) HDF5 file
+	 * @param partitions
+	 *            partition files that the master file links to (may be empty)
+	 *
+	 * @return map from dataset path to {@link DimsAndExistence}, or
+	 *         {@code null} if there is no index, or it is out of date.
+	 */
+	public static Map< String, DimsAndExistence > read( final File hdf5File, final Collection< Partition > partitions )
+	{
+		final File indexFile = indexFile( hdf5File );
+		if ( !indexFile.isFile() )
+			return null;
+
+		final Json json;
+		try ( Reader reader = Files.newBufferedReader( indexFile.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			json = new Gson().fromJson( reader, Json.class );
+		}
+		catch ( final IOException | JsonParseException e )
+		{
+			return null;
+		}
+
+		if ( json == null || json.version != VERSION || json.files == null || json.datasets == null )
+			return null;
+		final Map< String, File > files = files( hdf5File, partitions );
+		if ( !json.files.keySet().equals( files.keySet() ) )
+			return null;
+		for ( final Map.Entry< String, File > file : files.entrySet() )
+			if ( !json.files.get( file.getKey() ).matches( file.getValue() ) )
+				return null;
+
+		final Map< String, DimsAndExistence > index = new LinkedHashMap<>();
+		json.datasets.forEach( ( path, entry ) -> index.put( path, new DimsAndExistence( entry.dimensions, entry.blockSize, entry.exists ) ) );
+		return index;
+	}
+
+	/**
+	 * Write an index next to {@code hdf5File}.
+	 *
+	 * @param hdf5File
+	 *            the (master) HDF5 file
+	 * @param partitions
+	 *            partition files that the master file links to (may be empty)
+	 * @param datasets
+	 *            map from dataset path to {@link DimsAndExistence}
+	 */
+	public static void write( final File hdf5File, final Collection< Partition > partitions, final Map< String, DimsAndExistence > datasets ) throws IOException
+	{
+		final Json json = new Json();
+		json.version = VERSION;
+		json.files = new LinkedHashMap<>();
+		files( hdf5File, partitions ).forEach( ( name, file ) -> json.files.put( name, new FileStamp( file ) ) );
+		json.datasets = new LinkedHashMap<>();
+		datasets.forEach( ( path, dims ) -> {
+			final Entry entry = new Entry();
+			entry.dimensions = dims.getDimensions();
+			entry.blockSize = dims.getBlockSize();
+			entry.exists = dims.exists();
+			json.datasets.put( path, entry );
+		} );
+
+		final Gson gson = new GsonBuilder().create();
+		try ( Writer writer = Files.newBufferedWriter( indexFile( hdf5File ).toPath(), StandardCharsets.UTF_8 ) )
+		{
+			gson.toJson( json, writer );
+		}
+	}
+
+	/**
+	 * Map from name (path relative to the directory of the master file) to
+	 * file, for the master file and all partition files.
+	 */
+	private static Map< String, File > files( final File hdf5File, final Collection< Partition > partitions )
+	{
+		final File dir = hdf5File.getAbsoluteFile().getParentFile();
+		final Map< String, File > files = new LinkedHashMap<>();
+		files.put( hdf5File.getName(), hdf5File );
+		if ( partitions != null )
+		{
+			for ( final Partition partition : partitions )
+			{
+				final File file = new File( partition.getPath() );
+				final String name = dir != null
+						? dir.toPath().relativize( file.getAbsoluteFile().toPath() ).toString()
+						: file.getPath();
+				files.put( name, file );
+			}
+		}
+		return files;
+	}
+}
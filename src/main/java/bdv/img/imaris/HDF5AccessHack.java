@@ -58,12 +58,26 @@ import java.lang.reflect.Field;
 import java.util.LinkedHashMap;
 import java.util.Map.Entry;
 
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+
 import bdv.img.hdf5.DimsAndExistence;
+import bdv.img.hdf5.Hdf5DirectChunkReader;
 import bdv.img.hdf5.Util;
 import bdv.img.hdf5.ViewLevelId;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 
-public class HDF5AccessHack implements IHDF5Access
+/**
+ * Access Imaris datasets through lower-level HDF5.
+ * <p>
+ * All calls into the HDF5 library are serialized (on this object). If
+ * supported by the HDF5 Java bindings, blocks are read through a
+ * {@link Hdf5DirectChunkReader}, which only needs the lock to look up chunk
+ * addresses, and reads (and decompresses) chunks in parallel. Otherwise, or
+ * if a dataset cannot be read directly, blocks are read through
+ * {@code H5Dread}.
+ */
+public class HDF5AccessHack implements IHDF5Access, Hdf5DirectChunkReader.DataSetAccess
 {
 	private final IHDF5Reader hdf5Reader;
 
@@ -71,10 +85,6 @@ public class HDF5AccessHack implements IHDF5Access
 
 	private final long numericConversionXferPropertyListID;
 
-	private final long[] reorderedDimensions = new long[ 3 ];
-
-	private final long[] reorderedMin = new long[ 3 ];
-
 	private static final int MAX_OPEN_DATASETS = 48;
 
 	private class OpenDataSet
@@ -96,7 +106,7 @@ public class HDF5AccessHack implements IHDF5Access
 		}
 	}
 
-	private class OpenDataSetCache extends LinkedHashMap< ViewLevelId, OpenDataSet >
+	private class OpenDataSetCache extends LinkedHashMap< String, OpenDataSet >
 	{
 		private static final long serialVersionUID = 1L;
 
@@ -106,7 +116,7 @@ public class HDF5AccessHack implements IHDF5Access
 		}
 
 		@Override
-		protected boolean removeEldestEntry( final Entry< ViewLevelId, OpenDataSet > eldest )
+		protected boolean removeEldestEntry( final Entry< String, OpenDataSet > eldest )
 		{
 			if ( size() > MAX_OPEN_DATASETS )
 			{
@@ -117,13 +127,13 @@ public class HDF5AccessHack implements IHDF5Access
 				return false;
 		}
 
-		public OpenDataSet getDataSet( final ViewLevelId id )
+		public OpenDataSet getDataSet( final String cellsPath )
 		{
-			OpenDataSet openDataSet = super.get( id );
+			OpenDataSet openDataSet = super.get( cellsPath );
 			if ( openDataSet == null )
 			{
-				openDataSet = new OpenDataSet( getCellsPath( id ) );
-				put( id, openDataSet );
+				openDataSet = new OpenDataSet( cellsPath );
+				put( cellsPath, openDataSet );
 			}
 			return openDataSet;
 		}
@@ -131,6 +141,8 @@ public class HDF5AccessHack implements IHDF5Access
 
 	private final OpenDataSetCache openDataSetCache;
 
+	private final Hdf5DirectChunkReader directChunkReader;
+
 	public HDF5AccessHack( final IHDF5Reader hdf5Reader ) throws ClassNotFoundException, SecurityException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException
 	{
 		this.hdf5Reader = hdf5Reader;
@@ -155,6 +167,46 @@ public class HDF5AccessHack implements IHDF5Access
 		numericConversionXferPropertyListID = ( ( Long ) f4.get( h5 ) ).longValue();
 
 		openDataSetCache = new OpenDataSetCache();
+
+		directChunkReader = Hdf5DirectChunkReader.isSupported()
+				? new Hdf5DirectChunkReader( this, hdf5Reader.file().getFile() )
+				: null;
+	}
+
+	/**
+	 * Whether chunks are read directly from the file, such that blocks can be
+	 * read concurrently without contention.
+	 */
+	public boolean isDirectChunkReading()
+	{
+		return directChunkReader != null;
+	}
+
+	@Override
+	public synchronized < R > R withDataSet( final String pathName, final Hdf5DirectChunkReader.DataSetFunction< R > function )
+	{
+		final OpenDataSet dataset;
+		try
+		{
+			dataset = openDataSetCache.getDataSet( pathName );
+		}
+		catch ( final Exception e )
+		{
+			return null;
+		}
+
+		try
+		{
+			return function.apply( dataset.dataSetId );
+		}
+		catch ( final RuntimeException e )
+		{
+			throw e;
+		}
+		catch ( final Exception e )
+		{
+			throw new RuntimeException( e );
+		}
 	}
 
 	@Override
@@ -164,7 +216,7 @@ public class HDF5AccessHack implements IHDF5Access
 		boolean exists = false;
 		try
 		{
-			final OpenDataSet dataset = openDataSetCache.getDataSet( id );
+			final OpenDataSet dataset = openDataSetCache.getDataSet( getCellsPath( id ) );
 			final long[] dimensions = new long[ H5S_MAX_RANK ];
 			final long[] maxDimensions = new long[ H5S_MAX_RANK ];
 			final int rank = H5Sget_simple_extent_dims( dataset.fileSpaceId, dimensions, maxDimensions );
@@ -180,80 +232,90 @@ public class HDF5AccessHack implements IHDF5Access
 	}
 
 	@Override
-	public synchronized byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final byte[] dataBlock = new byte[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
-		readByteMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
-		return dataBlock;
+		return ( byte[] ) readBlock( timepoint, setup, level, DataType.UINT8, H5T_NATIVE_UCHAR, dimensions, min, null );
 	}
 
 	@Override
-	public synchronized byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
+	public byte[] readByteMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final byte[] dataBlock ) throws InterruptedException
 	{
-		if ( Thread.interrupted() )
-			throw new InterruptedException();
-		Util.reorder( dimensions, reorderedDimensions );
-		Util.reorder( min, reorderedMin );
-
-		final OpenDataSet dataset = openDataSetCache.getDataSet( new ViewLevelId( timepoint, setup, level ) );
-		final long memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
-		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
-		H5Dread( dataset.dataSetId, H5T_NATIVE_UCHAR, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
-		H5Sclose( memorySpaceId );
-
-		return dataBlock;
+		return ( byte[] ) readBlock( timepoint, setup, level, DataType.UINT8, H5T_NATIVE_UCHAR, dimensions, min, dataBlock );
 	}
 
 	@Override
 	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final short[] dataBlock = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
-		readShortMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
-		return dataBlock;
+		return ( short[] ) readBlock( timepoint, setup, level, DataType.UINT16, H5T_NATIVE_USHORT, dimensions, min, null );
 	}
 
-	// TODO: this could be unified with readByteMDArrayBlockWithOffset? (final Object dataBlock, int H5T_NATIVE_type)?
 	@Override
 	public short[] readShortMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final short[] dataBlock ) throws InterruptedException
 	{
-		if ( Thread.interrupted() )
-			throw new InterruptedException();
-		Util.reorder( dimensions, reorderedDimensions );
-		Util.reorder( min, reorderedMin );
-
-		final OpenDataSet dataset = openDataSetCache.getDataSet( new ViewLevelId( timepoint, setup, level ) );
-		final long memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
-		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
-		H5Dread( dataset.dataSetId, H5T_NATIVE_USHORT, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
-		H5Sclose( memorySpaceId );
-
-		return dataBlock;
+		return ( short[] ) readBlock( timepoint, setup, level, DataType.UINT16, H5T_NATIVE_USHORT, dimensions, min, dataBlock );
 	}
 
 	@Override
 	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
-		final float[] dataBlock = new float[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
-		readFloatMDArrayBlockWithOffset( timepoint, setup, level, dimensions, min, dataBlock );
-		return dataBlock;
+		return ( float[] ) readBlock( timepoint, setup, level, DataType.FLOAT32, H5T_NATIVE_FLOAT, dimensions, min, null );
 	}
 
-	// TODO: this could be unified with readByteMDArrayBlockWithOffset? (final Object dataBlock, int H5T_NATIVE_type)?
 	@Override
 	public float[] readFloatMDArrayBlockWithOffset( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min, final float[] dataBlock ) throws InterruptedException
+	{
+		return ( float[] ) readBlock( timepoint, setup, level, DataType.FLOAT32, H5T_NATIVE_FLOAT, dimensions, min, dataBlock );
+	}
+
+	/**
+	 * Read a block into the primitive array {@code dataBlock}, or into a new
+	 * array if {@code dataBlock == null}.
+	 *
+	 * @return the array that was read into.
+	 */
+	private Object readBlock(
+			final int timepoint,
+			final int setup,
+			final int level,
+			final DataType dataType,
+			final long memTypeId,
+			final int[] dimensions,
+			final long[] min,
+			final Object dataBlock ) throws InterruptedException
 	{
 		if ( Thread.interrupted() )
 			throw new InterruptedException();
-		Util.reorder( dimensions, reorderedDimensions );
-		Util.reorder( min, reorderedMin );
 
-		final OpenDataSet dataset = openDataSetCache.getDataSet( new ViewLevelId( timepoint, setup, level ) );
+		final String cellsPath = getCellsPath( timepoint, setup, level );
+		if ( directChunkReader != null )
+		{
+			final DataBlock< ? > block = directChunkReader.readBlock( cellsPath, dataType, memTypeId, dimensions, min );
+			if ( block != null )
+			{
+				if ( dataBlock == null )
+					return block.getData();
+				System.arraycopy( block.getData(), 0, dataBlock, 0, block.getNumElements() );
+				return dataBlock;
+			}
+		}
+
+		final Object data = dataBlock != null
+				? dataBlock
+				: dataType.createDataBlock( dimensions, min ).getData();
+		read( cellsPath, memTypeId, dimensions, min, data );
+		return data;
+	}
+
+	private synchronized void read( final String cellsPath, final long memTypeId, final int[] dimensions, final long[] min, final Object dataBlock )
+	{
+		final long[] reorderedDimensions = Util.reorder( dimensions, new long[ dimensions.length ] );
+		final long[] reorderedMin = Util.reorder( min );
+
+		final OpenDataSet dataset = openDataSetCache.getDataSet( cellsPath );
 		final long memorySpaceId = H5Screate_simple( reorderedDimensions.length, reorderedDimensions, null );
 		H5Sselect_hyperslab( dataset.fileSpaceId, H5S_SELECT_SET, reorderedMin, null, reorderedDimensions, null );
-		H5Dread( dataset.dataSetId, H5T_NATIVE_FLOAT, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
+		H5Dread( dataset.dataSetId, memTypeId, memorySpaceId, dataset.fileSpaceId, numericConversionXferPropertyListID, dataBlock );
 		H5Sclose( memorySpaceId );
-
-		return dataBlock;
 	}
 
 	@Override
@@ -326,6 +388,8 @@ public class HDF5AccessHack implements IHDF5Access
 	{
 		try
 		{
+			if ( directChunkReader != null )
+				directChunkReader.close();
 			for ( final OpenDataSet dataset : openDataSetCache.values() )
 				dataset.close();
 			hdf5Reader.close();
@@ -35,7 +35,6 @@ import java.util.List;
 
 import bdv.spimdata.SequenceDescriptionMinimal;
 import bdv.spimdata.SpimDataMinimal;
-import ch.systemsx.cisd.hdf5.HDF5DataSetInformation;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5Reader;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
@@ -89,51 +88,45 @@ public class Imaris
 				( extMax[ 1 ] - extMin[ 1 ] ) / imageSize[ 1 ],
 				( extMax[ 2 ] - extMin[ 2 ] ) / imageSize[ 2 ] );
 
-		final List< String > resolutionNames = reader.getGroupMembers( "DataSet" );
-		for ( final String resolutionName : resolutionNames )
+		// All resolution levels contain the same timepoints and channels, so
+		// only the groups of the full resolution level are enumerated (the
+		// datasets themselves are not touched until they are loaded).
+		final String levelPath = "DataSet/ResolutionLevel 0";
+		if ( !reader.object().isGroup( levelPath ) )
+			throw new IOException( "could not find " + levelPath + " in " + fn );
+		final List< String > timepointNames = reader.getGroupMembers( levelPath );
+		for ( final String timepointName : timepointNames )
 		{
-			if ( !resolutionName.startsWith( "ResolutionLevel " ) )
+			if ( !timepointName.startsWith( "TimePoint " ) )
 			{
-				throw new IOException( "unexpected content '" + resolutionName + "' while reading " + fn );
+				throw new IOException( "unexpected content '" + timepointName + "' while reading " + fn );
 			}
 			else
 			{
-				final int level = Integer.parseInt( resolutionName.substring( "ResolutionLevel ".length() ) );
-				final List< String > timepointNames = reader.getGroupMembers( "DataSet/" + resolutionName );
-				for ( final String timepointName : timepointNames )
-				{
-					if ( !timepointName.startsWith( "TimePoint " ) )
-					{
-						throw new IOException( "unexpected content '" + timepointName + "' while reading " + fn );
-					}
-					else
-					{
-						final int timepoint = Integer.parseInt( timepointName.substring( "TimePoint ".length() ) );
-						if ( !timepointMap.containsKey( timepoint ) )
-							timepointMap.put( timepoint, new TimePoint( timepoint ) );
-
-						final List< String > channelNames = reader.getGroupMembers( "DataSet/" + resolutionName + "/" + timepointName );
-						for ( final String channelName : channelNames )
-						{
-							if ( !channelName.startsWith( "Channel " ) )
-							{
-								throw new IOException( "unexpected content '" + channelName + "' while reading " + fn );
-							}
-							else
-							{
-								final HDF5DataSetInformation info = reader.getDataSetInformation( "DataSet/" + resolutionName + "/" + timepointName + "/" + channelName + "/Data" );
+				final int timepoint = Integer.parseInt( timepointName.substring( "TimePoint ".length() ) );
+				if ( !timepointMap.containsKey( timepoint ) )
+					timepointMap.put( timepoint, new TimePoint( timepoint ) );
+			}
+		}
+		if ( timepointNames.isEmpty() )
+			throw new IOException( "could not find any TimePoint in " + fn );
 
-								final int channel = Integer.parseInt( channelName.substring( "Channel ".length() ) );
-								if ( !setupMap.containsKey( channel ) )
-								{
-									final String defaultSetupName = "channel " + channel;
-									final String name = access.readImarisAttributeString( "DataSetInfo/Channel " + channel, "Name", defaultSetupName );
-									final BasicViewSetup setup = new BasicViewSetup( channel, name, new FinalDimensions( imageSize ), voxelSize );
-									setupMap.put( channel, setup );
-								}
-							}
-						}
-					}
+		final List< String > channelNames = reader.getGroupMembers( levelPath + "/" + timepointNames.get( 0 ) );
+		for ( final String channelName : channelNames )
+		{
+			if ( !channelName.startsWith( "Channel " ) )
+			{
+				throw new IOException( "unexpected content '" + channelName + "' while reading " + fn );
+			}
+			else
+			{
+				final int channel = Integer.parseInt( channelName.substring( "Channel ".length() ) );
+				if ( !setupMap.containsKey( channel ) )
+				{
+					final String defaultSetupName = "channel " + channel;
+					final String name = access.readImarisAttributeString( "DataSetInfo/Channel " + channel, "Name", defaultSetupName );
+					final BasicViewSetup setup = new BasicViewSetup( channel, name, new FinalDimensions( imageSize ), voxelSize );
+					setupMap.put( channel, setup );
 				}
 			}
 		}
@@ -38,6 +38,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
@@ -86,6 +88,11 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 
 	private final HashMap< Integer, SetupImgLoader > setupImgLoaders;
 
+	/**
+	 * {@link CellGrid}s of views and levels that have been accessed so far.
+	 */
+	private final Map< ViewLevelId, CellGrid > cellGrids = new ConcurrentHashMap<>();
+
 	public ImarisImageLoader(
 			final File hdf5File,
 			final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
@@ -160,15 +167,13 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 			{
 				final int level = Integer.parseInt( resolutionName.substring( "ResolutionLevel ".length() ) );
 
-				final List< String > timepointNames = reader.getGroupMembers( "DataSet/" + resolutionName );
-				if ( timepointNames.isEmpty() )
+				final String timepointName = firstMember( reader, "DataSet/" + resolutionName, "TimePoint " );
+				if ( timepointName == null )
 					throw new IOException( "could not find any TimePoint in " + fn );
-				final String timepointName = timepointNames.get( 0 );
 
-				final List< String > channelNames = reader.getGroupMembers( "DataSet/" + resolutionName + "/" + timepointName );
-				if ( channelNames.isEmpty() )
+				final String channelName = firstMember( reader, "DataSet/" + resolutionName + "/" + timepointName, "Channel " );
+				if ( channelName == null )
 					throw new IOException( "could not find any Channel in " + fn );
-				final String channelName = channelNames.get( 0 );
 
 				final HDF5DataSetInformation info = reader.getDataSetInformation( "DataSet/" + resolutionName + "/" + timepointName + "/" + channelName + "/Data" );
 				if ( dataType == null )
@@ -253,6 +258,53 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 		mipmapInfo = new MipmapInfo( resolutions, transforms, subdivisions );
 	}
 
+	/**
+	 * Get the name of the first member of {@code group}. Tries
+	 * {@code prefix + "0"} first, and lists the members of {@code group} only
+	 * if that doesn't exist, because listing the timepoints of large files is
+	 * expensive.
+	 *
+	 * @return name of the first member, or {@code null} if {@code group} is
+	 *         empty.
+	 */
+	private static String firstMember( final IHDF5Reader reader, final String group, final String prefix )
+	{
+		final String name = prefix + "0";
+		if ( reader.object().exists( group + "/" + name ) )
+			return name;
+		final List< String > names = reader.getGroupMembers( group );
+		return names.isEmpty() ? null : names.get( 0 );
+	}
+
+	/**
+	 * Get the {@link CellGrid} of the given view and level. The dimensions are
+	 * read from the attributes of the channel group when the view is first
+	 * accessed (falling back to the dimensions of the first timepoint if they
+	 * cannot be read), and cached.
+	 */
+	private CellGrid getCellGrid( final ViewLevelId id )
+	{
+		return cellGrids.computeIfAbsent( id, key -> {
+			final int level = key.getLevel();
+			final int[] cellDimensions = mipmapInfo.getSubdivisions()[ level ];
+			long[] dimensions;
+			try
+			{
+				final String path = String.format( "DataSet/ResolutionLevel %d/TimePoint %d/Channel %d", level, key.getTimePointId(), key.getViewSetupId() );
+				dimensions = new long[] {
+						Integer.parseInt( hdf5Access.readImarisAttributeString( path, "ImageSizeX" ) ),
+						Integer.parseInt( hdf5Access.readImarisAttributeString( path, "ImageSizeY" ) ),
+						Integer.parseInt( hdf5Access.readImarisAttributeString( path, "ImageSizeZ" ) ),
+				};
+			}
+			catch ( final Exception e )
+			{
+				dimensions = mipmapDimensions[ level ];
+			}
+			return new CellGrid( dimensions, cellDimensions );
+		} );
+	}
+
 	/**
 	 * (Almost) create a {@link CellImg} backed by the cache. The created image
 	 * needs a {@link NativeImg#setLinkedType(net.imglib2.type.Type) linked
@@ -265,9 +317,7 @@ public class ImarisImageLoader< T extends NativeType< T >, V extends Volatile< T
 		final int timepointId = id.getTimePointId();
 		final int setupId = id.getViewSetupId();
 		final int level = id.getLevel();
-		final long[] dimensions = mipmapDimensions[ level ];
-		final int[] cellDimensions = mipmapInfo.getSubdivisions()[ level ];
-		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final CellGrid grid = getCellGrid( id );
 
 		final int priority = mipmapInfo.getMaxLevel() - level;
 		final CacheHints cacheHints = new CacheHints( loadingStrategy, priority, false );
@@ -28,11 +28,57 @@
  */
 package bdv.img.n5;
 
+import java.util.HashMap;
+import java.util.Map;
+
+import org.janelia.saalfeldlab.n5.Compression;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
 public class BdvN5Format
 {
 	public static final String DOWNSAMPLING_FACTORS_KEY = "downsamplingFactors";
 	public static final String DATA_TYPE_KEY = "dataType";
 
+	/**
+	 * Dataset attribute that marks a sharded dataset. The value is the number
+	 * of blocks per shard in each dimension.
+	 */
+	public static final String BLOCKS_PER_SHARD_KEY = "blocksPerShard";
+
+	/**
+	 * A sharded dataset is stored as an N5 group, not as an N5 dataset, so
+	 * that N5 readers that don't know about shards do not mistake it for a
+	 * dataset without blocks (reading all zeros). Its dataset attributes
+	 * ({@code dimensions}, {@code blockSize}, {@code dataType},
+	 * {@code compression}) are stored under this attribute instead. See
+	 * {@link #getDatasetAttributes(N5Reader, String)}.
+	 */
+	public static final String SHARDED_DATASET_KEY = "shardedDataset";
+
+	/**
+	 * Shards of a sharded dataset are stored under this sub-path of the
+	 * dataset, see {@link #getShardPath(String, long[])}.
+	 */
+	public static final String SHARDS_PATH = "shards";
+
+	/**
+	 * Size in bytes of an entry in the index of a shard file: offset and
+	 * length of the block, as big-endian int64.
+	 */
+	public static final int SHARD_INDEX_ENTRY_SIZE = 16;
+
+	/**
+	 * Dataset attributes that summarize the occupancy of a dataset written by
+	 * the exporter: the total number of blocks, and the number of empty (all
+	 * zero) blocks that were not stored.
+	 */
+	public static final String NUM_BLOCKS_KEY = "numBlocks";
+	public static final String NUM_EMPTY_BLOCKS_KEY = "numEmptyBlocks";
+
 	public static String getPathName( final int setupId )
 	{
 		return String.format( "setup%d", setupId );
@@ -47,4 +93,71 @@ public class BdvN5Format
 	{
 		return String.format( "setup%d/timepoint%d/s%d", setupId, timepointId, level );
 	}
+
+	/**
+	 * Get the path of the shard at {@code shardPosition} (in the grid of
+	 * shards) of a sharded dataset.
+	 * <p>
+	 * A shard file starts with an index that has one entry of
+	 * {@link #SHARD_INDEX_ENTRY_SIZE} bytes for each block of the (full)
+	 * shard, in flattened order (x fastest). Each entry holds offset and
+	 * length of the block in the shard file, or {@code -1} for blocks that are
+	 * not stored. The index is followed by the blocks, each in the usual N5
+	 * block serialization (header and compressed data).
+	 */
+	public static String getShardPath( final String datasetPath, final long[] shardPosition )
+	{
+		final StringBuilder path = new StringBuilder( datasetPath ).append( '/' ).append( SHARDS_PATH );
+		for ( final long p : shardPosition )
+			path.append( '/' ).append( p );
+		return path.toString();
+	}
+
+	/**
+	 * Get the attributes of dataset {@code pathName}, which may be sharded
+	 * (see {@link #SHARDED_DATASET_KEY}).
+	 *
+	 * @return the dataset attributes, or {@code null} if {@code pathName} is
+	 *         not a (sharded) dataset.
+	 */
+	public static DatasetAttributes getDatasetAttributes( final N5Reader n5, final String pathName ) throws N5Exception
+	{
+		if ( n5.getAttribute( pathName, BLOCKS_PER_SHARD_KEY, int[].class ) == null )
+			return n5.getDatasetAttributes( pathName );
+		final String key = SHARDED_DATASET_KEY + "/";
+		final long[] dimensions = n5.getAttribute( pathName, key + DatasetAttributes.DIMENSIONS_KEY, long[].class );
+		final int[] blockSize = n5.getAttribute( pathName, key + DatasetAttributes.BLOCK_SIZE_KEY, int[].class );
+		final DataType dataType = n5.getAttribute( pathName, key + DatasetAttributes.DATA_TYPE_KEY, DataType.class );
+		final Compression compression = n5.getAttribute( pathName, key + DatasetAttributes.COMPRESSION_KEY, Compression.class );
+		if ( dimensions == null || blockSize == null || dataType == null || compression == null )
+			return null;
+		return new DatasetAttributes( dimensions, blockSize, dataType, compression );
+	}
+
+	/**
+	 * Create a sharded dataset {@code pathName} (see
+	 * {@link #SHARDED_DATASET_KEY}, {@link #getShardPath(String, long[])}).
+	 *
+	 * @return the dataset attributes.
+	 */
+	public static DatasetAttributes createShardedDataset(
+			final N5Writer n5,
+			final String pathName,
+			final long[] dimensions,
+			final int[] blockSize,
+			final DataType dataType,
+			final Compression compression,
+			final int[] blocksPerShard ) throws N5Exception
+	{
+		n5.createGroup( pathName );
+		final String key = SHARDED_DATASET_KEY + "/";
+		final Map< String, Object > attributes = new HashMap<>();
+		attributes.put( key + DatasetAttributes.DIMENSIONS_KEY, dimensions );
+		attributes.put( key + DatasetAttributes.BLOCK_SIZE_KEY, blockSize );
+		attributes.put( key + DatasetAttributes.DATA_TYPE_KEY, dataType );
+		attributes.put( key + DatasetAttributes.COMPRESSION_KEY, compression );
+		attributes.put( BLOCKS_PER_SHARD_KEY, blocksPerShard );
+		n5.setAttributes( pathName, attributes );
+		return new DatasetAttributes( dimensions, blockSize, dataType, compression );
+	}
 }
@@ -28,11 +28,14 @@
  */
 package bdv.img.n5;
 
+import bdv.img.cache.DefaultEmptyArrayCreator;
+import java.nio.ByteBuffer;
 import java.util.EnumMap;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import net.imglib2.Volatile;
 import net.imglib2.img.basictypeaccess.DataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileArrayDataAccess;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileByteArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileDoubleArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
@@ -40,6 +43,7 @@ import net.imglib2.img.basictypeaccess.volatiles.array.VolatileIntArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileLongArray;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
 import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
 import net.imglib2.type.numeric.integer.ByteType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.LongType;
@@ -60,6 +64,7 @@ import net.imglib2.type.volatiles.VolatileUnsignedByteType;
 import net.imglib2.type.volatiles.VolatileUnsignedIntType;
 import net.imglib2.type.volatiles.VolatileUnsignedLongType;
 import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Cast;
 import org.janelia.saalfeldlab.n5.DataType;
 
 import static org.janelia.saalfeldlab.n5.DataType.FLOAT32;
@@ -97,51 +102,65 @@ public class DataTypeProperties< T extends NativeType< T >, V extends Volatile<
 
 	private final Function< P, A > createVolatileArrayAccess;
 
+	private final Function< ByteBuffer, DataAccess > createMappedAccess;
+
 	private static final EnumMap< DataType, DataTypeProperties< ?, ?, ?, ? > > props = new EnumMap<>( DataType.class );
 
 	static {
 		props.put( INT8, new DataTypeProperties<>( INT8,
 				new ByteType(), new VolatileByteType(),
-				byte[]::new, data -> new VolatileByteArray( data, true ) ) );
+				byte[]::new, data -> new VolatileByteArray( data, true ),
+				MappedVolatileAccess::ofBytes ) );
 		props.put( UINT8, new DataTypeProperties<>( UINT8,
 				new UnsignedByteType(), new VolatileUnsignedByteType(),
-				byte[]::new, data -> new VolatileByteArray( data, true ) ) );
+				byte[]::new, data -> new VolatileByteArray( data, true ),
+				MappedVolatileAccess::ofBytes ) );
 		props.put( INT16, new DataTypeProperties<>( INT16,
 				new ShortType(), new VolatileShortType(),
-				short[]::new, data -> new VolatileShortArray( data, true ) ) );
+				short[]::new, data -> new VolatileShortArray( data, true ),
+				MappedVolatileAccess::ofShorts ) );
 		props.put( UINT16, new DataTypeProperties<>( UINT16,
 				new UnsignedShortType(), new VolatileUnsignedShortType(),
-				short[]::new, data -> new VolatileShortArray( data, true ) ) );
+				short[]::new, data -> new VolatileShortArray( data, true ),
+				MappedVolatileAccess::ofShorts ) );
 		props.put( INT32, new DataTypeProperties<>( INT32,
 				new IntType(), new VolatileIntType(),
-				int[]::new, data -> new VolatileIntArray( data, true ) ) );
+				int[]::new, data -> new VolatileIntArray( data, true ),
+				MappedVolatileAccess::ofInts ) );
 		props.put( UINT32, new DataTypeProperties<>( UINT32,
 				new UnsignedIntType(), new VolatileUnsignedIntType(),
-				int[]::new, data -> new VolatileIntArray( data, true ) ) );
+				int[]::new, data -> new VolatileIntArray( data, true ),
+				MappedVolatileAccess::ofInts ) );
 		props.put( INT64, new DataTypeProperties<>( INT64,
 				new LongType(), new VolatileLongType(),
-				long[]::new, data -> new VolatileLongArray( data, true ) ) );
+				long[]::new, data -> new VolatileLongArray( data, true ),
+				MappedVolatileAccess::ofLongs ) );
 		props.put( UINT64, new DataTypeProperties<>( UINT64,
 				new UnsignedLongType(), new VolatileUnsignedLongType(),
-				long[]::new, data -> new VolatileLongArray( data, true ) ) );
+				long[]::new, data -> new VolatileLongArray( data, true ),
+				MappedVolatileAccess::ofLongs ) );
 		props.put( FLOAT32, new DataTypeProperties<>( FLOAT32,
 				new FloatType(), new VolatileFloatType(),
-				float[]::new, data -> new VolatileFloatArray( data, true ) ) );
+				float[]::new, data -> new VolatileFloatArray( data, true ),
+				MappedVolatileAccess::ofFloats ) );
 		props.put( FLOAT64, new DataTypeProperties<>( FLOAT64,
 				new DoubleType(), new VolatileDoubleType(),
-				double[]::new, data -> new VolatileDoubleArray( data, true ) ) );
+				double[]::new, data -> new VolatileDoubleArray( data, true ),
+				MappedVolatileAccess::ofDoubles ) );
 	}
 
 	private DataTypeProperties(
 			final DataType dataType,
 			final T type, final V volatileType,
-			final IntFunction< P > createPrimitiveArray, final Function< P, A > createVolatileArrayAccess )
+			final IntFunction< P > createPrimitiveArray, final Function< P, A > createVolatileArrayAccess,
+			final Function< ByteBuffer, DataAccess > createMappedAccess )
 	{
 		this.dataType = dataType;
 		this.type = type;
 		this.volatileType = volatileType;
 		this.createPrimitiveArray = createPrimitiveArray;
 		this.createVolatileArrayAccess = createVolatileArrayAccess;
+		this.createMappedAccess = createMappedAccess;
 	}
 
 	/**
@@ -162,6 +181,33 @@ public class DataTypeProperties< T extends NativeType< T >, V extends Volatile<
 		return createVolatileArrayAccess;
 	}
 
+	/**
+	 * @return a function that returns a zero-filled primitive array of type
+	 * {@code P} with at least the given number of elements. The arrays are
+	 * shared (with the {@link DefaultEmptyArrayCreator}) and must not be
+	 * modified.
+	 */
+	public IntFunction< P > emptyPrimitiveArray()
+	{
+		return emptyPrimitiveArray( type.getNativeTypeFactory().getPrimitiveType() );
+	}
+
+	private static < P, A extends VolatileArrayDataAccess< A > > IntFunction< P > emptyPrimitiveArray( final PrimitiveType primitiveType )
+	{
+		final DefaultEmptyArrayCreator< A > creator = DefaultEmptyArrayCreator.get( primitiveType, false );
+		return numElements -> Cast.unchecked( creator.getEmptyArray( numElements ).getCurrentStorageArray() );
+	}
+
+	/**
+	 * @return a function that wraps a (memory-mapped) big-endian buffer
+	 * into a valid volatile access of appropriate type, which reads from the
+	 * buffer without copying.
+	 */
+	Function< ByteBuffer, DataAccess > createMappedAccess()
+	{
+		return createMappedAccess;
+	}
+
 	/**
 	 * @return ImgLib2 type
 	 */
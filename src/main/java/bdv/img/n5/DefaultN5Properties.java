@@ -57,6 +57,6 @@ public class DefaultN5Properties implements N5Properties
 	public long[] getDimensions( final N5Reader n5, final int setupId, final int timepointId, final int level  )
 	{
 		final String path = getDatasetPath( n5, setupId, timepointId, level );
-		return n5.getDatasetAttributes( path ).getDimensions();
+		return BdvN5Format.getDatasetAttributes( n5, path ).getDimensions();
 	}
 }
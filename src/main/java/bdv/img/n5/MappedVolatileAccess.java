@@ -0,0 +1,301 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.n5;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+import bdv.img.cache.BufferDataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileByteAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileDoubleAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileFloatAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileIntAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileLongAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+
+/**
+ * Valid volatile accesses that read directly from a (memory-mapped) N5 block
+ * buffer, without copying to a primitive array.
+ * <p>
+ * The accesses implement {@link BufferDataAccess}, not {@code ArrayDataAccess}.
+ * The buffer is big-endian (as stored in N5) and read-only, so
+ * {@code setValue} throws {@code ReadOnlyBufferException}. The mapping is
+ * kept alive as long as the access is referenced, and released by the
+ * garbage collector after the cell is evicted from the cache.
+ */
+final class MappedVolatileAccess
+{
+	private MappedVolatileAccess()
+	{
+	}
+
+	private static ByteBuffer bigEndian( final ByteBuffer buffer )
+	{
+		return buffer.slice().order( ByteOrder.BIG_ENDIAN );
+	}
+
+	static VolatileByteAccess ofBytes( final ByteBuffer buffer )
+	{
+		return new Bytes( buffer.slice() );
+	}
+
+	static VolatileShortAccess ofShorts( final ByteBuffer buffer )
+	{
+		return new Shorts( bigEndian( buffer ).asShortBuffer() );
+	}
+
+	static VolatileIntAccess ofInts( final ByteBuffer buffer )
+	{
+		return new Ints( bigEndian( buffer ).asIntBuffer() );
+	}
+
+	static VolatileLongAccess ofLongs( final ByteBuffer buffer )
+	{
+		return new Longs( bigEndian( buffer ).asLongBuffer() );
+	}
+
+	static VolatileFloatAccess ofFloats( final ByteBuffer buffer )
+	{
+		return new Floats( bigEndian( buffer ).asFloatBuffer() );
+	}
+
+	static VolatileDoubleAccess ofDoubles( final ByteBuffer buffer )
+	{
+		return new Doubles( bigEndian( buffer ).asDoubleBuffer() );
+	}
+
+	static final class Bytes implements VolatileByteAccess, BufferDataAccess
+	{
+		private final ByteBuffer buffer;
+
+		Bytes( final ByteBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public byte getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final byte value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public ByteBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+
+	static final class Shorts implements VolatileShortAccess, BufferDataAccess
+	{
+		private final ShortBuffer buffer;
+
+		Shorts( final ShortBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public short getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final short value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public ShortBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+
+	static final class Ints implements VolatileIntAccess, BufferDataAccess
+	{
+		private final IntBuffer buffer;
+
+		Ints( final IntBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final int value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public IntBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+
+	static final class Longs implements VolatileLongAccess, BufferDataAccess
+	{
+		private final LongBuffer buffer;
+
+		Longs( final LongBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public long getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final long value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public LongBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+
+	static final class Floats implements VolatileFloatAccess, BufferDataAccess
+	{
+		private final FloatBuffer buffer;
+
+		Floats( final FloatBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public float getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final float value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public FloatBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+
+	static final class Doubles implements VolatileDoubleAccess, BufferDataAccess
+	{
+		private final DoubleBuffer buffer;
+
+		Doubles( final DoubleBuffer buffer )
+		{
+			this.buffer = buffer;
+		}
+
+		@Override
+		public double getValue( final int index )
+		{
+			return buffer.get( index );
+		}
+
+		@Override
+		public void setValue( final int index, final double value )
+		{
+			buffer.put( index, value );
+		}
+
+		@Override
+		public DoubleBuffer getBuffer()
+		{
+			return buffer;
+		}
+
+		@Override
+		public boolean isValid()
+		{
+			return true;
+		}
+	}
+}
@@ -32,9 +32,11 @@ import static net.imglib2.cache.volatiles.LoadingStrategy.BLOCKING;
 import static net.imglib2.cache.volatiles.LoadingStrategy.BUDGETED;
 
 import bdv.export.n5.meta.AttributesCaching;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Map;
@@ -43,6 +45,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.stream.IntStream;
@@ -52,14 +55,18 @@ import org.janelia.saalfeldlab.n5.CachedGsonKeyValueN5Reader;
 import org.janelia.saalfeldlab.n5.DataBlock;
 import org.janelia.saalfeldlab.n5.DataType;
 import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
 import org.janelia.saalfeldlab.n5.N5Exception;
 import org.janelia.saalfeldlab.n5.N5FSReader;
 import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.RawCompression;
 
 import bdv.AbstractViewerSetupImgLoader;
 import bdv.ViewerImgLoader;
 import bdv.cache.CacheControl;
+import bdv.cache.DecodePool;
 import bdv.cache.SharedQueue;
+import bdv.cache.VirtualThreads;
 import bdv.img.cache.SimpleCacheArrayLoader;
 import bdv.img.cache.VolatileGlobalCellCache;
 import bdv.util.ConstantRandomAccessible;
@@ -210,7 +217,7 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 						final int setup = viewId.getViewSetupId();
 						final int tp = viewId.getTimePointId();
 						final int numLevels = setupIdToNumLevels.get( setup );
-						IntStream.range( 0, numLevels ).parallel().forEach( level -> n5.getDatasetAttributes( n5properties.getDatasetPath( n5, setup, tp, level ) ) );
+						IntStream.range( 0, numLevels ).parallel().forEach( level -> BdvN5Format.getDatasetAttributes( n5, n5properties.getDatasetPath( n5, setup, tp, level ) ) );
 					} );
 				} ).join();
 //				System.out.println( "Pre-fetched dataset attributes." );
@@ -228,13 +235,32 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		return future;
 	}
 
+	/**
+	 * Default maximum number of fetcher threads for latency-bound (non-local)
+	 * storage, see {@link #setMaxNumFetcherThreads(int)}.
+	 */
+	public static final int DEFAULT_MAX_NUM_REMOTE_FETCHER_THREADS = 64;
+
+	/**
+	 * Default maximum number of fetcher threads for latency-bound (non-local)
+	 * storage, if fetchers run in virtual threads (see
+	 * {@link #setUseVirtualThreads(boolean)}).
+	 */
+	public static final int DEFAULT_MAX_NUM_REMOTE_VIRTUAL_FETCHER_THREADS = 512;
+
 	private volatile boolean isOpen = false;
 	private SharedQueue createdSharedQueue;
+	private DecodePool decodePool;
 	private VolatileGlobalCellCache cache;
 	private N5Reader n5;
 	private N5Properties n5properties;
 
 	private int requestedNumFetcherThreads = -1;
+	private int requestedMaxNumFetcherThreads = -1;
+	private int requestedMaxConcurrentLoads = -1;
+	private int requestedNumDecodeThreads = -1;
+	private boolean useVirtualThreads = false;
+	private boolean useMemoryMapping = false;
 	private SharedQueue requestedSharedQueue;
 
 	@Override
@@ -243,6 +269,95 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		requestedNumFetcherThreads = n;
 	}
 
+	/**
+	 * Set the maximum number of fetcher threads. If this is larger than the
+	 * number of fetcher threads (see {@link #setNumFetcherThreads(int)}), the
+	 * number of fetcher threads adapts to the observed load latency and
+	 * throughput (see {@link SharedQueue#setMaxFetcherThreads(int)}). By
+	 * default, this is {@link #DEFAULT_MAX_NUM_REMOTE_FETCHER_THREADS} for
+	 * non-{@code file:} URIs, and no adaptation otherwise.
+	 * <p>
+	 * Has no effect if a shared queue is set with
+	 * {@link #setCreatedSharedQueue(SharedQueue)}.
+	 */
+	public synchronized void setMaxNumFetcherThreads( final int n )
+	{
+		requestedMaxNumFetcherThreads = n;
+	}
+
+	/**
+	 * Whether fetchers should run in virtual threads (if supported by the JVM,
+	 * Java 21+). Virtual threads are cheap, so many more concurrent blocking
+	 * reads can be in flight, which helps for network storage. If virtual
+	 * threads are not supported, platform threads are used.
+	 * <p>
+	 * Has no effect if a shared queue is set with
+	 * {@link #setCreatedSharedQueue(SharedQueue)}.
+	 */
+	public synchronized void setUseVirtualThreads( final boolean useVirtualThreads )
+	{
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	/**
+	 * Set the number of threads that decompress and convert blocks. If
+	 * {@code n > 0}, fetcher threads only read the stored bytes of a block and
+	 * hand them over to a {@link DecodePool} with {@code n} threads for
+	 * decoding. Then the number of fetcher threads (IO) and decoding threads
+	 * (CPU) can be sized independently. If {@code n == 0}, fetcher threads
+	 * decode blocks themselves.
+	 * <p>
+	 * By default, this is the number of available processors for
+	 * non-{@code file:} URIs, and 0 otherwise. Must be called before the
+	 * loader is opened.
+	 */
+	public synchronized void setNumDecodeThreads( final int n )
+	{
+		requestedNumDecodeThreads = n;
+	}
+
+	/**
+	 * Get the {@link DecodePool} that decodes blocks (for monitoring, see
+	 * {@link DecodePool#getStats()}), or {@code null} if fetcher threads decode
+	 * blocks themselves (see {@link #setNumDecodeThreads(int)}).
+	 */
+	public DecodePool getDecodePool()
+	{
+		open();
+		return decodePool;
+	}
+
+	/**
+	 * Set whether uncompressed ({@code RawCompression}) blocks of datasets on
+	 * the local file system should be memory-mapped instead of read. Mapped
+	 * blocks are accessed in place, without copying. This is disabled by
+	 * default. Must be called before images are requested.
+	 * <p>
+	 * The files must not be modified or truncated while images are in use.
+	 * Cells of mapped blocks are backed by buffers, not primitive arrays (see
+	 * {@link bdv.img.cache.BufferDataAccess}), so code that requires
+	 * {@code ArrayDataAccess.getCurrentStorageArray()} does not work with
+	 * them.
+	 */
+	public synchronized void setUseMemoryMapping( final boolean useMemoryMapping )
+	{
+		this.useMemoryMapping = useMemoryMapping;
+	}
+
+	/**
+	 * Limit the number of blocks of this loader that are loaded concurrently,
+	 * also if the fetcher threads are shared with other loaders (see
+	 * {@link SharedQueue#setClientShare(Object, double, int)}).
+	 *
+	 * @param n
+	 *            maximum number of concurrent loads, or {@code <= 0} for no
+	 *            explicit limit.
+	 */
+	public synchronized void setMaxConcurrentLoads( final int n )
+	{
+		requestedMaxConcurrentLoads = n;
+	}
+
 	@Override
 	public void setCreatedSharedQueue( final SharedQueue createdSharedQueue )
 	{
@@ -283,10 +398,35 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 				final int numFetcherThreads = requestedNumFetcherThreads >= 0
 						? requestedNumFetcherThreads
 						: Math.max( 1, Runtime.getRuntime().availableProcessors() );
-				final SharedQueue queue = requestedSharedQueue != null
-						? requestedSharedQueue
-						: ( createdSharedQueue = new SharedQueue( numFetcherThreads ) );
+				final boolean isLocal = n5URI.getScheme() == null || "file".equals( n5URI.getScheme() );
+				final SharedQueue queue;
+				if ( requestedSharedQueue != null )
+					queue = requestedSharedQueue;
+				else
+				{
+					final ThreadFactory threadFactory = useVirtualThreads
+							? VirtualThreads.threadFactory( "Fetcher-" )
+							: null;
+					queue = createdSharedQueue = new SharedQueue( numFetcherThreads, 1, SharedQueue.DEFAULT_PREFETCH_CAPACITY, threadFactory );
+					final int maxNumFetcherThreads;
+					if ( requestedMaxNumFetcherThreads >= 0 )
+						maxNumFetcherThreads = requestedMaxNumFetcherThreads;
+					else if ( isLocal )
+						maxNumFetcherThreads = numFetcherThreads;
+					else if ( threadFactory != null )
+						maxNumFetcherThreads = DEFAULT_MAX_NUM_REMOTE_VIRTUAL_FETCHER_THREADS;
+					else
+						maxNumFetcherThreads = DEFAULT_MAX_NUM_REMOTE_FETCHER_THREADS;
+					queue.setMaxFetcherThreads( maxNumFetcherThreads );
+				}
 				cache = new VolatileGlobalCellCache( queue );
+				if ( requestedMaxConcurrentLoads > 0 )
+					cache.setFetcherShare( 1, requestedMaxConcurrentLoads );
+
+				final int numDecodeThreads = requestedNumDecodeThreads >= 0
+						? requestedNumDecodeThreads
+						: isLocal ? 0 : Math.max( 1, Runtime.getRuntime().availableProcessors() );
+				decodePool = numDecodeThreads > 0 ? new DecodePool( numDecodeThreads ) : null;
 
 				isOpen = true;
 			}
@@ -311,14 +451,31 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 
 				if ( createdSharedQueue != null )
 					createdSharedQueue.shutdown();
+				if ( decodePool != null )
+					decodePool.shutdown();
 				cache.clearCache();
 
 				createdSharedQueue = null;
+				decodePool = null;
 				isOpen = false;
 			}
 		}
 	}
 
+	/**
+	 * Create a reader for the stored (serialized and compressed) blocks of
+	 * the given view and resolution level. This allows to copy blocks into
+	 * another dataset with the same attributes without decoding them.
+	 *
+	 * @return the reader, or {@code null} if the dataset does not exist or
+	 *         its blocks cannot be read separately.
+	 */
+	public N5RawBlockReader createRawBlockReader( final int setupId, final int timepointId, final int level )
+	{
+		openReader();
+		return N5RawBlockReader.create( n5, n5properties.getDatasetPath( n5, setupId, timepointId, level ) );
+	}
+
 	@Override
 	public SetupImgLoader< ?, ? > getSetupImgLoader( final int setupId )
 	{
@@ -457,15 +614,20 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 	{
 		try
 		{
-			final DatasetAttributes attributes = n5.getDatasetAttributes( datasetPath );
+			final DatasetAttributes attributes = BdvN5Format.getDatasetAttributes( n5, datasetPath );
 			final long[] dimensions = attributes.getDimensions();
 			final int[] cellDimensions = attributes.getBlockSize();
 			final CellGrid grid = new CellGrid( dimensions, cellDimensions );
 			final DataTypeProperties< ?, ?, ?, ? > dataTypeProperties = DataTypeProperties.of( attributes.getDataType() );
-			final SimpleCacheArrayLoader< ? > loader = new N5CacheArrayLoader<>( n5, datasetPath, attributes, dataTypeProperties );
+			final N5ShardReader shardReader = N5ShardReader.create( n5, datasetPath, attributes );
+			final N5MappedBlockReader mappedBlockReader = useMemoryMapping
+					? N5MappedBlockReader.create( n5, datasetPath, attributes, shardReader )
+					: null;
+			final N5CacheArrayLoader< ?, ? > loader = new N5CacheArrayLoader<>( n5, datasetPath, attributes, shardReader, mappedBlockReader, dataTypeProperties );
+			loader.setDecodePool( decodePool );
 			return cache.createImg( grid, timepointId, setupId, level, cacheHints, loader, type );
 		}
-		catch ( final N5Exception e )
+		catch ( final N5Exception | IOException e )
 		{
 			System.err.println( String.format(
 					"image data for timepoint %d setup %d level %d could not be found.",
@@ -481,59 +643,150 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		private final N5Reader n5;
 		private final String pathName;
 		private final DatasetAttributes attributes;
+		private final N5ShardReader shardReader;
+		private final N5MappedBlockReader mappedBlockReader;
+		private final N5RawBlockReader rawBlockReader;
 		private final IntFunction< T > createPrimitiveArray;
+		private final IntFunction< T > emptyPrimitiveArray;
 		private final Function< T, A > createVolatileArrayAccess;
+		private final Function< ByteBuffer, DataAccess > createMappedAccess;
 		private final SubArrayCopy.Typed< T, T > subArrayCopy;
+		private DecodePool decodePool;
 
+		/**
+		 * @param shardReader
+		 *            reads blocks if the dataset is sharded, {@code null}
+		 *            otherwise.
+		 * @param mappedBlockReader
+		 *            maps blocks if the dataset is uncompressed and local,
+		 *            {@code null} otherwise.
+		 */
 		N5CacheArrayLoader( final N5Reader n5, final String pathName, final DatasetAttributes attributes,
+				final N5ShardReader shardReader,
+				final N5MappedBlockReader mappedBlockReader,
 				final DataTypeProperties< ?, ?, T, A > dataTypeProperties )
 		{
-			this( n5, pathName, attributes, dataTypeProperties.createPrimitiveArray(), dataTypeProperties.createVolatileArrayAccess(),
+			this( n5, pathName, attributes, shardReader, mappedBlockReader,
+					dataTypeProperties.createPrimitiveArray(), dataTypeProperties.emptyPrimitiveArray(),
+					dataTypeProperties.createVolatileArrayAccess(), dataTypeProperties.createMappedAccess(),
 					SubArrayCopy.forPrimitiveType( dataTypeProperties.type().getNativeTypeFactory().getPrimitiveType() ) );
 		}
 
 		N5CacheArrayLoader( final N5Reader n5, final String pathName, final DatasetAttributes attributes,
+				final N5ShardReader shardReader,
+				final N5MappedBlockReader mappedBlockReader,
 				final IntFunction< T > createPrimitiveArray,
+				final IntFunction< T > emptyPrimitiveArray,
 				final Function< T, A > createVolatileArrayAccess,
+				final Function< ByteBuffer, DataAccess > createMappedAccess,
 				final SubArrayCopy.Typed< T, T > subArrayCopy )
 		{
 
 			this.n5 = n5;
 			this.pathName = pathName;
 			this.attributes = attributes;
+			this.shardReader = shardReader;
+			this.mappedBlockReader = mappedBlockReader;
+			this.rawBlockReader = N5RawBlockReader.create( n5, pathName, attributes, shardReader );
 			this.createPrimitiveArray = createPrimitiveArray;
+			this.emptyPrimitiveArray = emptyPrimitiveArray;
 			this.createVolatileArrayAccess = createVolatileArrayAccess;
+			this.createMappedAccess = createMappedAccess;
 			this.subArrayCopy = subArrayCopy;
 		}
 
+		/**
+		 * Set the pool to decode blocks in. If {@code decodePool != null},
+		 * {@link #loadArray} only reads the stored bytes of the block, and
+		 * decodes and converts them in the pool. Has no effect for
+		 * uncompressed datasets, or if the stored bytes cannot be read
+		 * separately.
+		 */
+		void setDecodePool( final DecodePool decodePool )
+		{
+			final boolean separable = rawBlockReader != null;
+			final boolean compressed = !( attributes.getCompression() instanceof RawCompression );
+			this.decodePool = separable && compressed ? decodePool : null;
+		}
+
 		@Override
 		public A loadArray( final long[] gridPosition, final int[] cellDimensions ) throws IOException
 		{
+			// the request may have become stale while it was queued
+			SharedQueue.checkLoadCancelled();
+
+			if ( mappedBlockReader != null )
+			{
+				ByteBuffer mapped;
+				try
+				{
+					mapped = mappedBlockReader.mapBlock( gridPosition, cellDimensions );
+				}
+				catch ( final IOException e )
+				{
+					// e.g., too many mappings: fall back to reading the block
+					mapped = null;
+				}
+				if ( mapped != null )
+					return Cast.unchecked( createMappedAccess.apply( mapped ) );
+			}
+
+			if ( rawBlockReader != null )
+			{
+				final byte[] bytes = rawBlockReader.readBlockBytes( gridPosition );
+				if ( bytes == null )
+					return createArray( null, cellDimensions );
+				// or while it was read
+				SharedQueue.checkLoadCancelled();
+				if ( decodePool != null )
+					return decodePool.decode( () -> createArray( decodeBlock( bytes, gridPosition ), cellDimensions ) );
+				return createArray( decodeBlock( bytes, gridPosition ), cellDimensions );
+			}
+
 			final DataBlock< T > dataBlock;
 			try
 			{
-				dataBlock = Cast.unchecked( n5.readBlock( pathName, attributes, gridPosition ) );
+				dataBlock = Cast.unchecked( shardReader != null
+						? shardReader.readBlock( gridPosition )
+						: n5.readBlock( pathName, attributes, gridPosition ) );
 			}
 			catch ( final N5Exception e )
 			{
 				throw new IOException( e );
 			}
-			if ( dataBlock != null && Arrays.equals( dataBlock.getSize(), cellDimensions ) )
+			return createArray( dataBlock, cellDimensions );
+		}
+
+		private DataBlock< T > decodeBlock( final byte[] bytes, final long[] gridPosition ) throws IOException
+		{
+			return Cast.unchecked( DefaultBlockReader.readBlock( new ByteArrayInputStream( bytes ), attributes, gridPosition ) );
+		}
+
+		/**
+		 * Wrap the data of {@code dataBlock} (or a copy, if its size doesn't
+		 * match {@code cellDimensions}) into a volatile access. Blocks that
+		 * are not stored ({@code dataBlock == null}) share one zero-filled
+		 * array.
+		 */
+		private A createArray( final DataBlock< T > dataBlock, final int[] cellDimensions )
+		{
+			if ( dataBlock == null )
+			{
+				return createVolatileArrayAccess.apply( emptyPrimitiveArray.apply( ( int ) Intervals.numElements( cellDimensions ) ) );
+			}
+			else if ( Arrays.equals( dataBlock.getSize(), cellDimensions ) )
 			{
 				return createVolatileArrayAccess.apply( dataBlock.getData() );
 			}
 			else
 			{
 				final T data = createPrimitiveArray.apply( ( int ) Intervals.numElements( cellDimensions ) );
-				if ( dataBlock != null )
-				{
-					final T src = dataBlock.getData();
-					final int[] srcDims = dataBlock.getSize();
-					final int[] pos = new int[ srcDims.length ];
-					final int[] size = new int[ srcDims.length ];
-					Arrays.setAll( size, d -> Math.min( srcDims[ d ], cellDimensions[ d ] ) );
-					subArrayCopy.copy( src, srcDims, pos, data, cellDimensions, pos, size );
-				}
+				final T src = dataBlock.getData();
+				final int[] srcDims = dataBlock.getSize();
+				final int[] pos = new int[ srcDims.length ];
+				final int[] size = new int[ srcDims.length ];
+				Arrays.setAll( size, d -> Math.min( srcDims[ d ], cellDimensions[ d ] ) );
+				subArrayCopy.copy( src, srcDims, pos, data, cellDimensions, pos, size );
 				return createVolatileArrayAccess.apply( data );
 			}
 		}
@@ -544,12 +797,12 @@ public class N5ImageLoader implements ViewerImgLoader, MultiResolutionImgLoader
 		final DatasetAttributes attributes;
 		try
 		{
-			attributes = n5.getDatasetAttributes( pathName );
+			attributes = BdvN5Format.getDatasetAttributes( n5, pathName );
 		}
 		catch ( final N5Exception e )
 		{
 			throw new IOException( e );
 		}
-		return new N5CacheArrayLoader<>( n5, pathName, attributes, DataTypeProperties.of( attributes.getDataType() ) );
+		return new N5CacheArrayLoader<>( n5, pathName, attributes, N5ShardReader.create( n5, pathName, attributes ), null, DataTypeProperties.of( attributes.getDataType() ) );
 	}
 }
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.n5;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.RawCompression;
+
+/**
+ * Memory-maps uncompressed ({@link RawCompression}) blocks of a dataset on the
+ * local file system, so that they can be accessed without copying (see
+ * {@link MappedVolatileAccess}).
+ * <p>
+ * Blocks are mapped from individual block files, or from the shard files of
+ * a sharded dataset (see {@link N5ShardReader#mapBlock(long[])}).
+ */
+class N5MappedBlockReader
+{
+	private static final int MODE_DEFAULT = 0;
+
+	private final Path datasetRoot;
+
+	private final N5ShardReader shardReader;
+
+	private final int bytesPerElement;
+
+	/**
+	 * @param shardReader
+	 *            reads blocks if the dataset is sharded, {@code null}
+	 *            otherwise.
+	 *
+	 * @return a reader for dataset {@code pathName}, or {@code null} if the
+	 *         dataset is compressed or not on the local file system.
+	 */
+	static N5MappedBlockReader create( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final N5ShardReader shardReader )
+	{
+		if ( !( attributes.getCompression() instanceof RawCompression ) )
+			return null;
+		if ( !( n5 instanceof GsonKeyValueN5Reader ) )
+			return null;
+		if ( shardReader != null && !shardReader.isLocal() )
+			return null;
+		final URI uri = n5.getURI();
+		if ( uri.getScheme() != null && !"file".equals( uri.getScheme() ) )
+			return null;
+		final int bytesPerElement = bytesPerElement( attributes );
+		if ( bytesPerElement <= 0 )
+			return null;
+		final Path root = uri.getScheme() == null ? Paths.get( uri.getPath() ) : Paths.get( uri );
+		return new N5MappedBlockReader( root.resolve( relative( pathName ) ), shardReader, bytesPerElement );
+	}
+
+	private N5MappedBlockReader( final Path datasetRoot, final N5ShardReader shardReader, final int bytesPerElement )
+	{
+		this.datasetRoot = datasetRoot;
+		this.shardReader = shardReader;
+		this.bytesPerElement = bytesPerElement;
+	}
+
+	/**
+	 * Map the data of the block at {@code gridPosition}. This only succeeds
+	 * if the data of the cell is contiguous in the block, that is, the block
+	 * size matches {@code cellDimensions}, except that the block may be larger
+	 * in the last dimension.
+	 *
+	 * @return a buffer containing (exactly) the big-endian data of the cell,
+	 *         or {@code null} if the block is not stored or cannot be mapped.
+	 *         In that case, the block should be read normally.
+	 */
+	ByteBuffer mapBlock( final long[] gridPosition, final int[] cellDimensions ) throws IOException
+	{
+		final ByteBuffer block = shardReader != null
+				? shardReader.mapBlock( gridPosition )
+				: mapFile( gridPosition );
+		if ( block == null )
+			return null;
+
+		final int n = cellDimensions.length;
+		block.order( ByteOrder.BIG_ENDIAN );
+		if ( block.remaining() < 4 + 4 * n )
+			return null;
+		final int mode = block.getShort() & 0xffff;
+		final int numDimensions = block.getShort() & 0xffff;
+		if ( mode != MODE_DEFAULT || numDimensions != n )
+			return null;
+		long numElements = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			final int size = block.getInt();
+			if ( d < n - 1 ? size != cellDimensions[ d ] : size < cellDimensions[ d ] )
+				return null;
+			numElements *= cellDimensions[ d ];
+		}
+
+		final long numBytes = numElements * bytesPerElement;
+		if ( numBytes > block.remaining() )
+			return null;
+		block.limit( block.position() + ( int ) numBytes );
+		return block.slice();
+	}
+
+	private ByteBuffer mapFile( final long[] gridPosition ) throws IOException
+	{
+		Path path = datasetRoot;
+		for ( final long p : gridPosition )
+			path = path.resolve( Long.toString( p ) );
+		try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) )
+		{
+			final long size = channel.size();
+			if ( size > Integer.MAX_VALUE )
+				return null;
+			return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+		}
+		catch ( final NoSuchFileException e )
+		{
+			return null;
+		}
+	}
+
+	private static String relative( final String pathName )
+	{
+		int i = 0;
+		while ( i < pathName.length() && pathName.charAt( i ) == '/' )
+			++i;
+		return pathName.substring( i );
+	}
+
+	private static int bytesPerElement( final DatasetAttributes attributes )
+	{
+		switch ( attributes.getDataType() )
+		{
+		case INT8:
+		case UINT8:
+			return 1;
+		case INT16:
+		case UINT16:
+			return 2;
+		case INT32:
+		case UINT32:
+		case FLOAT32:
+			return 4;
+		case INT64:
+		case UINT64:
+		case FLOAT64:
+			return 8;
+		default:
+			return 0;
+		}
+	}
+}
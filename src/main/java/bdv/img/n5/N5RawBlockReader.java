@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.n5;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.LockedChannel;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.N5URI;
+
+/**
+ * Reads the stored blocks of a dataset as bytes, in the usual N5 block
+ * serialization (header and compressed data), without decoding them. Blocks
+ * are read from individual block files, or from the shard files of a sharded
+ * dataset.
+ * <p>
+ * This is used to copy blocks into another dataset with the same attributes.
+ */
+public class N5RawBlockReader
+{
+	private final N5Reader n5;
+
+	private final String pathName;
+
+	private final DatasetAttributes attributes;
+
+	private final N5ShardReader shardReader;
+
+	/**
+	 * @return a reader for dataset {@code pathName}, or {@code null} if the
+	 *         dataset does not exist or its blocks cannot be read separately.
+	 */
+	public static N5RawBlockReader create( final N5Reader n5, final String pathName )
+	{
+		try
+		{
+			final DatasetAttributes attributes = BdvN5Format.getDatasetAttributes( n5, pathName );
+			if ( attributes == null )
+				return null;
+			return create( n5, pathName, attributes, N5ShardReader.create( n5, pathName, attributes ) );
+		}
+		catch ( final N5Exception | IOException e )
+		{
+			return null;
+		}
+	}
+
+	static N5RawBlockReader create( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final N5ShardReader shardReader )
+	{
+		if ( shardReader == null && !( n5 instanceof GsonKeyValueN5Reader ) )
+			return null;
+		return new N5RawBlockReader( n5, pathName, attributes, shardReader );
+	}
+
+	private N5RawBlockReader( final N5Reader n5, final String pathName, final DatasetAttributes attributes, final N5ShardReader shardReader )
+	{
+		this.n5 = n5;
+		this.pathName = pathName;
+		this.attributes = attributes;
+		this.shardReader = shardReader;
+	}
+
+	public DatasetAttributes getAttributes()
+	{
+		return attributes;
+	}
+
+	/**
+	 * Read the serialized block at {@code gridPosition}.
+	 *
+	 * @return the serialized block, or {@code null} if it is not stored.
+	 */
+	public byte[] readBlockBytes( final long[] gridPosition ) throws IOException
+	{
+		if ( shardReader != null )
+			return shardReader.readBlockBytes( gridPosition );
+
+		final GsonKeyValueN5Reader kvn5 = ( GsonKeyValueN5Reader ) n5;
+		final String path = kvn5.absoluteDataBlockPath( N5URI.normalizeGroupPath( pathName ), gridPosition );
+		try ( LockedChannel channel = kvn5.getKeyValueAccess().lockForReading( path );
+				InputStream in = channel.newInputStream() )
+		{
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[ 64 * 1024 ];
+			for ( int l = in.read( buf ); l >= 0; l = in.read( buf ) )
+				out.write( buf, 0, l );
+			return out.toByteArray();
+		}
+		catch ( final N5Exception.N5NoSuchKeyException e )
+		{
+			return null;
+		}
+		catch ( final N5Exception e )
+		{
+			throw new IOException( e );
+		}
+	}
+}
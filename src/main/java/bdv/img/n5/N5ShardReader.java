@@ -0,0 +1,526 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.n5;
+
+import static bdv.img.n5.BdvN5Format.SHARD_INDEX_ENTRY_SIZE;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.DefaultBlockReader;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Reader;
+
+/**
+ * Reads blocks of a sharded dataset (see {@link BdvN5Format#getShardPath}).
+ * <p>
+ * The index of each shard is read once and cached. Requests for blocks of
+ * the same shard that arrive while a read of that shard is in progress are
+ * collected, and read together afterwards. Blocks that are (nearly) adjacent
+ * in the shard file are then coalesced into one ranged read.
+ * <p>
+ * Sharded datasets can only be read from the local file system. (The N5
+ * key-value backends offer no ranged reads, so reading one block of a shard
+ * from, e.g., S3 or HTTP would transfer the shard up to that block.)
+ */
+class N5ShardReader
+{
+	/**
+	 * Maximum number of cached shard indices (per dataset).
+	 */
+	private static final int MAX_CACHED_SHARDS = 1024;
+
+	/**
+	 * Blocks that are separated by at most this many bytes are read with one
+	 * ranged read.
+	 */
+	private static final int MAX_COALESCE_GAP = 64 * 1024;
+
+	/**
+	 * Maximum size of a coalesced read.
+	 */
+	private static final int MAX_COALESCED_READ = 16 * 1024 * 1024;
+
+	/**
+	 * Ranged reads from the shard files of a dataset.
+	 */
+	interface Storage
+	{
+		/**
+		 * @return whether the shard exists
+		 */
+		boolean exists( String shardPath ) throws IOException;
+
+		/**
+		 * Read the given (sorted, non-overlapping) ranges from a shard.
+		 */
+		void read( String shardPath, List< Range > ranges ) throws IOException;
+	}
+
+	/**
+	 * A range of bytes in a shard, which is read for one or more
+	 * {@link Request requests}.
+	 */
+	static class Range
+	{
+		final long offset;
+
+		int length;
+
+		final List< Request > requests = new ArrayList<>();
+
+		byte[] data;
+
+		Range( final Request request )
+		{
+			offset = request.offset;
+			length = request.length;
+			requests.add( request );
+		}
+
+		long end()
+		{
+			return offset + length;
+		}
+	}
+
+	private static class Request
+	{
+		final long offset;
+
+		final int length;
+
+		byte[] data;
+
+		IOException error;
+
+		boolean done;
+
+		Request( final long offset, final int length )
+		{
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	private static class Shard
+	{
+		final String path;
+
+		/**
+		 * Offset and length of each block, or {@code null} if the shard
+		 * doesn't exist. Read lazily.
+		 */
+		long[] index;
+
+		boolean indexLoaded;
+
+		final List< Request > pending = new ArrayList<>();
+
+		boolean reading;
+
+		/**
+		 * Read-only mapping of the shard file, if blocks are
+		 * {@link #mapBlock mapped}. Created lazily.
+		 */
+		ByteBuffer mapping;
+
+		Shard( final String path )
+		{
+			this.path = path;
+		}
+	}
+
+	private final String pathName;
+
+	private final DatasetAttributes attributes;
+
+	private final int[] blocksPerShard;
+
+	private final int numBlocksPerShard;
+
+	private final Storage storage;
+
+	private final Map< String, Shard > shards = new LinkedHashMap< String, Shard >( 16, 0.75f, true )
+	{
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< String, Shard > eldest )
+		{
+			return size() > MAX_CACHED_SHARDS;
+		}
+	};
+
+	/**
+	 * @return a reader for dataset {@code pathName}, or {@code null} if the
+	 *         dataset is not sharded.
+	 */
+	static N5ShardReader create( final N5Reader n5, final String pathName, final DatasetAttributes attributes ) throws IOException
+	{
+		final int[] blocksPerShard;
+		try
+		{
+			blocksPerShard = n5.getAttribute( pathName, BdvN5Format.BLOCKS_PER_SHARD_KEY, int[].class );
+		}
+		catch ( final N5Exception e )
+		{
+			return null;
+		}
+		if ( blocksPerShard == null )
+			return null;
+		if ( !( n5 instanceof GsonKeyValueN5Reader ) )
+			throw new IOException( "sharded datasets require a key-value N5 reader" );
+		return create( ( GsonKeyValueN5Reader ) n5, pathName, attributes, blocksPerShard, UnaryOperator.identity() );
+	}
+
+	/**
+	 * Create a reader for sharded dataset {@code pathName}, that reads
+	 * through the storage returned by {@code wrapStorage}. (For testing.)
+	 */
+	static N5ShardReader create( final GsonKeyValueN5Reader n5, final String pathName, final DatasetAttributes attributes, final int[] blocksPerShard, final UnaryOperator< Storage > wrapStorage ) throws IOException
+	{
+		final URI uri = n5.getURI();
+		if ( uri.getScheme() != null && !"file".equals( uri.getScheme() ) )
+			throw new IOException( "sharded datasets can only be read from the local file system: " + uri );
+		final Path root = uri.getScheme() == null ? Paths.get( uri.getPath() ) : Paths.get( uri );
+		return new N5ShardReader( pathName, attributes, blocksPerShard, wrapStorage.apply( new FileStorage( root ) ) );
+	}
+
+	private N5ShardReader( final String pathName, final DatasetAttributes attributes, final int[] blocksPerShard, final Storage storage )
+	{
+		this.pathName = pathName;
+		this.attributes = attributes;
+		this.blocksPerShard = blocksPerShard;
+		int n = 1;
+		for ( final int b : blocksPerShard )
+			n *= b;
+		numBlocksPerShard = n;
+		this.storage = storage;
+	}
+
+	/**
+	 * Read the block at {@code gridPosition}.
+	 *
+	 * @return the block, or {@code null} if it is not stored.
+	 */
+	DataBlock< ? > readBlock( final long[] gridPosition ) throws IOException
+	{
+		final byte[] data = readBlockBytes( gridPosition );
+		if ( data == null )
+			return null;
+		return DefaultBlockReader.readBlock( new ByteArrayInputStream( data ), attributes, gridPosition );
+	}
+
+	/**
+	 * Read the serialized block at {@code gridPosition}, without decoding it.
+	 *
+	 * @return the serialized block (including the N5 block header), or
+	 *         {@code null} if it is not stored.
+	 */
+	byte[] readBlockBytes( final long[] gridPosition ) throws IOException
+	{
+		final BlockLocation location = locate( gridPosition );
+		if ( location == null )
+			return null;
+		return read( location.shard, new Request( location.offset, location.length ) );
+	}
+
+	/**
+	 * Map the serialized block at {@code gridPosition} into memory, if the
+	 * shards are on the local file system. The shard file is mapped once (as
+	 * long as it remains in the shard cache), and the returned buffer is a
+	 * slice of that mapping.
+	 *
+	 * @return the serialized block (including the N5 block header), or
+	 *         {@code null} if it is not stored or cannot be mapped.
+	 */
+	ByteBuffer mapBlock( final long[] gridPosition ) throws IOException
+	{
+		if ( !( storage instanceof FileStorage ) )
+			return null;
+		final BlockLocation location = locate( gridPosition );
+		if ( location == null )
+			return null;
+		final Shard shard = location.shard;
+		final ByteBuffer mapping;
+		synchronized ( shard )
+		{
+			if ( shard.mapping == null )
+				shard.mapping = ( ( FileStorage ) storage ).map( shard.path );
+			mapping = shard.mapping;
+		}
+		if ( mapping == null || location.offset + location.length > mapping.capacity() )
+			return null;
+		final ByteBuffer block = mapping.duplicate();
+		block.limit( ( int ) location.offset + location.length );
+		block.position( ( int ) location.offset );
+		return block.slice();
+	}
+
+	boolean isLocal()
+	{
+		return storage instanceof FileStorage;
+	}
+
+	private static class BlockLocation
+	{
+		final Shard shard;
+
+		final long offset;
+
+		final int length;
+
+		BlockLocation( final Shard shard, final long offset, final int length )
+		{
+			this.shard = shard;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/**
+	 * @return the shard and byte range of the block at {@code gridPosition},
+	 *         or {@code null} if it is not stored.
+	 */
+	private BlockLocation locate( final long[] gridPosition ) throws IOException
+	{
+		final int n = gridPosition.length;
+		final long[] shardPosition = new long[ n ];
+		int blockInShard = 0;
+		for ( int d = n - 1; d >= 0; --d )
+		{
+			shardPosition[ d ] = gridPosition[ d ] / blocksPerShard[ d ];
+			blockInShard = blockInShard * blocksPerShard[ d ] + ( int ) ( gridPosition[ d ] % blocksPerShard[ d ] );
+		}
+
+		final Shard shard = getShard( BdvN5Format.getShardPath( pathName, shardPosition ) );
+		final long[] index = getIndex( shard );
+		if ( index == null )
+			return null;
+		final long offset = index[ 2 * blockInShard ];
+		final long length = index[ 2 * blockInShard + 1 ];
+		if ( offset < 0 || length <= 0 )
+			return null;
+		return new BlockLocation( shard, offset, ( int ) length );
+	}
+
+	private Shard getShard( final String path )
+	{
+		synchronized ( shards )
+		{
+			return shards.computeIfAbsent( path, Shard::new );
+		}
+	}
+
+	private long[] getIndex( final Shard shard ) throws IOException
+	{
+		synchronized ( shard )
+		{
+			if ( !shard.indexLoaded )
+			{
+				if ( storage.exists( shard.path ) )
+				{
+					final Range range = new Range( new Request( 0, numBlocksPerShard * SHARD_INDEX_ENTRY_SIZE ) );
+					final List< Range > ranges = new ArrayList<>();
+					ranges.add( range );
+					storage.read( shard.path, ranges );
+					final long[] index = new long[ 2 * numBlocksPerShard ];
+					ByteBuffer.wrap( range.data ).asLongBuffer().get( index );
+					shard.index = index;
+				}
+				shard.indexLoaded = true;
+			}
+			return shard.index;
+		}
+	}
+
+	/**
+	 * Read a block from {@code shard}. If another thread is reading from the
+	 * shard, the request is queued and read together with other queued
+	 * requests when that read is done.
+	 */
+	private byte[] read( final Shard shard, final Request request ) throws IOException
+	{
+		final List< Request > batch;
+		synchronized ( shard )
+		{
+			shard.pending.add( request );
+			try
+			{
+				while ( !request.done && shard.reading )
+					shard.wait();
+			}
+			catch ( final InterruptedException e )
+			{
+				shard.pending.remove( request );
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+			if ( request.done )
+				return result( request );
+			shard.reading = true;
+			batch = new ArrayList<>( shard.pending );
+			shard.pending.clear();
+		}
+
+		IOException error = null;
+		try
+		{
+			final List< Range > ranges = coalesce( batch );
+			storage.read( shard.path, ranges );
+			for ( final Range range : ranges )
+				for ( final Request r : range.requests )
+					r.data = slice( range, r );
+		}
+		catch ( final IOException e )
+		{
+			error = e;
+		}
+		finally
+		{
+			synchronized ( shard )
+			{
+				for ( final Request r : batch )
+				{
+					if ( r.data == null )
+						r.error = error != null ? error : new IOException( "failed to read " + shard.path );
+					r.done = true;
+				}
+				shard.reading = false;
+				shard.notifyAll();
+			}
+		}
+		return result( request );
+	}
+
+	private static byte[] result( final Request request ) throws IOException
+	{
+		if ( request.error != null )
+			throw new IOException( request.error );
+		return request.data;
+	}
+
+	private static List< Range > coalesce( final List< Request > requests )
+	{
+		requests.sort( Comparator.comparingLong( r -> r.offset ) );
+		final List< Range > ranges = new ArrayList<>();
+		Range current = null;
+		for ( final Request request : requests )
+		{
+			final long end = request.offset + request.length;
+			if ( current != null
+					&& request.offset <= current.end() + MAX_COALESCE_GAP
+					&& end - current.offset <= MAX_COALESCED_READ )
+			{
+				current.length = ( int ) ( Math.max( current.end(), end ) - current.offset );
+				current.requests.add( request );
+			}
+			else
+			{
+				current = new Range( request );
+				ranges.add( current );
+			}
+		}
+		return ranges;
+	}
+
+	private static byte[] slice( final Range range, final Request request )
+	{
+		final byte[] data = new byte[ request.length ];
+		System.arraycopy( range.data, ( int ) ( request.offset - range.offset ), data, 0, request.length );
+		return data;
+	}
+
+	/**
+	 * Shards on the local file system, read with positional reads.
+	 */
+	private static class FileStorage implements Storage
+	{
+		private final Path root;
+
+		FileStorage( final Path root )
+		{
+			this.root = root;
+		}
+
+		@Override
+		public boolean exists( final String shardPath )
+		{
+			return Files.isRegularFile( root.resolve( shardPath ) );
+		}
+
+		@Override
+		public void read( final String shardPath, final List< Range > ranges ) throws IOException
+		{
+			try ( FileChannel channel = FileChannel.open( root.resolve( shardPath ), StandardOpenOption.READ ) )
+			{
+				for ( final Range range : ranges )
+				{
+					final ByteBuffer buffer = ByteBuffer.allocate( range.length );
+					while ( buffer.hasRemaining() )
+						if ( channel.read( buffer, range.offset + buffer.position() ) < 0 )
+							throw new EOFException( shardPath );
+					range.data = buffer.array();
+				}
+			}
+		}
+
+		/**
+		 * @return a read-only mapping of the whole shard, or {@code null} if
+		 *         it is too large to be mapped into one buffer.
+		 */
+		ByteBuffer map( final String shardPath ) throws IOException
+		{
+			try ( FileChannel channel = FileChannel.open( root.resolve( shardPath ), StandardOpenOption.READ ) )
+			{
+				final long size = channel.size();
+				if ( size > Integer.MAX_VALUE )
+					return null;
+				return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+			}
+		}
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.remote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Encodings of cell data transferred from a BigDataViewer server.
+ * <p>
+ * A server that supports encodings other than {@link #RAW} lists their
+ * {@link #getName() names} in {@link RemoteImageLoaderMetaData} (see
+ * {@link RemoteImageLoaderMetaData#setCellEncodings(String...)}). The client
+ * picks one (see {@link #negotiate(String[])}), and appends {@code &e=<name>}
+ * to cell requests. In an encoded response, every cell is preceded by its
+ * encoded length in bytes (big-endian int32), so that the cells of a batch
+ * request can be separated before decoding.
+ */
+public enum CellEncoding
+{
+	/**
+	 * Big-endian uint16, uncompressed. Cells are not preceded by their length.
+	 */
+	RAW( "raw" ),
+
+	/**
+	 * Big-endian uint16, compressed with deflate.
+	 */
+	DEFLATE( "deflate" ),
+
+	/**
+	 * Differences of consecutive values (x fastest, wrapping around), as
+	 * big-endian uint16, compressed with deflate. This compresses smooth
+	 * images much better than {@link #DEFLATE}.
+	 */
+	DELTA_DEFLATE( "delta-deflate" ),
+
+	/**
+	 * Big-endian uint16, compressed with LZ4 (block format, as produced by
+	 * lz4-java's {@code LZ4Compressor}). Compresses less than
+	 * {@link #DEFLATE}, but decompresses much faster.
+	 */
+	LZ4( "lz4" ),
+
+	/**
+	 * Differences of consecutive values (see {@link #DELTA_DEFLATE}),
+	 * compressed with LZ4.
+	 */
+	DELTA_LZ4( "delta-lz4" );
+
+	/**
+	 * Encodings that the client uses if the server supports them, in order
+	 * of preference. Deflate is preferred because transfer size matters more
+	 * than decompression time on slow links.
+	 */
+	private static final CellEncoding[] PREFERRED = { DELTA_DEFLATE, DEFLATE, DELTA_LZ4, LZ4 };
+
+	private final String name;
+
+	CellEncoding( final String name )
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the encoding with the given {@code name}, or {@code null} if
+	 *         there is none.
+	 */
+	public static CellEncoding forName( final String name )
+	{
+		for ( final CellEncoding encoding : values() )
+			if ( encoding.name.equals( name ) )
+				return encoding;
+		return null;
+	}
+
+	/**
+	 * Pick the preferred encoding among the ones {@code offered} by a server.
+	 *
+	 * @param offered
+	 *            names of encodings supported by the server, may be
+	 *            {@code null} (old servers)
+	 * @return the encoding to use, {@link #RAW} if the server doesn't offer
+	 *         any other supported encoding.
+	 */
+	public static CellEncoding negotiate( final String[] offered )
+	{
+		if ( offered != null )
+			for ( final CellEncoding encoding : PREFERRED )
+				if ( Arrays.asList( offered ).contains( encoding.name ) )
+					return encoding;
+		return RAW;
+	}
+
+	/**
+	 * Encode cell {@code data} (not including the length prefix).
+	 */
+	public byte[] encode( final short[] data )
+	{
+		final ByteBuffer buf = ByteBuffer.allocate( 2 * data.length );
+		if ( isDelta() )
+		{
+			short previous = 0;
+			for ( final short value : data )
+			{
+				buf.putShort( ( short ) ( value - previous ) );
+				previous = value;
+			}
+		}
+		else
+			buf.asShortBuffer().put( data );
+
+		if ( this == RAW )
+			return buf.array();
+
+		if ( isLz4() )
+			return LZ4Factory.fastestInstance().fastCompressor().compress( buf.array() );
+
+		final Deflater deflater = new Deflater( Deflater.BEST_SPEED );
+		try
+		{
+			deflater.setInput( buf.array() );
+			deflater.finish();
+			final ByteArrayOutputStream out = new ByteArrayOutputStream( data.length );
+			final byte[] chunk = new byte[ 64 * 1024 ];
+			while ( !deflater.finished() )
+				out.write( chunk, 0, deflater.deflate( chunk ) );
+			return out.toByteArray();
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decode {@code numElements} values from {@code encoded} (not including
+	 * the length prefix).
+	 */
+	public short[] decode( final byte[] encoded, final int numElements ) throws IOException
+	{
+		final byte[] bytes;
+		if ( this == RAW )
+			bytes = encoded;
+		else if ( isLz4() )
+		{
+			try
+			{
+				bytes = LZ4Factory.fastestInstance().safeDecompressor().decompress( encoded, 2 * numElements );
+			}
+			catch ( final LZ4Exception e )
+			{
+				throw new IOException( "corrupt " + name + " cell data", e );
+			}
+		}
+		else
+		{
+			bytes = new byte[ 2 * numElements ];
+			final Inflater inflater = new Inflater();
+			try
+			{
+				inflater.setInput( encoded );
+				int n = 0;
+				while ( n < bytes.length )
+				{
+					final int r = inflater.inflate( bytes, n, bytes.length - n );
+					if ( r == 0 && ( inflater.finished() || inflater.needsInput() || inflater.needsDictionary() ) )
+						throw new IOException( "truncated " + name + " cell data" );
+					n += r;
+				}
+			}
+			catch ( final DataFormatException e )
+			{
+				throw new IOException( e );
+			}
+			finally
+			{
+				inflater.end();
+			}
+		}
+		if ( bytes.length < 2 * numElements )
+			throw new IOException( "truncated " + name + " cell data" );
+
+		final short[] data = new short[ numElements ];
+		ByteBuffer.wrap( bytes, 0, 2 * numElements ).asShortBuffer().get( data );
+		if ( isDelta() )
+			for ( int i = 1; i < numElements; ++i )
+				data[ i ] += data[ i - 1 ];
+		return data;
+	}
+
+	private boolean isDelta()
+	{
+		return this == DELTA_DEFLATE || this == DELTA_LZ4;
+	}
+
+	private boolean isLz4()
+	{
+		return this == LZ4 || this == DELTA_LZ4;
+	}
+}
@@ -0,0 +1,527 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.remote;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bdv.cache.SharedQueue;
+
+/**
+ * Loads cells from a BigDataViewer server, gathering concurrent requests into
+ * batches.
+ * <p>
+ * A fetcher thread that requests a cell becomes the leader of a new batch if
+ * fewer than {@code maxConcurrentBatches} batches are in flight. It takes all
+ * pending requests (up to {@code maxBatchSize}) and loads them with one HTTP
+ * request
+ * <pre>
+ * ?p=cells/&lt;n&gt;/&lt;cell 1&gt;/.../&lt;cell n&gt;
+ * </pre>
+ * where each cell is given by {@code index/timepoint/setup/level/dx/dy/dz/minx/miny/minz}
+ * (as in the single cell request {@code ?p=cell/...}). The response is the
+ * concatenated big-endian data of the requested cells. Other fetcher threads
+ * wait until their request has been loaded by a leader.
+ * <p>
+ * If the server does not support batch requests (it responds with
+ * {@code 400 Bad Request} or {@code 404 Not Found}, or the response has the
+ * wrong length), batching is disabled, and cells are requested individually
+ * with {@code ?p=cell/...}. If a batch request fails otherwise (for example
+ * with {@code 503 Service Unavailable}, or an IO error), only the cells of
+ * that batch are requested individually, and batching stays enabled.
+ * <p>
+ * If a {@link CellEncoding} other than {@link CellEncoding#RAW} is set, it is
+ * requested with {@code &e=<name>}. The leader only reads the encoded cells,
+ * and every fetcher thread decodes its own cell.
+ * <p>
+ * Connections are opened with {@link HttpURLConnection}, and responses are
+ * always read completely and closed, so that the JDK can keep connections
+ * alive and reuse them.
+ */
+class RemoteCellBatcher
+{
+	static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+	static final int DEFAULT_MAX_CONCURRENT_BATCHES = 2;
+
+	/**
+	 * Maximum number of concurrent single cell requests, if the server does
+	 * not support batches.
+	 */
+	static final int MAX_CONCURRENT_SINGLE_REQUESTS = 10;
+
+	/**
+	 * Upper bound for the length of an encoded cell, to detect garbled
+	 * responses.
+	 */
+	private static final int MAX_ENCODED_CELL_SIZE = 1 << 30;
+
+	static class Request
+	{
+		final int index;
+
+		final int timepoint;
+
+		final int setup;
+
+		final int level;
+
+		final int[] dimensions;
+
+		final long[] min;
+
+		short[] data;
+
+		/**
+		 * Encoded data (if the cell was requested with an encoding other
+		 * than {@link CellEncoding#RAW}), to be decoded by the requesting
+		 * thread.
+		 */
+		byte[] encoded;
+
+		IOException error;
+
+		boolean taken;
+
+		boolean done;
+
+		Request( final int index, final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min )
+		{
+			this.index = index;
+			this.timepoint = timepoint;
+			this.setup = setup;
+			this.level = level;
+			this.dimensions = dimensions;
+			this.min = min;
+		}
+
+		boolean isLoaded()
+		{
+			return data != null || encoded != null;
+		}
+
+		int numElements()
+		{
+			return dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ];
+		}
+
+		void appendPath( final StringBuilder sb )
+		{
+			sb.append( index ).append( '/' )
+					.append( timepoint ).append( '/' )
+					.append( setup ).append( '/' )
+					.append( level ).append( '/' )
+					.append( dimensions[ 0 ] ).append( '/' )
+					.append( dimensions[ 1 ] ).append( '/' )
+					.append( dimensions[ 2 ] ).append( '/' )
+					.append( min[ 0 ] ).append( '/' )
+					.append( min[ 1 ] ).append( '/' )
+					.append( min[ 2 ] );
+		}
+	}
+
+	/**
+	 * Thrown if the server does not understand batch requests.
+	 */
+	private static class BatchNotSupportedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		BatchNotSupportedException( final String message )
+		{
+			super( message );
+		}
+	}
+
+	private final String baseUrl;
+
+	private final int maxBatchSize;
+
+	private final int maxConcurrentBatches;
+
+	private volatile boolean batching = true;
+
+	private volatile CellEncoding encoding = CellEncoding.RAW;
+
+	private final LinkedList< Request > pending = new LinkedList<>();
+
+	private int inFlight;
+
+	private final Semaphore singleRequests = new Semaphore( MAX_CONCURRENT_SINGLE_REQUESTS );
+
+	private final AtomicLong numHttpRequests = new AtomicLong();
+
+	RemoteCellBatcher( final String baseUrl )
+	{
+		this( baseUrl, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_CONCURRENT_BATCHES );
+	}
+
+	RemoteCellBatcher( final String baseUrl, final int maxBatchSize, final int maxConcurrentBatches )
+	{
+		this.baseUrl = baseUrl;
+		this.maxBatchSize = maxBatchSize;
+		this.maxConcurrentBatches = maxConcurrentBatches;
+	}
+
+	/**
+	 * Whether cells are (still) requested in batches.
+	 */
+	boolean isBatching()
+	{
+		return batching;
+	}
+
+	/**
+	 * Disable batch requests, e.g., for servers that are known not to support
+	 * them.
+	 */
+	void setBatching( final boolean batching )
+	{
+		this.batching = batching;
+	}
+
+	/**
+	 * Set the encoding in which cells are requested. The server must support
+	 * it (see {@link CellEncoding#negotiate(String[])}).
+	 */
+	void setEncoding( final CellEncoding encoding )
+	{
+		this.encoding = encoding;
+	}
+
+	CellEncoding getEncoding()
+	{
+		return encoding;
+	}
+
+	/**
+	 * Number of HTTP requests sent so far.
+	 */
+	long getNumHttpRequests()
+	{
+		return numHttpRequests.get();
+	}
+
+	/**
+	 * Load the data of the specified cell.
+	 */
+	short[] load( final int index, final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws IOException, InterruptedException
+	{
+		checkCancelled();
+		final Request request = new Request( index, timepoint, setup, level, dimensions, min );
+		if ( !batching )
+		{
+			loadSingle( request );
+			return result( request );
+		}
+
+		final List< Request > batch = new ArrayList<>();
+		final boolean loadedByOther;
+		synchronized ( this )
+		{
+			pending.add( request );
+			try
+			{
+				while ( !request.done )
+				{
+					if ( !request.taken && inFlight < maxConcurrentBatches )
+					{
+						// become the leader of a new batch, starting with our own request
+						pending.remove( request );
+						take( request, batch );
+						final Iterator< Request > it = pending.iterator();
+						while ( it.hasNext() && batch.size() < maxBatchSize )
+						{
+							take( it.next(), batch );
+							it.remove();
+						}
+						++inFlight;
+						break;
+					}
+					if ( !request.taken )
+						checkCancelled();
+					wait();
+				}
+			}
+			catch ( final InterruptedException e )
+			{
+				if ( !request.taken )
+					pending.remove( request );
+				throw e;
+			}
+			loadedByOther = request.done;
+		}
+		if ( loadedByOther )
+			return result( request );
+
+		try
+		{
+			loadBatch( batch );
+		}
+		finally
+		{
+			synchronized ( this )
+			{
+				for ( final Request r : batch )
+				{
+					if ( !r.isLoaded() && r.error == null && r != request )
+					{
+						// loading was aborted (the leader was interrupted): another thread should take over
+						r.taken = false;
+						pending.addFirst( r );
+						continue;
+					}
+					if ( !r.isLoaded() && r.error == null )
+						r.error = new IOException( "failed to load cell " + r.index );
+					r.done = true;
+				}
+				--inFlight;
+				notifyAll();
+			}
+		}
+		return result( request );
+	}
+
+	/**
+	 * Abort if the load on this (fetcher) thread was cancelled because it
+	 * became stale (see {@link SharedQueue#isLoadCancelled()}).
+	 */
+	private static void checkCancelled() throws InterruptedException
+	{
+		if ( SharedQueue.isLoadCancelled() )
+			throw new InterruptedException( "load cancelled" );
+	}
+
+	private static void take( final Request request, final List< Request > batch )
+	{
+		request.taken = true;
+		batch.add( request );
+	}
+
+	/**
+	 * Get the data of a loaded {@code request}, decoding it if necessary.
+	 */
+	private short[] result( final Request request ) throws IOException
+	{
+		if ( request.error != null )
+			throw new IOException( request.error );
+		if ( request.data == null )
+		{
+			request.data = encoding.decode( request.encoded, request.numElements() );
+			request.encoded = null;
+		}
+		return request.data;
+	}
+
+	private void loadBatch( final List< Request > batch ) throws InterruptedException
+	{
+		if ( batching && batch.size() > 1 )
+		{
+			final StringBuilder sb = new StringBuilder( baseUrl ).append( "?p=cells/" ).append( batch.size() );
+			for ( final Request r : batch )
+				r.appendPath( sb.append( '/' ) );
+			appendEncoding( sb );
+			try
+			{
+				request( new URL( sb.toString() ), batch );
+				return;
+			}
+			catch ( final BatchNotSupportedException e )
+			{
+				batching = false;
+			}
+			catch ( final IOException e )
+			{
+				// fall through, and try to load cells individually
+			}
+		}
+
+		for ( final Request r : batch )
+		{
+			if ( r.isLoaded() )
+				continue;
+			// cells that are not loaded are handed to other threads
+			checkCancelled();
+			try
+			{
+				loadSingle( r );
+			}
+			catch ( final IOException e )
+			{
+				r.error = e;
+			}
+		}
+	}
+
+	private void loadSingle( final Request request ) throws IOException, InterruptedException
+	{
+		final StringBuilder sb = new StringBuilder( baseUrl ).append( "?p=cell/" );
+		request.appendPath( sb );
+		appendEncoding( sb );
+		singleRequests.acquire();
+		try
+		{
+			request( new URL( sb.toString() ), request );
+		}
+		finally
+		{
+			singleRequests.release();
+		}
+	}
+
+	private void appendEncoding( final StringBuilder sb )
+	{
+		if ( encoding != CellEncoding.RAW )
+			sb.append( "&e=" ).append( encoding.getName() );
+	}
+
+	private void request( final URL url, final Request request ) throws IOException
+	{
+		final List< Request > requests = new ArrayList<>( 1 );
+		requests.add( request );
+		request( url, requests );
+	}
+
+	/**
+	 * Request the concatenated data of {@code requests} from {@code url}, and
+	 * store it in the {@link Request#data} fields.
+	 */
+	private void request( final URL url, final List< Request > requests ) throws IOException
+	{
+		numHttpRequests.incrementAndGet();
+		final HttpURLConnection connection = ( HttpURLConnection ) url.openConnection();
+		final int code = connection.getResponseCode();
+		if ( code != HttpURLConnection.HTTP_OK )
+		{
+			drain( connection.getErrorStream() );
+			// other errors (e.g., 429 or 5xx) may be transient
+			final boolean unsupported = code == HttpURLConnection.HTTP_BAD_REQUEST || code == HttpURLConnection.HTTP_NOT_FOUND;
+			throw requests.size() > 1 && unsupported
+					? new BatchNotSupportedException( "HTTP " + code )
+					: new IOException( "HTTP " + code + " for " + url );
+		}
+
+		final boolean raw = encoding == CellEncoding.RAW;
+		final long expected = 2L * requests.stream().mapToLong( Request::numElements ).sum();
+		final long length = connection.getContentLengthLong();
+		if ( raw && length >= 0 && length != expected )
+		{
+			drain( connection.getInputStream() );
+			throw requests.size() > 1
+					? new BatchNotSupportedException( "unexpected response length" )
+					: new IOException( "unexpected response length for " + url );
+		}
+
+		try ( InputStream in = connection.getInputStream() )
+		{
+			byte[] buf = new byte[ 4 ];
+			for ( final Request r : requests )
+			{
+				if ( raw )
+				{
+					final int numBytes = 2 * r.numElements();
+					if ( buf.length < numBytes )
+						buf = new byte[ numBytes ];
+					readFully( in, buf, numBytes, requests.size() > 1 );
+					final short[] data = new short[ r.numElements() ];
+					ByteBuffer.wrap( buf, 0, numBytes ).asShortBuffer().get( data );
+					r.data = data;
+				}
+				else
+				{
+					readFully( in, buf, 4, requests.size() > 1 );
+					final int numBytes = ByteBuffer.wrap( buf ).getInt();
+					if ( numBytes < 0 || numBytes > MAX_ENCODED_CELL_SIZE )
+						throw new IOException( "invalid encoded cell length " + numBytes );
+					final byte[] encoded = new byte[ numBytes ];
+					readFully( in, encoded, numBytes, false );
+					r.encoded = encoded;
+				}
+			}
+			if ( in.read() >= 0 )
+			{
+				// more data than expected: the server didn't understand the request
+				for ( final Request r : requests )
+				{
+					r.data = null;
+					r.encoded = null;
+				}
+				drain( in );
+				if ( requests.size() > 1 )
+					throw new BatchNotSupportedException( "unexpected response length" );
+				throw new IOException( "unexpected response length for " + url );
+			}
+		}
+	}
+
+	private static void readFully( final InputStream in, final byte[] buf, final int length, final boolean isBatch ) throws IOException
+	{
+		int n = 0;
+		while ( n < length )
+		{
+			final int r = in.read( buf, n, length - n );
+			if ( r < 0 )
+			{
+				if ( isBatch && n == 0 )
+					throw new BatchNotSupportedException( "unexpected end of response" );
+				throw new EOFException();
+			}
+			n += r;
+		}
+	}
+
+	/**
+	 * Read and close {@code in}, so that the connection can be reused.
+	 */
+	private static void drain( final InputStream in )
+	{
+		if ( in == null )
+			return;
+		try ( InputStream s = in )
+		{
+			final byte[] buf = new byte[ 8192 ];
+			while ( s.read( buf ) >= 0 )
+				;
+		}
+		catch ( final IOException e )
+		{
+			// ignore
+		}
+	}
+}
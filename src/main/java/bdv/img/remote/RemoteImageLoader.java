@@ -58,6 +58,13 @@ import net.imglib2.view.Views;
 
 public class RemoteImageLoader implements ViewerImgLoader
 {
+	/**
+	 * Number of fetcher threads. Most of the time, fetcher threads wait for
+	 * a batch of cell requests to complete (see {@link RemoteCellBatcher}), so
+	 * this is larger than the number of concurrent HTTP requests.
+	 */
+	private static final int NUM_FETCHER_THREADS = 32;
+
 	protected String baseUrl;
 
 	protected RemoteImageLoaderMetaData metadata;
@@ -112,7 +119,8 @@ public class RemoteImageLoader implements ViewerImgLoader
 						new InputStreamReader( url.openStream() ),
 						RemoteImageLoaderMetaData.class );
 				shortLoader = new RemoteVolatileShortArrayLoader( this );
-				cache = new VolatileGlobalCellCache( metadata.maxNumLevels, 10 );
+				shortLoader.setCellEncoding( CellEncoding.negotiate( metadata.cellEncodings ) );
+				cache = new VolatileGlobalCellCache( metadata.maxNumLevels, NUM_FETCHER_THREADS );
 				cellsDimensions = metadata.createCellsDimensions();
 				for ( final int setupId : metadata.perSetupMipmapInfo.keySet() )
 					setupImgLoaders.put( setupId, new SetupImgLoader( setupId ) );
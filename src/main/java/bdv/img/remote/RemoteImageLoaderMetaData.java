@@ -73,6 +73,13 @@ public class RemoteImageLoaderMetaData
 	 */
 	protected final HashMap< ViewLevelId, DimsAndExistence > dimsAndExistence;
 
+	/**
+	 * Names of the {@link CellEncoding}s that the server supports (in
+	 * addition to {@link CellEncoding#RAW}). {@code null} for servers that
+	 * don't support encodings.
+	 */
+	protected String[] cellEncodings;
+
 	public RemoteImageLoaderMetaData( final Hdf5ImageLoader imgLoader, final AbstractSequenceDescription< ?, ?, ? > sequenceDescription )
 	{
 		perSetupMipmapInfo = new HashMap<>();
@@ -107,6 +114,25 @@ public class RemoteImageLoaderMetaData
 		}
 	}
 
+	/**
+	 * Advertise the {@link CellEncoding}s that the server supports (in
+	 * addition to {@link CellEncoding#RAW}). Servers should only call this if
+	 * they handle the {@code &e=<name>} parameter of cell requests.
+	 */
+	public void setCellEncodings( final String... cellEncodings )
+	{
+		this.cellEncodings = cellEncodings;
+	}
+
+	/**
+	 * @return names of the {@link CellEncoding}s that the server supports,
+	 *         or {@code null} if the server doesn't support encodings.
+	 */
+	public String[] getCellEncodings()
+	{
+		return cellEncodings;
+	}
+
 	/**
 	 * Create an map from {@link ViewLevelId} (timepoint, setup, level) to
 	 * int[]. Every entry is the dimensions in cells (instead of pixels) of one
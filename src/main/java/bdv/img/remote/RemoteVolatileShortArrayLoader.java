@@ -29,9 +29,6 @@
 package bdv.img.remote;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URL;
 
 import bdv.img.cache.CacheArrayLoader;
 import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
@@ -40,44 +37,47 @@ public class RemoteVolatileShortArrayLoader implements CacheArrayLoader< Volatil
 {
 	private final RemoteImageLoader imgLoader;
 
+	private final RemoteCellBatcher batcher;
+
 	public RemoteVolatileShortArrayLoader( final RemoteImageLoader imgLoader )
 	{
 		this.imgLoader = imgLoader;
+		this.batcher = new RemoteCellBatcher( imgLoader.baseUrl );
+	}
+
+	/**
+	 * Set whether concurrent cell requests should be gathered into batch
+	 * requests. This is enabled by default, and disabled automatically if the
+	 * server doesn't support batch requests.
+	 */
+	public void setBatchRequests( final boolean batchRequests )
+	{
+		batcher.setBatching( batchRequests );
+	}
+
+	/**
+	 * Set the encoding in which cells are requested. The server must support
+	 * it (see {@link CellEncoding#negotiate(String[])}). Cells are decoded by
+	 * the fetcher threads.
+	 */
+	public void setCellEncoding( final CellEncoding encoding )
+	{
+		batcher.setEncoding( encoding );
 	}
 
 	@Override
 	public VolatileShortArray loadArray( final int timepoint, final int setup, final int level, final int[] dimensions, final long[] min ) throws InterruptedException
 	{
 		final int index = imgLoader.getCellIndex( timepoint, setup, level, min );
-		final short[] data = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
+		short[] data;
 		try
 		{
-			final URL url = new URL( String.format( "%s?p=cell/%d/%d/%d/%d/%d/%d/%d/%d/%d/%d",
-					imgLoader.baseUrl,
-					index,
-					timepoint,
-					setup,
-					level,
-					dimensions[ 0 ],
-					dimensions[ 1 ],
-					dimensions[ 2 ],
-					min[ 0 ],
-					min[ 1 ],
-					min[ 2 ] ) );
-			final InputStream s = url.openStream();
-			final byte[] buf = new byte[ data.length * 2 ];
-			for ( int i = 0, l = s.read( buf, 0, buf.length ); l > 0; i += l, l = s.read( buf, i, buf.length - i ) );
-			for ( int i = 0, j = 0; i < data.length; ++i, j += 2 )
-				data[ i ] = ( short ) ( ( ( buf[ j ] & 0xff ) << 8 ) | ( buf[ j + 1 ] & 0xff ) );
-			s.close();
-		}
-		catch ( final MalformedURLException e )
-		{
-			e.printStackTrace();
+			data = batcher.load( index, timepoint, setup, level, dimensions, min );
 		}
 		catch ( final IOException e )
 		{
 			e.printStackTrace();
+			data = new short[ dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] ];
 		}
 		return new VolatileShortArray( data, true );
 	}
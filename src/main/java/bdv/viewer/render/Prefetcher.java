@@ -33,6 +33,7 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RealPoint;
 import net.imglib2.img.cell.CellImg;
 import net.imglib2.realtransform.AffineTransform3D;
+import bdv.cache.RequestContext;
 import bdv.viewer.Interpolation;
 
 public class Prefetcher
@@ -55,11 +56,27 @@ public class Prefetcher
 	 */
 	public static void fetchCells( final AffineTransform3D sourceToScreen, final int[] cellDimensions, final long[] dimensions, final Dimensions screenInterval,  final Interpolation interpolation, final RandomAccess< ? > cellsRandomAccess )
 	{
-		new Prefetcher().scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+		final RequestContext context = RequestContext.current();
+		try
+		{
+			new Prefetcher( context ).scan( sourceToScreen, cellDimensions, dimensions, screenInterval, interpolation, cellsRandomAccess );
+		}
+		finally
+		{
+			context.clearScreenDistance();
+		}
 	}
 
-	private Prefetcher()
-	{}
+	private Prefetcher( final RequestContext context )
+	{
+		this.context = context;
+	}
+
+	/**
+	 * Used to tell the cache how far requested cells are from the screen
+	 * center, so that cells in the center are loaded first.
+	 */
+	private final RequestContext context;
 
 	/**
 	 * The transformed vector in screen coordinate when moving by by one cell in
@@ -105,6 +122,9 @@ public class Prefetcher
 		final int[] maxCell = new int[ 3 ];
 		final int w = ( int ) screenInterval.dimension( 0 );
 		final int h = ( int ) screenInterval.dimension( 1 );
+		final double cx = 0.5 * w;
+		final double cy = 0.5 * h;
+		final double maxDistance = Math.max( 1, Math.sqrt( cx * cx + cy * cy ) );
 
 		for ( int d = 0; d < 3; ++d )
 			maxCell[ d ] = ( int ) ( ( dimensions[ d ] - 1 ) / cellDimensions[ d ] );
@@ -191,6 +211,9 @@ public class Prefetcher
 							( y + offsetPos[ 1 ] >= 0 ) &&
 							( y + offsetNeg[ 1 ] < h ) )
 					{
+						final double dx = x + 0.5 * ( offsetNeg[ 0 ] + offsetPos[ 0 ] ) - cx;
+						final double dy = y + 0.5 * ( offsetNeg[ 1 ] + offsetPos[ 1 ] ) - cy;
+						context.setScreenDistance( ( float ) ( Math.sqrt( dx * dx + dy * dy ) / maxDistance ) );
 						cellsRandomAccess.get();
 					}
 					pSource.move( cellDimensions[ 0 ], 0 );
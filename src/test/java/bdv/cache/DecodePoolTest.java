@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class DecodePoolTest
+{
+	@Test
+	public void testShutdownWithQueuedTasks() throws Exception
+	{
+		final DecodePool pool = new DecodePool( 1, 1 );
+		final CountDownLatch running = new CountDownLatch( 1 );
+		final CountDownLatch release = new CountDownLatch( 1 );
+
+		// occupy the only pool thread
+		final AtomicReference< Throwable > runningResult = new AtomicReference<>();
+		final Thread runningFetcher = new Thread( () -> {
+			try
+			{
+				pool.decode( () -> {
+					running.countDown();
+					release.await();
+					return null;
+				} );
+			}
+			catch ( final Throwable t )
+			{
+				runningResult.set( t );
+			}
+		} );
+		runningFetcher.start();
+		running.await();
+
+		// queue a task behind it
+		final AtomicReference< Throwable > queuedResult = new AtomicReference<>();
+		final Thread queuedFetcher = new Thread( () -> {
+			try
+			{
+				pool.decode( () -> "queued" );
+			}
+			catch ( final Throwable t )
+			{
+				queuedResult.set( t );
+			}
+		} );
+		queuedFetcher.start();
+		while ( pool.getStats().getQueueDepth() < 1 )
+			Thread.sleep( 1 );
+
+		pool.shutdown();
+
+		queuedFetcher.join( 5000 );
+		runningFetcher.join( 5000 );
+		release.countDown();
+		assertFalse( "fetcher waiting for a queued task hangs after shutdown", queuedFetcher.isAlive() );
+		assertFalse( "fetcher waiting for a running task hangs after shutdown", runningFetcher.isAlive() );
+		assertTrue( queuedResult.get() instanceof IOException );
+		assertTrue( runningResult.get() instanceof IOException );
+
+		try
+		{
+			pool.decode( () -> "after shutdown" );
+			fail( "decode() after shutdown() should fail" );
+		}
+		catch ( final IOException e )
+		{
+			// expected
+		}
+	}
+}
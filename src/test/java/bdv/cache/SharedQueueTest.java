@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+public class SharedQueueTest
+{
+	@Test
+	public void testPriorityOrder() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 2 );
+		queue.put( () -> "1a", 1, false );
+		queue.put( () -> "0a", 0, false );
+		queue.put( () -> "1b", 1, false );
+		queue.put( () -> "0b", 0, true );
+
+		assertEquals( "0b", queue.take().call() );
+		assertEquals( "0a", queue.take().call() );
+		assertEquals( "1a", queue.take().call() );
+		assertEquals( "1b", queue.take().call() );
+	}
+
+	@Test
+	public void testClearToPrefetch() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 2, 3 );
+		queue.put( () -> "1a", 1, false );
+		queue.put( () -> "1b", 1, false );
+		queue.put( () -> "0a", 0, false );
+		queue.put( () -> "0b", 0, false );
+		queue.clearToPrefetch();
+
+		FetchQueueStats stats = queue.getStats();
+		assertArrayEquals( new int[] { 0, 0 }, stats.getQueueDepths() );
+		assertEquals( 3, stats.getPrefetchDepth() );
+		assertEquals( 1, stats.getPrefetchDropped() );
+
+		// new requests are handled before prefetch requests
+		queue.put( () -> "new", 1, false );
+		assertEquals( "new", queue.take().call() );
+		assertEquals( "0a", queue.take().call() );
+		assertEquals( "0b", queue.take().call() );
+		assertEquals( "1a", queue.take().call() );
+
+		stats = queue.getStats();
+		assertEquals( 0, stats.getPrefetchDepth() );
+		assertEquals( 3, stats.getPrefetchDequeued() );
+		assertArrayEquals( new long[] { 2, 3 }, stats.getEnqueued() );
+		assertArrayEquals( new long[] { 0, 1 }, stats.getDequeued() );
+		assertEquals( 4, stats.getTasksCompleted() );
+	}
+
+	@Test
+	public void testScreenDistanceOrder() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		final RequestContext context = RequestContext.current();
+		try
+		{
+			context.setScreenDistance( 0.9f );
+			queue.put( () -> "corner", 0, false );
+			context.setScreenDistance( 0.1f );
+			queue.put( () -> "center", 0, false );
+		}
+		finally
+		{
+			context.clearScreenDistance();
+		}
+		queue.put( () -> "unknown", 0, false );
+
+		assertEquals( "unknown", queue.take().call() );
+		assertEquals( "center", queue.take().call() );
+		assertEquals( "corner", queue.take().call() );
+	}
+
+	@Test
+	public void testRepeatedRequests() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		final Object client = new Object();
+		put( queue, client, 1, () -> "first" );
+		put( queue, client, 1, () -> "second" );
+		assertEquals( 1, queue.getStats().getQueueDepths()[ 0 ] );
+
+		final Callable< ? > task = queue.take();
+		// requests for cells that are being loaded are not enqueued
+		put( queue, client, 1, () -> "third" );
+		assertEquals( 0, queue.getStats().getQueueDepths()[ 0 ] );
+		assertEquals( "second", task.call() );
+		assertEquals( 2, queue.getStats().getRepeatedRequests() );
+	}
+
+	@Test
+	public void testStaleRequests() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		queue.setStaleFrames( 1 );
+		final Object client = new Object();
+		put( queue, client, 2, () -> SharedQueue.isLoadCancelled() ? null : "loaded" );
+		put( queue, client, 3, () -> {
+			SharedQueue.checkLoadCancelled();
+			return "loaded";
+		} );
+		final Callable< ? > task2 = queue.take();
+		final Callable< ? > task3 = queue.take();
+		put( queue, client, 1, () -> "stale" );
+
+		// next frame: cell 1 is still queued, cells 2 and 3 are being loaded
+		queue.clearToPrefetch();
+		assertEquals( 1, queue.getStats().getPrefetchDepth() );
+
+		// cells 1 and 3 are not requested again in the next frame
+		put( queue, client, 2, () -> "unused" );
+		queue.clearToPrefetch();
+		assertEquals( 0, queue.getStats().getPrefetchDepth() );
+		assertEquals( 1, queue.getStats().getStaleDropped() );
+
+		assertEquals( "loaded", task2.call() );
+		assertNull( task3.call() );
+		assertEquals( 1, queue.getStats().getTasksCancelled() );
+		assertEquals( 0, queue.getStats().getTasksFailed() );
+	}
+
+	@Test
+	public void testInterruptStaleLoads() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		queue.setStaleFrames( 1 );
+		queue.setInterruptStaleLoads( true );
+		put( queue, new Object(), 1, () -> {
+			Thread.sleep( 10_000 );
+			return "loaded";
+		} );
+		final Callable< ? > task = queue.take();
+		final Thread canceller = new Thread( () -> {
+			try
+			{
+				Thread.sleep( 100 );
+			}
+			catch ( final InterruptedException e )
+			{
+				return;
+			}
+			queue.clearToPrefetch();
+			queue.clearToPrefetch();
+		} );
+		canceller.start();
+		assertNull( task.call() );
+		assertFalse( Thread.currentThread().isInterrupted() );
+		assertEquals( 1, queue.getStats().getTasksCancelled() );
+		canceller.join();
+	}
+
+	@Test
+	public void testClientShares() throws Exception
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		final Object slow = new Object();
+		final Object fast = new Object();
+		queue.setClientShare( fast, 2, 2 );
+		for ( int i = 0; i < 10; ++i )
+		{
+			put( queue, slow, i, () -> "slow" );
+			put( queue, fast, i, () -> "fast" );
+		}
+
+		// fast client gets twice the share of slow client
+		int numFast = 0;
+		for ( int i = 0; i < 6; ++i )
+			if ( "fast".equals( queue.take().call() ) )
+				++numFast;
+		assertEquals( 4, numFast );
+
+		// concurrent loads are limited per client
+		final List< Callable< ? > > loading = new ArrayList<>();
+		for ( int i = 0; i < 4; ++i )
+			loading.add( queue.take() );
+		final List< Object > loaded = new ArrayList<>();
+		for ( final Callable< ? > task : loading )
+			loaded.add( task.call() );
+		Collections.sort( loaded, Comparator.comparing( Object::toString ) );
+		assertEquals( Arrays.asList( "fast", "fast", "slow", "slow" ), loaded );
+	}
+
+	@Test
+	public void testAdaptiveConcurrencyLimit()
+	{
+		final long interval = AdaptiveConcurrencyLimit.INTERVAL_NANOS;
+		final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit( 4, 1, 6, 0 );
+		long now = 0;
+
+		// constant latency while saturated: additive increase up to max
+		for ( int i = 0; i < 4; ++i )
+		{
+			now += interval;
+			for ( int j = 0; j < AdaptiveConcurrencyLimit.MIN_SAMPLES; ++j )
+				limit.completed( 1_000_000, true, now );
+		}
+		assertEquals( 6, limit.getLimit() );
+
+		// latency increases: multiplicative decrease
+		now += interval;
+		for ( int j = 0; j < AdaptiveConcurrencyLimit.MIN_SAMPLES; ++j )
+			limit.completed( 5_000_000, true, now );
+		assertEquals( 4, limit.getLimit() );
+
+		// not saturated: limit stays
+		now += interval;
+		for ( int j = 0; j < AdaptiveConcurrencyLimit.MIN_SAMPLES; ++j )
+			limit.completed( 1_000_000, false, now );
+		assertEquals( 4, limit.getLimit() );
+	}
+
+	private static void put( final SharedQueue queue, final Object client, final long index, final Callable< ? > task )
+	{
+		final RequestContext context = RequestContext.current();
+		context.beginRequest( client, i -> i, index );
+		try
+		{
+			queue.put( task, 0, false );
+		}
+		finally
+		{
+			context.endRequest();
+		}
+	}
+
+	@Test
+	public void testFailedTasks()
+	{
+		final SharedQueue queue = new SharedQueue( 0, 1 );
+		queue.put( () -> {
+			throw new IllegalStateException();
+		}, 0, false );
+		try
+		{
+			final Callable< ? > task = queue.take();
+			task.call();
+		}
+		catch ( final Exception e )
+		{
+			// expected
+		}
+		assertEquals( 1, queue.getStats().getTasksFailed() );
+	}
+
+	@Test
+	public void testLatencyHistogram()
+	{
+		final LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record( 500 ); // < 1 us
+		histogram.record( 1_500 ); // 1 us
+		histogram.record( 3_000_000 ); // 3 ms
+		final long[] counts = histogram.getCounts();
+		assertEquals( 1, counts[ 0 ] );
+		assertEquals( 1, counts[ 1 ] );
+		assertEquals( 1, counts[ LatencyHistogram.bucket( 3_000_000 ) ] );
+		assertEquals( 2, LatencyHistogram.quantileMicros( counts, 0.5 ) );
+		assertEquals( 4096, LatencyHistogram.quantileMicros( counts, 1.0 ) );
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+
+public class ExportCheckpointTest
+{
+	private File file;
+
+	private File createFile() throws IOException
+	{
+		file = Files.createTempFile( "bdv-checkpoint", ".log" ).toFile();
+		file.delete();
+		return file;
+	}
+
+	@After
+	public void deleteFile()
+	{
+		if ( file != null )
+			file.delete();
+	}
+
+	@Test
+	public void testResume() throws IOException
+	{
+		final ViewId v0 = new ViewId( 0, 0 );
+		final ViewId v1 = new ViewId( 1, 0 );
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( createFile() ) )
+		{
+			checkpoint.setParameters( "p" );
+			checkpoint.beginView( v0, "a" );
+			checkpoint.beginLevel( v0, 0, new long[] { 4, 4, 4 } );
+			checkpoint.blockDone( v0, 0, new long[] { 0, 0, 0 }, false );
+			checkpoint.blockDone( v0, 0, new long[] { 1, 0, 0 }, true );
+			checkpoint.viewDone( v0, "a" );
+			checkpoint.beginView( v1, "b" );
+			checkpoint.beginLevel( v1, 0, new long[] { 4, 4, 4 } );
+			checkpoint.blockDone( v1, 0, new long[] { 0, 0, 0 }, false );
+			checkpoint.blockDone( v1, 0, new long[] { 1, 0, 0 }, true );
+			checkpoint.blockDone( v1, 0, new long[] { 1, 0, 0 }, true );
+			checkpoint.blockDone( v1, 0, new long[] { 3, 0, 3 }, false );
+			checkpoint.shardDone( v1, 1, new long[] { 0, 0, 0 }, 8, 3 );
+		}
+
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( file ) )
+		{
+			checkpoint.setParameters( "p" );
+			assertTrue( checkpoint.isViewDone( v0, "a" ) );
+			assertFalse( checkpoint.isViewDone( v0, "changed" ) );
+			assertFalse( checkpoint.isViewDone( v1, "b" ) );
+
+			checkpoint.beginView( v1, "b" );
+			assertTrue( checkpoint.isBlockDone( v1, 0, new long[] { 1, 0, 0 } ) );
+			assertFalse( checkpoint.isBlockDone( v1, 0, new long[] { 2, 0, 0 } ) );
+			assertTrue( checkpoint.isBlockDone( v1, 0, new long[] { 3, 0, 3 } ) );
+			assertFalse( checkpoint.isBlockDone( v1, 0, new long[] { 0, 3, 3 } ) );
+			assertTrue( checkpoint.isShardDone( v1, 1, new long[] { 0, 0, 0 } ) );
+			assertEquals( 3, checkpoint.getNumBlocks( v1, 0 ) );
+			assertEquals( 1, checkpoint.getNumEmptyBlocks( v1, 0 ) );
+			assertEquals( 8, checkpoint.getNumBlocks( v1, 1 ) );
+			assertEquals( 3, checkpoint.getNumEmptyBlocks( v1, 1 ) );
+
+			checkpoint.beginLevel( v1, 1, new long[] { 2, 2, 2 } );
+			assertFalse( checkpoint.isShardDone( v1, 1, new long[] { 0, 0, 0 } ) );
+			assertEquals( 0, checkpoint.getNumBlocks( v1, 1 ) );
+			assertTrue( checkpoint.hasLevel( v1, 0 ) );
+		}
+
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( file ) )
+		{
+			checkpoint.setParameters( "p" );
+			assertTrue( checkpoint.hasLevel( v1, 1 ) );
+			assertEquals( 0, checkpoint.getNumBlocks( v1, 1 ) );
+
+			// source data of v1 changed
+			checkpoint.beginView( v1, "c" );
+			assertFalse( checkpoint.hasLevel( v1, 0 ) );
+			assertTrue( checkpoint.isViewDone( v0, "a" ) );
+
+			// parameters changed
+			checkpoint.setParameters( "q" );
+			assertFalse( checkpoint.isViewDone( v0, "a" ) );
+		}
+
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( file ) )
+		{
+			checkpoint.setParameters( "q" );
+			assertFalse( checkpoint.isViewDone( v0, "a" ) );
+		}
+	}
+
+	@Test
+	public void testIncompleteLastLine() throws IOException
+	{
+		final ViewId v0 = new ViewId( 0, 0 );
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( createFile() ) )
+		{
+			checkpoint.setParameters( "p" );
+			checkpoint.beginView( v0, "a" );
+			checkpoint.shardDone( v0, 0, new long[] { 0, 0, 0 }, 8, 3 );
+			checkpoint.shardDone( v0, 0, new long[] { 1, 0, 0 }, 8, 12 );
+		}
+
+		// crash while writing the last entry
+		try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ) )
+		{
+			raf.setLength( raf.length() - 2 );
+		}
+
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( file ) )
+		{
+			checkpoint.setParameters( "p" );
+			assertTrue( checkpoint.isShardDone( v0, 0, new long[] { 0, 0, 0 } ) );
+			assertFalse( checkpoint.isShardDone( v0, 0, new long[] { 1, 0, 0 } ) );
+			checkpoint.shardDone( v0, 0, new long[] { 2, 0, 0 }, 8, 0 );
+		}
+
+		try ( ExportCheckpoint checkpoint = ExportCheckpoint.open( file ) )
+		{
+			assertFalse( checkpoint.isShardDone( v0, 0, new long[] { 1, 0, 0 } ) );
+			assertTrue( checkpoint.isShardDone( v0, 0, new long[] { 2, 0, 0 } ) );
+			assertEquals( 16, checkpoint.getNumBlocks( v0, 0 ) );
+			assertEquals( 3, checkpoint.getNumEmptyBlocks( v0, 0 ) );
+		}
+	}
+}
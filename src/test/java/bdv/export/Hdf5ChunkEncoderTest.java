@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.janelia.saalfeldlab.n5.ShortArrayDataBlock;
+import org.junit.Test;
+
+import bdv.img.hdf5.Hdf5Filters;
+
+public class Hdf5ChunkEncoderTest
+{
+	/**
+	 * Encode a border block into a shuffle, deflate pipeline, and decode it
+	 * with {@link Hdf5Filters}.
+	 */
+	@Test
+	public void testEncodeBorderBlock() throws Exception
+	{
+		// chunks of 4x3x2 (xyz), that is, 2x3x4 in HDF5 (zyx) order
+		final int[] chunkSize = { 2, 3, 4 };
+		final int[] filters = { Hdf5Filters.SHUFFLE, Hdf5Filters.DEFLATE };
+		final int[][] cdValues = { { 2 }, { 6 } };
+		final Hdf5ChunkEncoder encoder = new Hdf5ChunkEncoder( chunkSize, 2, ByteOrder.LITTLE_ENDIAN, filters, cdValues );
+
+		// 3x2x1 block at the border
+		final short[] data = { 1, 2, 3, 4, 5, 6 };
+		final Hdf5ChunkEncoder.Chunk chunk = encoder.encode( new ShortArrayDataBlock( new int[] { 3, 2, 1 }, new long[] { 1, 2, 3 }, data ) );
+
+		assertArrayEquals( new long[] { 6, 6, 4 }, chunk.offset );
+
+		final byte[] decoded = Hdf5Filters.decode( chunk.data, filters, cdValues, 0, 2, 24 );
+		final short[] actual = new short[ 24 ];
+		ByteBuffer.wrap( decoded ).order( ByteOrder.LITTLE_ENDIAN ).asShortBuffer().get( actual );
+		final short[] expected = {
+				1, 2, 3, 0,
+				4, 5, 6, 0,
+				0, 0, 0, 0,
+				0, 0, 0, 0,
+				0, 0, 0, 0,
+				0, 0, 0, 0 };
+		assertArrayEquals( expected, actual );
+	}
+
+	/**
+	 * Pipelines with filters that are not implemented in Java (such as the
+	 * scale-offset filter of JHDF5's default integer compression) must be
+	 * written with {@code H5Dwrite}.
+	 */
+	@Test
+	public void testUnsupportedFilters()
+	{
+		assertTrue( Hdf5ChunkEncoder.isSupported( new int[] { Hdf5Filters.SHUFFLE, Hdf5Filters.DEFLATE } ) );
+		assertTrue( Hdf5ChunkEncoder.isSupported( new int[ 0 ] ) );
+		assertFalse( Hdf5ChunkEncoder.isSupported( new int[] { Hdf5Filters.SCALEOFFSET, Hdf5Filters.DEFLATE } ) );
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.junit.Test;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class MultiDatasetIOTest
+{
+	@Test
+	public void testAllOutputsReceiveBlocks() throws Exception
+	{
+		final RandomAccessibleInterval< DoubleType > img = ArrayImgs.doubles( 1 );
+		final RecordingDatasetIO< DoubleType > a = new RecordingDatasetIO<>( "a", true, null );
+		final RecordingDatasetIO< DoubleType > b = new RecordingDatasetIO<>( "b", true, img );
+
+		// wrapped like in ExportScalePyramid
+		final SparseDatasetIO< Object[], DoubleType > io = new SparseDatasetIO<>( new MultiDatasetIO<>( Arrays.asList( a, b ) ) );
+		final SparseDatasetIO.Dataset< Object[] > dataset = io.createDataset( 1, new long[] { 4, 2, 2 }, new int[] { 2, 2, 2 } );
+		final DataBlock< ? > block0 = DataType.INT16.createDataBlock( new int[] { 2, 2, 2 }, new long[] { 0, 0, 0 } );
+		final DataBlock< ? > block1 = DataType.INT16.createDataBlock( new int[] { 2, 2, 2 }, new long[] { 1, 0, 0 } );
+		( ( short[] ) block1.getData() )[ 3 ] = 1;
+		io.writeBlock( dataset, block0 );
+		io.writeBlock( dataset, block1 );
+		io.flush();
+
+		for ( final RecordingDatasetIO< DoubleType > r : Arrays.asList( a, b ) )
+		{
+			final String d = r.getName() + 1;
+			assertArrayEquals( new Object[] {
+					d + " skip [0, 0, 0]",
+					d + " write [1, 0, 0]",
+					"flush",
+					d + " occupancy 2 1" }, r.getCalls().toArray() );
+		}
+
+		// read back from the first output that provides the image
+		assertSame( img, io.getImage( 0 ) );
+		assertNull( new MultiDatasetIO<>( Arrays.asList( a ) ).getImage( 0 ) );
+	}
+
+	@Test
+	public void testSupportsSkippedBlocks()
+	{
+		final RecordingDatasetIO< DoubleType > a = new RecordingDatasetIO<>( "a", true, null );
+		final RecordingDatasetIO< DoubleType > writesAll = new RecordingDatasetIO<>( "b", false, null );
+		assertTrue( new MultiDatasetIO<>( Arrays.asList( a, a ) ).supportsSkippedBlocks() );
+		assertFalse( new MultiDatasetIO<>( Arrays.asList( a, writesAll ) ).supportsSkippedBlocks() );
+	}
+}
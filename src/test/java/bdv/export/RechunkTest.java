@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.junit.Test;
+
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class RechunkTest
+{
+	private static final long[] dimensions = { 23, 17, 11 };
+
+	private static final int[] sourceBlockSize = { 5, 7, 3 };
+
+	private static final int[] targetBlockSize = { 8, 4, 6 };
+
+	@Test
+	public void testRechunk() throws Exception
+	{
+		rechunk( Long.MAX_VALUE );
+	}
+
+	@Test
+	public void testRechunkWithSpilling() throws Exception
+	{
+		rechunk( 0 );
+	}
+
+	private void rechunk( final long maxBytesInMemory ) throws Exception
+	{
+		final int numElements = ( int ) ( dimensions[ 0 ] * dimensions[ 1 ] * dimensions[ 2 ] );
+		final short[] expected = new short[ numElements ];
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < numElements; ++i )
+			expected[ i ] = ( short ) ( 1 + random.nextInt( 1000 ) );
+
+		// the source block at (1,1,1) is not stored
+		final long[] missing = { 1, 1, 1 };
+		for ( int z = 3; z < 6; ++z )
+			for ( int y = 7; y < 14; ++y )
+				for ( int x = 5; x < 10; ++x )
+					expected[ index( x, y, z ) ] = 0;
+
+		final Set< String > read = ConcurrentHashMap.newKeySet();
+		final Rechunk.BlockReader source = gridPosition -> {
+			assertTrue( "block read twice", read.add( key( gridPosition ) ) );
+			if ( key( gridPosition ).equals( key( missing ) ) )
+				return null;
+			final int[] size = new int[ 3 ];
+			final long[] min = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = gridPosition[ d ] * sourceBlockSize[ d ];
+				size[ d ] = ( int ) Math.min( sourceBlockSize[ d ], dimensions[ d ] - min[ d ] );
+			}
+			final DataBlock< ? > block = DataType.UINT16.createDataBlock( size, gridPosition );
+			final short[] data = ( short[] ) block.getData();
+			int i = 0;
+			for ( int z = 0; z < size[ 2 ]; ++z )
+				for ( int y = 0; y < size[ 1 ]; ++y )
+					for ( int x = 0; x < size[ 0 ]; ++x )
+						data[ i++ ] = expected[ index( ( int ) min[ 0 ] + x, ( int ) min[ 1 ] + y, ( int ) min[ 2 ] + z ) ];
+			return block;
+		};
+
+		final RecordingDatasetIO< DoubleType > target = new RecordingDatasetIO<>();
+
+		final ExecutorService executorService = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			new Rechunk( DataType.UINT16, dimensions, sourceBlockSize, targetBlockSize )
+					.write( source, target, 0, executorService, 4, maxBytesInMemory, null );
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+
+		assertEquals( 5 * 3 * 4, read.size() );
+		assertArrayEquals( targetBlockSize, target.getBlockSize( 0 ) );
+		assertEquals( 3 * 5 * 2, target.getBlocks().size() );
+		final double[] actual = target.getData( 0 );
+		for ( int i = 0; i < numElements; ++i )
+			assertEquals( expected[ i ], actual[ i ], 0 );
+	}
+
+	private static int index( final int x, final int y, final int z )
+	{
+		return ( int ) ( ( z * dimensions[ 1 ] + y ) * dimensions[ 0 ] + x );
+	}
+
+	private static String key( final long[] p )
+	{
+		return p[ 0 ] + "," + p[ 1 ] + "," + p[ 2 ];
+	}
+}
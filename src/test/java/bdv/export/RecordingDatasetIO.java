@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.NativeType;
+
+/**
+ * An in-memory {@link DatasetIO} for export tests. The dataset handle is the
+ * resolution level. Written blocks are copied into a flat {@code double[]}
+ * per level (with x varying fastest, {@code byte} and {@code short} data read
+ * as unsigned), and writing the same block twice fails. All calls are
+ * recorded in {@link #getCalls()}.
+ *
+ * @param <T>
+ *            Pixel type
+ */
+public class RecordingDatasetIO< T extends NativeType< T > > implements DatasetIO< Integer, T >
+{
+	private static class Level
+	{
+		final long[] dimensions;
+
+		final int[] blockSize;
+
+		final double[] data;
+
+		final Set< List< Long > > written = new HashSet<>();
+
+		long[] occupancy;
+
+		Level( final long[] dimensions, final int[] blockSize )
+		{
+			this.dimensions = dimensions;
+			this.blockSize = blockSize;
+			data = new double[ ( int ) Arrays.stream( dimensions ).reduce( 1, ( a, b ) -> a * b ) ];
+		}
+	}
+
+	private final String name;
+
+	private final boolean supportsSkippedBlocks;
+
+	private final RandomAccessibleInterval< T > img;
+
+	private final Map< Integer, Level > levels = new HashMap<>();
+
+	private final List< DataBlock< ? > > blocks = new ArrayList<>();
+
+	private final List< String > calls = new ArrayList<>();
+
+	/**
+	 * Create a {@code RecordingDatasetIO} that does not
+	 * {@link #supportsSkippedBlocks() support skipped blocks}.
+	 */
+	public RecordingDatasetIO()
+	{
+		this( "", false, null );
+	}
+
+	/**
+	 * @param name
+	 *            prefix of the recorded calls.
+	 * @param supportsSkippedBlocks
+	 *            returned by {@link #supportsSkippedBlocks()}.
+	 * @param img
+	 *            returned by {@link #getImage(int)}. may be null.
+	 */
+	public RecordingDatasetIO( final String name, final boolean supportsSkippedBlocks, final RandomAccessibleInterval< T > img )
+	{
+		this.name = name;
+		this.supportsSkippedBlocks = supportsSkippedBlocks;
+		this.img = img;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	@Override
+	public synchronized Integer createDataset( final int level, final long[] dimensions, final int[] blockSize )
+	{
+		levels.put( level, new Level( dimensions.clone(), blockSize.clone() ) );
+		return level;
+	}
+
+	@Override
+	public synchronized void writeBlock( final Integer level, final DataBlock< ? > dataBlock )
+	{
+		final long[] p = dataBlock.getGridPosition();
+		calls.add( name + level + " write " + Arrays.toString( p ) );
+		final Level l = levels.get( level );
+		if ( !l.written.add( Arrays.asList( Arrays.stream( p ).boxed().toArray( Long[]::new ) ) ) )
+			throw new AssertionError( "block written twice: " + level + ":" + Arrays.toString( p ) );
+		blocks.add( dataBlock );
+
+		final int n = p.length;
+		final int[] size = dataBlock.getSize();
+		final long[] pos = new long[ n ];
+		final Object data = dataBlock.getData();
+		final int numElements = dataBlock.getNumElements();
+		for ( int i = 0; i < numElements; ++i )
+		{
+			long index = 0;
+			for ( int d = n - 1; d >= 0; --d )
+				index = index * l.dimensions[ d ] + p[ d ] * l.blockSize[ d ] + pos[ d ];
+			l.data[ ( int ) index ] = get( data, i );
+			for ( int d = 0; d < n; ++d )
+			{
+				if ( ++pos[ d ] < size[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+	}
+
+	private static double get( final Object data, final int i )
+	{
+		if ( data instanceof byte[] )
+			return ( ( byte[] ) data )[ i ] & 0xff;
+		if ( data instanceof short[] )
+			return ( ( short[] ) data )[ i ] & 0xffff;
+		if ( data instanceof int[] )
+			return ( ( int[] ) data )[ i ];
+		if ( data instanceof long[] )
+			return ( ( long[] ) data )[ i ];
+		if ( data instanceof float[] )
+			return ( ( float[] ) data )[ i ];
+		return ( ( double[] ) data )[ i ];
+	}
+
+	@Override
+	public boolean supportsSkippedBlocks()
+	{
+		return supportsSkippedBlocks;
+	}
+
+	@Override
+	public synchronized void skipBlock( final Integer level, final long[] gridPosition )
+	{
+		calls.add( name + level + " skip " + Arrays.toString( gridPosition ) );
+	}
+
+	@Override
+	public synchronized void flush()
+	{
+		calls.add( "flush" );
+	}
+
+	@Override
+	public synchronized void setOccupancy( final Integer level, final long numBlocks, final long numEmptyBlocks )
+	{
+		calls.add( name + level + " occupancy " + numBlocks + " " + numEmptyBlocks );
+		levels.get( level ).occupancy = new long[] { numBlocks, numEmptyBlocks };
+	}
+
+	@Override
+	public RandomAccessibleInterval< T > getImage( final int level )
+	{
+		return img;
+	}
+
+	/**
+	 * The data written to {@code level}, with x varying fastest.
+	 */
+	public synchronized double[] getData( final int level )
+	{
+		return levels.get( level ).data;
+	}
+
+	public synchronized int[] getBlockSize( final int level )
+	{
+		return levels.get( level ).blockSize;
+	}
+
+	/**
+	 * The {@code numBlocks} and {@code numEmptyBlocks} passed to
+	 * {@link #setOccupancy}, or {@code null} if it was not called for
+	 * {@code level}.
+	 */
+	public synchronized long[] getOccupancy( final int level )
+	{
+		return levels.get( level ).occupancy;
+	}
+
+	/**
+	 * All written blocks, in the order they were written.
+	 */
+	public synchronized List< DataBlock< ? > > getBlocks()
+	{
+		return new ArrayList<>( blocks );
+	}
+
+	/**
+	 * All calls (except {@code createDataset}), in the order they were made.
+	 */
+	public synchronized List< String > getCalls()
+	{
+		return new ArrayList<>( calls );
+	}
+}
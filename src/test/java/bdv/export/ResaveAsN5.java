@@ -56,6 +56,10 @@ public class ResaveAsN5
 //		final Compression compression = new Lz4Compression();
 		final Compression compression = new GzipCompression( Deflater.BEST_COMPRESSION );
 
+		// group blocks into shards of 8x8x8 blocks, or null for one file per block
+		final int[] blocksPerShard = null;
+//		final int[] blocksPerShard = { 8, 8, 8 };
+
 		final XmlIoSpimDataMinimal io = new XmlIoSpimDataMinimal();
 		final SpimDataMinimal spimdata = io.load( fnInput );
 
@@ -107,6 +111,7 @@ public class ResaveAsN5
 				seq,
 				perSetupExportMipmapInfo,
 				compression,
+				blocksPerShard,
 				n5File,
 				loopbackHeuristic,
 				afterEachPlane,
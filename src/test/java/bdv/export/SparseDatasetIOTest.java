@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.junit.Test;
+
+import bdv.export.ExportScalePyramid.DatasetIO;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class SparseDatasetIOTest
+{
+	@Test
+	public void testIsEmpty()
+	{
+		assertTrue( SparseDatasetIO.isEmpty( new byte[ 10 ] ) );
+		assertTrue( SparseDatasetIO.isEmpty( new short[ 10 ] ) );
+		assertTrue( SparseDatasetIO.isEmpty( new float[ 10 ] ) );
+		assertFalse( SparseDatasetIO.isEmpty( new int[] { 0, 0, 1 } ) );
+		assertFalse( SparseDatasetIO.isEmpty( new long[] { -1, 0, 0 } ) );
+		assertFalse( SparseDatasetIO.isEmpty( new double[] { 0, -0.0 } ) );
+	}
+
+	@Test
+	public void testSkipEmptyBlocks() throws Exception
+	{
+		final RecordingDatasetIO< DoubleType > target = new RecordingDatasetIO<>();
+		final SparseDatasetIO< Integer, DoubleType > io = new SparseDatasetIO<>( target );
+
+		final int[] size = { 2, 2, 2 };
+		final SparseDatasetIO.Dataset< Integer > s0 = io.createDataset( 0, new long[] { 4, 2, 2 }, size );
+		final DataBlock< ? > empty = DataType.UINT16.createDataBlock( size, new long[] { 0, 0, 0 } );
+		final DataBlock< ? > nonEmpty = DataType.UINT16.createDataBlock( size, new long[] { 1, 0, 0 } );
+		( ( short[] ) nonEmpty.getData() )[ 7 ] = 1;
+		io.writeBlock( s0, empty );
+		io.writeBlock( s0, nonEmpty );
+		io.flush();
+
+		assertEquals( 1, target.getBlocks().size() );
+		assertEquals( nonEmpty, target.getBlocks().get( 0 ) );
+		assertArrayEquals( new long[] { 2, 1 }, target.getOccupancy( 0 ) );
+
+		final SparseDatasetIO.Dataset< Integer > s1 = io.createDataset( 1, new long[] { 2, 1, 1 }, size );
+		io.writeBlock( s1, DataType.UINT16.createDataBlock( size, new long[] { 0, 0, 0 } ) );
+		io.flush();
+
+		assertEquals( 1, target.getBlocks().size() );
+		assertArrayEquals( new long[] { 1, 1 }, target.getOccupancy( 1 ) );
+	}
+
+	/**
+	 * {@link ExportScalePyramid#writeScalePyramid} writes every block, unless
+	 * the {@code DatasetIO} {@link DatasetIO#supportsSkippedBlocks() supports}
+	 * skipping empty blocks.
+	 */
+	@Test
+	public void testSkippingIsOptIn() throws Exception
+	{
+		// 16x8x4 image in blocks of 4x4x4, with an empty 8x8x4 box, that is,
+		// 4 of 8 blocks are empty
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 } },
+				new int[][] { { 4, 4, 4 } } );
+		for ( final boolean supportsSkippedBlocks : new boolean[] { false, true } )
+		{
+			final RecordingDatasetIO< UnsignedShortType > io = new RecordingDatasetIO<>( "", supportsSkippedBlocks, null );
+
+			final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+			try
+			{
+				ExportScalePyramid.writeScalePyramid(
+						TestSequences.createImage( new long[] { 16, 8, 4 }, new long[] { 8, 8, 4 } ),
+						new UnsignedShortType(), mipmapInfo, io, executorService, 2, null, null, new ProgressWriterNull() );
+			}
+			finally
+			{
+				executorService.shutdown();
+			}
+
+			if ( supportsSkippedBlocks )
+			{
+				assertEquals( 4, io.getBlocks().size() );
+				assertArrayEquals( new long[] { 8, 4 }, io.getOccupancy( 0 ) );
+			}
+			else
+			{
+				assertEquals( 8, io.getBlocks().size() );
+				assertNull( io.getOccupancy( 0 ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.junit.Test;
+
+import net.imglib2.type.numeric.real.DoubleType;
+
+public class StreamingScalePyramidTest
+{
+	@Test
+	public void testRelativeFactors()
+	{
+		final int[][] factors = StreamingScalePyramid.getRelativeFactors( new int[][] { { 1, 1, 1 }, { 2, 2, 1 }, { 4, 4, 2 }, { 12, 8, 2 } } );
+		assertNotNull( factors );
+		assertEquals( 3, factors[ 3 ][ 0 ] );
+		assertEquals( 2, factors[ 3 ][ 1 ] );
+		assertEquals( 1, factors[ 3 ][ 2 ] );
+		assertNull( StreamingScalePyramid.getRelativeFactors( new int[][] { { 1, 1, 1 }, { 2, 2, 2 }, { 3, 3, 3 } } ) );
+	}
+
+	@Test
+	public void testMatchesLevelByLevelDownsampling() throws Exception
+	{
+		final int[][] factors = { { 1, 1, 1 }, { 2, 2, 2 }, { 2, 3, 1 }, { 2, 2, 2 } };
+		final int[][] cellDimensions = { { 8, 8, 4 }, { 5, 7, 3 }, { 4, 4, 4 }, { 3, 2, 2 } };
+		final long[][] dimensions = new long[ factors.length ][];
+		dimensions[ 0 ] = new long[] { 37, 23, 19 };
+		for ( int level = 1; level < factors.length; ++level )
+		{
+			dimensions[ level ] = new long[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+				dimensions[ level ][ d ] = ( dimensions[ level - 1 ][ d ] + factors[ level ][ d ] - 1 ) / factors[ level ][ d ];
+		}
+
+		final double[][] expected = new double[ factors.length ][];
+		expected[ 0 ] = new double[ ( int ) numElements( dimensions[ 0 ] ) ];
+		final Random random = new Random( 1 );
+		for ( int i = 0; i < expected[ 0 ].length; ++i )
+			expected[ 0 ][ i ] = random.nextDouble();
+		for ( int level = 1; level < factors.length; ++level )
+			expected[ level ] = downsample( expected[ level - 1 ], dimensions[ level - 1 ], dimensions[ level ], factors[ level ] );
+
+		final RecordingDatasetIO< DoubleType > io = new RecordingDatasetIO<>();
+
+		final long[] dims0 = dimensions[ 0 ];
+		final StreamingScalePyramid.BlockSource source = ( min, size, dest ) -> {
+			final double[] data = ( double[] ) dest;
+			int i = 0;
+			for ( int z = 0; z < size[ 2 ]; ++z )
+				for ( int y = 0; y < size[ 1 ]; ++y )
+					for ( int x = 0; x < size[ 0 ]; ++x )
+						data[ i++ ] = expected[ 0 ][ ( int ) ( ( ( min[ 2 ] + z ) * dims0[ 1 ] + min[ 1 ] + y ) * dims0[ 0 ] + min[ 0 ] + x ) ];
+		};
+
+		final ExecutorService executorService = Executors.newFixedThreadPool( 4 );
+		try
+		{
+			new StreamingScalePyramid<>( DataType.FLOAT64, dimensions, cellDimensions, factors, io )
+					.write( source, executorService, 4, null, new ProgressWriterNull() );
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+
+		for ( int level = 0; level < factors.length; ++level )
+		{
+			final double[] actual = io.getData( level );
+			for ( int i = 0; i < expected[ level ].length; ++i )
+				assertEquals( "level " + level + ", index " + i, expected[ level ][ i ], actual[ i ], 1e-9 );
+		}
+	}
+
+	@Test
+	public void testRounding()
+	{
+		final short[] data = new short[ 3 ];
+		StreamingScalePyramid.fromDouble( DataType.UINT16, new double[] { 10, 131071 * 8, -8 }, 1.0 / 8, data );
+		assertEquals( 1, data[ 0 ] );
+		assertEquals( ( short ) 0xffff, data[ 1 ] );
+		assertEquals( 0, data[ 2 ] );
+
+		final double[] values = new double[ 2 ];
+		StreamingScalePyramid.toDouble( DataType.UINT16, new short[] { ( short ) 0xffff, 7 }, values );
+		assertEquals( 65535, values[ 0 ], 0 );
+		assertEquals( 7, values[ 1 ], 0 );
+	}
+
+	/**
+	 * Average boxes of {@code factor} pixels, extending the source by
+	 * repeating border pixels.
+	 */
+	private static double[] downsample( final double[] source, final long[] sourceDims, final long[] dims, final int[] factor )
+	{
+		final double[] target = new double[ ( int ) numElements( dims ) ];
+		final int boxSize = factor[ 0 ] * factor[ 1 ] * factor[ 2 ];
+		for ( int z = 0; z < dims[ 2 ]; ++z )
+			for ( int y = 0; y < dims[ 1 ]; ++y )
+				for ( int x = 0; x < dims[ 0 ]; ++x )
+				{
+					double sum = 0;
+					for ( int bz = 0; bz < factor[ 2 ]; ++bz )
+						for ( int by = 0; by < factor[ 1 ]; ++by )
+							for ( int bx = 0; bx < factor[ 0 ]; ++bx )
+							{
+								final long sx = Math.min( x * factor[ 0 ] + bx, sourceDims[ 0 ] - 1 );
+								final long sy = Math.min( y * factor[ 1 ] + by, sourceDims[ 1 ] - 1 );
+								final long sz = Math.min( z * factor[ 2 ] + bz, sourceDims[ 2 ] - 1 );
+								sum += source[ ( int ) ( ( sz * sourceDims[ 1 ] + sy ) * sourceDims[ 0 ] + sx ) ];
+							}
+					target[ ( int ) ( ( z * dims[ 1 ] + y ) * dims[ 0 ] + x ) ] = sum / boxSize;
+				}
+		return target;
+	}
+
+	private static long numElements( final long[] dims )
+	{
+		long n = 1;
+		for ( final long d : dims )
+			n *= d;
+		return n;
+	}
+}
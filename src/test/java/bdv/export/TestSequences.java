@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import bdv.spimdata.SequenceDescriptionMinimal;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicViewSetup;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Util;
+
+/**
+ * Small in-memory sequences for export tests.
+ */
+public class TestSequences
+{
+	/**
+	 * Create an image with a deterministic non-zero pattern, except for an
+	 * all-zero box at the origin of size {@code emptySize}.
+	 */
+	public static ArrayImg< UnsignedShortType, ShortArray > createImage( final long[] dimensions, final long[] emptySize )
+	{
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( dimensions );
+		final Cursor< UnsignedShortType > c = img.localizingCursor();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			boolean empty = true;
+			for ( int d = 0; d < 3; ++d )
+				empty &= c.getLongPosition( d ) < emptySize[ d ];
+			if ( !empty )
+				c.get().set( 1 + ( int ) ( ( c.getLongPosition( 0 ) + 3 * c.getLongPosition( 1 ) + 7 * c.getLongPosition( 2 ) ) % 1000 ) );
+		}
+		return img;
+	}
+
+	/**
+	 * Create a sequence with one timepoint (id 0) and one setup (id 0) that
+	 * shows {@code img}.
+	 */
+	public static < T > SequenceDescriptionMinimal singleView( final RandomAccessibleInterval< T > img )
+	{
+		final T type = Util.getTypeFromInterval( img );
+		final BasicSetupImgLoader< T > setupImgLoader = new BasicSetupImgLoader< T >()
+		{
+			@Override
+			public RandomAccessibleInterval< T > getImage( final int timepointId, final ImgLoaderHint... hints )
+			{
+				return img;
+			}
+
+			@Override
+			public T getImageType()
+			{
+				return type;
+			}
+		};
+		final BasicImgLoader imgLoader = new BasicImgLoader()
+		{
+			@Override
+			public BasicSetupImgLoader< ? > getSetupImgLoader( final int setupId )
+			{
+				return setupImgLoader;
+			}
+		};
+		final Map< Integer, BasicViewSetup > setups = new HashMap<>();
+		setups.put( 0, new BasicViewSetup( 0, "0", new FinalDimensions( img.dimensionsAsLongArray() ), new FinalVoxelDimensions( "px", 1, 1, 1 ) ) );
+		return new SequenceDescriptionMinimal( new TimePoints( Collections.singletonList( new TimePoint( 0 ) ) ), setups, imgLoader, null );
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import bdv.export.TuneMipmaps.LatencyModel;
+import bdv.export.TuneMipmaps.Measurement;
+
+public class TuneMipmapsTest
+{
+	private static final long[] DIMENSIONS = { 1024, 1024, 1024 };
+
+	private static final int[] SMALL = { 32, 32, 32 };
+
+	private static final int[] LARGE = { 64, 64, 64 };
+
+	/**
+	 * Measurement for uncompressed 16-bit blocks of the given size, that
+	 * take {@code decodeSecondsPerByte} per decoded byte to decode.
+	 */
+	private static Measurement measurement( final int[] blockSize, final double decodeSecondsPerByte )
+	{
+		final long bytes = 2L * blockSize[ 0 ] * blockSize[ 1 ] * blockSize[ 2 ];
+		return new Measurement( 0, bytes, bytes, decodeSecondsPerByte * bytes, decodeSecondsPerByte * bytes );
+	}
+
+	@Test
+	public void testRequestDominated()
+	{
+		// high latency per request, fast transfer and decoding
+		final LatencyModel model = new LatencyModel( 10e-3, 1e12, 1L << 30, 1024 );
+		final double small = model.planeSeconds( DIMENSIONS, SMALL, measurement( SMALL, 1e-12 ) );
+		final double large = model.planeSeconds( DIMENSIONS, LARGE, measurement( LARGE, 1e-12 ) );
+		assertTrue( large < small );
+	}
+
+	@Test
+	public void testDecodeDominated()
+	{
+		// no latency per request, slow decoding, and no cache to reuse
+		// blocks for the next plane
+		final LatencyModel model = new LatencyModel( 0, 1e12, 0, 1024 );
+		final double small = model.planeSeconds( DIMENSIONS, SMALL, measurement( SMALL, 1e-8 ) );
+		final double large = model.planeSeconds( DIMENSIONS, LARGE, measurement( LARGE, 1e-8 ) );
+		assertTrue( small < large );
+	}
+
+	@Test
+	public void testEmptyMeasurementToString()
+	{
+		// all sampled blocks were empty, nothing was encoded or decoded
+		final String s = new Measurement( 1, 0, 2 * 32 * 32 * 32, 0, 0 ).toString();
+		assertFalse( s.contains( "Infinity" ) );
+		assertFalse( s.contains( "NaN" ) );
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ExportScalePyramid;
+import bdv.export.ProgressWriterNull;
+import bdv.export.TestSequences;
+import bdv.img.n5.BdvN5Format;
+import bdv.img.n5.N5ImageLoader;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+public class ResaveN5Test
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final long[] DIMENSIONS = { 40, 20, 12 };
+
+	/**
+	 * Two levels in blocks of 8x8x4. The 24x16x8 box at the origin is empty,
+	 * so the blocks covering it are not stored.
+	 */
+	private static final ExportMipmapInfo MIPMAP_INFO = new ExportMipmapInfo(
+			new int[][] { { 1, 1, 1 }, { 2, 2, 2 } },
+			new int[][] { { 8, 8, 4 }, { 8, 8, 4 } } );
+
+	private final ArrayImg< UnsignedShortType, ShortArray > img = TestSequences.createImage( DIMENSIONS, new long[] { 24, 16, 8 } );
+
+	private static void write(
+			final File n5File,
+			final RandomAccessibleInterval< UnsignedShortType > img,
+			final N5ImageLoader copySource ) throws IOException
+	{
+		final N5FSWriter n5 = new N5FSWriter( n5File.getAbsolutePath() );
+		WriteSequenceToN5.writeSetupAttributes( n5, 0, MIPMAP_INFO, DataType.UINT16 );
+		final WriteSequenceToN5.N5DatasetIO< UnsignedShortType > io = new WriteSequenceToN5.N5DatasetIO<>( n5, new GzipCompression(), 0, 0, new UnsignedShortType() );
+		if ( copySource != null )
+			io.setCopySource( level -> copySource.createRawBlockReader( 0, 0, level ) );
+		final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+		try
+		{
+			ExportScalePyramid.writeScalePyramid( img, new UnsignedShortType(), MIPMAP_INFO, io, executorService, 2, null, null, new ProgressWriterNull() );
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+	}
+
+	private static List< Path > listBlocks( final File n5File ) throws IOException
+	{
+		final Path root = n5File.toPath();
+		try ( Stream< Path > files = Files.walk( root.resolve( BdvN5Format.getPathName( 0, 0 ) ) ) )
+		{
+			return files
+					.filter( Files::isRegularFile )
+					.filter( file -> !file.getFileName().toString().equals( "attributes.json" ) )
+					.map( root::relativize )
+					.sorted()
+					.collect( Collectors.toList() );
+		}
+	}
+
+	@Test
+	public void testCopyBlocks() throws Exception
+	{
+		final File source = folder.newFolder( "source.n5" );
+		final File target = folder.newFolder( "target.n5" );
+		write( source, img, null );
+
+		// The blocks of both levels are copied from the source, and not
+		// computed from the (non-empty) image given for the resave.
+		final N5ImageLoader loader = new N5ImageLoader( source, TestSequences.singleView( img ) );
+		try
+		{
+			final ArrayImg< UnsignedShortType, ShortArray > ones = ArrayImgs.unsignedShorts( DIMENSIONS );
+			ones.forEach( t -> t.set( 1 ) );
+			write( target, ones, loader );
+		}
+		finally
+		{
+			loader.close();
+		}
+
+		// the same blocks are stored, with identical bytes
+		final List< Path > blocks = listBlocks( source );
+		assertEquals( blocks, listBlocks( target ) );
+		for ( final Path block : blocks )
+			assertArrayEquals( block.toString(),
+					Files.readAllBytes( source.toPath().resolve( block ) ),
+					Files.readAllBytes( target.toPath().resolve( block ) ) );
+
+		// blocks that are missing in the source stay missing
+		final String s0 = BdvN5Format.getPathName( 0, 0, 0 );
+		assertFalse( new File( source, s0 + "/0/0/0" ).exists() );
+		assertFalse( new File( target, s0 + "/0/0/0" ).exists() );
+	}
+}
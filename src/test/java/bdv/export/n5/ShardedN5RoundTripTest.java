@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ExportScalePyramid;
+import bdv.export.ProgressWriterNull;
+import bdv.export.TestSequences;
+import bdv.img.n5.BdvN5Format;
+import bdv.img.n5.N5ImageLoader;
+import bdv.img.n5.N5ShardReads;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Cast;
+import net.imglib2.view.Views;
+
+public class ShardedN5RoundTripTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String PATH = BdvN5Format.getPathName( 0, 0, 0 );
+
+	/**
+	 * 40x20x12 image in blocks of 8x8x4, that is, a grid of 5x3x3 blocks, in
+	 * shards of 2x2x2 blocks, that is, a grid of 3x2x2 shards (partial at the
+	 * border). The 24x16x8 box at the origin is empty, so shard (0,0,0) is
+	 * empty, and shard (1,0,0) contains skipped empty blocks.
+	 */
+	private final ArrayImg< UnsignedShortType, ShortArray > img = TestSequences.createImage( new long[] { 40, 20, 12 }, new long[] { 24, 16, 8 } );
+
+	private File write() throws Exception
+	{
+		final File n5File = folder.getRoot();
+		final N5FSWriter n5 = new N5FSWriter( n5File.getAbsolutePath() );
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 } },
+				new int[][] { { 8, 8, 4 } } );
+		WriteSequenceToN5.writeSetupAttributes( n5, 0, mipmapInfo, DataType.UINT16 );
+		final WriteSequenceToN5.N5DatasetIO< UnsignedShortType > io = new WriteSequenceToN5.N5DatasetIO<>( n5, new GzipCompression(), new int[] { 2, 2, 2 }, 0, 0, new UnsignedShortType() );
+		final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+		try
+		{
+			ExportScalePyramid.writeScalePyramid( img, new UnsignedShortType(), mipmapInfo, io, executorService, 2, null, null, new ProgressWriterNull() );
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+		return n5File;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		final File n5File = write();
+
+		// plain N5 readers don't see a dataset (with missing blocks)
+		final N5FSWriter n5 = new N5FSWriter( n5File.getAbsolutePath() );
+		assertFalse( n5.datasetExists( PATH ) );
+		assertTrue( Arrays.equals( img.dimensionsAsLongArray(), BdvN5Format.getDatasetAttributes( n5, PATH ).getDimensions() ) );
+
+		// shards without stored blocks are omitted
+		final File shards = new File( n5File, PATH + "/" + BdvN5Format.SHARDS_PATH );
+		assertFalse( new File( shards, "0/0/0" ).exists() );
+		assertTrue( new File( shards, "1/0/0" ).exists() );
+		assertTrue( new File( shards, "2/1/1" ).exists() );
+
+		// skipped empty blocks are marked missing in the shard index
+		try ( RandomAccessFile shard = new RandomAccessFile( new File( shards, "1/0/0" ), "r" ) )
+		{
+			// block (2,0,0) is empty, block (3,0,0) is not
+			assertEquals( -1, shard.readLong() );
+			assertEquals( -1, shard.readLong() );
+			assertTrue( shard.readLong() > 0 );
+		}
+
+		// pixels read through N5ImageLoader match
+		final N5ImageLoader loader = new N5ImageLoader( n5File, TestSequences.singleView( img ) );
+		try
+		{
+			final RandomAccessibleInterval< UnsignedShortType > actual = Cast.unchecked( loader.getSetupImgLoader( 0 ).getImage( 0, 0 ) );
+			assertTrue( Arrays.equals( img.dimensionsAsLongArray(), actual.dimensionsAsLongArray() ) );
+			final Cursor< UnsignedShortType > c = Views.flatIterable( actual ).cursor();
+			final Cursor< UnsignedShortType > e = Views.flatIterable( img ).cursor();
+			while ( e.hasNext() )
+				assertEquals( e.next().get(), c.next().get() );
+		}
+		finally
+		{
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testShardOrder() throws Exception
+	{
+		// 64x64x16 image in blocks of 4x4x2, that is, a grid of 16x16x8
+		// blocks, in shards of 4x4x4 blocks. Each plane of blocks touches 16
+		// shards, but blocks are generated shard by shard, so with 2 threads
+		// at most 3 shards are incomplete at any time.
+		final ArrayImg< UnsignedShortType, ShortArray > large = TestSequences.createImage( new long[] { 64, 64, 16 }, new long[] { 0, 0, 0 } );
+		final N5FSWriter n5 = new N5FSWriter( folder.getRoot().getAbsolutePath() );
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 } },
+				new int[][] { { 4, 4, 2 } } );
+		WriteSequenceToN5.writeSetupAttributes( n5, 0, mipmapInfo, DataType.UINT16 );
+		final List< N5ShardWriter > shardWriters = new ArrayList<>();
+		final WriteSequenceToN5.N5DatasetIO< UnsignedShortType > io = new WriteSequenceToN5.N5DatasetIO< UnsignedShortType >( n5, new GzipCompression(), new int[] { 4, 4, 4 }, 0, 0, new UnsignedShortType() )
+		{
+			@Override
+			public WriteSequenceToN5.N5Dataset createDataset( final int level, final long[] dimensions, final int[] blockSize ) throws IOException
+			{
+				final WriteSequenceToN5.N5Dataset dataset = super.createDataset( level, dimensions, blockSize );
+				shardWriters.add( dataset.shardWriter );
+				return dataset;
+			}
+		};
+		final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+		try
+		{
+			ExportScalePyramid.writeScalePyramid( large, new UnsignedShortType(), mipmapInfo, io, executorService, 2, null, null, new ProgressWriterNull() );
+		}
+		finally
+		{
+			executorService.shutdown();
+		}
+		assertEquals( 1, shardWriters.size() );
+		assertTrue( shardWriters.get( 0 ).getMaxNumIncompleteShards() <= 3 );
+		assertTrue( new File( folder.getRoot(), PATH + "/" + BdvN5Format.SHARDS_PATH + "/3/3/1" ).exists() );
+	}
+
+	@Test
+	public void testCoalescedReads() throws Exception
+	{
+		final File n5File = write();
+
+		// the blocks of border shard (1,1,0) are stored one after the other.
+		// requests for 3 of them arrive while the first is read, and are then
+		// served by one read.
+		final List< Integer > reads = N5ShardReads.readConcurrently( new N5FSWriter( n5File.getAbsolutePath() ), PATH,
+				new long[] { 2, 2, 0 },
+				new long[] { 3, 2, 0 },
+				new long[] { 2, 2, 1 },
+				new long[] { 3, 2, 1 } );
+		assertEquals( Arrays.asList( 1, 1 ), reads );
+	}
+}
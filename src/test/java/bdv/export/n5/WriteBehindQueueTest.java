@@ -0,0 +1,157 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.export.n5;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class WriteBehindQueueTest
+{
+	@Test
+	public void testFlushWaitsForAllWrites() throws Exception
+	{
+		final WriteBehindQueue queue = new WriteBehindQueue( 4, 1000 );
+		try
+		{
+			final WriteBehindQueue.Writes writes = queue.newWrites();
+			final AtomicInteger numWritten = new AtomicInteger();
+			for ( int i = 0; i < 100; ++i )
+				writes.submit( 100, () -> {
+					sleep( 1 );
+					numWritten.incrementAndGet();
+				} );
+			writes.flush();
+			assertEquals( 100, numWritten.get() );
+		}
+		finally
+		{
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testBackpressure() throws Exception
+	{
+		final WriteBehindQueue queue = new WriteBehindQueue( 4, 250 );
+		try
+		{
+			final WriteBehindQueue.Writes writes = queue.newWrites();
+			final CountDownLatch release = new CountDownLatch( 1 );
+			final AtomicInteger inFlight = new AtomicInteger();
+			final AtomicInteger maxInFlight = new AtomicInteger();
+			final WriteBehindQueue.Write write = () -> {
+				maxInFlight.accumulateAndGet( inFlight.incrementAndGet(), Math::max );
+				try
+				{
+					release.await( 10, TimeUnit.SECONDS );
+				}
+				catch ( final InterruptedException e )
+				{
+					throw new IOException( e );
+				}
+				inFlight.decrementAndGet();
+			};
+			writes.submit( 100, write );
+			writes.submit( 100, write );
+
+			// the third write doesn't fit into the budget until the first two complete
+			final Thread producer = new Thread( () -> {
+				try
+				{
+					writes.submit( 100, write );
+				}
+				catch ( final IOException e )
+				{
+					throw new RuntimeException( e );
+				}
+			} );
+			producer.start();
+			producer.join( 200 );
+			assertTrue( producer.isAlive() );
+
+			release.countDown();
+			producer.join( 10000 );
+			writes.flush();
+			assertEquals( 2, maxInFlight.get() );
+		}
+		finally
+		{
+			queue.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailureIsReported() throws Exception
+	{
+		final WriteBehindQueue queue = new WriteBehindQueue( 2, 1000 );
+		try
+		{
+			final WriteBehindQueue.Writes failing = queue.newWrites();
+			final WriteBehindQueue.Writes other = queue.newWrites();
+			failing.submit( 10, () -> {
+				throw new IOException( "disk full" );
+			} );
+			other.submit( 10, () -> {} );
+			other.flush();
+			try
+			{
+				failing.flush();
+				fail();
+			}
+			catch ( final IOException e )
+			{
+				assertEquals( "disk full", e.getMessage() );
+			}
+		}
+		finally
+		{
+			queue.shutdown();
+		}
+	}
+
+	private static void sleep( final long millis )
+	{
+		try
+		{
+			Thread.sleep( millis );
+		}
+		catch ( final InterruptedException e )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
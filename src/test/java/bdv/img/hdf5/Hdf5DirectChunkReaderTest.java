@@ -0,0 +1,107 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.janelia.saalfeldlab.n5.DataBlock;
+import org.janelia.saalfeldlab.n5.DataType;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import bdv.export.ExportMipmapInfo;
+import bdv.export.ProgressWriterNull;
+import bdv.export.TestSequences;
+import bdv.export.WriteSequenceToHdf5;
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+
+public class Hdf5DirectChunkReaderTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Write a small deflated BDV HDF5 file, and check that reading its chunks
+	 * directly gives the same blocks as {@code H5Dread}.
+	 */
+	@Test
+	public void testDirectReadsMatchH5Dread() throws Exception
+	{
+		Assume.assumeTrue( "HDF5 bindings don't support direct chunk reads", Hdf5DirectChunkReader.isSupported() );
+
+		final File file = new File( folder.getRoot(), "test.h5" );
+		final ExportMipmapInfo mipmapInfo = new ExportMipmapInfo(
+				new int[][] { { 1, 1, 1 }, { 2, 2, 2 } },
+				new int[][] { { 16, 16, 8 }, { 16, 16, 8 } } );
+		WriteSequenceToHdf5.writeHdf5File(
+				TestSequences.singleView( TestSequences.createImage( new long[] { 70, 50, 20 }, new long[] { 16, 16, 8 } ) ),
+				Collections.singletonMap( 0, mipmapInfo ),
+				true, file, null, null, 1, new ProgressWriterNull() );
+
+		final HDF5Access access = new HDF5Access( HDF5Factory.openForReading( file ), false );
+		final Hdf5DirectChunkReader direct = new Hdf5DirectChunkReader( access, file );
+		try
+		{
+			final long memTypeId = Util.memTypeId( DataType.UINT16 );
+			for ( int level = 0; level < 2; ++level )
+			{
+				final String pathName = Util.getCellsPath( 0, 0, level );
+				final DimsAndExistence dims = access.getDimsAndExistence( pathName );
+				final CellGrid grid = new CellGrid( dims.getDimensions(), dims.getBlockSize() );
+				final long[] gridPosition = new long[ 3 ];
+				final long[] min = new long[ 3 ];
+				final int[] size = new int[ 3 ];
+				final long numCells = Intervals.numElements( grid.getGridDimensions() );
+				for ( long i = 0; i < numCells; ++i )
+				{
+					grid.getCellGridPositionFlat( i, gridPosition );
+					grid.getCellDimensions( gridPosition, min, size );
+					final DataBlock< ? > expected = access.readBlock( pathName, DataType.UINT16, memTypeId, size, min );
+					final DataBlock< ? > actual = direct.readBlock( pathName, DataType.UINT16, memTypeId, size, min );
+					assertNotNull( actual );
+					assertArrayEquals( gridPosition, actual.getGridPosition() );
+					assertArrayEquals( ( short[] ) expected.getData(), ( short[] ) actual.getData() );
+				}
+			}
+		}
+		finally
+		{
+			direct.close();
+			access.close();
+		}
+	}
+}
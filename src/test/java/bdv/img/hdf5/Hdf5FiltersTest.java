@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.hdf5;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+
+public class Hdf5FiltersTest
+{
+	@Test
+	public void testUnshuffle()
+	{
+		final byte[] shuffled = { 1, 3, 5, 2, 4, 6, 7 };
+		final byte[] expected = { 1, 2, 3, 4, 5, 6, 7 };
+		assertArrayEquals( expected, Hdf5Filters.unshuffle( shuffled, 2 ) );
+	}
+
+	@Test
+	public void testScaleOffset() throws Exception
+	{
+		// minbits = 3, minval = 10, offsets 0, 1, 7, 5 packed msb first
+		final byte[] data = new byte[ 23 ];
+		data[ 0 ] = 3;
+		data[ 4 ] = 8;
+		data[ 5 ] = 10;
+		data[ 21 ] = 0x07;
+		data[ 22 ] = ( byte ) 0xd0;
+
+		final int[] cdValues = new int[ 20 ];
+		cdValues[ 0 ] = 2; // integer scale type
+		cdValues[ 4 ] = 2; // element size
+		assertArrayEquals( new byte[] { 10, 0, 11, 0, 17, 0, 15, 0 }, Hdf5Filters.decodeScaleOffset( data, cdValues, 4 ) );
+
+		cdValues[ 7 ] = 1; // fill value available
+		cdValues[ 8 ] = 300;
+		assertArrayEquals( new byte[] { 10, 0, 11, 0, 44, 1, 15, 0 }, Hdf5Filters.decodeScaleOffset( data, cdValues, 4 ) );
+	}
+
+	@Test
+	public void testDecodePipeline() throws Exception
+	{
+		final byte[] raw = new byte[ 64 ];
+		for ( int i = 0; i < raw.length; ++i )
+			raw[ i ] = ( byte ) ( i / 3 );
+
+		// shuffle then deflate
+		final byte[] shuffled = new byte[ raw.length ];
+		for ( int i = 0; i < raw.length / 4; ++i )
+			for ( int b = 0; b < 4; ++b )
+				shuffled[ b * ( raw.length / 4 ) + i ] = raw[ i * 4 + b ];
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try ( DeflaterOutputStream out = new DeflaterOutputStream( bytes, new Deflater( 6 ) ) )
+		{
+			out.write( shuffled );
+		}
+
+		final int[] filters = { Hdf5Filters.SHUFFLE, Hdf5Filters.DEFLATE };
+		final int[][] cdValues = { { 4 }, { 6 } };
+		assertArrayEquals( raw, Hdf5Filters.decode( bytes.toByteArray(), filters, cdValues, 0, 4, 16 ) );
+
+		// deflate skipped for this chunk
+		assertArrayEquals( raw, Hdf5Filters.decode( shuffled, filters, cdValues, 0b10, 4, 16 ) );
+	}
+
+	@Test
+	public void testCrop()
+	{
+		// 2x3 chunk (zyx order), crop to 2x2
+		final byte[] chunk = { 1, 2, 3, 4, 5, 6 };
+		assertArrayEquals( new byte[] { 1, 2, 4, 5 }, Hdf5DirectChunkReader.crop( chunk, new int[] { 2, 3 }, new int[] { 2, 2 }, 1 ) );
+		assertArrayEquals( new byte[] { 1, 2, 3 }, Hdf5DirectChunkReader.crop( chunk, new int[] { 2, 3 }, new int[] { 1, 3 }, 1 ) );
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.n5;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.GsonKeyValueN5Reader;
+
+/**
+ * Observe how {@link N5ShardReader} reads blocks from shard files. (Test
+ * helper for tests outside this package.)
+ */
+public class N5ShardReads
+{
+	/**
+	 * Read the blocks at {@code gridPositions} of sharded dataset
+	 * {@code pathName} concurrently, such that the requests for all but the
+	 * first block arrive while the first block is being read.
+	 *
+	 * @return for each read from a shard file (excluding shard index reads),
+	 *         the number of byte ranges that were read.
+	 */
+	public static List< Integer > readConcurrently( final GsonKeyValueN5Reader n5, final String pathName, final long[]... gridPositions ) throws Exception
+	{
+		final DatasetAttributes attributes = BdvN5Format.getDatasetAttributes( n5, pathName );
+		final int[] blocksPerShard = n5.getAttribute( pathName, BdvN5Format.BLOCKS_PER_SHARD_KEY, int[].class );
+
+		final List< Integer > reads = new ArrayList<>();
+		final CountDownLatch firstReadStarted = new CountDownLatch( 1 );
+		final CountDownLatch releaseFirstRead = new CountDownLatch( 1 );
+		final N5ShardReader reader = N5ShardReader.create( n5, pathName, attributes, blocksPerShard, storage -> new N5ShardReader.Storage()
+		{
+			@Override
+			public boolean exists( final String shardPath ) throws IOException
+			{
+				return storage.exists( shardPath );
+			}
+
+			@Override
+			public void read( final String shardPath, final List< N5ShardReader.Range > ranges ) throws IOException
+			{
+				final boolean isIndex = ranges.size() == 1 && ranges.get( 0 ).offset == 0;
+				if ( !isIndex )
+				{
+					final boolean first;
+					synchronized ( reads )
+					{
+						first = reads.isEmpty();
+						reads.add( ranges.size() );
+					}
+					if ( first )
+					{
+						firstReadStarted.countDown();
+						try
+						{
+							releaseFirstRead.await();
+						}
+						catch ( final InterruptedException e )
+						{
+							throw new IOException( e );
+						}
+					}
+				}
+				storage.read( shardPath, ranges );
+			}
+		} );
+
+		final List< Thread > threads = new ArrayList<>();
+		for ( final long[] gridPosition : gridPositions )
+		{
+			final Thread thread = new Thread( () -> {
+				try
+				{
+					reader.readBlockBytes( gridPosition );
+				}
+				catch ( final IOException e )
+				{
+					throw new UncheckedIOException( e );
+				}
+			} );
+			threads.add( thread );
+		}
+
+		// start the first read, and wait until it is in progress
+		threads.get( 0 ).start();
+		firstReadStarted.await();
+
+		// queue the other requests behind it
+		for ( int i = 1; i < threads.size(); ++i )
+		{
+			final Thread thread = threads.get( i );
+			thread.start();
+			while ( thread.isAlive() && thread.getState() != Thread.State.WAITING )
+				Thread.sleep( 1 );
+		}
+
+		releaseFirstRead.countDown();
+		for ( final Thread thread : threads )
+			thread.join();
+		return reads;
+	}
+}
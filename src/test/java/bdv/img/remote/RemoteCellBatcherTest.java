@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * BigDataViewer core classes with minimal dependencies.
+ * %%
+ * Copyright (C) 2012 - 2026 BigDataViewer developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package bdv.img.remote;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class RemoteCellBatcherTest
+{
+	private HttpServer server;
+
+	private String baseUrl;
+
+	/**
+	 * Number of {@code cells/} requests that the server answers with
+	 * {@code 503 Service Unavailable} before answering them normally.
+	 */
+	private final AtomicInteger unavailableBatches = new AtomicInteger();
+
+	/**
+	 * Start a stand-in server that answers {@code cell/} requests, and
+	 * {@code cells/} requests if {@code supportBatches}. Cell data is filled
+	 * with the cell index. Cells are encoded if requested with {@code &e=}.
+	 */
+	private void startServer( final boolean supportBatches ) throws IOException
+	{
+		server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		server.createContext( "/", exchange -> {
+			final String[] params = exchange.getRequestURI().getQuery().split( "&" );
+			final String[] parts = params[ 0 ].substring( params[ 0 ].indexOf( '=' ) + 1 ).split( "/" );
+			final CellEncoding encoding = params.length > 1
+					? CellEncoding.forName( params[ 1 ].substring( params[ 1 ].indexOf( '=' ) + 1 ) )
+					: CellEncoding.RAW;
+			if ( parts[ 0 ].equals( "cell" ) )
+				respond( exchange, cellData( parts, 1, encoding ) );
+			else if ( parts[ 0 ].equals( "cells" ) && unavailableBatches.getAndUpdate( n -> Math.max( 0, n - 1 ) ) > 0 )
+			{
+				exchange.sendResponseHeaders( 503, -1 );
+				exchange.close();
+			}
+			else if ( parts[ 0 ].equals( "cells" ) && supportBatches )
+			{
+				final int n = Integer.parseInt( parts[ 1 ] );
+				final List< byte[] > cells = new ArrayList<>();
+				int size = 0;
+				for ( int i = 0; i < n; ++i )
+				{
+					final byte[] cell = cellData( parts, 2 + 10 * i, encoding );
+					cells.add( cell );
+					size += cell.length;
+				}
+				final ByteBuffer buf = ByteBuffer.allocate( size );
+				cells.forEach( buf::put );
+				respond( exchange, buf.array() );
+			}
+			else
+			{
+				exchange.sendResponseHeaders( 400, -1 );
+				exchange.close();
+			}
+		} );
+		server.setExecutor( Executors.newFixedThreadPool( 4 ) );
+		server.start();
+		baseUrl = "http://localhost:" + server.getAddress().getPort() + "/";
+	}
+
+	private static byte[] cellData( final String[] parts, final int offset, final CellEncoding encoding )
+	{
+		final short index = Short.parseShort( parts[ offset ] );
+		final int n = Integer.parseInt( parts[ offset + 4 ] ) * Integer.parseInt( parts[ offset + 5 ] ) * Integer.parseInt( parts[ offset + 6 ] );
+		final short[] data = new short[ n ];
+		Arrays.fill( data, index );
+		final byte[] encoded = encoding.encode( data );
+		if ( encoding == CellEncoding.RAW )
+			return encoded;
+		final ByteBuffer buf = ByteBuffer.allocate( 4 + encoded.length );
+		buf.putInt( encoded.length );
+		buf.put( encoded );
+		return buf.array();
+	}
+
+	private static void respond( final HttpExchange exchange, final byte[] data ) throws IOException
+	{
+		exchange.sendResponseHeaders( 200, data.length );
+		try ( OutputStream out = exchange.getResponseBody() )
+		{
+			out.write( data );
+		}
+	}
+
+	@After
+	public void stopServer()
+	{
+		if ( server != null )
+			server.stop( 0 );
+	}
+
+	private List< short[] > loadConcurrently( final RemoteCellBatcher batcher, final int numCells ) throws Exception
+	{
+		final ExecutorService executor = Executors.newFixedThreadPool( 16 );
+		final List< Future< short[] > > futures = new ArrayList<>();
+		for ( int i = 0; i < numCells; ++i )
+		{
+			final int index = i;
+			futures.add( executor.submit( () -> batcher.load( index, 0, 0, 0, new int[] { 4, 3, 2 }, new long[] { 4 * index, 0, 0 } ) ) );
+		}
+		final List< short[] > result = new ArrayList<>();
+		for ( final Future< short[] > future : futures )
+			result.add( future.get() );
+		executor.shutdown();
+		executor.awaitTermination( 1, TimeUnit.SECONDS );
+		return result;
+	}
+
+	private static void assertCells( final List< short[] > cells )
+	{
+		for ( int i = 0; i < cells.size(); ++i )
+		{
+			final short[] expected = new short[ 24 ];
+			Arrays.fill( expected, ( short ) i );
+			assertArrayEquals( expected, cells.get( i ) );
+		}
+	}
+
+	@Test
+	public void testBatches() throws Exception
+	{
+		startServer( true );
+		final RemoteCellBatcher batcher = new RemoteCellBatcher( baseUrl, 64, 1 );
+		final int numCells = 200;
+		assertCells( loadConcurrently( batcher, numCells ) );
+		assertTrue( batcher.isBatching() );
+		assertTrue( batcher.getNumHttpRequests() < numCells );
+	}
+
+	@Test
+	public void testEncodedBatches() throws Exception
+	{
+		startServer( true );
+		final RemoteCellBatcher batcher = new RemoteCellBatcher( baseUrl, 64, 1 );
+		batcher.setEncoding( CellEncoding.DELTA_DEFLATE );
+		assertCells( loadConcurrently( batcher, 200 ) );
+		assertTrue( batcher.isBatching() );
+	}
+
+	@Test
+	public void testEncodingRoundTrip() throws Exception
+	{
+		final short[] data = new short[ 64 * 64 ];
+		for ( int i = 0; i < data.length; ++i )
+			data[ i ] = ( short ) ( 40000 + 3 * ( i % 64 ) + ( i / 64 ) );
+		for ( final CellEncoding encoding : CellEncoding.values() )
+			assertArrayEquals( data, encoding.decode( encoding.encode( data ), data.length ) );
+		assertTrue( CellEncoding.DELTA_DEFLATE.encode( data ).length < CellEncoding.DEFLATE.encode( data ).length );
+		assertTrue( CellEncoding.DELTA_LZ4.encode( data ).length < CellEncoding.LZ4.encode( data ).length );
+
+		assertEquals( CellEncoding.RAW, CellEncoding.negotiate( null ) );
+		assertEquals( CellEncoding.DEFLATE, CellEncoding.negotiate( new String[] { "lz4", "deflate" } ) );
+		assertEquals( CellEncoding.DELTA_DEFLATE, CellEncoding.negotiate( new String[] { "deflate", "delta-deflate" } ) );
+		assertEquals( CellEncoding.LZ4, CellEncoding.negotiate( new String[] { "lz4" } ) );
+		assertEquals( CellEncoding.DELTA_LZ4, CellEncoding.negotiate( new String[] { "lz4", "delta-lz4" } ) );
+	}
+
+	@Test
+	public void testTransientBatchFailure() throws Exception
+	{
+		startServer( true );
+		unavailableBatches.set( 1 );
+		final RemoteCellBatcher batcher = new RemoteCellBatcher( baseUrl, 64, 1 );
+		final int numCells = 200;
+		assertCells( loadConcurrently( batcher, numCells ) );
+		assertEquals( 0, unavailableBatches.get() );
+		assertTrue( batcher.isBatching() );
+		assertTrue( batcher.getNumHttpRequests() < numCells );
+	}
+
+	@Test
+	public void testFallbackToSingleCells() throws Exception
+	{
+		startServer( false );
+		final RemoteCellBatcher batcher = new RemoteCellBatcher( baseUrl, 64, 1 );
+		assertCells( loadConcurrently( batcher, 100 ) );
+		assertFalse( batcher.isBatching() );
+	}
+}